@@ -36,7 +36,12 @@ import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.SmsApplication;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -1826,6 +1831,22 @@ public final class Telephony {
         private Threads() {
         }
 
+        /**
+         * Returns the recipients the way the provider matches them: email addresses reduced
+         * to their addr-spec, in a fixed order since the order doesn't matter.
+         */
+        private static List<String> normalizeRecipients(Set<String> recipients) {
+            List<String> normalized = new ArrayList<String>(recipients.size());
+            for (String recipient : recipients) {
+                if (Mms.isEmailAddress(recipient)) {
+                    recipient = Mms.extractAddrSpec(recipient);
+                }
+                normalized.add(recipient);
+            }
+            Collections.sort(normalized);
+            return normalized;
+        }
+
         /**
          * This is a single-recipient version of {@code getOrCreateThreadId}.
          * It's convenient for use with SMS messages.
@@ -1853,13 +1874,38 @@ public final class Telephony {
          */
         public static long getOrCreateThreadId(
                 Context context, Set<String> recipients) {
-            Uri.Builder uriBuilder = THREAD_ID_CONTENT_URI.buildUpon();
+            return queryThreadId(context, normalizeRecipients(recipients));
+        }
 
-            for (String recipient : recipients) {
-                if (Mms.isEmailAddress(recipient)) {
-                    recipient = Mms.extractAddrSpec(recipient);
+        /**
+         * Returns the thread IDs of many recipient sets, as {@code getOrCreateThreadId} would
+         * one at a time. Each distinct set of recipients is looked up once.
+         *
+         * @param context the context object to use.
+         * @param recipientSets the recipients of each message.
+         * @return the thread ID of each recipient set, in the same order.
+         * @hide
+         */
+        public static long[] getOrCreateThreadIds(Context context,
+                List<Set<String>> recipientSets) {
+            long[] threadIds = new long[recipientSets.size()];
+            Map<List<String>, Long> resolved = new HashMap<List<String>, Long>();
+            for (int i = 0; i < threadIds.length; i++) {
+                List<String> normalized = normalizeRecipients(recipientSets.get(i));
+                Long threadId = resolved.get(normalized);
+                if (threadId == null) {
+                    threadId = queryThreadId(context, normalized);
+                    resolved.put(normalized, threadId);
                 }
+                threadIds[i] = threadId;
+            }
+            return threadIds;
+        }
 
+        private static long queryThreadId(Context context, List<String> recipients) {
+            Uri.Builder uriBuilder = THREAD_ID_CONTENT_URI.buildUpon();
+
+            for (String recipient : recipients) {
                 uriBuilder.appendQueryParameter("recipient", recipient);
             }
 
@@ -828,4 +828,8 @@ public abstract class BaseCommands implements CommandsInterface {
     @Override
     public void requestShutdown(Message result) {
     }
+
+    @Override
+    public void cancelRequest(Message result) {
+    }
 }
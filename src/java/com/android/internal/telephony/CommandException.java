@@ -45,6 +45,8 @@ public class CommandException extends RuntimeException {
         MISSING_RESOURCE,
         NO_SUCH_ELEMENT,
         SUBSCRIPTION_NOT_SUPPORTED,
+        // Not a RIL errno: the request wasn't answered before its deadline
+        TIMEOUT,
     }
 
     public CommandException(Error e) {
@@ -1904,4 +1904,13 @@ public interface CommandsInterface {
      * @param result Callback message contains the information of SUCCESS/FAILURE
      */
     public void requestShutdown(Message result);
+
+    /**
+     * Cancels a request when its result is no longer needed. A request that
+     * hasn't been sent to the modem is dropped; otherwise its response is
+     * ignored. The result message is not sent.
+     *
+     * @param result The callback message the request was made with
+     */
+    public void cancelRequest(Message result);
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+/**
+ * Fixed-size Bloom filter of MMS content locations, used by {@link WapPushOverSms} to skip the
+ * MMS provider query for notifications that can't be duplicates. A negative answer is exact;
+ * a positive answer must be confirmed against the provider.
+ *
+ * <p>Once more than {@link #getCapacity} locations have been added, the false positive rate
+ * rises above the design rate and {@link #isSaturated} returns true so the caller can rebuild
+ * the filter from the provider. The caller sizes the new filter with {@link #capacityFor}, so
+ * that it has room to grow and isn't saturated again until the locations have doubled.
+ *
+ * <p>This class is thread-safe.
+ */
+final class ContentLocationBloomFilter {
+
+    /** Default and minimum number of locations the filter is sized for. */
+    static final int DEFAULT_CAPACITY = 8192;
+
+    /** Bits per location; with 4 hashes this gives about a 1% false positive rate. */
+    private static final int BITS_PER_ENTRY = 10;
+
+    private static final int HASH_COUNT = 4;
+
+    private final long[] mBits;
+    private final int mBitCount;
+    private final int mCapacity;
+    private int mEntryCount;
+
+    // statistics
+    private int mCheckCount;
+    private int mPossibleHitCount;
+    private int mDuplicateCount;
+    private int mFalsePositiveCount;
+
+    ContentLocationBloomFilter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a filter sized for {@code capacity} locations.
+     * @param capacity the number of locations to size the filter for
+     */
+    ContentLocationBloomFilter(int capacity) {
+        mCapacity = capacity;
+        mBitCount = Math.max(64, capacity * BITS_PER_ENTRY);
+        mBits = new long[(mBitCount + 63) >>> 6];
+    }
+
+    /**
+     * Return the capacity of a filter for {@code count} locations, with room for as many more.
+     */
+    static int capacityFor(int count) {
+        // the bit count must not overflow
+        return (int) Math.max(DEFAULT_CAPACITY,
+                Math.min(count * 2L, Integer.MAX_VALUE / BITS_PER_ENTRY));
+    }
+
+    /**
+     * Add a content location.
+     * @param location the content location of a stored notification
+     */
+    synchronized void add(String location) {
+        int h1 = location.hashCode();
+        int h2 = secondaryHash(location);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = bitIndex(h1 + i * h2);
+            mBits[bit >>> 6] |= 1L << bit;
+        }
+        mEntryCount++;
+    }
+
+    /**
+     * Check whether a content location may have been added. Counts the check in the filter
+     * statistics.
+     * @param location the content location of a received notification
+     * @return false if the location was definitely never added
+     */
+    synchronized boolean mightContain(String location) {
+        mCheckCount++;
+        int h1 = location.hashCode();
+        int h2 = secondaryHash(location);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = bitIndex(h1 + i * h2);
+            if ((mBits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        mPossibleHitCount++;
+        return true;
+    }
+
+    /**
+     * Record the provider's answer for a location that {@link #mightContain} matched.
+     * @param duplicate true if the provider has the location; false for a false positive
+     */
+    synchronized void recordConfirmation(boolean duplicate) {
+        if (duplicate) {
+            mDuplicateCount++;
+        } else {
+            mFalsePositiveCount++;
+        }
+    }
+
+    /** Remove all locations, keeping the statistics. */
+    synchronized void clear() {
+        for (int i = 0; i < mBits.length; i++) {
+            mBits[i] = 0;
+        }
+        mEntryCount = 0;
+    }
+
+    /** Return true if more locations than the filter was sized for have been added. */
+    synchronized boolean isSaturated() {
+        return mEntryCount > mCapacity;
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    synchronized int getEntryCount() {
+        return mEntryCount;
+    }
+
+    synchronized int getCheckCount() {
+        return mCheckCount;
+    }
+
+    synchronized int getPossibleHitCount() {
+        return mPossibleHitCount;
+    }
+
+    synchronized int getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    synchronized int getFalsePositiveCount() {
+        return mFalsePositiveCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ContentLocationBloomFilter{entries=" + mEntryCount + "/" + mCapacity
+                + " checks=" + mCheckCount + " possibleHits=" + mPossibleHitCount
+                + " duplicates=" + mDuplicateCount + " falsePositives=" + mFalsePositiveCount
+                + '}';
+    }
+
+    private int bitIndex(int hash) {
+        return (hash & Integer.MAX_VALUE) % mBitCount;
+    }
+
+    /** FNV-1a over the UTF-16 code units, independent of String.hashCode(). */
+    private static int secondaryHash(String s) {
+        int hash = 0x811c9dc5;
+        for (int i = 0, length = s.length(); i < length; i++) {
+            char c = s.charAt(i);
+            hash = (hash ^ (c & 0xff)) * 0x01000193;
+            hash = (hash ^ (c >>> 8)) * 0x01000193;
+        }
+        // an odd step visits different bits for each of the hash functions
+        return hash | 1;
+    }
+}
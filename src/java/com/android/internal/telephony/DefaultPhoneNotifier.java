@@ -19,11 +19,13 @@ package com.android.internal.telephony;
 import android.net.LinkProperties;
 import android.net.NetworkCapabilities;
 import android.os.Bundle;
+import android.os.Looper;
 import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.telephony.CellInfo;
 import android.telephony.DataConnectionRealTimeInfo;
 import android.telephony.Rlog;
+import android.telephony.SignalStrength;
 import android.telephony.VoLteServiceState;
 import android.telephony.ServiceState;
 import android.telephony.SubscriptionManager;
@@ -37,6 +39,8 @@ import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.ITelephonyRegistry;
 import com.android.internal.telephony.PhoneConstants;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -48,104 +52,152 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
 
     protected ITelephonyRegistry mRegistry;
 
+    /** Suppresses unchanged notifications and coalesces bursts before they reach mRegistry. */
+    private final PhoneNotificationPublisher mPublisher;
+
     /*package*/
     protected DefaultPhoneNotifier() {
         mRegistry = ITelephonyRegistry.Stub.asInterface(ServiceManager.getService(
                     "telephony.registry"));
+        mPublisher = new PhoneNotificationPublisher(Looper.getMainLooper());
     }
 
     @Override
     public void notifyPhoneState(Phone sender) {
         Call ringingCall = sender.getRingingCall();
-        long subId = sender.getSubId();
+        final long subId = sender.getSubId();
         String incomingNumber = "";
         if (ringingCall != null && ringingCall.getEarliestConnection() != null){
             incomingNumber = ringingCall.getEarliestConnection().getAddress();
         }
-        try {
-            if (mRegistry != null) {
-                  mRegistry.notifyCallStateForSubscriber(subId,
-                        convertCallState(sender.getState()), incomingNumber);
+        final int callState = convertCallState(sender.getState());
+        final String number = incomingNumber;
+        mPublisher.publish(PhoneNotificationPublisher.KIND_CALL_STATE, sender.getPhoneId(),
+                subId, null, Arrays.asList(callState, number), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mRegistry != null) {
+                        mRegistry.notifyCallStateForSubscriber(subId, callState, number);
+                    }
+                } catch (RemoteException ex) {
+                    // system process is dead
+                }
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
     public void notifyServiceState(Phone sender) {
         ServiceState ss = sender.getServiceState();
-        int phoneId = sender.getPhoneId();
-        long subId = sender.getSubId();
+        final int phoneId = sender.getPhoneId();
+        final long subId = sender.getSubId();
 
         Rlog.d(LOG_TAG, "nofityServiceState: mRegistry=" + mRegistry + " ss=" + ss
                 + " sender=" + sender + " phondId=" + phoneId + " subId=" + subId);
+        // copy, since the tracker may update its service state in place
+        final ServiceState snapshot;
         if (ss == null) {
-            ss = new ServiceState();
-            ss.setStateOutOfService();
+            snapshot = new ServiceState();
+            snapshot.setStateOutOfService();
+        } else {
+            snapshot = new ServiceState(ss);
         }
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyServiceStateForPhoneId(phoneId, subId, ss);
+        mPublisher.publish(PhoneNotificationPublisher.KIND_SERVICE_STATE, phoneId, subId, null,
+                snapshot, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mRegistry != null) {
+                        mRegistry.notifyServiceStateForPhoneId(phoneId, subId, snapshot);
+                    }
+                } catch (RemoteException ex) {
+                    // system process is dead
+                }
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
     public void notifySignalStrength(Phone sender) {
-        long subId = sender.getSubId();
+        final long subId = sender.getSubId();
+        SignalStrength ss = sender.getSignalStrength();
         Rlog.d(LOG_TAG, "notifySignalStrength: mRegistry=" + mRegistry
-                + " ss=" + sender.getSignalStrength() + " sender=" + sender);
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifySignalStrengthForSubscriber(subId, sender.getSignalStrength());
+                + " ss=" + ss + " sender=" + sender);
+        final SignalStrength snapshot = (ss != null) ? new SignalStrength(ss) : null;
+        // signal strength is reported often; only the latest in a burst is sent
+        mPublisher.publishCoalesced(PhoneNotificationPublisher.KIND_SIGNAL_STRENGTH,
+                sender.getPhoneId(), subId, null, snapshot, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mRegistry != null) {
+                        mRegistry.notifySignalStrengthForSubscriber(subId, snapshot);
+                    }
+                } catch (RemoteException ex) {
+                    // system process is dead
+                }
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
     public void notifyMessageWaitingChanged(Phone sender) {
-        int phoneId = sender.getPhoneId();
-        long subId = sender.getSubId();
-
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyMessageWaitingChangedForPhoneId(phoneId, subId,
-                        sender.getMessageWaitingIndicator());
+        final int phoneId = sender.getPhoneId();
+        final long subId = sender.getSubId();
+        final boolean mwi = sender.getMessageWaitingIndicator();
+
+        mPublisher.publish(PhoneNotificationPublisher.KIND_MESSAGE_WAITING, phoneId, subId, null,
+                mwi, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mRegistry != null) {
+                        mRegistry.notifyMessageWaitingChangedForPhoneId(phoneId, subId, mwi);
+                    }
+                } catch (RemoteException ex) {
+                    // system process is dead
+                }
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
     public void notifyCallForwardingChanged(Phone sender) {
-        long subId = sender.getSubId();
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyCallForwardingChangedForSubscriber(subId,
-                        sender.getCallForwardingIndicator());
+        final long subId = sender.getSubId();
+        final boolean cfi = sender.getCallForwardingIndicator();
+        mPublisher.publish(PhoneNotificationPublisher.KIND_CALL_FORWARDING, sender.getPhoneId(),
+                subId, null, cfi, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mRegistry != null) {
+                        mRegistry.notifyCallForwardingChangedForSubscriber(subId, cfi);
+                    }
+                } catch (RemoteException ex) {
+                    // system process is dead
+                }
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
     public void notifyDataActivity(Phone sender) {
-        long subId = sender.getSubId();
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyDataActivityForSubscriber(subId,
-                        convertDataActivityState(sender.getDataActivityState()));
+        final long subId = sender.getSubId();
+        final int activity = convertDataActivityState(sender.getDataActivityState());
+        mPublisher.publish(PhoneNotificationPublisher.KIND_DATA_ACTIVITY, sender.getPhoneId(),
+                subId, null, activity, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mRegistry != null) {
+                        mRegistry.notifyDataActivityForSubscriber(subId, activity);
+                    }
+                } catch (RemoteException ex) {
+                    // system process is dead
+                }
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
@@ -154,9 +206,9 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
         doNotifyDataConnection(sender, reason, apnType, state);
     }
 
-    private void doNotifyDataConnection(Phone sender, String reason, String apnType,
+    private void doNotifyDataConnection(Phone sender, final String reason, final String apnType,
             PhoneConstants.DataState state) {
-        long subId = sender.getSubId();
+        final long subId = sender.getSubId();
         long dds = SubscriptionManager.getDefaultDataSubId();
         if (DBG) log("subId = " + subId + ", DDS = " + dds);
 
@@ -175,22 +227,37 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
         ServiceState ss = sender.getServiceState();
         if (ss != null) roaming = ss.getRoaming();
 
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyDataConnectionForSubscriber(subId,
-                    convertDataState(state),
-                    sender.isDataConnectivityPossible(apnType), reason,
-                    sender.getActiveApnHost(apnType),
-                    apnType,
-                    linkProperties,
-                    networkCapabilities,
-                    ((telephony!=null) ? telephony.getNetworkType() :
-                    TelephonyManager.NETWORK_TYPE_UNKNOWN),
-                    roaming);
+        final int dataState = convertDataState(state);
+        final boolean isDataConnectivityPossible = sender.isDataConnectivityPossible(apnType);
+        final String apn = sender.getActiveApnHost(apnType);
+        final LinkProperties lp = linkProperties;
+        final NetworkCapabilities nc = networkCapabilities;
+        final int networkType = (telephony != null) ? telephony.getNetworkType() :
+                TelephonyManager.NETWORK_TYPE_UNKNOWN;
+        final boolean isRoaming = roaming;
+        // each APN type is reported separately, so only repeats for the same type are dropped
+        mPublisher.publish(PhoneNotificationPublisher.KIND_DATA_CONNECTION, sender.getPhoneId(),
+                subId, apnType, Arrays.asList(dataState, isDataConnectivityPossible, reason, apn,
+                        lp, nc, networkType, isRoaming), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mRegistry != null) {
+                        mRegistry.notifyDataConnectionForSubscriber(subId,
+                            dataState,
+                            isDataConnectivityPossible, reason,
+                            apn,
+                            apnType,
+                            lp,
+                            nc,
+                            networkType,
+                            isRoaming);
+                    }
+                } catch (RemoteException ex) {
+                    // system process is dead
+                }
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
@@ -221,14 +288,22 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
 
     @Override
     public void notifyCellInfo(Phone sender, List<CellInfo> cellInfo) {
-        long subId = sender.getSubId();
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyCellInfoForSubscriber(subId, cellInfo);
+        final long subId = sender.getSubId();
+        final List<CellInfo> snapshot =
+                (cellInfo != null) ? new ArrayList<CellInfo>(cellInfo) : null;
+        mPublisher.publishCoalesced(PhoneNotificationPublisher.KIND_CELL_INFO, sender.getPhoneId(),
+                subId, null, snapshot, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mRegistry != null) {
+                        mRegistry.notifyCellInfoForSubscriber(subId, snapshot);
+                    }
+                } catch (RemoteException ex) {
+
+                }
             }
-        } catch (RemoteException ex) {
-
-        }
+        });
     }
 
     @Override
@@ -259,14 +334,23 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
         Call foregroundCall = sender.getForegroundCall();
         Call backgroundCall = sender.getBackgroundCall();
         if (ringingCall != null && foregroundCall != null && backgroundCall != null) {
-            try {
-                mRegistry.notifyPreciseCallState(
-                        convertPreciseCallState(ringingCall.getState()),
-                        convertPreciseCallState(foregroundCall.getState()),
-                        convertPreciseCallState(backgroundCall.getState()));
-            } catch (RemoteException ex) {
-                // system process is dead
-            }
+            final int ringingCallState = convertPreciseCallState(ringingCall.getState());
+            final int foregroundCallState = convertPreciseCallState(foregroundCall.getState());
+            final int backgroundCallState = convertPreciseCallState(backgroundCall.getState());
+            mPublisher.publish(PhoneNotificationPublisher.KIND_PRECISE_CALL_STATE,
+                    sender.getPhoneId(), sender.getSubId(), null,
+                    Arrays.asList(ringingCallState, foregroundCallState, backgroundCallState),
+                    new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mRegistry.notifyPreciseCallState(ringingCallState, foregroundCallState,
+                                backgroundCallState);
+                    } catch (RemoteException ex) {
+                        // system process is dead
+                    }
+                }
+            });
         }
     }
 
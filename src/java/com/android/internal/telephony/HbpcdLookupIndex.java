@@ -0,0 +1,448 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+import android.util.SparseArray;
+
+import com.android.internal.telephony.HbpcdLookup.ArbitraryMccSidMatch;
+import com.android.internal.telephony.HbpcdLookup.MccIdd;
+import com.android.internal.telephony.HbpcdLookup.MccLookup;
+import com.android.internal.telephony.HbpcdLookup.MccSidConflicts;
+import com.android.internal.telephony.HbpcdLookup.MccSidRange;
+
+import java.util.ArrayList;
+
+/**
+ * Immutable in-memory copy of the HbpcdLookup tables used by {@link SmsNumberUtils} and
+ * {@link HbpcdUtils}. The tables are read from the provider once, then country codes are
+ * matched with a digit trie and IDDs and SID ranges are found with array lookups, so number
+ * conversion doesn't need a provider query or any substring allocation.
+ *
+ * <p>If the provider can't be read, the partially loaded index is returned and kept until a
+ * retry time, so that callers don't query every table again on each lookup. The delay before
+ * the next retry doubles after each failed load, up to {@link #MAX_RETRY_DELAY_MS}.
+ */
+final class HbpcdLookupIndex {
+    private static final String LOG_TAG = "HbpcdLookupIndex";
+    private static final boolean DBG = false;
+
+    /** MCCs are three decimal digits. */
+    private static final int MCC_COUNT = 1000;
+
+    /** CDMA system identifiers are 15-bit values. */
+    private static final int SID_COUNT = 1 << 15;
+
+    private static final String[] NO_IDDS = new String[0];
+
+    /** Delay before the first retry of a failed load. */
+    static final long MIN_RETRY_DELAY_MS = 60 * 1000;
+
+    /** Longest delay between retries of a failed load. */
+    static final long MAX_RETRY_DELAY_MS = 60 * 60 * 1000;
+
+    private static HbpcdLookupIndex sInstance;
+
+    // The partial index of the last failed load, returned until sRetryTime
+    private static HbpcdLookupIndex sFailedInstance;
+    private static long sRetryTime;
+    private static long sRetryDelayMs = MIN_RETRY_DELAY_MS;
+
+    /**
+     * Country code digit trie. Node 0 is the root; the child of node n for digit d is
+     * {@code mTrieChildren[n * 10 + d]}, or 0 if there is none.
+     */
+    private int[] mTrieChildren = new int[10];
+
+    /** Country code ending at each trie node, or -1. */
+    private int[] mTrieCountryCode = new int[] {-1};
+
+    /** Row of the country code ending at each trie node, to keep the table's precedence. */
+    private int[] mTrieRank = new int[] {Integer.MAX_VALUE};
+
+    private int mTrieNodeCount = 1;
+
+    /** Distinct IDDs for each MCC, in table order. */
+    private final String[][] mIddsByMcc = new String[MCC_COUNT][];
+
+    /** MCC for each SID with a single arbitrary_mcc_sid_match row, or 0. */
+    private final short[] mArbitraryMccBySid = new short[SID_COUNT];
+
+    /** MCC for each SID from the first matching mcc_sid_range row, or 0. */
+    private final short[] mRangeMccBySid = new short[SID_COUNT];
+
+    /** Candidate MCCs for each conflicting SID. */
+    private final SparseArray<ArrayList<SidConflict>> mConflictsBySid =
+            new SparseArray<ArrayList<SidConflict>>();
+
+    private boolean mLoaded = true;
+
+    /**
+     * Return the index, loading it from the HbpcdLookup provider on first use.
+     */
+    static HbpcdLookupIndex getInstance(Context context) {
+        return getInstance(context, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @param now the current elapsedRealtime
+     */
+    static synchronized HbpcdLookupIndex getInstance(Context context, long now) {
+        if (sInstance != null) {
+            return sInstance;
+        }
+        if (sFailedInstance != null && now < sRetryTime) {
+            return sFailedInstance;
+        }
+        long startTime = System.nanoTime();
+        HbpcdLookupIndex index = new HbpcdLookupIndex();
+        index.load(context.getContentResolver());
+        Rlog.d(LOG_TAG, "loaded HbpcdLookup index in "
+                + ((System.nanoTime() - startTime) / 1000) + " us, complete=" + index.mLoaded);
+        if (index.mLoaded) {
+            sInstance = index;
+            sFailedInstance = null;
+            sRetryDelayMs = MIN_RETRY_DELAY_MS;
+        } else {
+            sFailedInstance = index;
+            sRetryTime = now + sRetryDelayMs;
+            Rlog.d(LOG_TAG, "retrying HbpcdLookup index load in " + sRetryDelayMs + " ms");
+            sRetryDelayMs = Math.min(sRetryDelayMs * 2, MAX_RETRY_DELAY_MS);
+        }
+        return index;
+    }
+
+    /**
+     * Forget the loaded index and any failed load, so the next call to {@link #getInstance}
+     * loads it again. Only used by tests.
+     */
+    static synchronized void clearInstance() {
+        sInstance = null;
+        sFailedInstance = null;
+        sRetryDelayMs = MIN_RETRY_DELAY_MS;
+    }
+
+    /** Create an empty index; tables are added with the add* methods. */
+    HbpcdLookupIndex() {
+    }
+
+    /**
+     * Return the country code at the start of {@code number[offset...]}, or -1 if none of the
+     * known country codes is a prefix of it. If several country codes match, the one that comes
+     * first in the lookup table wins.
+     *
+     * <p>Country codes never start with 0, so a number with a leading 0 at the offset has no
+     * country code. (The matching this replaced parsed the prefixes as integers, so "01" and
+     * "001" both matched country code 1.)
+     */
+    int getCountryCode(String number, int offset) {
+        int countryCode = -1;
+        int rank = Integer.MAX_VALUE;
+        int node = 0;
+        for (int i = offset, length = number.length(); i < length; i++) {
+            int digit = number.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            node = mTrieChildren[node * 10 + digit];
+            if (node == 0) {
+                break;
+            }
+            if (mTrieCountryCode[node] != -1 && mTrieRank[node] < rank) {
+                countryCode = mTrieCountryCode[node];
+                rank = mTrieRank[node];
+            }
+        }
+        return countryCode;
+    }
+
+    /** Return true if at least one country code is known. */
+    boolean hasCountryCodes() {
+        return mTrieNodeCount > 1;
+    }
+
+    /**
+     * Return the distinct IDDs for an MCC, in table order. The returned array must not be
+     * modified.
+     */
+    String[] getIdds(int mcc) {
+        if (mcc < 0 || mcc >= MCC_COUNT || mIddsByMcc[mcc] == null) {
+            return NO_IDDS;
+        }
+        return mIddsByMcc[mcc];
+    }
+
+    /**
+     * Return the IDDs for a three digit MCC string, or an empty array if it isn't a valid MCC.
+     */
+    String[] getIdds(String mcc) {
+        if (mcc == null || mcc.length() != 3) {
+            return NO_IDDS;
+        }
+        int value = 0;
+        for (int i = 0; i < 3; i++) {
+            int digit = mcc.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NO_IDDS;
+            }
+            value = value * 10 + digit;
+        }
+        return getIdds(value);
+    }
+
+    /**
+     * Resolve an MCC from a CDMA SID and time zone. See {@link HbpcdUtils#getMcc}.
+     */
+    int getMcc(int sid, int tz, int dstFlag, boolean isNitzTimeZone) {
+        if (sid < 0 || sid >= SID_COUNT) {
+            return 0;
+        }
+
+        // SIDs assigned to more than one operator but known to be used by a specific one
+        int mcc = mArbitraryMccBySid[sid];
+        if (mcc > 0) {
+            return mcc;
+        }
+
+        // conflicting SIDs are resolved with the time zone of the candidate countries
+        ArrayList<SidConflict> conflicts = mConflictsBySid.get(sid);
+        if (conflicts != null) {
+            for (int i = 0, size = conflicts.size(); i < size; i++) {
+                SidConflict conflict = conflicts.get(i);
+                if (conflict.matches(tz, dstFlag)) {
+                    // time zone is not accurate, it may get wrong mcc, ignore it.
+                    return isNitzTimeZone ? conflict.mMcc : 0;
+                }
+            }
+        }
+
+        return mRangeMccBySid[sid];
+    }
+
+    /**
+     * Add a country code. Codes added first take precedence over later codes that share a
+     * prefix with them.
+     */
+    void addCountryCode(int countryCode, int rank) {
+        if (countryCode < 0) {
+            return;
+        }
+        String digits = Integer.toString(countryCode);
+        int node = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int slot = node * 10 + (digits.charAt(i) - '0');
+            if (mTrieChildren[slot] == 0) {
+                mTrieChildren[slot] = newTrieNode();
+            }
+            node = mTrieChildren[slot];
+        }
+        if (mTrieCountryCode[node] == -1 || rank < mTrieRank[node]) {
+            mTrieCountryCode[node] = countryCode;
+            mTrieRank[node] = rank;
+        }
+    }
+
+    /** Add an IDD for an MCC, ignoring duplicates. */
+    void addIdd(int mcc, String idd) {
+        if (mcc < 0 || mcc >= MCC_COUNT || idd == null) {
+            return;
+        }
+        String[] idds = mIddsByMcc[mcc];
+        if (idds == null) {
+            mIddsByMcc[mcc] = new String[] {idd};
+            return;
+        }
+        for (String existing : idds) {
+            if (existing.equals(idd)) {
+                return;
+            }
+        }
+        String[] newIdds = new String[idds.length + 1];
+        System.arraycopy(idds, 0, newIdds, 0, idds.length);
+        newIdds[idds.length] = idd;
+        mIddsByMcc[mcc] = newIdds;
+    }
+
+    /** Add an arbitrary_mcc_sid_match row; SIDs with more than one row are ignored. */
+    void addArbitrarySid(int sid, int mcc, boolean unique) {
+        if (sid >= 0 && sid < SID_COUNT) {
+            mArbitraryMccBySid[sid] = unique ? (short) mcc : 0;
+        }
+    }
+
+    /** Add a mcc_sid_conflict row with the time zone range of its country. */
+    void addSidConflict(int sid, int mcc, double offsetLow, double offsetHigh, double dstLow,
+            double dstHigh) {
+        if (sid < 0 || sid >= SID_COUNT) {
+            return;
+        }
+        ArrayList<SidConflict> conflicts = mConflictsBySid.get(sid);
+        if (conflicts == null) {
+            conflicts = new ArrayList<SidConflict>(2);
+            mConflictsBySid.put(sid, conflicts);
+        }
+        conflicts.add(new SidConflict(mcc, offsetLow, offsetHigh, dstLow, dstHigh));
+    }
+
+    /** Add a mcc_sid_range row; earlier rows take precedence over overlapping later rows. */
+    void addSidRange(int low, int high, int mcc) {
+        low = Math.max(low, 0);
+        high = Math.min(high, SID_COUNT - 1);
+        for (int sid = low; sid <= high; sid++) {
+            if (mRangeMccBySid[sid] == 0) {
+                mRangeMccBySid[sid] = (short) mcc;
+            }
+        }
+    }
+
+    private int newTrieNode() {
+        if (mTrieNodeCount == mTrieCountryCode.length) {
+            int capacity = mTrieNodeCount * 2;
+            int[] children = new int[capacity * 10];
+            System.arraycopy(mTrieChildren, 0, children, 0, mTrieChildren.length);
+            mTrieChildren = children;
+            int[] countryCodes = new int[capacity];
+            System.arraycopy(mTrieCountryCode, 0, countryCodes, 0, mTrieNodeCount);
+            mTrieCountryCode = countryCodes;
+            int[] ranks = new int[capacity];
+            System.arraycopy(mTrieRank, 0, ranks, 0, mTrieNodeCount);
+            mTrieRank = ranks;
+        }
+        int node = mTrieNodeCount++;
+        mTrieCountryCode[node] = -1;
+        mTrieRank[node] = Integer.MAX_VALUE;
+        return node;
+    }
+
+    private void load(ContentResolver resolver) {
+        Cursor c = query(resolver, MccLookup.CONTENT_URI, new String[] {MccLookup.COUNTRY_CODE});
+        if (c != null) {
+            try {
+                int rank = 0;
+                while (c.moveToNext()) {
+                    addCountryCode(c.getInt(0), rank++);
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        c = query(resolver, MccIdd.CONTENT_URI, new String[] {MccIdd.IDD, MccIdd.MCC});
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    addIdd(c.getInt(1), c.getString(0));
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        c = query(resolver, ArbitraryMccSidMatch.CONTENT_URI,
+                new String[] {ArbitraryMccSidMatch.MCC, ArbitraryMccSidMatch.SID});
+        if (c != null) {
+            try {
+                boolean[] seen = new boolean[SID_COUNT];
+                while (c.moveToNext()) {
+                    int sid = c.getInt(1);
+                    if (sid >= 0 && sid < SID_COUNT) {
+                        addArbitrarySid(sid, c.getInt(0), !seen[sid]);
+                        seen[sid] = true;
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        c = query(resolver, MccSidConflicts.CONTENT_URI, new String[] {MccSidConflicts.MCC,
+                MccSidConflicts.SID_CONFLICT, MccLookup.GMT_OFFSET_LOW,
+                MccLookup.GMT_OFFSET_HIGH, MccLookup.GMT_DST_LOW, MccLookup.GMT_DST_HIGH});
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    addSidConflict(c.getInt(1), c.getInt(0), c.getDouble(2), c.getDouble(3),
+                            c.getDouble(4), c.getDouble(5));
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        c = query(resolver, MccSidRange.CONTENT_URI, new String[] {MccSidRange.MCC,
+                MccSidRange.RANGE_LOW, MccSidRange.RANGE_HIGH});
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    addSidRange(c.getInt(1), c.getInt(2), c.getInt(0));
+                }
+            } finally {
+                c.close();
+            }
+        }
+    }
+
+    private Cursor query(ContentResolver resolver, Uri uri, String[] projection) {
+        Cursor c = null;
+        try {
+            c = resolver.query(uri, projection, null, null, null);
+        } catch (SQLException e) {
+            Rlog.e(LOG_TAG, "Can't access HbpcdLookup database", e);
+        }
+        if (c == null) {
+            mLoaded = false;
+        } else if (DBG) {
+            Rlog.d(LOG_TAG, "loading " + c.getCount() + " rows from " + uri);
+        }
+        return c;
+    }
+
+    /**
+     * A country that uses a conflicting SID, with its time zone range.
+     */
+    private static final class SidConflict {
+        final int mMcc;
+        final double mOffsetLow;
+        final double mOffsetHigh;
+        final double mDstLow;
+        final double mDstHigh;
+
+        SidConflict(int mcc, double offsetLow, double offsetHigh, double dstLow,
+                double dstHigh) {
+            mMcc = mcc;
+            mOffsetLow = offsetLow;
+            mOffsetHigh = offsetHigh;
+            mDstLow = dstLow;
+            mDstHigh = dstHigh;
+        }
+
+        boolean matches(int tz, int dstFlag) {
+            if (dstFlag == 0) {
+                return mOffsetLow <= tz && tz <= mOffsetHigh;
+            } else if (dstFlag == 1) {
+                return mDstLow <= tz && tz <= mDstHigh;
+            }
+            return false;
+        }
+    }
+}
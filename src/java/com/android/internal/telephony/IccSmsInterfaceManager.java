@@ -28,6 +28,7 @@ import android.os.AsyncResult;
 import android.os.Binder;
 import android.os.Handler;
 import android.os.Message;
+import android.os.RemoteException;
 import android.os.UserManager;
 import android.provider.Telephony;
 import android.telephony.Rlog;
@@ -46,10 +47,9 @@ import com.android.internal.util.HexDump;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import static android.telephony.SmsManager.STATUS_ON_ICC_FREE;
-import static android.telephony.SmsManager.STATUS_ON_ICC_READ;
-import static android.telephony.SmsManager.STATUS_ON_ICC_UNREAD;
 
 import android.telephony.TelephonyManager;
 
@@ -63,14 +63,12 @@ public class IccSmsInterfaceManager {
 
     protected final Object mLock = new Object();
     protected boolean mSuccess;
-    private List<SmsRawData> mSms;
 
     private CellBroadcastRangeManager mCellBroadcastRangeManager =
             new CellBroadcastRangeManager();
     private CdmaBroadcastRangeManager mCdmaBroadcastRangeManager =
             new CdmaBroadcastRangeManager();
 
-    private static final int EVENT_LOAD_DONE = 1;
     private static final int EVENT_UPDATE_DONE = 2;
     protected static final int EVENT_SET_BROADCAST_ACTIVATION_DONE = 3;
     protected static final int EVENT_SET_BROADCAST_CONFIG_DONE = 4;
@@ -91,27 +89,8 @@ public class IccSmsInterfaceManager {
             switch (msg.what) {
                 case EVENT_UPDATE_DONE:
                     ar = (AsyncResult) msg.obj;
-                    synchronized (mLock) {
-                        mSuccess = (ar.exception == null);
-                        mLock.notifyAll();
-                    }
-                    break;
-                case EVENT_LOAD_DONE:
-                    ar = (AsyncResult)msg.obj;
-                    synchronized (mLock) {
-                        if (ar.exception == null) {
-                            mSms = buildValidRawData((ArrayList<byte[]>) ar.result);
-                            //Mark SMS as read after importing it from card.
-                            markMessagesAsRead((ArrayList<byte[]>) ar.result);
-                        } else {
-                            if (Rlog.isLoggable("SMS", Log.DEBUG)) {
-                                log("Cannot load Sms records");
-                            }
-                            if (mSms != null)
-                                mSms.clear();
-                        }
-                        mLock.notifyAll();
-                    }
+                    notifyUpdateComplete((IIccSmsUpdateCallback) ar.userObj,
+                            ar.exception == null);
                     break;
                 case EVENT_SET_BROADCAST_ACTIVATION_DONE:
                 case EVENT_SET_BROADCAST_CONFIG_DONE:
@@ -134,36 +113,79 @@ public class IccSmsInterfaceManager {
                 phone.mSmsStorageMonitor, phone.mSmsUsageMonitor);
     }
 
-    protected void markMessagesAsRead(ArrayList<byte[]> messages) {
-        if (messages == null) {
-            return;
+    /**
+     * Waits for the result of a write in a call of the synchronous API.
+     */
+    private static final class UpdateResult extends IIccSmsUpdateCallback.Stub {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile boolean mSuccess;
+
+        @Override
+        public void onComplete(boolean success) {
+            mSuccess = success;
+            mDone.countDown();
         }
 
-        //IccFileHandler can be null, if icc card is absent.
-        IccFileHandler fh = mPhone.getIccFileHandler();
-        if (fh == null) {
-            //shouldn't really happen, as messages are marked as read, only
-            //after importing it from icc.
-            if (Rlog.isLoggable("SMS", Log.DEBUG)) {
-                log("markMessagesAsRead - aborting, no icc card present.");
+        boolean await() {
+            try {
+                mDone.await();
+            } catch (InterruptedException e) {
+                Rlog.e(LOG_TAG, "interrupted while waiting for an update of the Icc");
             }
-            return;
+            return mSuccess;
         }
+    }
+
+    /**
+     * Collects the messages of a load for the synchronous API, with a null
+     * for each free record.
+     */
+    private static final class LoadResult extends IIccSmsLoadCallback.Stub {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private final ArrayList<int[]> mIndexes = new ArrayList<int[]>();
+        private final ArrayList<List<SmsRawData>> mPages = new ArrayList<List<SmsRawData>>();
+        private volatile List<SmsRawData> mMessages;
 
-        int count = messages.size();
-
-        for (int i = 0; i < count; i++) {
-             byte[] ba = messages.get(i);
-             if (ba[0] == STATUS_ON_ICC_UNREAD) {
-                 int n = ba.length;
-                 byte[] nba = new byte[n - 1];
-                 System.arraycopy(ba, 1, nba, 0, n - 1);
-                 byte[] record = makeSmsRecordData(STATUS_ON_ICC_READ, nba);
-                 fh.updateEFLinearFixed(IccConstants.EF_SMS, i + 1, record, null, null);
-                 if (Rlog.isLoggable("SMS", Log.DEBUG)) {
-                     log("SMS " + (i + 1) + " marked as read");
-                 }
-             }
+        @Override
+        public void onMessages(int[] indexes, List<SmsRawData> messages) {
+            mIndexes.add(indexes);
+            mPages.add(messages);
+        }
+
+        @Override
+        public void onComplete(boolean success, int numRecords) {
+            ArrayList<SmsRawData> messages = new ArrayList<SmsRawData>(numRecords);
+            if (success) {
+                for (int i = 0; i < numRecords; i++) {
+                    messages.add(null);
+                }
+                for (int page = 0; page < mPages.size(); page++) {
+                    int[] indexes = mIndexes.get(page);
+                    for (int i = 0; i < indexes.length; i++) {
+                        messages.set(indexes[i] - 1, mPages.get(page).get(i));
+                    }
+                }
+            }
+            mMessages = messages;
+            mDone.countDown();
+        }
+
+        List<SmsRawData> await() {
+            try {
+                mDone.await();
+            } catch (InterruptedException e) {
+                Rlog.e(LOG_TAG, "interrupted while trying to load from the Icc");
+                return new ArrayList<SmsRawData>();
+            }
+            return mMessages;
+        }
+    }
+
+    private void notifyUpdateComplete(IIccSmsUpdateCallback callback, boolean success) {
+        try {
+            callback.onComplete(success);
+        } catch (RemoteException e) {
+            log("caller of an Icc update died");
         }
     }
 
@@ -193,47 +215,59 @@ public class IccSmsInterfaceManager {
 
     public boolean
     updateMessageOnIccEf(String callingPackage, int index, int status, byte[] pdu) {
+        UpdateResult result = new UpdateResult();
+        updateMessageOnIccEf(callingPackage, index, status, pdu, result);
+        return result.await();
+    }
+
+    /**
+     * Update the specified message on the Icc, without waiting for the
+     * result.
+     *
+     * @param index record index of message to update
+     * @param status new message status (STATUS_ON_ICC_READ,
+     *                  STATUS_ON_ICC_UNREAD, STATUS_ON_ICC_SENT,
+     *                  STATUS_ON_ICC_UNSENT, STATUS_ON_ICC_FREE)
+     * @param pdu the raw PDU to store
+     * @param callback receives whether the update succeeded
+     *
+     */
+    public void updateMessageOnIccEf(String callingPackage, int index, int status, byte[] pdu,
+            IIccSmsUpdateCallback callback) {
         if (DBG) log("updateMessageOnIccEf: index=" + index +
                 " status=" + status + " ==> " +
                 "("+ Arrays.toString(pdu) + ")");
         enforceReceiveAndSend("Updating message on Icc");
         if (mAppOps.noteOp(AppOpsManager.OP_WRITE_ICC_SMS, Binder.getCallingUid(),
                 callingPackage) != AppOpsManager.MODE_ALLOWED) {
-            return false;
+            notifyUpdateComplete(callback, false);
+            return;
         }
-        synchronized(mLock) {
-            mSuccess = false;
-            Message response = mHandler.obtainMessage(EVENT_UPDATE_DONE);
-
-            if (status == STATUS_ON_ICC_FREE) {
-                // RIL_REQUEST_DELETE_SMS_ON_SIM vs RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM
-                // Special case FREE: call deleteSmsOnSim/Ruim instead of
-                // manipulating the record
-                // Will eventually fail if icc card is not present.
-                if (PhoneConstants.PHONE_TYPE_GSM == mPhone.getPhoneType()) {
-                    mPhone.mCi.deleteSmsOnSim(index, response);
-                } else {
-                    mPhone.mCi.deleteSmsOnRuim(index, response);
-                }
+        Message response = mHandler.obtainMessage(EVENT_UPDATE_DONE, callback);
+
+        if (status == STATUS_ON_ICC_FREE) {
+            // RIL_REQUEST_DELETE_SMS_ON_SIM vs RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM
+            // Special case FREE: call deleteSmsOnSim/Ruim instead of
+            // manipulating the record
+            // Will eventually fail if icc card is not present.
+            if (PhoneConstants.PHONE_TYPE_GSM == mPhone.getPhoneType()) {
+                mPhone.mCi.deleteSmsOnSim(index, response);
             } else {
-                //IccFilehandler can be null if ICC card is not present.
-                IccFileHandler fh = mPhone.getIccFileHandler();
-                if (fh == null) {
-                    response.recycle();
-                    return mSuccess; /* is false */
-                }
-                byte[] record = makeSmsRecordData(status, pdu);
-                fh.updateEFLinearFixed(
-                        IccConstants.EF_SMS,
-                        index, record, null, response);
+                mPhone.mCi.deleteSmsOnRuim(index, response);
             }
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                log("interrupted while trying to update by index");
+        } else {
+            //IccFilehandler can be null if ICC card is not present.
+            IccFileHandler fh = mPhone.getIccFileHandler();
+            if (fh == null) {
+                response.recycle();
+                notifyUpdateComplete(callback, false);
+                return;
             }
+            byte[] record = makeSmsRecordData(status, pdu);
+            fh.updateEFLinearFixed(
+                    IccConstants.EF_SMS,
+                    index, record, null, response);
         }
-        return mSuccess;
     }
 
     /**
@@ -246,6 +280,22 @@ public class IccSmsInterfaceManager {
      *
      */
     public boolean copyMessageToIccEf(String callingPackage, int status, byte[] pdu, byte[] smsc) {
+        UpdateResult result = new UpdateResult();
+        copyMessageToIccEf(callingPackage, status, pdu, smsc, result);
+        return result.await();
+    }
+
+    /**
+     * Copy a raw SMS PDU to the Icc, without waiting for the result.
+     *
+     * @param pdu the raw PDU to store
+     * @param status message status (STATUS_ON_ICC_READ, STATUS_ON_ICC_UNREAD,
+     *               STATUS_ON_ICC_SENT, STATUS_ON_ICC_UNSENT)
+     * @param callback receives whether the copy succeeded
+     *
+     */
+    public void copyMessageToIccEf(String callingPackage, int status, byte[] pdu, byte[] smsc,
+            IIccSmsUpdateCallback callback) {
         //NOTE smsc not used in RUIM
         if (DBG) log("copyMessageToIccEf: status=" + status + " ==> " +
                 "pdu=("+ Arrays.toString(pdu) +
@@ -253,28 +303,19 @@ public class IccSmsInterfaceManager {
         enforceReceiveAndSend("Copying message to Icc");
         if (mAppOps.noteOp(AppOpsManager.OP_WRITE_ICC_SMS, Binder.getCallingUid(),
                 callingPackage) != AppOpsManager.MODE_ALLOWED) {
-            return false;
+            notifyUpdateComplete(callback, false);
+            return;
         }
-        synchronized(mLock) {
-            mSuccess = false;
-            Message response = mHandler.obtainMessage(EVENT_UPDATE_DONE);
-
-            //RIL_REQUEST_WRITE_SMS_TO_SIM vs RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM
-            if (PhoneConstants.PHONE_TYPE_GSM == mPhone.getPhoneType()) {
-                mPhone.mCi.writeSmsToSim(status, IccUtils.bytesToHexString(smsc),
-                        IccUtils.bytesToHexString(pdu), response);
-            } else {
-                mPhone.mCi.writeSmsToRuim(status, IccUtils.bytesToHexString(pdu),
-                        response);
-            }
+        Message response = mHandler.obtainMessage(EVENT_UPDATE_DONE, callback);
 
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                log("interrupted while trying to update by index");
-            }
+        //RIL_REQUEST_WRITE_SMS_TO_SIM vs RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM
+        if (PhoneConstants.PHONE_TYPE_GSM == mPhone.getPhoneType()) {
+            mPhone.mCi.writeSmsToSim(status, IccUtils.bytesToHexString(smsc),
+                    IccUtils.bytesToHexString(pdu), response);
+        } else {
+            mPhone.mCi.writeSmsToRuim(status, IccUtils.bytesToHexString(pdu),
+                    response);
         }
-        return mSuccess;
     }
 
     /**
@@ -284,36 +325,49 @@ public class IccSmsInterfaceManager {
      */
 
     public List<SmsRawData> getAllMessagesFromIccEf(String callingPackage) {
-        if (DBG) log("getAllMessagesFromEF");
+        LoadResult result = new LoadResult();
+        loadMessagesFromIccEf(callingPackage, 0, result);
+        return result.await();
+    }
+
+    /**
+     * Reads the messages stored on the Icc, and hands them to the callback
+     * in pages as they're read, without waiting for them. Unread messages
+     * are marked as read once they've all been handed over.
+     *
+     * @param pageSize the most messages in a page, or 0 for the default
+     * @param callback receives the messages
+     */
+    public void loadMessagesFromIccEf(String callingPackage, int pageSize,
+            IIccSmsLoadCallback callback) {
+        if (DBG) log("loadMessagesFromIccEf");
 
         mContext.enforceCallingOrSelfPermission(
                 Manifest.permission.RECEIVE_SMS,
                 "Reading messages from Icc");
         if (mAppOps.noteOp(AppOpsManager.OP_READ_ICC_SMS, Binder.getCallingUid(),
                 callingPackage) != AppOpsManager.MODE_ALLOWED) {
-            return new ArrayList<SmsRawData>();
+            notifyLoadComplete(callback, true);
+            return;
         }
-        synchronized(mLock) {
 
-            IccFileHandler fh = mPhone.getIccFileHandler();
-            if (fh == null) {
-                Rlog.e(LOG_TAG, "Cannot load Sms records. No icc card?");
-                if (mSms != null) {
-                    mSms.clear();
-                    return mSms;
-                }
-            }
+        IccFileHandler fh = mPhone.getIccFileHandler();
+        if (fh == null) {
+            Rlog.e(LOG_TAG, "Cannot load Sms records. No icc card?");
+            notifyLoadComplete(callback, false);
+            return;
+        }
 
-            Message response = mHandler.obtainMessage(EVENT_LOAD_DONE);
-            fh.loadEFLinearFixedAll(IccConstants.EF_SMS, response);
+        new IccSmsRecordLoader(mHandler.getLooper(), fh, getSmsRecordLength(), pageSize,
+                callback).start();
+    }
 
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                log("interrupted while trying to load from the Icc");
-            }
+    private void notifyLoadComplete(IIccSmsLoadCallback callback, boolean success) {
+        try {
+            callback.onComplete(success, 0);
+        } catch (RemoteException e) {
+            log("caller of an Icc load died");
         }
-        return mSms;
     }
 
     /**
@@ -526,29 +580,12 @@ public class IccSmsInterfaceManager {
         mDispatcher.setPremiumSmsPermission(packageName, permission);
     }
 
-    /**
-     * create SmsRawData lists from all sms record byte[]
-     * Use null to indicate "free" record
-     *
-     * @param messages List of message records from EF_SMS.
-     * @return SmsRawData list of all in-used records
-     */
-    protected ArrayList<SmsRawData> buildValidRawData(ArrayList<byte[]> messages) {
-        int count = messages.size();
-        ArrayList<SmsRawData> ret;
-
-        ret = new ArrayList<SmsRawData>(count);
-
-        for (int i = 0; i < count; i++) {
-            byte[] ba = messages.get(i);
-            if (ba[0] == STATUS_ON_ICC_FREE) {
-                ret.add(null);
-            } else {
-                ret.add(new SmsRawData(messages.get(i)));
-            }
+    private int getSmsRecordLength() {
+        if (PhoneConstants.PHONE_TYPE_GSM == mPhone.getPhoneType()) {
+            return IccConstants.SMS_RECORD_LENGTH;
+        } else {
+            return IccConstants.CDMA_SMS_RECORD_LENGTH;
         }
-
-        return ret;
     }
 
     /**
@@ -559,12 +596,7 @@ public class IccSmsInterfaceManager {
      * @return byte array for the record.
      */
     protected byte[] makeSmsRecordData(int status, byte[] pdu) {
-        byte[] data;
-        if (PhoneConstants.PHONE_TYPE_GSM == mPhone.getPhoneType()) {
-            data = new byte[IccConstants.SMS_RECORD_LENGTH];
-        } else {
-            data = new byte[IccConstants.CDMA_SMS_RECORD_LENGTH];
-        }
+        byte[] data = new byte[getSmsRecordLength()];
 
         // Status bits for this record.  See TS 51.011 10.5.3
         data[0] = (byte)(status & 7);
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import static android.telephony.SmsManager.STATUS_ON_ICC_FREE;
+import static android.telephony.SmsManager.STATUS_ON_ICC_READ;
+import static android.telephony.SmsManager.STATUS_ON_ICC_UNREAD;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+
+import com.android.internal.telephony.uicc.IccConstants;
+import com.android.internal.telephony.uicc.IccFileHandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Loads the messages of EF_SMS for one request, and hands them to an
+ * IIccSmsLoadCallback in pages as the records are read, so the caller sees the
+ * first messages after a few reads rather than after the whole file, and only a
+ * page is held in memory. Free records are skipped without allocating.
+ *
+ * Once every record has been read, the unread messages that were handed over
+ * are marked as read, a batch of writes at a time, so that other SIM I/O isn't
+ * stuck behind a full inbox of writes. Nothing is marked if the load failed or
+ * the caller went away.
+ *
+ * {@hide}
+ */
+final class IccSmsRecordLoader extends Handler {
+    private static final String LOG_TAG = "IccSmsRecordLoader";
+    private static final boolean DBG = false;
+
+    static final int DEFAULT_PAGE_SIZE = 16;
+    static final int MARK_READ_BATCH_SIZE = 8;
+
+    private static final int EVENT_RECORD_LOADED = 1;
+    private static final int EVENT_LOAD_DONE = 2;
+    private static final int EVENT_MARK_READ_DONE = 3;
+
+    private final IccFileHandler mFh;
+    private final int mRecordLength;
+    private final int mPageSize;
+    private final IIccSmsLoadCallback mCallback;
+    private long mStartTime;
+
+    // The page being filled, and the positions of the unread records in it
+    private int[] mPageIndexes;
+    private ArrayList<SmsRawData> mPage;
+    private final ArrayList<Integer> mPageUnread = new ArrayList<Integer>();
+
+    // The unread records the caller has, to mark as read with their new contents
+    private final ArrayList<Integer> mUnreadIndexes = new ArrayList<Integer>();
+    private final ArrayList<byte[]> mUnreadRecords = new ArrayList<byte[]>();
+    private int mNextToMark;
+    private int mMarksInFlight;
+
+    private boolean mCallbackDied;
+    private int mMessages;
+
+    /**
+     * @param looper The looper to handle the records on
+     * @param fh The file handler of the ICC
+     * @param recordLength The length of an EF_SMS record
+     * @param pageSize The most messages to hand over at once
+     * @param callback Receives the messages
+     */
+    IccSmsRecordLoader(Looper looper, IccFileHandler fh, int recordLength, int pageSize,
+            IIccSmsLoadCallback callback) {
+        super(looper);
+        mFh = fh;
+        mRecordLength = recordLength;
+        mPageSize = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+        mCallback = callback;
+    }
+
+    /**
+     * Starts reading EF_SMS. May be called from any thread.
+     */
+    void start() {
+        mStartTime = SystemClock.elapsedRealtime();
+        mFh.loadEFLinearFixedEach(IccConstants.EF_SMS, obtainMessage(EVENT_RECORD_LOADED),
+                obtainMessage(EVENT_LOAD_DONE));
+    }
+
+    @Override
+    public void handleMessage(Message msg) {
+        AsyncResult ar = (AsyncResult) msg.obj;
+        switch (msg.what) {
+            case EVENT_RECORD_LOADED:
+                onRecordLoaded(msg.arg1, (byte[]) ar.result);
+                break;
+
+            case EVENT_LOAD_DONE:
+                if (ar.exception != null) {
+                    Rlog.e(LOG_TAG, "Cannot load Sms records", ar.exception);
+                    mPage = null;
+                    mPageUnread.clear();
+                    mUnreadIndexes.clear();
+                    mUnreadRecords.clear();
+                    onComplete(false, 0);
+                    break;
+                }
+                int numRecords = (Integer) ar.result;
+                sendPage();
+                if (DBG) {
+                    Rlog.d(LOG_TAG, "Loaded " + mMessages + " messages in " + numRecords
+                            + " records in " + (SystemClock.elapsedRealtime() - mStartTime)
+                            + " ms");
+                }
+                onComplete(true, numRecords);
+                if (!mCallbackDied) {
+                    markNextBatch();
+                }
+                break;
+
+            case EVENT_MARK_READ_DONE:
+                if (ar.exception != null) {
+                    Rlog.e(LOG_TAG, "Cannot mark SMS " + msg.arg1 + " as read", ar.exception);
+                } else if (DBG) {
+                    Rlog.d(LOG_TAG, "SMS " + msg.arg1 + " marked as read");
+                }
+                if (--mMarksInFlight == 0) {
+                    markNextBatch();
+                }
+                break;
+        }
+    }
+
+    private void onRecordLoaded(int index, byte[] record) {
+        if (mCallbackDied || record == null || record.length == 0
+                || record[0] == STATUS_ON_ICC_FREE) {
+            return;
+        }
+        if (mPage == null) {
+            mPageIndexes = new int[mPageSize];
+            mPage = new ArrayList<SmsRawData>(mPageSize);
+        }
+        if (record[0] == STATUS_ON_ICC_UNREAD) {
+            mPageUnread.add(mPage.size());
+        }
+        mPageIndexes[mPage.size()] = index;
+        mPage.add(new SmsRawData(record));
+        if (mPage.size() == mPageSize) {
+            sendPage();
+        }
+    }
+
+    private void sendPage() {
+        if (mPage == null || mCallbackDied) {
+            return;
+        }
+        int[] indexes = mPage.size() == mPageSize
+                ? mPageIndexes : Arrays.copyOf(mPageIndexes, mPage.size());
+        try {
+            mCallback.onMessages(indexes, mPage);
+            mMessages += mPage.size();
+            for (int position : mPageUnread) {
+                mUnreadIndexes.add(indexes[position]);
+                mUnreadRecords.add(makeReadRecord(mPage.get(position).getBytes()));
+            }
+        } catch (RemoteException e) {
+            Rlog.e(LOG_TAG, "Caller died after " + mMessages + " messages");
+            mCallbackDied = true;
+        }
+        mPage = null;
+        mPageUnread.clear();
+    }
+
+    private void onComplete(boolean success, int numRecords) {
+        if (mCallbackDied) {
+            return;
+        }
+        try {
+            mCallback.onComplete(success, numRecords);
+        } catch (RemoteException e) {
+            // the messages have been handed over, so still mark them
+            Rlog.e(LOG_TAG, "Caller died before completion");
+        }
+    }
+
+    /**
+     * @return The record with its status changed to read, as
+     *         IccSmsInterfaceManager.makeSmsRecordData builds it
+     */
+    private byte[] makeReadRecord(byte[] record) {
+        byte[] data = new byte[mRecordLength];
+        int length = Math.min(record.length, mRecordLength);
+        System.arraycopy(record, 0, data, 0, length);
+        Arrays.fill(data, length, mRecordLength, (byte) 0xff);
+        data[0] = STATUS_ON_ICC_READ;
+        return data;
+    }
+
+    private void markNextBatch() {
+        int end = Math.min(mNextToMark + MARK_READ_BATCH_SIZE, mUnreadIndexes.size());
+        for (; mNextToMark < end; mNextToMark++) {
+            int index = mUnreadIndexes.get(mNextToMark);
+            mMarksInFlight++;
+            mFh.updateEFLinearFixed(IccConstants.EF_SMS, index, mUnreadRecords.get(mNextToMark),
+                    null, obtainMessage(EVENT_MARK_READ_DONE, index, 0));
+            // drop the record once it's sent
+            mUnreadRecords.set(mNextToMark, null);
+        }
+    }
+}
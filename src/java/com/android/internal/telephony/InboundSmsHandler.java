@@ -52,6 +52,7 @@ import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.uicc.UiccCard;
 import com.android.internal.telephony.uicc.UiccController;
 import com.android.internal.util.HexDump;
@@ -177,6 +178,9 @@ public abstract class InboundSmsHandler extends StateMachine {
 
     private UserManager mUserManager;
 
+    /** Segments of concatenated messages received since boot, indexed in memory. */
+    private final InboundSmsReassemblyIndex mReassemblyIndex = new InboundSmsReassemblyIndex();
+
     /**
      * Create a new SMS broadcast helper.
      * @param name the class name for logging
@@ -669,57 +673,102 @@ public abstract class InboundSmsHandler extends StateMachine {
             pdus = new byte[][]{tracker.getPdu()};
         } else {
             // multi-part message
-            Cursor cursor = null;
-            try {
-                // used by several query selection arguments
-                String address = tracker.getAddress();
-                String refNumber = Integer.toString(tracker.getReferenceNumber());
-                String count = Integer.toString(tracker.getMessageCount());
-
-                // query for all segments and broadcast message if we have all the parts
-                String[] whereArgs = {address, refNumber, count};
-                cursor = mResolver.query(sRawUri, PDU_SEQUENCE_PORT_PROJECTION,
-                        SELECT_BY_REFERENCE, whereArgs, null);
-
-                int cursorCount = cursor.getCount();
-                if (cursorCount < messageCount) {
-                    // Wait for the other message parts to arrive. It's also possible for the last
-                    // segment to arrive before processing the EVENT_BROADCAST_SMS for one of the
-                    // earlier segments. In that case, the broadcast will be sent as soon as all
-                    // segments are in the table, and any later EVENT_BROADCAST_SMS messages will
-                    // get a row count of 0 and return.
-                    return false;
-                }
+            InboundSmsReassemblyIndex.Entry message = mReassemblyIndex.getMessage(tracker);
+            if (message == null) {
+                // not indexed, e.g. recovered from the raw table at boot
+                return processMessagePartFromRawTable(tracker);
+            }
+            if (!message.isComplete()) {
+                // Wait for the other message parts to arrive.
+                return false;
+            }
 
-                // All the parts are in place, deal with them
-                pdus = new byte[messageCount][];
-                while (cursor.moveToNext()) {
-                    // subtract offset to convert sequence to 0-based array index
-                    int index = cursor.getInt(SEQUENCE_COLUMN) - tracker.getIndexOffset();
-
-                    pdus[index] = HexDump.hexStringToByteArray(cursor.getString(PDU_COLUMN));
-
-                    // Read the destination port from the first segment (needed for CDMA WAP PDU).
-                    // It's not a bad idea to prefer the port from the first segment in other cases.
-                    if (index == 0 && !cursor.isNull(DESTINATION_PORT_COLUMN)) {
-                        int port = cursor.getInt(DESTINATION_PORT_COLUMN);
-                        // strip format flags and convert to real port number, or -1
-                        port = InboundSmsTracker.getRealDestPort(port);
-                        if (port != -1) {
-                            destPort = port;
-                        }
-                    }
-                }
-            } catch (SQLException e) {
-                loge("Can't access multipart SMS database", e);
+            // All the parts are in place, stop indexing and deal with them
+            mReassemblyIndex.removeMessage(tracker);
+            pdus = message.getPdus();
+            // Prefer the destination port from the first segment (needed for CDMA WAP PDU).
+            int port = message.getFirstSegmentDestPort();
+            if (port != -1) {
+                destPort = port;
+            }
+        }
+
+        return dispatchMessageParts(tracker, pdus, destPort);
+    }
+
+    /**
+     * Process an inbound multi-part SMS segment that is not in the reassembly index by reading
+     * all of the segments for the message from the raw table.
+     * @param tracker the tracker containing the message segment to process
+     * @return true if an ordered broadcast was sent; false if waiting for more message segments
+     */
+    private boolean processMessagePartFromRawTable(InboundSmsTracker tracker) {
+        int messageCount = tracker.getMessageCount();
+        byte[][] pdus;
+        int destPort = tracker.getDestPort();
+
+        Cursor cursor = null;
+        try {
+            // used by several query selection arguments
+            String address = tracker.getAddress();
+            String refNumber = Integer.toString(tracker.getReferenceNumber());
+            String count = Integer.toString(tracker.getMessageCount());
+
+            // query for all segments and broadcast message if we have all the parts
+            String[] whereArgs = {address, refNumber, count};
+            cursor = mResolver.query(sRawUri, PDU_SEQUENCE_PORT_PROJECTION,
+                    SELECT_BY_REFERENCE, whereArgs, null);
+
+            int cursorCount = cursor.getCount();
+            if (cursorCount < messageCount) {
+                // Wait for the other message parts to arrive. It's also possible for the last
+                // segment to arrive before processing the EVENT_BROADCAST_SMS for one of the
+                // earlier segments. In that case, the broadcast will be sent as soon as all
+                // segments are in the table, and any later EVENT_BROADCAST_SMS messages will
+                // get a row count of 0 and return.
                 return false;
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
+            }
+
+            // All the parts are in place, deal with them
+            pdus = new byte[messageCount][];
+            while (cursor.moveToNext()) {
+                // subtract offset to convert sequence to 0-based array index
+                int index = cursor.getInt(SEQUENCE_COLUMN) - tracker.getIndexOffset();
+
+                pdus[index] = HexDump.hexStringToByteArray(cursor.getString(PDU_COLUMN));
+
+                // Read the destination port from the first segment (needed for CDMA WAP PDU).
+                // It's not a bad idea to prefer the port from the first segment in other cases.
+                if (index == 0 && !cursor.isNull(DESTINATION_PORT_COLUMN)) {
+                    int port = cursor.getInt(DESTINATION_PORT_COLUMN);
+                    // strip format flags and convert to real port number, or -1
+                    port = InboundSmsTracker.getRealDestPort(port);
+                    if (port != -1) {
+                        destPort = port;
+                    }
                 }
             }
+        } catch (SQLException e) {
+            loge("Can't access multipart SMS database", e);
+            return false;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
 
+        return dispatchMessageParts(tracker, pdus, destPort);
+    }
+
+    /**
+     * Broadcast the PDUs of a complete message to interested receivers.
+     * @param tracker the tracker containing the last processed message segment
+     * @param pdus the PDUs of the message, ordered by sequence number
+     * @param destPort the destination port of the message, or -1
+     * @return true if an ordered broadcast was sent
+     */
+    @VisibleForTesting
+    boolean dispatchMessageParts(InboundSmsTracker tracker, byte[][] pdus, int destPort) {
         BroadcastReceiver resultReceiver = new SmsBroadcastReceiver(tracker);
 
         if (destPort == SmsHeader.PORT_WAP_PUSH) {
@@ -858,56 +907,54 @@ public abstract class InboundSmsHandler extends StateMachine {
      * If the device crashes before the broadcast to listeners completes, it will be delivered
      * from the raw table on the next device boot. For single-part messages, the deleteWhere
      * and deleteWhereArgs fields of the tracker will be set to delete the correct row after
-     * the ordered broadcast completes.
+     * the ordered broadcast completes. Segments of multi-part messages are also added to the
+     * in-memory reassembly index, which is used to reject duplicate segments.
      *
      * @param tracker the tracker to add to the raw table
      * @return true on success; false on failure to write to database
      */
-    private int addTrackerToRawTable(InboundSmsTracker tracker) {
+    @VisibleForTesting
+    int addTrackerToRawTable(InboundSmsTracker tracker) {
         if (tracker.getMessageCount() != 1) {
+            // convert to strings for the selection args
+            String address = tracker.getAddress();
+            String refNumber = Integer.toString(tracker.getReferenceNumber());
+            String count = Integer.toString(tracker.getMessageCount());
+
+            // set the delete selection args for multi-part message
+            String[] deleteWhereArgs = {address, refNumber, count};
+            tracker.setDeleteWhere(SELECT_BY_REFERENCE, deleteWhereArgs);
+
             // check for duplicate message segments
-            Cursor cursor = null;
-            try {
-                // sequence numbers are 1-based except for CDMA WAP, which is 0-based
-                int sequence = tracker.getSequenceNumber();
-
-                // convert to strings for query
-                String address = tracker.getAddress();
-                String refNumber = Integer.toString(tracker.getReferenceNumber());
-                String count = Integer.toString(tracker.getMessageCount());
-
-                String seqNumber = Integer.toString(sequence);
-
-                // set the delete selection args for multi-part message
-                String[] deleteWhereArgs = {address, refNumber, count};
-                tracker.setDeleteWhere(SELECT_BY_REFERENCE, deleteWhereArgs);
-
-                // Check for duplicate message segments
-                cursor = mResolver.query(sRawUri, PDU_PROJECTION,
-                        "address=? AND reference_number=? AND count=? AND sequence=?",
-                        new String[] {address, refNumber, count, seqNumber}, null);
-
-                // moveToNext() returns false if no duplicates were found
-                if (cursor.moveToNext()) {
-                    loge("Discarding duplicate message segment, refNumber=" + refNumber
-                            + " seqNumber=" + seqNumber);
-                    String oldPduString = cursor.getString(PDU_COLUMN);
-                    byte[] pdu = tracker.getPdu();
-                    byte[] oldPdu = HexDump.hexStringToByteArray(oldPduString);
-                    if (!Arrays.equals(oldPdu, tracker.getPdu())) {
-                        loge("Warning: dup message segment PDU of length " + pdu.length
-                                + " is different from existing PDU of length " + oldPdu.length);
-                    }
-                    return Intents.RESULT_SMS_DUPLICATED;   // reject message
+            int result = mReassemblyIndex.addSegment(tracker);
+            if (result == InboundSmsReassemblyIndex.MESSAGE_NOT_INDEXED) {
+                // first segment seen since boot: load any segments already in the raw table
+                if (!loadMessageFromRawTable(tracker, deleteWhereArgs)) {
+                    return Intents.RESULT_SMS_GENERIC_ERROR;    // reject message
                 }
-                cursor.close();
-            } catch (SQLException e) {
-                loge("Can't access multipart SMS database", e);
-                return Intents.RESULT_SMS_GENERIC_ERROR;    // reject message
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
+                result = mReassemblyIndex.addSegment(tracker);
+            }
+
+            if (result == InboundSmsReassemblyIndex.SEGMENT_DUPLICATE) {
+                loge("Discarding duplicate message segment, refNumber=" + refNumber
+                        + " seqNumber=" + tracker.getSequenceNumber());
+                byte[] pdu = tracker.getPdu();
+                byte[] oldPdu = mReassemblyIndex.getIndexedPdu(tracker);
+                if (!Arrays.equals(oldPdu, pdu)) {
+                    loge("Warning: dup message segment PDU of length " + pdu.length
+                            + " is different from existing PDU of length "
+                            + (oldPdu != null ? oldPdu.length : 0));
+                }
+                // A complete message is being broadcast and its rows are deleted once that's
+                // done, so a later message reusing the reference must not match this entry.
+                if (mReassemblyIndex.getMessage(tracker).isComplete()) {
+                    mReassemblyIndex.removeMessage(tracker);
                 }
+                return Intents.RESULT_SMS_DUPLICATED;   // reject message
+            } else if (result == InboundSmsReassemblyIndex.SEGMENT_INVALID) {
+                loge("Discarding invalid message segment, refNumber=" + refNumber
+                        + " seqNumber=" + tracker.getSequenceNumber() + " count=" + count);
+                return Intents.RESULT_SMS_DUPLICATED;   // can never be reassembled
             }
         }
 
@@ -926,10 +973,53 @@ public abstract class InboundSmsHandler extends StateMachine {
             return Intents.RESULT_SMS_HANDLED;
         } catch (Exception e) {
             loge("error parsing URI for new row: " + newUri, e);
+            // the segment isn't in the raw table, so it must not count towards reassembly
+            if (tracker.getMessageCount() != 1) {
+                mReassemblyIndex.removeSegment(tracker);
+            }
             return Intents.RESULT_SMS_GENERIC_ERROR;
         }
     }
 
+    /**
+     * Load the segments of a multi-part message that are already stored in the raw table into
+     * the reassembly index. Called once for each message the index doesn't know about, so that
+     * segments received before a reboot or evicted from the index are still reassembled.
+     *
+     * @param tracker a tracker for any segment of the message
+     * @param whereArgs the {@link #SELECT_BY_REFERENCE} selection args for the message
+     * @return true on success; false on failure to read the database
+     */
+    private boolean loadMessageFromRawTable(InboundSmsTracker tracker, String[] whereArgs) {
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(sRawUri, PDU_SEQUENCE_PORT_PROJECTION,
+                    SELECT_BY_REFERENCE, whereArgs, null);
+            mReassemblyIndex.startMessage(tracker);
+            while (cursor.moveToNext()) {
+                // subtract offset to convert sequence to 0-based array index
+                int index = cursor.getInt(SEQUENCE_COLUMN) - tracker.getIndexOffset();
+                byte[] pdu = HexDump.hexStringToByteArray(cursor.getString(PDU_COLUMN));
+                int port = -1;
+                if (!cursor.isNull(DESTINATION_PORT_COLUMN)) {
+                    // strip format flags and convert to real port number, or -1
+                    port = InboundSmsTracker.getRealDestPort(
+                            cursor.getInt(DESTINATION_PORT_COLUMN));
+                }
+                mReassemblyIndex.addLoadedSegment(tracker, index, pdu, port);
+            }
+            return true;
+        } catch (SQLException e) {
+            loge("Can't access multipart SMS database", e);
+            mReassemblyIndex.removeMessage(tracker);
+            return false;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
     /**
      * Returns whether the default message format for the current radio technology is 3GPP2.
      * @return true if the radio technology uses 3GPP2 format by default, false for 3GPP format
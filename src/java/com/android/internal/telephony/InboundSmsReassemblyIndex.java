@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory index of the concatenated SMS segments received by an {@link InboundSmsHandler},
+ * keyed by originating address, reference number and segment count. The handler uses it to
+ * detect duplicate segments and to decide when a message is complete without re-querying the
+ * raw table for every segment.
+ *
+ * <p>The raw table remains the durable copy of every segment. An entry that is not in the index
+ * (because it was evicted, or because its segments were stored before the last reboot) is
+ * reloaded from the raw table with {@link #startMessage} and {@link #addLoadedSegment}, so the
+ * index never has to be complete to be correct.
+ *
+ * <p>This class is not thread-safe; it is only accessed from the state machine thread.
+ */
+final class InboundSmsReassemblyIndex {
+
+    /** The segment was added to an indexed message. */
+    static final int SEGMENT_ADDED = 0;
+
+    /** A segment with the same sequence number is already indexed for this message. */
+    static final int SEGMENT_DUPLICATE = 1;
+
+    /** The sequence number is outside the range allowed by the segment count. */
+    static final int SEGMENT_INVALID = 2;
+
+    /** The message is not indexed; the caller must load it from the raw table first. */
+    static final int MESSAGE_NOT_INDEXED = 3;
+
+    /** Default number of incomplete messages to keep before evicting the least recent. */
+    static final int DEFAULT_MAX_MESSAGES = 32;
+
+    private final LinkedHashMap<Key, Entry> mMessages;
+
+    InboundSmsReassemblyIndex() {
+        this(DEFAULT_MAX_MESSAGES);
+    }
+
+    /**
+     * Create an index holding at most {@code maxMessages} incomplete messages.
+     * @param maxMessages the maximum number of messages to index
+     */
+    InboundSmsReassemblyIndex(final int maxMessages) {
+        // access-ordered so that the least recently updated message is evicted first
+        mMessages = new LinkedHashMap<Key, Entry>(maxMessages, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxMessages;
+            }
+        };
+    }
+
+    /**
+     * Add a newly received segment to the index.
+     * @param tracker the tracker for the segment
+     * @return {@link #SEGMENT_ADDED}, {@link #SEGMENT_DUPLICATE}, {@link #SEGMENT_INVALID} or
+     *  {@link #MESSAGE_NOT_INDEXED}
+     */
+    int addSegment(InboundSmsTracker tracker) {
+        Entry entry = mMessages.get(new Key(tracker));
+        if (entry == null) {
+            return MESSAGE_NOT_INDEXED;
+        }
+        return entry.add(getIndex(tracker), tracker.getPdu(), tracker.getDestPort());
+    }
+
+    /**
+     * Start indexing a message, replacing any existing entry for the same reference. Segments
+     * already stored in the raw table should then be added with {@link #addLoadedSegment}.
+     * @param tracker a tracker for any segment of the message
+     */
+    void startMessage(InboundSmsTracker tracker) {
+        mMessages.put(new Key(tracker), new Entry(tracker.getMessageCount()));
+    }
+
+    /**
+     * Add a segment read back from the raw table to a message started by {@link #startMessage}.
+     * @param tracker a tracker for any segment of the message
+     * @param index the 0-based index of the loaded segment
+     * @param pdu the PDU of the loaded segment
+     * @param destPort the real destination port of the loaded segment, or -1
+     */
+    void addLoadedSegment(InboundSmsTracker tracker, int index, byte[] pdu, int destPort) {
+        Entry entry = mMessages.get(new Key(tracker));
+        if (entry != null) {
+            entry.add(index, pdu, destPort);
+        }
+    }
+
+    /**
+     * Return the indexed PDU with the same sequence number as the tracker, or null.
+     * @param tracker the tracker for the segment
+     */
+    byte[] getIndexedPdu(InboundSmsTracker tracker) {
+        Entry entry = mMessages.get(new Key(tracker));
+        int index = getIndex(tracker);
+        if (entry == null || index < 0 || index >= entry.mPdus.length) {
+            return null;
+        }
+        return entry.mPdus[index];
+    }
+
+    /**
+     * Remove a single segment, e.g. because it could not be written to the raw table.
+     * @param tracker the tracker for the segment
+     */
+    void removeSegment(InboundSmsTracker tracker) {
+        Entry entry = mMessages.get(new Key(tracker));
+        if (entry != null) {
+            entry.remove(getIndex(tracker));
+        }
+    }
+
+    /**
+     * Return the indexed message for the tracker, or null if the message is not indexed.
+     * @param tracker a tracker for any segment of the message
+     */
+    Entry getMessage(InboundSmsTracker tracker) {
+        return mMessages.get(new Key(tracker));
+    }
+
+    /**
+     * Stop indexing a message, normally because it is complete and being broadcast.
+     * @param tracker a tracker for any segment of the message
+     */
+    void removeMessage(InboundSmsTracker tracker) {
+        mMessages.remove(new Key(tracker));
+    }
+
+    /** Return the number of indexed messages. */
+    int size() {
+        return mMessages.size();
+    }
+
+    private static int getIndex(InboundSmsTracker tracker) {
+        // sequence numbers are 1-based except for CDMA WAP, which is 0-based
+        return tracker.getSequenceNumber() - tracker.getIndexOffset();
+    }
+
+    /**
+     * The segments received so far for one concatenated message.
+     */
+    static final class Entry {
+        private final byte[][] mPdus;
+        private final BitSet mReceived;
+        private int mFirstSegmentDestPort = -1;
+
+        Entry(int messageCount) {
+            mPdus = new byte[messageCount][];
+            mReceived = new BitSet(messageCount);
+        }
+
+        int add(int index, byte[] pdu, int destPort) {
+            if (index < 0 || index >= mPdus.length) {
+                return SEGMENT_INVALID;
+            }
+            if (mReceived.get(index)) {
+                return SEGMENT_DUPLICATE;
+            }
+            mReceived.set(index);
+            mPdus[index] = pdu;
+            if (index == 0) {
+                mFirstSegmentDestPort = destPort;
+            }
+            return SEGMENT_ADDED;
+        }
+
+        void remove(int index) {
+            if (index >= 0 && index < mPdus.length) {
+                mReceived.clear(index);
+                mPdus[index] = null;
+                if (index == 0) {
+                    mFirstSegmentDestPort = -1;
+                }
+            }
+        }
+
+        /** Return true if every segment of the message has been received. */
+        boolean isComplete() {
+            return mReceived.cardinality() == mPdus.length;
+        }
+
+        /** Return the PDUs ordered by sequence number; entries are null until received. */
+        byte[][] getPdus() {
+            return mPdus;
+        }
+
+        /** Return the destination port of the first segment, or -1 if it has no port. */
+        int getFirstSegmentDestPort() {
+            return mFirstSegmentDestPort;
+        }
+    }
+
+    /**
+     * Identifies the segments of one concatenated message.
+     */
+    private static final class Key {
+        private final String mAddress;
+        private final int mReferenceNumber;
+        private final int mMessageCount;
+
+        Key(InboundSmsTracker tracker) {
+            mAddress = tracker.getAddress();
+            mReferenceNumber = tracker.getReferenceNumber();
+            mMessageCount = tracker.getMessageCount();
+        }
+
+        @Override
+        public int hashCode() {
+            return ((mReferenceNumber * 31) + mMessageCount) * 31
+                    + (mAddress != null ? mAddress.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Key) {
+                Key other = (Key) o;
+                return (other.mReferenceNumber == mReferenceNumber)
+                        && (other.mMessageCount == mMessageCount)
+                        && (mAddress == null ? other.mAddress == null
+                                : mAddress.equals(other.mAddress));
+            }
+            return false;
+        }
+    }
+}
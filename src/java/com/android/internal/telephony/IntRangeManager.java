@@ -16,8 +16,8 @@
 
 package com.android.internal.telephony;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashSet;
 
 /**
  * Clients can enable reception of SMS-CB messages for specific ranges of
@@ -35,116 +35,21 @@ import java.util.Iterator;
  * Clients are identified by String (the name associated with the User ID
  * of the caller) so that a call to remove a range can be mapped to the
  * client that enabled that range (or else rejected).
+ *
+ * The enabled message identifiers are kept as sorted, disjoint segments,
+ * each with the number of client ranges that include it. Enabling or
+ * disabling a range only rewrites the segments it overlaps, found by binary
+ * search, and the radio is only updated when a count goes from 0 to 1 or
+ * from 1 to 0.
  */
 public abstract class IntRangeManager {
 
-    /**
-     * Initial capacity for IntRange clients array list. There will be
-     * few cell broadcast listeners on a typical device, so this can be small.
-     */
-    private static final int INITIAL_CLIENTS_ARRAY_SIZE = 4;
-
-    /**
-     * One or more clients forming the continuous range [startId, endId].
-     * <p>When a client is added, the IntRange may merge with one or more
-     * adjacent IntRanges to form a single combined IntRange.
-     * <p>When a client is removed, the IntRange may divide into several
-     * non-contiguous IntRanges.
-     */
-    private class IntRange {
-        int mStartId;
-        int mEndId;
-        // sorted by earliest start id
-        final ArrayList<ClientRange> mClients;
-
-        /**
-         * Create a new IntRange with a single client.
-         * @param startId the first id included in the range
-         * @param endId the last id included in the range
-         * @param client the client requesting the enabled range
-         */
-        IntRange(int startId, int endId, String client) {
-            mStartId = startId;
-            mEndId = endId;
-            mClients = new ArrayList<ClientRange>(INITIAL_CLIENTS_ARRAY_SIZE);
-            mClients.add(new ClientRange(startId, endId, client));
-        }
-
-        /**
-         * Create a new IntRange for an existing ClientRange.
-         * @param clientRange the initial ClientRange to add
-         */
-        IntRange(ClientRange clientRange) {
-            mStartId = clientRange.mStartId;
-            mEndId = clientRange.mEndId;
-            mClients = new ArrayList<ClientRange>(INITIAL_CLIENTS_ARRAY_SIZE);
-            mClients.add(clientRange);
-        }
-
-        /**
-         * Create a new IntRange from an existing IntRange. This is used for
-         * removing a ClientRange, because new IntRanges may need to be created
-         * for any gaps that open up after the ClientRange is removed. A copy
-         * is made of the elements of the original IntRange preceding the element
-         * that is being removed. The following elements will be added to this
-         * IntRange or to a new IntRange when a gap is found.
-         * @param intRange the original IntRange to copy elements from
-         * @param numElements the number of elements to copy from the original
-         */
-        IntRange(IntRange intRange, int numElements) {
-            mStartId = intRange.mStartId;
-            mEndId = intRange.mEndId;
-            mClients = new ArrayList<ClientRange>(intRange.mClients.size());
-            for (int i=0; i < numElements; i++) {
-                mClients.add(intRange.mClients.get(i));
-            }
-        }
-
-        /**
-         * Insert new ClientRange in order by start id, then by end id
-         * <p>If the new ClientRange is known to be sorted before or after the
-         * existing ClientRanges, or at a particular index, it can be added
-         * to the clients array list directly, instead of via this method.
-         * <p>Note that this can be changed from linear to binary search if the
-         * number of clients grows large enough that it would make a difference.
-         * @param range the new ClientRange to insert
-         */
-        void insert(ClientRange range) {
-            int len = mClients.size();
-            int insert = -1;
-            for (int i=0; i < len; i++) {
-                ClientRange nextRange = mClients.get(i);
-                if (range.mStartId <= nextRange.mStartId) {
-                    // ignore duplicate ranges from the same client
-                    if (!range.equals(nextRange)) {
-                        // check if same startId, then order by endId
-                        if (range.mStartId == nextRange.mStartId
-                                && range.mEndId > nextRange.mEndId) {
-                            insert = i + 1;
-                            if (insert < len) {
-                                // there may be more client following with same startId
-                                // new [1, 5] existing [1, 2] [1, 4] [1, 7]
-                                continue;
-                            }
-                            break;
-                        }
-                        mClients.add(i, range);
-                    }
-                    return;
-                }
-            }
-            if (insert != -1 && insert < len) {
-                mClients.add(insert, range);
-                return;
-            }
-            mClients.add(range);    // append to end of list
-        }
-    }
+    private static final int INITIAL_CAPACITY = 8;
 
     /**
      * The message id range for a single client.
      */
-    private class ClientRange {
+    private static class ClientRange {
         final int mStartId;
         final int mEndId;
         final String mClient;
@@ -174,9 +79,31 @@ public abstract class IntRangeManager {
     }
 
     /**
-     * List of integer ranges, one per client, sorted by start id.
+     * Segments of enabled message identifiers [mStartIds[i], mEndIds[i]],
+     * sorted by start id, and the number of client ranges that include each.
+     * Touching segments always have different counts.
+     */
+    private int[] mStartIds = new int[INITIAL_CAPACITY];
+    private int[] mEndIds = new int[INITIAL_CAPACITY];
+    private int[] mCounts = new int[INITIAL_CAPACITY];
+    private int mNumSegments;
+
+    /**
+     * The enabled message identifiers as coalesced ranges, sorted, as they
+     * are sent to the radio. Touching segments with different counts are in
+     * the same range.
      */
-    private ArrayList<IntRange> mRanges = new ArrayList<IntRange>();
+    private int[] mRangeStartIds = new int[INITIAL_CAPACITY];
+    private int[] mRangeEndIds = new int[INITIAL_CAPACITY];
+    private int mNumRanges;
+
+    private final SegmentBuilder mBuilder = new SegmentBuilder();
+
+    /**
+     * The enabled range of each client. A client enabling the same range
+     * twice only needs to disable it once.
+     */
+    private final HashSet<ClientRange> mClientRanges = new HashSet<ClientRange>();
 
     protected IntRangeManager() {}
 
@@ -191,237 +118,43 @@ public abstract class IntRangeManager {
      * @return true if successful, false otherwise
      */
     public synchronized boolean enableRange(int startId, int endId, String client) {
-        int len = mRanges.size();
-
-        // empty range list: add the initial IntRange
-        if (len == 0) {
-            if (tryAddRanges(startId, endId, true)) {
-                mRanges.add(new IntRange(startId, endId, client));
-                return true;
-            } else {
-                return false;   // failed to update radio
-            }
+        if (startId > endId) {
+            return false;
+        }
+        ClientRange clientRange = new ClientRange(startId, endId, client);
+        if (mClientRanges.contains(clientRange)) {
+            return true;
         }
 
-        for (int startIndex = 0; startIndex < len; startIndex++) {
-            IntRange range = mRanges.get(startIndex);
-            if ((startId) >= range.mStartId && (endId) <= range.mEndId) {
-                // exact same range:  new [1, 1] existing [1, 1]
-                // range already enclosed in existing: new [3, 3], [1,3]
-                // no radio update necessary.
-                // duplicate "client" check is done in insert, attempt to insert.
-                range.insert(new ClientRange(startId, endId, client));
-                return true;
-            } else if ((startId - 1) == range.mEndId) {
-                // new [3, x] existing [1, 2]  OR new [2, 2] existing [1, 1]
-                // found missing link? check if next range can be joined
-                int newRangeEndId = endId;
-                IntRange nextRange = null;
-                if ((startIndex + 1) < len) {
-                    nextRange = mRanges.get(startIndex + 1);
-                    if ((nextRange.mStartId - 1) <= endId) {
-                        // new [3, x] existing [1, 2] [5, 7] OR  new [2 , 2] existing [1, 1] [3, 5]
-                        if (endId <= nextRange.mEndId) {
-                            // new [3, 6] existing [1, 2] [5, 7]
-                            newRangeEndId = nextRange.mStartId - 1; // need to enable [3, 4]
-                        }
-                    } else {
-                        // mark nextRange to be joined as null.
-                        nextRange = null;
-                    }
-                }
-                if (tryAddRanges(startId, newRangeEndId, true)) {
-                    range.mEndId = endId;
-                    range.insert(new ClientRange(startId, endId, client));
-
-                    // found missing link? check if next range can be joined
-                    if (nextRange != null) {
-                        if (range.mEndId < nextRange.mEndId) {
-                            // new [3, 6] existing [1, 2] [5, 10]
-                            range.mEndId = nextRange.mEndId;
-                        }
-                        range.mClients.addAll(nextRange.mClients);
-                        mRanges.remove(nextRange);
-                    }
-                    return true;
-                } else {
-                    return false;   // failed to update radio
-                }
-            } else if (startId < range.mStartId) {
-                // new [1, x] , existing [5, y]
-                // test if new range completely precedes this range
-                // note that [1, 4] and [5, 6] coalesce to [1, 6]
-                if ((endId + 1) < range.mStartId) {
-                    // new [1, 3] existing [5, 6] non contiguous case
-                    // insert new int range before previous first range
-                    if (tryAddRanges(startId, endId, true)) {
-                        mRanges.add(startIndex, new IntRange(startId, endId, client));
-                        return true;
-                    } else {
-                        return false;   // failed to update radio
-                    }
-                } else if (endId <= range.mEndId) {
-                    // new [1, 4] existing [5, 6]  or  new [1, 1] existing [2, 2]
-                    // extend the start of this range
-                    if (tryAddRanges(startId, range.mStartId - 1, true)) {
-                        range.mStartId = startId;
-                        range.mClients.add(0, new ClientRange(startId, endId, client));
-                        return true;
-                    } else {
-                        return false;   // failed to update radio
-                    }
-                } else {
-                    // find last range that can coalesce into the new combined range
-                    for (int endIndex = startIndex+1; endIndex < len; endIndex++) {
-                        IntRange endRange = mRanges.get(endIndex);
-                        if ((endId + 1) < endRange.mStartId) {
-                            // new [1, 10] existing [2, 3] [14, 15]
-                            // try to add entire new range
-                            if (tryAddRanges(startId, endId, true)) {
-                                range.mStartId = startId;
-                                range.mEndId = endId;
-                                // insert new ClientRange before existing ranges
-                                range.mClients.add(0, new ClientRange(startId, endId, client));
-                                // coalesce range with following ranges up to endIndex-1
-                                // remove each range after adding its elements, so the index
-                                // of the next range to join is always startIndex+1.
-                                // i is the index if no elements were removed: we only care
-                                // about the number of loop iterations, not the value of i.
-                                int joinIndex = startIndex + 1;
-                                for (int i = joinIndex; i < endIndex; i++) {
-                                    // new [1, 10] existing [2, 3] [5, 6] [14, 15]
-                                    IntRange joinRange = mRanges.get(joinIndex);
-                                    range.mClients.addAll(joinRange.mClients);
-                                    mRanges.remove(joinRange);
-                                }
-                                return true;
-                            } else {
-                                return false;   // failed to update radio
-                            }
-                        } else if (endId <= endRange.mEndId) {
-                            // new [1, 10] existing [2, 3] [5, 15]
-                            // add range from start id to start of last overlapping range,
-                            // values from endRange.startId to endId are already enabled
-                            if (tryAddRanges(startId, endRange.mStartId - 1, true)) {
-                                range.mStartId = startId;
-                                range.mEndId = endRange.mEndId;
-                                // insert new ClientRange before existing ranges
-                                range.mClients.add(0, new ClientRange(startId, endId, client));
-                                // coalesce range with following ranges up to endIndex
-                                // remove each range after adding its elements, so the index
-                                // of the next range to join is always startIndex+1.
-                                // i is the index if no elements were removed: we only care
-                                // about the number of loop iterations, not the value of i.
-                                int joinIndex = startIndex + 1;
-                                for (int i = joinIndex; i <= endIndex; i++) {
-                                    IntRange joinRange = mRanges.get(joinIndex);
-                                    range.mClients.addAll(joinRange.mClients);
-                                    mRanges.remove(joinRange);
-                                }
-                                return true;
-                            } else {
-                                return false;   // failed to update radio
-                            }
-                        }
-                    }
-
-                    // new [1, 10] existing [2, 3]
-                    // endId extends past all existing IntRanges: combine them all together
-                    if (tryAddRanges(startId, endId, true)) {
-                        range.mStartId = startId;
-                        range.mEndId = endId;
-                        // insert new ClientRange before existing ranges
-                        range.mClients.add(0, new ClientRange(startId, endId, client));
-                        // coalesce range with following ranges up to len-1
-                        // remove each range after adding its elements, so the index
-                        // of the next range to join is always startIndex+1.
-                        // i is the index if no elements were removed: we only care
-                        // about the number of loop iterations, not the value of i.
-                        int joinIndex = startIndex + 1;
-                        for (int i = joinIndex; i < len; i++) {
-                            // new [1, 10] existing [2, 3] [5, 6]
-                            IntRange joinRange = mRanges.get(joinIndex);
-                            range.mClients.addAll(joinRange.mClients);
-                            mRanges.remove(joinRange);
-                        }
-                        return true;
-                    } else {
-                        return false;   // failed to update radio
-                    }
-                }
-            } else if ((startId + 1) <= range.mEndId) {
-                // new [2, x] existing [1, 4]
-                if (endId <= range.mEndId) {
-                    // new [2, 3] existing [1, 4]
-                    // completely contained in existing range; no radio changes
-                    range.insert(new ClientRange(startId, endId, client));
-                    return true;
-                } else {
-                    // new [2, 5] existing [1, 4]
-                    // find last range that can coalesce into the new combined range
-                    int endIndex = startIndex;
-                    for (int testIndex = startIndex+1; testIndex < len; testIndex++) {
-                        IntRange testRange = mRanges.get(testIndex);
-                        if ((endId + 1) < testRange.mStartId) {
-                            break;
-                        } else {
-                            endIndex = testIndex;
-                        }
-                    }
-                    // no adjacent IntRanges to combine
-                    if (endIndex == startIndex) {
-                        // new [2, 5] existing [1, 4]
-                        // add range from range.endId+1 to endId,
-                        // values from startId to range.endId are already enabled
-                        if (tryAddRanges(range.mEndId + 1, endId, true)) {
-                            range.mEndId = endId;
-                            range.insert(new ClientRange(startId, endId, client));
-                            return true;
-                        } else {
-                            return false;   // failed to update radio
-                        }
-                    }
-                    // get last range to coalesce into start range
-                    IntRange endRange = mRanges.get(endIndex);
-                    // Values from startId to range.endId have already been enabled.
-                    // if endId > endRange.endId, then enable range from range.endId+1 to endId,
-                    // else enable range from range.endId+1 to endRange.startId-1, because
-                    // values from endRange.startId to endId have already been added.
-                    int newRangeEndId = (endId <= endRange.mEndId) ? endRange.mStartId - 1 : endId;
-                    // new [2, 10] existing [1, 4] [7, 8] OR
-                    // new [2, 10] existing [1, 4] [7, 15]
-                    if (tryAddRanges(range.mEndId + 1, newRangeEndId, true)) {
-                        newRangeEndId = (endId <= endRange.mEndId) ? endRange.mEndId : endId;
-                        range.mEndId = newRangeEndId;
-                        // insert new ClientRange in place
-                        range.insert(new ClientRange(startId, endId, client));
-                        // coalesce range with following ranges up to endIndex
-                        // remove each range after adding its elements, so the index
-                        // of the next range to join is always startIndex+1 (joinIndex).
-                        // i is the index if no elements had been removed: we only care
-                        // about the number of loop iterations, not the value of i.
-                        int joinIndex = startIndex + 1;
-                        for (int i = joinIndex; i <= endIndex; i++) {
-                            IntRange joinRange = mRanges.get(joinIndex);
-                            range.mClients.addAll(joinRange.mClients);
-                            mRanges.remove(joinRange);
-                        }
-                        return true;
-                    } else {
-                        return false;   // failed to update radio
-                    }
+        // Find the first and last ids that aren't enabled yet. The radio is
+        // sent the range between them; any ids in it that are already
+        // enabled stay enabled.
+        int firstNewId = 0;
+        int lastNewId = 0;
+        boolean found = false;
+        int id = startId;
+        for (int i = firstSegmentEndingAtOrAfter(startId); i <= mNumSegments; i++) {
+            boolean last = i == mNumSegments || mStartIds[i] > endId;
+            int gapEndId = last ? endId : mStartIds[i] - 1;
+            if (gapEndId >= id) {
+                if (!found) {
+                    firstNewId = id;
+                    found = true;
                 }
+                lastNewId = gapEndId;
             }
+            if (last || mEndIds[i] >= endId) {
+                break;
+            }
+            id = mEndIds[i] + 1;
         }
 
-        // new [5, 6], existing [1, 3]
-        // append new range after existing IntRanges
-        if (tryAddRanges(startId, endId, true)) {
-            mRanges.add(new IntRange(startId, endId, client));
-            return true;
-        } else {
+        if (found && !tryAddRanges(firstNewId, lastNewId, true)) {
             return false;   // failed to update radio
         }
+        addCount(startId, endId, 1);
+        mClientRanges.add(clientRange);
+        return true;
     }
 
     /**
@@ -435,145 +168,17 @@ public abstract class IntRangeManager {
      * @return true if successful, false otherwise
      */
     public synchronized boolean disableRange(int startId, int endId, String client) {
-        int len = mRanges.size();
-
-        for (int i=0; i < len; i++) {
-            IntRange range = mRanges.get(i);
-            if (startId < range.mStartId) {
-                return false;   // not found
-            } else if (endId <= range.mEndId) {
-                // found the IntRange that encloses the client range, if any
-                // search for it in the clients list
-                ArrayList<ClientRange> clients = range.mClients;
-
-                // handle common case of IntRange containing one ClientRange
-                int crLength = clients.size();
-                if (crLength == 1) {
-                    ClientRange cr = clients.get(0);
-                    if (cr.mStartId == startId && cr.mEndId == endId && cr.mClient.equals(client)) {
-                        // mRange contains only what's enabled.
-                        // remove the range from mRange then update the radio
-                        mRanges.remove(i);
-                        if (updateRanges()) {
-                            return true;
-                        } else {
-                            // failed to update radio.  insert back the range
-                            mRanges.add(i, range);
-                            return false;
-                        }
-                    } else {
-                        return false;   // not found
-                    }
-                }
-
-                // several ClientRanges: remove one, potentially splitting into many IntRanges.
-                // Save the original start and end id for the original IntRange
-                // in case the radio update fails and we have to revert it. If the
-                // update succeeds, we remove the client range and insert the new IntRanges.
-                // clients are ordered by startId then by endId, so client with largest endId
-                // can be anywhere.  Need to loop thru to find largestEndId.
-                int largestEndId = Integer.MIN_VALUE;  // largest end identifier found
-                boolean updateStarted = false;
-
-                // crlength >= 2
-                for (int crIndex=0; crIndex < crLength; crIndex++) {
-                    ClientRange cr = clients.get(crIndex);
-                    if (cr.mStartId == startId && cr.mEndId == endId && cr.mClient.equals(client)) {
-                        // found the ClientRange to remove, check if it's the last in the list
-                        if (crIndex == crLength - 1) {
-                            if (range.mEndId == largestEndId) {
-                                // remove [2, 5] from [1, 7] [2, 5]
-                                // no channels to remove from radio; return success
-                                clients.remove(crIndex);
-                                return true;
-                            } else {
-                                // disable the channels at the end and lower the end id
-                                clients.remove(crIndex);
-                                range.mEndId = largestEndId;
-                                if (updateRanges()) {
-                                    return true;
-                                } else {
-                                    clients.add(crIndex, cr);
-                                    range.mEndId = cr.mEndId;
-                                    return false;
-                                }
-                            }
-                        }
-
-                        // copy the IntRange so that we can remove elements and modify the
-                        // start and end id's in the copy, leaving the original unmodified
-                        // until after the radio update succeeds
-                        IntRange rangeCopy = new IntRange(range, crIndex);
-
-                        if (crIndex == 0) {
-                            // removing the first ClientRange, so we may need to increase
-                            // the start id of the IntRange.
-                            // We know there are at least two ClientRanges in the list,
-                            // because check for just one ClientRanges case is already handled
-                            // so clients.get(1) should always succeed.
-                            int nextStartId = clients.get(1).mStartId;
-                            if (nextStartId != range.mStartId) {
-                                updateStarted = true;
-                                rangeCopy.mStartId = nextStartId;
-                            }
-                            // init largestEndId
-                            largestEndId = clients.get(1).mEndId;
-                        }
-
-                        // go through remaining ClientRanges, creating new IntRanges when
-                        // there is a gap in the sequence. After radio update succeeds,
-                        // remove the original IntRange and append newRanges to mRanges.
-                        // Otherwise, leave the original IntRange in mRanges and return false.
-                        ArrayList<IntRange> newRanges = new ArrayList<IntRange>();
-
-                        IntRange currentRange = rangeCopy;
-                        for (int nextIndex = crIndex + 1; nextIndex < crLength; nextIndex++) {
-                            ClientRange nextCr = clients.get(nextIndex);
-                            if (nextCr.mStartId > largestEndId + 1) {
-                                updateStarted = true;
-                                currentRange.mEndId = largestEndId;
-                                newRanges.add(currentRange);
-                                currentRange = new IntRange(nextCr);
-                            } else {
-                                if (currentRange.mEndId < nextCr.mEndId) {
-                                    currentRange.mEndId = nextCr.mEndId;
-                                }
-                                currentRange.mClients.add(nextCr);
-                            }
-                            if (nextCr.mEndId > largestEndId) {
-                                largestEndId = nextCr.mEndId;
-                            }
-                        }
-
-                        // remove any channels between largestEndId and endId
-                        if (largestEndId < endId) {
-                            updateStarted = true;
-                            currentRange.mEndId = largestEndId;
-                        }
-                        newRanges.add(currentRange);
-
-                        // replace the original IntRange with newRanges
-                        mRanges.remove(i);
-                        mRanges.addAll(i, newRanges);
-                        if (updateStarted && !updateRanges()) {
-                            // failed to update radio.  revert back mRange.
-                            mRanges.removeAll(newRanges);
-                            mRanges.add(i, range);
-                            return false;
-                        }
-
-                        return true;
-                    } else {
-                        // not the ClientRange to remove; save highest end ID seen so far
-                        if (cr.mEndId > largestEndId) {
-                            largestEndId = cr.mEndId;
-                        }
-                    }
-                }
-            }
+        ClientRange clientRange = new ClientRange(startId, endId, client);
+        if (!mClientRanges.remove(clientRange)) {
+            return false;   // not found
         }
-
-        return false;   // not found
+        if (addCount(startId, endId, -1) && !updateRanges()) {
+            // failed to update radio.  add back the range
+            addCount(startId, endId, 1);
+            mClientRanges.add(clientRange);
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -582,7 +187,7 @@ public abstract class IntRangeManager {
      * more calls to {@link #addRange}, followed by {@link #finishUpdate}.
      * @return true if successful, false otherwise
      */
-    public boolean updateRanges() {
+    public synchronized boolean updateRanges() {
         startUpdate();
 
         populateAllRanges();
@@ -609,37 +214,190 @@ public abstract class IntRangeManager {
      * Returns whether the list of ranges is completely empty.
      * @return true if there are no enabled ranges
      */
-    public boolean isEmpty() {
-        return mRanges.isEmpty();
+    public synchronized boolean isEmpty() {
+        return mNumSegments == 0;
     }
 
     /**
-     * Called when attempting to add a single range of message identifiers
-     * Populate all ranges of message identifiers.
+     * @return the index of the first segment with an end id of at least id,
+     *         or the number of segments if there is none
      */
-    private void populateAllRanges() {
-        Iterator<IntRange> itr = mRanges.iterator();
-        // Populate all ranges from mRanges
-        while (itr.hasNext()) {
-            IntRange currRange = (IntRange) itr.next();
-            addRange(currRange.mStartId, currRange.mEndId, true);
+    private int firstSegmentEndingAtOrAfter(int id) {
+        int index = Arrays.binarySearch(mEndIds, 0, mNumSegments, id);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Adds to the count of each message identifier in [startId, endId],
+     * creating and removing segments as the counts go from and to 0.
+     *
+     * The segments that overlap or touch the range are replaced by new ones,
+     * so that touching segments with the same count are merged.
+     *
+     * @param delta 1 when a client range is added, -1 when one is removed
+     * @return true if any message identifier was enabled or disabled
+     */
+    private boolean addCount(int startId, int endId, int delta) {
+        int first = firstSegmentEndingAtOrAfter(startId - 1);
+        int last = first;
+        while (last < mNumSegments && (long) mStartIds[last] <= (long) endId + 1) {
+            last++;
+        }
+
+        // each old segment gives at most three new ones, and there may be a gap at the end
+        SegmentBuilder builder = mBuilder;
+        builder.reset(3 * (last - first) + 1);
+        boolean changed = false;
+        // the first id in the range after the segments seen so far
+        long nextId = startId;
+        for (int i = first; i < last; i++) {
+            int segmentStartId = mStartIds[i];
+            int segmentEndId = mEndIds[i];
+            int count = mCounts[i];
+            if (segmentStartId < startId) {
+                builder.add(segmentStartId, Math.min(segmentEndId, startId - 1), count);
+            }
+            if (segmentStartId > nextId && nextId <= endId && delta > 0) {
+                builder.add((int) nextId, Math.min(segmentStartId - 1, endId), delta);
+                changed = true;
+            }
+            if (segmentEndId >= startId && segmentStartId <= endId) {
+                builder.add(Math.max(segmentStartId, startId), Math.min(segmentEndId, endId),
+                        count + delta);
+                changed |= count + delta == 0;
+            }
+            if (segmentEndId > endId) {
+                builder.add(Math.max(segmentStartId, endId + 1), segmentEndId, count);
+            }
+            nextId = Math.max(nextId, segmentEndId + 1L);
         }
+        if (nextId <= endId && delta > 0) {
+            builder.add((int) nextId, endId, delta);
+            changed = true;
+        }
+
+        // replace the old segments with the new ones
+        int numSegments = mNumSegments - (last - first) + builder.mSize;
+        if (numSegments > mStartIds.length) {
+            int capacity = Math.max(numSegments, mStartIds.length * 2);
+            mStartIds = Arrays.copyOf(mStartIds, capacity);
+            mEndIds = Arrays.copyOf(mEndIds, capacity);
+            mCounts = Arrays.copyOf(mCounts, capacity);
+        }
+        if (first + builder.mSize != last) {
+            int tail = mNumSegments - last;
+            System.arraycopy(mStartIds, last, mStartIds, first + builder.mSize, tail);
+            System.arraycopy(mEndIds, last, mEndIds, first + builder.mSize, tail);
+            System.arraycopy(mCounts, last, mCounts, first + builder.mSize, tail);
+        }
+        System.arraycopy(builder.mStartIds, 0, mStartIds, first, builder.mSize);
+        System.arraycopy(builder.mEndIds, 0, mEndIds, first, builder.mSize);
+        System.arraycopy(builder.mCounts, 0, mCounts, first, builder.mSize);
+        mNumSegments = numSegments;
+
+        if (changed) {
+            updateRangesBetween(startId, endId, delta > 0);
+        }
+        return changed;
     }
 
     /**
-     * Called when attempting to add a single range of message identifiers
-     * Populate all ranges of message identifiers using clients' ranges.
+     * New segments in order, merging touching ones with the same count and
+     * dropping those with a count of 0. Reused for each update.
+     */
+    private static class SegmentBuilder {
+        int[] mStartIds = new int[INITIAL_CAPACITY];
+        int[] mEndIds = new int[INITIAL_CAPACITY];
+        int[] mCounts = new int[INITIAL_CAPACITY];
+        int mSize;
+
+        void reset(int capacity) {
+            if (capacity > mStartIds.length) {
+                mStartIds = new int[capacity];
+                mEndIds = new int[capacity];
+                mCounts = new int[capacity];
+            }
+            mSize = 0;
+        }
+
+        void add(int startId, int endId, int count) {
+            if (count == 0) {
+                return;
+            }
+            if (mSize > 0 && mEndIds[mSize - 1] == startId - 1
+                    && mCounts[mSize - 1] == count) {
+                mEndIds[mSize - 1] = endId;
+                return;
+            }
+            mStartIds[mSize] = startId;
+            mEndIds[mSize] = endId;
+            mCounts[mSize] = count;
+            mSize++;
+        }
+    }
+
+    /**
+     * Rebuilds the ranges that overlap or touch [startId, endId] after the
+     * counts of those message identifiers have changed.
+     *
+     * @param enabled true if all of [startId, endId] is now enabled, so it
+     *        joins the ranges it touches; false to rebuild them from the segments
      */
-    private void populateAllClientRanges() {
-        int len = mRanges.size();
-        for (int i = 0; i < len; i++) {
-            IntRange range = mRanges.get(i);
-
-            int clientLen = range.mClients.size();
-            for (int j=0; j < clientLen; j++) {
-                ClientRange nextRange = range.mClients.get(j);
-                addRange(nextRange.mStartId, nextRange.mEndId, true);
+    private void updateRangesBetween(int startId, int endId, boolean enabled) {
+        int index = Arrays.binarySearch(mRangeEndIds, 0, mNumRanges, startId - 1);
+        int first = index >= 0 ? index : -index - 1;
+        int last = first;
+        while (last < mNumRanges && (long) mRangeStartIds[last] <= (long) endId + 1) {
+            last++;
+        }
+        int lowId = startId;
+        int highId = endId;
+        if (last > first) {
+            lowId = Math.min(lowId, mRangeStartIds[first]);
+            highId = Math.max(highId, mRangeEndIds[last - 1]);
+        }
+
+        SegmentBuilder builder = mBuilder;
+        if (enabled) {
+            builder.reset(1);
+            builder.add(lowId, highId, 1);
+        } else {
+            // coalesce the segments between lowId and highId, as if they had the same count
+            int segment = firstSegmentEndingAtOrAfter(lowId);
+            int end = segment;
+            while (end < mNumSegments && mStartIds[end] <= highId) {
+                end++;
             }
+            builder.reset(end - segment);
+            for (int i = segment; i < end; i++) {
+                builder.add(mStartIds[i], mEndIds[i], 1);
+            }
+        }
+        int numRanges = builder.mSize;
+
+        int total = mNumRanges - (last - first) + numRanges;
+        if (total > mRangeStartIds.length) {
+            int capacity = Math.max(total, mRangeStartIds.length * 2);
+            mRangeStartIds = Arrays.copyOf(mRangeStartIds, capacity);
+            mRangeEndIds = Arrays.copyOf(mRangeEndIds, capacity);
+        }
+        if (first + numRanges != last) {
+            int tail = mNumRanges - last;
+            System.arraycopy(mRangeStartIds, last, mRangeStartIds, first + numRanges, tail);
+            System.arraycopy(mRangeEndIds, last, mRangeEndIds, first + numRanges, tail);
+        }
+        System.arraycopy(builder.mStartIds, 0, mRangeStartIds, first, numRanges);
+        System.arraycopy(builder.mEndIds, 0, mRangeEndIds, first, numRanges);
+        mNumRanges = total;
+    }
+
+    /**
+     * Called when attempting to add a single range of message identifiers
+     * Populate all ranges of message identifiers.
+     */
+    private void populateAllRanges() {
+        for (int i = 0; i < mNumRanges; i++) {
+            addRange(mRangeStartIds[i], mRangeEndIds[i], true);
         }
     }
 
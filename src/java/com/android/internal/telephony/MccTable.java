@@ -46,6 +46,9 @@ public final class MccTable
 
     static ArrayList<MccEntry> sTable;
 
+    // sTable indexed by MCC, so that a lookup doesn't search or allocate
+    static final MccEntry[] sEntriesByMcc = new MccEntry[1000];
+
     static class MccEntry implements Comparable<MccEntry>
     {
         int mMcc;
@@ -75,19 +78,10 @@ public final class MccTable
     private static MccEntry
     entryForMcc(int mcc)
     {
-        int index;
-
-        MccEntry m;
-
-        m = new MccEntry(mcc, null, 0);
-
-        index = Collections.binarySearch(sTable, m);
-
-        if (index < 0) {
+        if (mcc < 0 || mcc >= sEntriesByMcc.length) {
             return null;
-        } else {
-            return sTable.get(index);
         }
+        return sEntriesByMcc[mcc];
     }
 
     /**
@@ -654,5 +648,8 @@ public final class MccTable
         //table.add(new MccEntry(901,"",2));	//"International Mobile, shared code"
 
         Collections.sort(sTable);
+        for (MccEntry entry : sTable) {
+            sEntriesByMcc[entry.mMcc] = entry;
+        }
     }
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.util.HashSet;
+
+/**
+ * Splits a dial string into the fields of a supplementary service MMI code, as defined in
+ * TS 22.030 6.5.2 "Structure of the MMI":
+ *
+ * <pre>
+ *   action service-code [*SIA [*SIB [*SIC [*PWD]]]] # [dialing-number]
+ * </pre>
+ *
+ * where the action is one of *, #, *#, ** or ##, and the service code is 2 or 3 digits.
+ * The string is scanned once. A string without * fields allocates nothing unless it is an
+ * MMI code; one with * fields allocates the two arrays holding their bounds, even if it then
+ * turns out not to be an MMI code. This is shared by the GSM, CDMA and IMS MMI code classes,
+ * and is meant to match the same strings as the regular expression they used before:
+ *
+ * <pre>
+ *   ((\*|#|\*#|\*\*|##)(\d{2,3})(\*([^*#]*)(\*([^*#]*)(\*([^*#]*)(\*([^*#]*))?)?)?)?#)(.*)
+ * </pre>
+ *
+ * A digit is one of '0' to '9' only, as \d is for java.util.regex without
+ * UNICODE_CHARACTER_CLASS; Character.isDigit would also accept other scripts' digits. The
+ * dialing number may hold any character but the line terminators that "." doesn't match.
+ *
+ * {@hide}
+ */
+public final class MmiCodeParser {
+
+    /** The maximum number of * separated fields after the service code: SIA, SIB, SIC, PWD. */
+    private static final int MAX_FIELDS = 4;
+
+    private static final Object sTwoDigitShortCodesLock = new Object();
+    private static HashSet<String> sTwoDigitShortCodes;
+    private static int sTwoDigitShortCodesMcc;
+    private static int sTwoDigitShortCodesMnc;
+
+    private final String mPoundString;
+    private final String mAction;
+    private final String mServiceCode;
+    private final String[] mFields = new String[MAX_FIELDS];
+    private final String mDialingNumber;
+
+    private MmiCodeParser(String dialString, int actionEnd, int serviceCodeEnd, int poundEnd,
+            int[] fieldStarts, int[] fieldEnds, int fieldCount) {
+        mPoundString = dialString.substring(0, poundEnd);
+        mAction = dialString.substring(0, actionEnd);
+        mServiceCode = dialString.substring(actionEnd, serviceCodeEnd);
+        for (int i = 0; i < fieldCount; i++) {
+            mFields[i] = substringOrNull(dialString, fieldStarts[i], fieldEnds[i]);
+        }
+        mDialingNumber = substringOrNull(dialString, poundEnd, dialString.length());
+    }
+
+    /**
+     * Parse a dial string as a supplementary service MMI code.
+     * @param dialString the dial string
+     * @return the parsed fields, or null if the dial string isn't an MMI code
+     */
+    public static MmiCodeParser parse(String dialString) {
+        if (dialString == null) {
+            return null;
+        }
+        final int length = dialString.length();
+
+        // action
+        if (length < 4) {
+            // the shortest MMI code is an action, two digits and #
+            return null;
+        }
+        int pos;
+        char c0 = dialString.charAt(0);
+        char c1 = dialString.charAt(1);
+        if (c0 == '*') {
+            pos = (c1 == '*' || c1 == '#') ? 2 : 1;
+        } else if (c0 == '#') {
+            pos = (c1 == '#') ? 2 : 1;
+        } else {
+            return null;
+        }
+        final int actionEnd = pos;
+
+        // service code: exactly 2 or 3 digits
+        while (pos < length && pos - actionEnd < 4 && isDigit(dialString.charAt(pos))) {
+            pos++;
+        }
+        int digits = pos - actionEnd;
+        if (digits < 2 || digits > 3) {
+            return null;
+        }
+        final int serviceCodeEnd = pos;
+
+        // up to 4 fields, each introduced by *, then #
+        int[] fieldStarts = null;
+        int[] fieldEnds = null;
+        int fieldCount = 0;
+        while (pos < length && dialString.charAt(pos) == '*') {
+            if (fieldCount == MAX_FIELDS) {
+                return null;
+            }
+            int start = ++pos;
+            while (pos < length) {
+                char c = dialString.charAt(pos);
+                if (c == '*' || c == '#') {
+                    break;
+                }
+                pos++;
+            }
+            if (fieldStarts == null) {
+                fieldStarts = new int[MAX_FIELDS];
+                fieldEnds = new int[MAX_FIELDS];
+            }
+            fieldStarts[fieldCount] = start;
+            fieldEnds[fieldCount] = pos;
+            fieldCount++;
+        }
+        if (pos >= length || dialString.charAt(pos) != '#') {
+            return null;
+        }
+        final int poundEnd = ++pos;
+
+        // the dialing number may be anything but a line terminator, like the regex "."
+        for (; pos < length; pos++) {
+            if (isLineTerminator(dialString.charAt(pos))) {
+                return null;
+            }
+        }
+
+        return new MmiCodeParser(dialString, actionEnd, serviceCodeEnd, poundEnd,
+                fieldStarts, fieldEnds, fieldCount);
+    }
+
+    /**
+     * Return true if the dial string is one of the carrier's two digit numbers that must be
+     * dialed as calls rather than sent as USSD short codes ("config_twoDigitNumberPattern").
+     * The numbers are loaded from resources once per MCC/MNC.
+     */
+    public static boolean isTwoDigitShortCode(Context context, String dialString) {
+        if (dialString == null || dialString.length() > 2) return false;
+
+        Configuration config = context.getResources().getConfiguration();
+        HashSet<String> shortCodes;
+        synchronized (sTwoDigitShortCodesLock) {
+            if (sTwoDigitShortCodes == null || sTwoDigitShortCodesMcc != config.mcc
+                    || sTwoDigitShortCodesMnc != config.mnc) {
+                String[] numbers = context.getResources().getStringArray(
+                        com.android.internal.R.array.config_twoDigitNumberPattern);
+                sTwoDigitShortCodes = new HashSet<String>();
+                if (numbers != null) {
+                    for (String number : numbers) {
+                        sTwoDigitShortCodes.add(number);
+                    }
+                }
+                sTwoDigitShortCodesMcc = config.mcc;
+                sTwoDigitShortCodesMnc = config.mnc;
+            }
+            shortCodes = sTwoDigitShortCodes;
+        }
+        return shortCodes.contains(dialString);
+    }
+
+    /** Return the MMI code up to and including the #. */
+    public String getPoundString() {
+        return mPoundString;
+    }
+
+    /** Return the action: activation, deactivation, interrogation, registration or erasure. */
+    public String getAction() {
+        return mAction;
+    }
+
+    public String getServiceCode() {
+        return mServiceCode;
+    }
+
+    /** Return the first supplementary information field, or null if empty or absent. */
+    public String getSia() {
+        return mFields[0];
+    }
+
+    /** Return the second supplementary information field, or null if empty or absent. */
+    public String getSib() {
+        return mFields[1];
+    }
+
+    /** Return the third supplementary information field, or null if empty or absent. */
+    public String getSic() {
+        return mFields[2];
+    }
+
+    /** Return the fourth field, used to confirm a new password, or null if empty or absent. */
+    public String getPwd() {
+        return mFields[3];
+    }
+
+    /** Return the part of the dial string after the MMI code, or null if empty. */
+    public String getDialingNumber() {
+        return mDialingNumber;
+    }
+
+    private static String substringOrNull(String s, int start, int end) {
+        return (start < end) ? s.substring(start, end) : null;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** The characters the regex "." doesn't match. */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
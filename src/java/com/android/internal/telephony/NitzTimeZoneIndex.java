@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import android.util.SparseArray;
+import android.util.TimeUtils;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
+
+/**
+ * Resolves the offset and DST flag of a NITZ string to a time zone, as
+ * {@link TimeUtils#getTimeZone(int, boolean, long, String)} does for a
+ * country and the service state trackers' findTimeZone does without one,
+ * without creating and testing every zone of the country or offset on each
+ * NITZ update.
+ *
+ * <p>The zones of a country are indexed by each local offset they can have,
+ * standard or daylight, so a lookup only tests the few zones that can
+ * match. The zones of a raw offset are created once. Recent answers are
+ * memoized by country, offset, DST flag and quarter hour; zone transitions
+ * fall on quarter hours, so within one the answer can't change.
+ *
+ * {@hide}
+ */
+public final class NitzTimeZoneIndex {
+    private static final int MS_PER_HOUR = 60 * 60 * 1000;
+    private static final long MEMO_BUCKET_MS = 15 * 60 * 1000;
+    private static final int MAX_MEMO_ENTRIES = 32;
+    private static final int MAX_COUNTRIES = 8;
+
+    // No zone matched, in the memo
+    private static final TimeZone NO_ZONE = new SimpleTimeZone(0, "");
+
+    private static final Object sLock = new Object();
+
+    // Indexes of recently seen countries, by ISO code, guarded by sLock
+    private static final LinkedHashMap<String, CountryZones> sCountries =
+            new LinkedHashMap<String, CountryZones>(MAX_COUNTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CountryZones> eldest) {
+            return size() > MAX_COUNTRIES;
+        }
+    };
+
+    // The zones of each raw offset, in TimeZone.getAvailableIDs order, guarded by sLock
+    private static final SparseArray<TimeZone[]> sZonesByRawOffset = new SparseArray<TimeZone[]>();
+
+    // Recent answers, guarded by sLock
+    private static final LinkedHashMap<String, TimeZone> sMemo =
+            new LinkedHashMap<String, TimeZone>(MAX_MEMO_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TimeZone> eldest) {
+            return size() > MAX_MEMO_ENTRIES;
+        }
+    };
+
+    private static int sLookups;
+    private static int sMemoHits;
+
+    /**
+     * The zones of a country.
+     */
+    private static final class CountryZones {
+        // As returned by TimeUtils, in the order of time_zones_by_country.xml
+        final ArrayList<TimeZone> mZones;
+        // The zones that can have each local offset, in the same order
+        final SparseArray<ArrayList<TimeZone>> mZonesByOffset =
+                new SparseArray<ArrayList<TimeZone>>();
+        final HashMap<String, TimeZone> mZonesById = new HashMap<String, TimeZone>();
+        ArrayList<TimeZone> mUniqueOffsetZones;
+
+        CountryZones(ArrayList<TimeZone> zones) {
+            mZones = zones;
+            for (TimeZone tz : zones) {
+                mZonesById.put(tz.getID(), tz);
+                addByOffset(tz.getRawOffset(), tz);
+                if (tz.useDaylightTime()) {
+                    addByOffset(tz.getRawOffset() + tz.getDSTSavings(), tz);
+                }
+            }
+        }
+
+        private void addByOffset(int offset, TimeZone tz) {
+            ArrayList<TimeZone> zones = mZonesByOffset.get(offset);
+            if (zones == null) {
+                zones = new ArrayList<TimeZone>(2);
+                mZonesByOffset.put(offset, zones);
+            }
+            zones.add(tz);
+        }
+    }
+
+    private NitzTimeZoneIndex() {
+    }
+
+    private static CountryZones getCountryLocked(String iso) {
+        CountryZones country = sCountries.get(iso);
+        if (country == null) {
+            // TimeUtils keeps its list for the last country, so copy it
+            country = new CountryZones(new ArrayList<TimeZone>(TimeUtils.getTimeZones(iso)));
+            sCountries.put(iso, country);
+        }
+        return country;
+    }
+
+    private static boolean matches(TimeZone tz, int offset, boolean dst, long when, Date d) {
+        return tz.getOffset(when) == offset && tz.inDaylightTime(d) == dst;
+    }
+
+    /**
+     * Same as {@link TimeUtils#getTimeZone(int, boolean, long, String)}: the
+     * default zone if it's in the country and matches, otherwise the first
+     * zone of the country with the offset and DST flag at the time.
+     *
+     * @param offset The local offset from UTC, in milliseconds
+     * @param dst Whether daylight time is in effect
+     * @param when The time, in milliseconds since the epoch
+     * @param iso The ISO 3166 code of the country
+     * @return The zone, or null if none matches
+     */
+    public static TimeZone getTimeZone(int offset, boolean dst, long when, String iso) {
+        TimeZone current = TimeZone.getDefault();
+        Date d = new Date(when);
+        String key = iso + ':' + offset + ':' + dst + ':' + (when / MEMO_BUCKET_MS);
+        synchronized (sLock) {
+            sLookups++;
+            CountryZones country = getCountryLocked(iso);
+            if (country.mZonesById.containsKey(current.getID())
+                    && matches(current, offset, dst, when, d)) {
+                return current;
+            }
+            TimeZone best = sMemo.get(key);
+            if (best != null) {
+                sMemoHits++;
+                return best == NO_ZONE ? null : best;
+            }
+            ArrayList<TimeZone> candidates = country.mZonesByOffset.get(offset);
+            if (candidates != null) {
+                for (TimeZone tz : candidates) {
+                    if (matches(tz, offset, dst, when, d)) {
+                        best = tz;
+                        break;
+                    }
+                }
+            }
+            sMemo.put(key, best == null ? NO_ZONE : best);
+            return best;
+        }
+    }
+
+    /**
+     * Same as {@link TimeUtils#getTimeZonesWithUniqueOffsets}: the first zone
+     * of the country with each raw offset. Do not modify.
+     */
+    public static ArrayList<TimeZone> getTimeZonesWithUniqueOffsets(String iso) {
+        synchronized (sLock) {
+            CountryZones country = getCountryLocked(iso);
+            if (country.mUniqueOffsetZones == null) {
+                ArrayList<TimeZone> unique = new ArrayList<TimeZone>();
+                for (TimeZone tz : country.mZones) {
+                    boolean found = false;
+                    for (int i = 0; i < unique.size(); i++) {
+                        if (unique.get(i).getRawOffset() == tz.getRawOffset()) {
+                            found = true;
+                            break;
+                        }
+                    }
+                    if (!found) {
+                        unique.add(tz);
+                    }
+                }
+                country.mUniqueOffsetZones = unique;
+            }
+            return country.mUniqueOffsetZones;
+        }
+    }
+
+    /**
+     * Returns a zone based only on the offset and DST flag of a NITZ string,
+     * for when there is no country: the first available zone with them, or
+     * failing that, with the opposite DST flag in case the network has the
+     * wrong DST data.
+     *
+     * @return The zone, or null if none matches
+     */
+    public static TimeZone getNitzTimeZone(int offset, boolean dst, long when) {
+        TimeZone guess = findTimeZone(offset, dst, when);
+        if (guess == null) {
+            guess = findTimeZone(offset, !dst, when);
+        }
+        return guess;
+    }
+
+    private static TimeZone findTimeZone(int offset, boolean dst, long when) {
+        int rawOffset = dst ? offset - MS_PER_HOUR : offset;
+        String key = ":" + offset + ':' + dst + ':' + (when / MEMO_BUCKET_MS);
+        Date d = new Date(when);
+        synchronized (sLock) {
+            sLookups++;
+            TimeZone guess = sMemo.get(key);
+            if (guess != null) {
+                sMemoHits++;
+                return guess == NO_ZONE ? null : guess;
+            }
+            TimeZone[] zones = sZonesByRawOffset.get(rawOffset);
+            if (zones == null) {
+                String[] ids = TimeZone.getAvailableIDs(rawOffset);
+                zones = new TimeZone[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    zones[i] = TimeZone.getTimeZone(ids[i]);
+                }
+                sZonesByRawOffset.put(rawOffset, zones);
+            }
+            for (TimeZone tz : zones) {
+                if (matches(tz, offset, dst, when, d)) {
+                    guess = tz;
+                    break;
+                }
+            }
+            sMemo.put(key, guess == null ? NO_ZONE : guess);
+            return guess;
+        }
+    }
+
+    public static void dump(PrintWriter pw) {
+        synchronized (sLock) {
+            pw.println(" NitzTimeZoneIndex: countries=" + sCountries.keySet()
+                    + " rawOffsets=" + sZonesByRawOffset.size() + " memo=" + sMemo.size()
+                    + " lookups=" + sLookups + " memoHits=" + sMemoHits);
+        }
+    }
+}
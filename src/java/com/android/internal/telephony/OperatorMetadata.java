@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.OperatorMetadataFormat.*;
+
+import android.content.res.Resources;
+import android.os.Environment;
+import android.telephony.Rlog;
+
+import com.android.internal.telephony.cdma.EriInfo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * The operator metadata store in /system/etc, compiled at build time from spn-conf.xml,
+ * eri.xml and sms_short_codes.xml. See {@link OperatorMetadataFormat} for the layout.
+ *
+ * The file is mapped rather than read, so it costs no parsing and no heap, and its pages are
+ * shared by the processes that use it. Lookups read the mapping in place: by MCC and then a
+ * binary search of the few operators of that MCC for SPNs, and by index for short codes.
+ * Each kind of data is optional; users fall back to parsing their XML when its section is
+ * missing, or when there's no store at all. The ERI and short codes sections are only used when
+ * {@link #matchesResource} shows that the device resolves the resource they were compiled
+ * from.
+ *
+ * {@hide}
+ */
+public final class OperatorMetadata {
+    private static final String LOG_TAG = "OperatorMetadata";
+
+    static final String OPERATOR_METADATA_PATH = "etc/operator-metadata.bin";
+
+    private static final Object sLock = new Object();
+    private static boolean sLoaded;
+    private static OperatorMetadata sInstance;
+
+    // Only absolute reads are used, so the buffer is shared by all threads.
+    private final ByteBuffer mBuffer;
+    private int mStrings = -1;
+    private int mStringsEnd;
+    private int mSpn = -1;
+    private int mSpnCount;
+    private int mEri = -1;
+    private int mEriCount;
+    private int mShortCodes = -1;
+    private int mResources = -1;
+    private int mResourceCount;
+
+    /**
+     * @return The store, or null if the system doesn't have a valid one
+     */
+    public static OperatorMetadata getInstance() {
+        synchronized (sLock) {
+            if (!sLoaded) {
+                sLoaded = true;
+                sInstance = load(new File(Environment.getRootDirectory(),
+                        OPERATOR_METADATA_PATH));
+            }
+            return sInstance;
+        }
+    }
+
+    static OperatorMetadata load(File file) {
+        if (!file.exists()) {
+            Rlog.d(LOG_TAG, "No " + file);
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            // The mapping stays valid after the channel is closed.
+            OperatorMetadata metadata = new OperatorMetadata(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            Rlog.d(LOG_TAG, "Mapped " + file + ": " + metadata);
+            return metadata;
+        } catch (IOException e) {
+            Rlog.e(LOG_TAG, "Can't map " + file, e);
+        } catch (IllegalArgumentException e) {
+            Rlog.e(LOG_TAG, "Invalid " + file + ": " + e.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {}
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the buffer isn't a valid store
+     */
+    OperatorMetadata(ByteBuffer buffer) {
+        mBuffer = buffer;
+        int size = buffer.capacity();
+        if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Bad magic");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported version " + buffer.getInt(4));
+        }
+        int numSections = buffer.getInt(8);
+        if (numSections < 0 || numSections > (size - HEADER_SIZE) / SECTION_ENTRY_SIZE) {
+            throw new IllegalArgumentException("Bad section count " + numSections);
+        }
+        for (int i = 0; i < numSections; i++) {
+            int entry = HEADER_SIZE + i * SECTION_ENTRY_SIZE;
+            int id = buffer.getInt(entry);
+            int offset = buffer.getInt(entry + 4);
+            int length = buffer.getInt(entry + 8);
+            if (offset < 0 || length < 0 || offset > size - length) {
+                throw new IllegalArgumentException("Section " + id + " out of bounds");
+            }
+            switch (id) {
+                case SECTION_STRINGS:
+                    mStrings = offset;
+                    mStringsEnd = offset + length;
+                    break;
+                case SECTION_SPN:
+                    mSpnCount = checkCount(offset, length, SPN_TABLE_SIZE, SPN_ENTRY_SIZE,
+                            offset + NUM_MCCS * 4);
+                    for (int mcc = 0; mcc <= NUM_MCCS; mcc++) {
+                        int index = buffer.getInt(offset + mcc * 4);
+                        if (index < 0 || index > mSpnCount) {
+                            throw new IllegalArgumentException("Bad SPN index for " + mcc);
+                        }
+                    }
+                    mSpn = offset;
+                    break;
+                case SECTION_ERI:
+                    mEriCount = checkCount(offset, length, ERI_HEADER_SIZE, ERI_ENTRY_SIZE,
+                            offset + ERI_HEADER_SIZE - 4);
+                    mEri = offset;
+                    break;
+                case SECTION_SHORT_CODES:
+                    int count = checkCount(offset, length, SHORT_CODE_TABLE_SIZE,
+                            SHORT_CODE_ENTRY_SIZE, offset + NUM_COUNTRIES * 4);
+                    for (int country = 0; country < NUM_COUNTRIES; country++) {
+                        int index = buffer.getInt(offset + country * 4);
+                        if (index < -1 || index >= count) {
+                            throw new IllegalArgumentException("Bad short code index");
+                        }
+                    }
+                    mShortCodes = offset;
+                    break;
+                case SECTION_RESOURCES:
+                    mResourceCount = checkCount(offset, length, 4, RESOURCE_ENTRY_SIZE, offset);
+                    mResources = offset;
+                    break;
+                default:
+                    // from a later version of the compiler
+                    break;
+            }
+        }
+        if (mStrings < 0 && (mSpn >= 0 || mEri >= 0 || mShortCodes >= 0 || mResources >= 0)) {
+            throw new IllegalArgumentException("No strings");
+        }
+    }
+
+    /**
+     * @return The number of entries of a section, after checking they fit in it
+     */
+    private int checkCount(int offset, int length, int tableSize, int entrySize,
+            int countOffset) {
+        if (length < tableSize) {
+            throw new IllegalArgumentException("Section at " + offset + " too short");
+        }
+        int count = mBuffer.getInt(countOffset);
+        if (count < 0 || count > (length - tableSize) / entrySize) {
+            throw new IllegalArgumentException("Bad count " + count + " at " + offset);
+        }
+        return count;
+    }
+
+    private String getString(int ref) {
+        if (ref == NO_STRING) {
+            return null;
+        }
+        int offset = mStrings + ref;
+        if (ref < 0 || offset > mStringsEnd - 2) {
+            throw new IllegalStateException("Bad string reference " + ref);
+        }
+        int length = ((mBuffer.get(offset) & 0xff) << 8) | (mBuffer.get(offset + 1) & 0xff);
+        offset += 2;
+        if (offset > mStringsEnd - length) {
+            throw new IllegalStateException("Bad string length at " + ref);
+        }
+        byte[] utf8 = new byte[length];
+        for (int i = 0; i < length; i++) {
+            utf8[i] = mBuffer.get(offset + i);
+        }
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    public boolean hasSpnOverrides() {
+        return mSpn >= 0;
+    }
+
+    /**
+     * @return The offset of the SPN entry of an operator, or -1
+     */
+    private int findSpnEntry(String numeric) {
+        int mcc = getMcc(numeric);
+        int mncKey = getMncKey(numeric);
+        if (mSpn < 0 || mcc < 0 || mncKey < 0) {
+            return -1;
+        }
+        int entries = mSpn + SPN_TABLE_SIZE;
+        int lo = mBuffer.getInt(mSpn + mcc * 4);
+        int hi = mBuffer.getInt(mSpn + (mcc + 1) * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int key = mBuffer.getInt(entries + mid * SPN_ENTRY_SIZE);
+            if (key < mncKey) {
+                lo = mid + 1;
+            } else if (key > mncKey) {
+                hi = mid - 1;
+            } else {
+                return entries + mid * SPN_ENTRY_SIZE;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param numeric The MCC and MNC of the operator, such as "310260"
+     */
+    public boolean hasSpnOverride(String numeric) {
+        return findSpnEntry(numeric) >= 0;
+    }
+
+    /**
+     * @param numeric The MCC and MNC of the operator, such as "310260"
+     * @return The SPN to show for the operator, or null
+     */
+    public String getSpnOverride(String numeric) {
+        int entry = findSpnEntry(numeric);
+        return entry < 0 ? null : getString(mBuffer.getInt(entry + 4));
+    }
+
+    public boolean hasEri() {
+        return mEri >= 0;
+    }
+
+    public int getEriVersion() {
+        return mEri < 0 ? -1 : mBuffer.getInt(mEri);
+    }
+
+    /**
+     * @return The number of entries the ERI file says it has
+     */
+    public int getEriNumberOfEntries() {
+        return mEri < 0 ? 0 : mBuffer.getInt(mEri + 4);
+    }
+
+    public int getEriFileType() {
+        return mEri < 0 ? -1 : mBuffer.getInt(mEri + 8);
+    }
+
+    /**
+     * @param id 0, 1 or 2
+     * @return The text of the call prompt, or null if the ERI file doesn't have it
+     */
+    public String getEriCallPrompt(int id) {
+        if (mEri < 0 || id < 0 || id >= NUM_CALL_PROMPTS) {
+            return null;
+        }
+        return getString(mBuffer.getInt(mEri + 12 + id * 4));
+    }
+
+    /**
+     * @return The number of entries in the ERI section
+     */
+    public int getEriInfoCount() {
+        return mEriCount;
+    }
+
+    /**
+     * @param index 0 to {@link #getEriInfoCount} - 1, in the order of roaming indicators
+     */
+    public EriInfo getEriInfo(int index) {
+        if (index < 0 || index >= mEriCount) {
+            throw new IndexOutOfBoundsException("ERI entry " + index);
+        }
+        int entry = mEri + ERI_HEADER_SIZE + index * ERI_ENTRY_SIZE;
+        return new EriInfo(mBuffer.getInt(entry), mBuffer.getInt(entry + 4),
+                mBuffer.getInt(entry + 8), getString(mBuffer.getInt(entry + 12)),
+                mBuffer.getInt(entry + 16), mBuffer.getInt(entry + 20));
+    }
+
+    public boolean hasShortCodes() {
+        return mShortCodes >= 0;
+    }
+
+    /**
+     * @param country A two letter country code
+     * @return The short code patterns of the country, indexed by SHORT_CODE_PATTERN,
+     *         SHORT_CODE_PREMIUM, SHORT_CODE_FREE and SHORT_CODE_STANDARD of
+     *         {@link OperatorMetadataFormat}, any of which may be null; or null if the
+     *         country has none
+     */
+    public String[] getShortCodePatterns(String country) {
+        int countryIndex = getCountryIndex(country);
+        if (mShortCodes < 0 || countryIndex < 0) {
+            return null;
+        }
+        int index = mBuffer.getInt(mShortCodes + countryIndex * 4);
+        if (index < 0) {
+            return null;
+        }
+        int entry = mShortCodes + SHORT_CODE_TABLE_SIZE + index * SHORT_CODE_ENTRY_SIZE;
+        String[] patterns = new String[NUM_SHORT_CODE_PATTERNS];
+        for (int i = 0; i < NUM_SHORT_CODE_PATTERNS; i++) {
+            patterns[i] = getString(mBuffer.getInt(entry + i * 4));
+        }
+        return patterns;
+    }
+
+    /**
+     * @param path The path of a compiled resource in framework-res.apk, such as
+     *        {@link OperatorMetadataFormat#ERI_RESOURCE}
+     * @return The CRC-32 of the resource the store was compiled from, or -1 if it isn't known
+     */
+    public long getResourceChecksum(String path) {
+        for (int i = 0; i < mResourceCount; i++) {
+            int entry = mResources + 4 + i * RESOURCE_ENTRY_SIZE;
+            if (path.equals(getString(mBuffer.getInt(entry)))) {
+                return mBuffer.getInt(entry + 4) & 0xffffffffL;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether the store was compiled from the resource the device resolves, with its
+     * runtime overlays and for its current configuration. This reads the resource, but doesn't
+     * parse it.
+     *
+     * @param res The resources to resolve the resource with
+     * @param id The ID of the resource, such as com.android.internal.R.xml.eri
+     * @param path The path the store knows the resource by, such as
+     *        {@link OperatorMetadataFormat#ERI_RESOURCE}
+     */
+    public boolean matchesResource(Resources res, int id, String path) {
+        long expected = getResourceChecksum(path);
+        if (expected < 0) {
+            Rlog.d(LOG_TAG, "No checksum of " + path);
+            return false;
+        }
+        InputStream in = null;
+        try {
+            in = res.openRawResource(id);
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, count);
+            }
+            if (crc.getValue() != expected) {
+                Rlog.d(LOG_TAG, "The device resolves another " + path);
+                return false;
+            }
+            return true;
+        } catch (IOException | Resources.NotFoundException e) {
+            Rlog.e(LOG_TAG, "Can't read " + path, e);
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {}
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OperatorMetadata{size=" + mBuffer.capacity()
+                + " spns=" + (mSpn < 0 ? "none" : mSpnCount)
+                + " eri=" + (mEri < 0 ? "none" : mEriCount)
+                + " shortCodes=" + (mShortCodes < 0 ? "none" : "yes")
+                + " resources=" + mResourceCount + "}";
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The layout of the operator metadata store, a file compiled at build time from the SPN
+ * overrides, ERI file and SMS short code patterns, which {@link OperatorMetadata} maps and
+ * reads in place. The compiler and the tests build stores with {@link Writer}, so this class
+ * doesn't use the framework.
+ *
+ * All numbers are big-endian ints. The file starts with the magic, the version and the number
+ * of sections, followed by an {id, offset, length} entry for each section. A string is
+ * referenced by its offset in the strings section, where it's stored as a 16 bit length and
+ * that many bytes of UTF-8, or by {@link #NO_STRING}.
+ *
+ * SPN section: for each MCC, the index of its first entry, then the number of entries, then
+ * the entries sorted by MCC and MNC key, each {MNC key, SPN}. The MNC key includes the number
+ * of digits, so that "01" and "001" are different operators.
+ *
+ * ERI section: the version, number of entries and type of the ERI file, the three call prompt
+ * texts and the number of entries, then the entries sorted by roaming indicator, each
+ * {roaming indicator, icon index, icon mode, ERI text, call prompt ID, alert ID}.
+ *
+ * Short codes section: for each two letter country code, the index of its entry or -1, then
+ * the number of entries, then the entries, each {pattern, premium, free, standard}.
+ *
+ * Resources section: the number of entries, then the entries, each {path, CRC-32} of a
+ * compiled resource in framework-res.apk that the ERI or short codes section stands for, such
+ * as {@link #ERI_RESOURCE}. A reader only uses those sections when the resource the device
+ * resolves has the same checksum, so that a runtime overlay or a variant for another
+ * configuration is still read from the resource.
+ *
+ * {@hide}
+ */
+public final class OperatorMetadataFormat {
+    public static final int MAGIC = 0x4f504d44; // "OPMD"
+    public static final int VERSION = 2;
+
+    public static final int SECTION_STRINGS = 1;
+    public static final int SECTION_SPN = 2;
+    public static final int SECTION_ERI = 3;
+    public static final int SECTION_SHORT_CODES = 4;
+    public static final int SECTION_RESOURCES = 5;
+
+    public static final int HEADER_SIZE = 12;
+    public static final int SECTION_ENTRY_SIZE = 12;
+
+    public static final int NO_STRING = -1;
+
+    public static final int NUM_MCCS = 1000;
+    public static final int SPN_TABLE_SIZE = (NUM_MCCS + 1) * 4;
+    public static final int SPN_ENTRY_SIZE = 8;
+
+    public static final int NUM_CALL_PROMPTS = 3;
+    public static final int NUM_ROAMING_INDICATORS = 256;
+    public static final int ERI_HEADER_SIZE = (4 + NUM_CALL_PROMPTS) * 4;
+    public static final int ERI_ENTRY_SIZE = 24;
+
+    public static final int NUM_COUNTRIES = 26 * 26;
+    public static final int SHORT_CODE_TABLE_SIZE = (NUM_COUNTRIES + 1) * 4;
+    public static final int SHORT_CODE_PATTERN = 0;
+    public static final int SHORT_CODE_PREMIUM = 1;
+    public static final int SHORT_CODE_FREE = 2;
+    public static final int SHORT_CODE_STANDARD = 3;
+    public static final int NUM_SHORT_CODE_PATTERNS = 4;
+    public static final int SHORT_CODE_ENTRY_SIZE = NUM_SHORT_CODE_PATTERNS * 4;
+
+    public static final int RESOURCE_ENTRY_SIZE = 8;
+    public static final String ERI_RESOURCE = "res/xml/eri.xml";
+    public static final String SHORT_CODES_RESOURCE = "res/xml/sms_short_codes.xml";
+
+    private static final int MAX_STRING_LENGTH = 0xffff;
+
+    private OperatorMetadataFormat() {
+    }
+
+    /**
+     * @param numeric The MCC and MNC of an operator, such as "310260"
+     * @return The MCC, or -1 if the numeric isn't 5 or 6 digits
+     */
+    public static int getMcc(String numeric) {
+        if (numeric == null || numeric.length() < 5 || numeric.length() > 6) {
+            return -1;
+        }
+        return parseDigits(numeric, 0, 3);
+    }
+
+    /**
+     * @param numeric The MCC and MNC of an operator, such as "310260"
+     * @return The key of the MNC in the SPN section, or -1 if the numeric isn't 5 or 6 digits
+     */
+    public static int getMncKey(String numeric) {
+        if (numeric == null || numeric.length() < 5 || numeric.length() > 6) {
+            return -1;
+        }
+        int mnc = parseDigits(numeric, 3, numeric.length());
+        return mnc < 0 ? -1 : (numeric.length() - 3) * 1000 + mnc;
+    }
+
+    /**
+     * @param iso A two letter country code, in either case
+     * @return The index of the country in the short codes section, or -1 if it isn't one
+     */
+    public static int getCountryIndex(String iso) {
+        if (iso == null || iso.length() != 2) {
+            return -1;
+        }
+        int first = Character.toLowerCase(iso.charAt(0)) - 'a';
+        int second = Character.toLowerCase(iso.charAt(1)) - 'a';
+        if (first < 0 || first >= 26 || second < 0 || second >= 26) {
+            return -1;
+        }
+        return first * 26 + second;
+    }
+
+    private static int parseDigits(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Builds a store. Each kind of data that's added gets its section; a reader falls back to
+     * its other sources for the kinds that are missing.
+     */
+    public static final class Writer {
+        // Keyed by MCC * 10000 + MNC key, so that they're in the order of the SPN section
+        private final TreeMap<Integer, String> mSpns = new TreeMap<Integer, String>();
+
+        private boolean mHasEri;
+        private int mEriVersion;
+        private int mEriNumberOfEntries;
+        private int mEriFileType;
+        private final String[] mCallPrompts = new String[NUM_CALL_PROMPTS];
+        private final TreeMap<Integer, EriEntry> mEriEntries = new TreeMap<Integer, EriEntry>();
+
+        private final TreeMap<Integer, String[]> mShortCodes = new TreeMap<Integer, String[]>();
+
+        private final TreeMap<String, Integer> mResourceChecksums = new TreeMap<String, Integer>();
+
+        private ByteArrayOutputStream mStringData;
+        private HashMap<String, Integer> mStringOffsets;
+
+        private static final class EriEntry {
+            int mIconIndex;
+            int mIconMode;
+            String mEriText;
+            int mCallPromptId;
+            int mAlertId;
+        }
+
+        /**
+         * @param numeric The MCC and MNC of the operator, such as "310260"
+         * @param spn The SPN to show, or null
+         * @throws IllegalArgumentException if the numeric isn't 5 or 6 digits
+         */
+        public void addSpnOverride(String numeric, String spn) {
+            int mcc = getMcc(numeric);
+            int mncKey = getMncKey(numeric);
+            if (mcc < 0 || mncKey < 0) {
+                throw new IllegalArgumentException("Invalid numeric " + numeric);
+            }
+            mSpns.put(mcc * 10000 + mncKey, spn);
+        }
+
+        public void setEriFile(int versionNumber, int numberOfEriEntries, int eriFileType) {
+            mHasEri = true;
+            mEriVersion = versionNumber;
+            mEriNumberOfEntries = numberOfEriEntries;
+            mEriFileType = eriFileType;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the ID isn't 0, 1 or 2
+         */
+        public void setEriCallPrompt(int id, String text) {
+            if (id < 0 || id >= NUM_CALL_PROMPTS) {
+                throw new IllegalArgumentException("Invalid CallPromptId " + id);
+            }
+            mHasEri = true;
+            mCallPrompts[id] = text;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the roaming indicator isn't 0 to 255
+         */
+        public void addEriInfo(int roamingIndicator, int iconIndex, int iconMode,
+                String eriText, int callPromptId, int alertId) {
+            if (roamingIndicator < 0 || roamingIndicator >= NUM_ROAMING_INDICATORS) {
+                throw new IllegalArgumentException("Invalid RoamingIndicator "
+                        + roamingIndicator);
+            }
+            EriEntry entry = new EriEntry();
+            entry.mIconIndex = iconIndex;
+            entry.mIconMode = iconMode;
+            entry.mEriText = eriText;
+            entry.mCallPromptId = callPromptId;
+            entry.mAlertId = alertId;
+            mHasEri = true;
+            mEriEntries.put(roamingIndicator, entry);
+        }
+
+        /**
+         * Adds the short code patterns of a country, any of which may be null. Like the XML
+         * parser of SmsUsageMonitor, the first patterns of a country are used.
+         *
+         * @return false if the country already has patterns
+         * @throws IllegalArgumentException if the country isn't a two letter code
+         */
+        public boolean addShortCodes(String country, String pattern, String premium,
+                String free, String standard) {
+            int index = getCountryIndex(country);
+            if (index < 0) {
+                throw new IllegalArgumentException("Invalid country " + country);
+            }
+            if (mShortCodes.containsKey(index)) {
+                return false;
+            }
+            mShortCodes.put(index, new String[] { pattern, premium, free, standard });
+            return true;
+        }
+
+        /**
+         * @param path The path of the compiled resource in framework-res.apk, such as
+         *        {@link #ERI_RESOURCE}
+         * @param crc32 The CRC-32 of its bytes
+         */
+        public void setResourceChecksum(String path, long crc32) {
+            mResourceChecksums.put(path, (int) crc32);
+        }
+
+        public int getSpnOverrideCount() {
+            return mSpns.size();
+        }
+
+        public int getEriInfoCount() {
+            return mEriEntries.size();
+        }
+
+        public int getShortCodesCount() {
+            return mShortCodes.size();
+        }
+
+        /**
+         * @throws IllegalArgumentException if a string is longer than 65535 bytes of UTF-8
+         */
+        public byte[] toByteArray() {
+            mStringData = new ByteArrayOutputStream();
+            mStringOffsets = new HashMap<String, Integer>();
+            try {
+                ArrayList<Integer> ids = new ArrayList<Integer>();
+                ArrayList<byte[]> sections = new ArrayList<byte[]>();
+                if (!mSpns.isEmpty()) {
+                    ids.add(SECTION_SPN);
+                    sections.add(writeSpnSection());
+                }
+                if (mHasEri) {
+                    ids.add(SECTION_ERI);
+                    sections.add(writeEriSection());
+                }
+                if (!mShortCodes.isEmpty()) {
+                    ids.add(SECTION_SHORT_CODES);
+                    sections.add(writeShortCodesSection());
+                }
+                if (!mResourceChecksums.isEmpty()) {
+                    ids.add(SECTION_RESOURCES);
+                    sections.add(writeResourcesSection());
+                }
+                ids.add(0, SECTION_STRINGS);
+                sections.add(0, mStringData.toByteArray());
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sections.size());
+                int offset = HEADER_SIZE + sections.size() * SECTION_ENTRY_SIZE;
+                for (int i = 0; i < sections.size(); i++) {
+                    out.writeInt(ids.get(i));
+                    out.writeInt(offset);
+                    out.writeInt(sections.get(i).length);
+                    offset += sections.get(i).length;
+                }
+                for (byte[] section : sections) {
+                    out.write(section);
+                }
+                out.flush();
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                // ByteArrayOutputStream doesn't throw
+                throw new AssertionError(e);
+            } finally {
+                mStringData = null;
+                mStringOffsets = null;
+            }
+        }
+
+        private byte[] writeSpnSection() throws IOException {
+            int[] first = new int[NUM_MCCS + 1];
+            for (int key : mSpns.keySet()) {
+                first[key / 10000 + 1]++;
+            }
+            for (int mcc = 0; mcc < NUM_MCCS; mcc++) {
+                first[mcc + 1] += first[mcc];
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (int index : first) {
+                out.writeInt(index);
+            }
+            for (Map.Entry<Integer, String> entry : mSpns.entrySet()) {
+                out.writeInt(entry.getKey() % 10000);
+                out.writeInt(addString(entry.getValue()));
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private byte[] writeEriSection() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(mEriVersion);
+            out.writeInt(mEriNumberOfEntries);
+            out.writeInt(mEriFileType);
+            for (String text : mCallPrompts) {
+                out.writeInt(addString(text));
+            }
+            out.writeInt(mEriEntries.size());
+            for (Map.Entry<Integer, EriEntry> e : mEriEntries.entrySet()) {
+                EriEntry entry = e.getValue();
+                out.writeInt(e.getKey());
+                out.writeInt(entry.mIconIndex);
+                out.writeInt(entry.mIconMode);
+                out.writeInt(addString(entry.mEriText));
+                out.writeInt(entry.mCallPromptId);
+                out.writeInt(entry.mAlertId);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private byte[] writeShortCodesSection() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int next = 0;
+            for (int country = 0; country < NUM_COUNTRIES; country++) {
+                out.writeInt(mShortCodes.containsKey(country) ? next++ : -1);
+            }
+            out.writeInt(mShortCodes.size());
+            for (String[] patterns : mShortCodes.values()) {
+                for (String pattern : patterns) {
+                    out.writeInt(addString(pattern));
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private byte[] writeResourcesSection() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(mResourceChecksums.size());
+            for (Map.Entry<String, Integer> entry : mResourceChecksums.entrySet()) {
+                out.writeInt(addString(entry.getKey()));
+                out.writeInt(entry.getValue());
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private int addString(String s) throws IOException {
+            if (s == null) {
+                return NO_STRING;
+            }
+            Integer offset = mStringOffsets.get(s);
+            if (offset != null) {
+                return offset;
+            }
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            if (utf8.length > MAX_STRING_LENGTH) {
+                throw new IllegalArgumentException("String too long: " + s.substring(0, 32));
+            }
+            offset = mStringData.size();
+            mStringData.write(utf8.length >> 8);
+            mStringData.write(utf8.length);
+            mStringData.write(utf8);
+            mStringOffsets.put(s, offset);
+            return offset;
+        }
+    }
+}
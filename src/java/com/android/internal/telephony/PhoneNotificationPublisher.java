@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+
+import java.util.HashMap;
+
+/**
+ * Sits between {@link DefaultPhoneNotifier} and the telephony registry. Notifications whose
+ * payload is unchanged since the last one of the same kind for the same phone and subscription
+ * are suppressed, and bursts of high-rate notifications are coalesced so that only the latest
+ * one within a short window is sent.
+ *
+ * <p>This class is thread-safe; coalesced notifications are sent on the looper passed to the
+ * constructor.
+ */
+final class PhoneNotificationPublisher {
+    private static final String LOG_TAG = "PhoneNotificationPublisher";
+
+    static final int KIND_CALL_STATE = 0;
+    static final int KIND_SERVICE_STATE = 1;
+    static final int KIND_SIGNAL_STRENGTH = 2;
+    static final int KIND_MESSAGE_WAITING = 3;
+    static final int KIND_CALL_FORWARDING = 4;
+    static final int KIND_DATA_ACTIVITY = 5;
+    static final int KIND_DATA_CONNECTION = 6;
+    static final int KIND_CELL_INFO = 7;
+    static final int KIND_PRECISE_CALL_STATE = 8;
+
+    /** How long a coalesced notification may be held back waiting for a newer one. */
+    static final long DEFAULT_COALESCE_WINDOW_MS = 100;
+
+    /** Log the counters after this many notifications. */
+    private static final int STATS_LOG_INTERVAL = 500;
+
+    private final Handler mHandler;
+    private final long mCoalesceWindowMs;
+
+    /** The last payload published for each key. */
+    private final HashMap<Key, Object> mLastPayloads = new HashMap<Key, Object>();
+
+    /** The notification waiting to be sent for each coalesced key. */
+    private final HashMap<Key, Runnable> mPending = new HashMap<Key, Runnable>();
+
+    private int mSentCount;
+    private int mSuppressedCount;
+    private int mCoalescedCount;
+
+    PhoneNotificationPublisher(Looper looper) {
+        this(looper, DEFAULT_COALESCE_WINDOW_MS);
+    }
+
+    PhoneNotificationPublisher(Looper looper, long coalesceWindowMs) {
+        mHandler = new Handler(looper);
+        mCoalesceWindowMs = coalesceWindowMs;
+    }
+
+    /**
+     * Send a notification now unless its payload is unchanged.
+     * @param kind one of the KIND_* constants
+     * @param phoneId the phone the notification is from
+     * @param subId the subscription the notification is for
+     * @param qualifier distinguishes notifications of the same kind, e.g. the APN type; may be
+     *  null
+     * @param payload the values sent to the registry, compared with {@link Object#equals}
+     * @param send makes the registry call
+     */
+    void publish(int kind, int phoneId, long subId, String qualifier, Object payload,
+            Runnable send) {
+        if (recordPayload(new Key(kind, phoneId, subId, qualifier), payload)) {
+            send.run();
+        }
+    }
+
+    /**
+     * Send a notification unless its payload is unchanged, holding it back for the coalescing
+     * window so that a newer notification with the same key replaces it.
+     * @see #publish
+     */
+    void publishCoalesced(int kind, int phoneId, long subId, String qualifier, Object payload,
+            Runnable send) {
+        final Key key = new Key(kind, phoneId, subId, qualifier);
+        synchronized (this) {
+            if (!recordPayload(key, payload)) {
+                return;
+            }
+            if (mPending.put(key, send) != null) {
+                // the previous notification in the window is replaced
+                mSentCount--;
+                mCoalescedCount++;
+                return;
+            }
+        }
+        mHandler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                Runnable pending;
+                synchronized (PhoneNotificationPublisher.this) {
+                    pending = mPending.remove(key);
+                }
+                if (pending != null) {
+                    pending.run();
+                }
+            }
+        }, SystemClock.uptimeMillis() + mCoalesceWindowMs);
+    }
+
+    synchronized int getSentCount() {
+        return mSentCount;
+    }
+
+    synchronized int getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    synchronized int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PhoneNotificationPublisher{sent=" + mSentCount + " suppressed="
+                + mSuppressedCount + " coalesced=" + mCoalescedCount + "}";
+    }
+
+    /** Return true and count the notification as sent if the payload has changed. */
+    private synchronized boolean recordPayload(Key key, Object payload) {
+        boolean changed;
+        if (mLastPayloads.containsKey(key)) {
+            Object last = mLastPayloads.get(key);
+            changed = (payload == null) ? last != null : !payload.equals(last);
+        } else {
+            changed = true;
+        }
+        if (changed) {
+            mLastPayloads.put(key, payload);
+            mSentCount++;
+        } else {
+            mSuppressedCount++;
+        }
+        if ((mSentCount + mSuppressedCount + mCoalescedCount) % STATS_LOG_INTERVAL == 0) {
+            Rlog.d(LOG_TAG, toString());
+        }
+        return changed;
+    }
+
+    private static final class Key {
+        final int mKind;
+        final int mPhoneId;
+        final long mSubId;
+        final String mQualifier;
+
+        Key(int kind, int phoneId, long subId, String qualifier) {
+            mKind = kind;
+            mPhoneId = phoneId;
+            mSubId = subId;
+            mQualifier = qualifier;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((mKind * 31 + mPhoneId) * 31 + (int) (mSubId ^ (mSubId >>> 32))) * 31
+                    + (mQualifier != null ? mQualifier.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Key) {
+                Key other = (Key) o;
+                return other.mKind == mKind && other.mPhoneId == mPhoneId
+                        && other.mSubId == mSubId
+                        && (mQualifier == null ? other.mQualifier == null
+                                : mQualifier.equals(other.mQualifier));
+            }
+            return false;
+        }
+    }
+}
@@ -40,6 +40,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.Parcel;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.PowerManager.WakeLock;
 import android.provider.Settings.SettingNotFoundException;
@@ -52,6 +53,7 @@ import android.telephony.SmsManager;
 import android.telephony.SmsMessage;
 import android.text.TextUtils;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.view.Display;
 
 import com.android.internal.telephony.gsm.SmsBroadcastConfigInfo;
@@ -103,6 +105,12 @@ class RILRequest {
     Message mResult;
     Parcel mParcel;
     RILRequest mNext;
+    // Set by RILRequestQueue
+    int mLane;
+    long mEnqueueTime;
+    boolean mInFlight;
+    // When the request expires in elapsedRealtime, or 0 for never
+    long mDeadline;
 
     /**
      * Retrieves a new RILRequest instance from the pool.
@@ -132,6 +140,8 @@ class RILRequest {
         rr.mRequest = request;
         rr.mResult = result;
         rr.mParcel = Parcel.obtain();
+        rr.mInFlight = false;
+        rr.mDeadline = 0;
 
         if (result != null && result.getTarget() == null) {
             throw new NullPointerException("Message target must not be null");
@@ -193,10 +203,11 @@ class RILRequest {
 
     void
     onError(int error, Object ret) {
-        CommandException ex;
-
-        ex = CommandException.fromRilErrno(error);
+        onError(CommandException.fromRilErrno(error), ret);
+    }
 
+    void
+    onError(CommandException ex, Object ret) {
         if (RIL.RILJ_LOGD) Rlog.d(LOG_TAG, serialString() + "< "
             + RIL.requestToString(mRequest)
             + " error: " + ex + " ret=" + RIL.retToString(mRequest, ret));
@@ -230,6 +241,25 @@ public final class RIL extends BaseCommands implements CommandsInterface {
      */
     private static final int DEFAULT_WAKE_LOCK_TIMEOUT = 60000;
 
+    /**
+     * The most background requests, such as SIM_IO, sent to rild and not yet
+     * answered. 0 means no limit.
+     */
+    private static final String PROPERTY_MAX_BACKGROUND_IN_FLIGHT =
+            "persist.radio.ril_bg_in_flight";
+    private static final int DEFAULT_MAX_BACKGROUND_IN_FLIGHT = 2;
+
+    /**
+     * Deadline of the SIM requests that callers such as the phonebook and
+     * SIM SMS managers block on, well within the wake lock timeout.
+     */
+    private static final int DEFAULT_SIM_REQUEST_TIMEOUT = 30000;
+
+    private static final long DEADLINE_TICK_MS = 1000;
+    private static final int DEADLINE_WHEEL_SLOTS = 64;
+    // The most abandoned requests whose late response is recognized
+    private static final int MAX_ABANDONED_REQUESTS = 32;
+
     //***** Instance Variables
 
     LocalSocket mSocket;
@@ -246,6 +276,21 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     int mWakeLockCount;
 
     SparseArray<RILRequest> mRequestList = new SparseArray<RILRequest>();
+    // The requests not yet written to the socket
+    final RILRequestQueue mRequestQueue;
+
+    // The deadline of each request type in ms, or 0 for none. Guarded by itself.
+    private final SparseIntArray mRequestTimeouts = new SparseIntArray();
+    // The serial numbers of the requests with a deadline
+    private final RILTimerWheel mDeadlines =
+            new RILTimerWheel(DEADLINE_TICK_MS, DEADLINE_WHEEL_SLOTS);
+    // Timed out requests by request type, and cancelled requests. Guarded by
+    // mRequestTimeouts.
+    private final SparseIntArray mTimeoutCounts = new SparseIntArray();
+    private int mCancelledCount;
+    // The request types of abandoned requests by serial number, until their
+    // late response or clearRequestList(). Guarded by mRequestList.
+    private final SparseIntArray mAbandonedRequests = new SparseIntArray();
 
     Object     mLastNITZTimeInfo;
 
@@ -254,10 +299,14 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
     private Integer mInstanceId;
 
+    // Where to reach rild instead of its reserved socket, for tests
+    private final LocalSocketAddress mSocketAddress;
+
     //***** Events
 
     static final int EVENT_SEND                 = 1;
     static final int EVENT_WAKE_LOCK_TIMEOUT    = 2;
+    static final int EVENT_DEADLINE_TICK        = 3;
 
     //***** Constants
 
@@ -311,70 +360,26 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         //***** Handler implementation
         @Override public void
         handleMessage(Message msg) {
-            RILRequest rr = (RILRequest)(msg.obj);
-            RILRequest req = null;
+            RILRequest rr;
 
             switch (msg.what) {
                 case EVENT_SEND:
-                    try {
-                        LocalSocket s;
-
-                        s = mSocket;
-
-                        if (s == null) {
-                            rr.onError(RADIO_NOT_AVAILABLE, null);
-                            rr.release();
-                            decrementWakeLock();
-                            return;
-                        }
-
-                        synchronized (mRequestList) {
-                            mRequestList.append(rr.mSerial, rr);
-                        }
-
-                        byte[] data;
-
-                        data = rr.mParcel.marshall();
-                        rr.mParcel.recycle();
-                        rr.mParcel = null;
-
-                        if (data.length > RIL_MAX_COMMAND_BYTES) {
-                            throw new RuntimeException(
-                                    "Parcel larger than max bytes allowed! "
-                                                          + data.length);
-                        }
-
-                        // parcel length in big endian
-                        dataLength[0] = dataLength[1] = 0;
-                        dataLength[2] = (byte)((data.length >> 8) & 0xff);
-                        dataLength[3] = (byte)((data.length) & 0xff);
-
-                        //Rlog.v(RILJ_LOG_TAG, "writing packet: " + data.length + " bytes");
-
-                        s.getOutputStream().write(dataLength);
-                        s.getOutputStream().write(data);
-                    } catch (IOException ex) {
-                        Rlog.e(RILJ_LOG_TAG, "IOException", ex);
-                        req = findAndRemoveRequestFromList(rr.mSerial);
-                        // make sure this request has not already been handled,
-                        // eg, if RILReceiver cleared the list.
-                        if (req != null) {
-                            rr.onError(RADIO_NOT_AVAILABLE, null);
-                            rr.release();
-                            decrementWakeLock();
-                        }
-                    } catch (RuntimeException exc) {
-                        Rlog.e(RILJ_LOG_TAG, "Uncaught exception ", exc);
-                        req = findAndRemoveRequestFromList(rr.mSerial);
-                        // make sure this request has not already been handled,
-                        // eg, if RILReceiver cleared the list.
-                        if (req != null) {
-                            rr.onError(GENERIC_FAILURE, null);
-                            rr.release();
-                            decrementWakeLock();
-                        }
+                    // Send everything the queue lets through; a held back
+                    // background request is sent by a later EVENT_SEND.
+                    while ((rr = mRequestQueue.poll()) != null) {
+                        writeRequest(rr);
                     }
+                    break;
 
+                case EVENT_DEADLINE_TICK:
+                    ArrayList<Integer> expired = new ArrayList<Integer>();
+                    long now = SystemClock.elapsedRealtime();
+                    if (mDeadlines.expire(now, expired)) {
+                        sendEmptyMessageDelayed(EVENT_DEADLINE_TICK, DEADLINE_TICK_MS);
+                    }
+                    for (int serial : expired) {
+                        onRequestExpired(serial, now);
+                    }
                     break;
 
                 case EVENT_WAKE_LOCK_TIMEOUT:
@@ -406,6 +411,71 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                     break;
             }
         }
+
+        private void
+        writeRequest(RILRequest rr) {
+            RILRequest req = null;
+
+            try {
+                LocalSocket s;
+
+                s = mSocket;
+
+                if (s == null) {
+                    rr.onError(RADIO_NOT_AVAILABLE, null);
+                    releaseRequest(rr);
+                    decrementWakeLock();
+                    return;
+                }
+
+                synchronized (mRequestList) {
+                    mRequestList.append(rr.mSerial, rr);
+                }
+                startDeadline(rr);
+
+                byte[] data;
+
+                data = rr.mParcel.marshall();
+                rr.mParcel.recycle();
+                rr.mParcel = null;
+
+                if (data.length > RIL_MAX_COMMAND_BYTES) {
+                    throw new RuntimeException(
+                            "Parcel larger than max bytes allowed! "
+                                                  + data.length);
+                }
+
+                // parcel length in big endian
+                dataLength[0] = dataLength[1] = 0;
+                dataLength[2] = (byte)((data.length >> 8) & 0xff);
+                dataLength[3] = (byte)((data.length) & 0xff);
+
+                //Rlog.v(RILJ_LOG_TAG, "writing packet: " + data.length + " bytes");
+
+                s.getOutputStream().write(dataLength);
+                s.getOutputStream().write(data);
+            } catch (IOException ex) {
+                Rlog.e(RILJ_LOG_TAG, "IOException", ex);
+                req = findAndRemoveRequestFromList(rr.mSerial);
+                // make sure this request has not already been handled,
+                // eg, if RILReceiver cleared the list.
+                if (req != null) {
+                    rr.onError(RADIO_NOT_AVAILABLE, null);
+                    releaseRequest(rr);
+                    decrementWakeLock();
+                }
+            } catch (RuntimeException exc) {
+                Rlog.e(RILJ_LOG_TAG, "Uncaught exception ", exc);
+                req = findAndRemoveRequestFromList(rr.mSerial);
+                // make sure this request has not already been handled,
+                // eg, if RILReceiver cleared the list.
+                if (req != null) {
+                    rr.onError(GENERIC_FAILURE, null);
+                    releaseRequest(rr);
+                    decrementWakeLock();
+                }
+            }
+        }
     }
 
     /**
@@ -492,8 +562,13 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
                 try {
                     s = new LocalSocket();
-                    l = new LocalSocketAddress(rilSocket,
-                            LocalSocketAddress.Namespace.RESERVED);
+                    if (mSocketAddress != null) {
+                        l = mSocketAddress;
+                        rilSocket = l.getName();
+                    } else {
+                        l = new LocalSocketAddress(rilSocket,
+                                LocalSocketAddress.Namespace.RESERVED);
+                    }
                     s.connect(l);
                 } catch (IOException ex){
                     try {
@@ -597,6 +672,15 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
     public RIL(Context context, int preferredNetworkType,
             int cdmaSubscription, Integer instanceId) {
+        this(context, preferredNetworkType, cdmaSubscription, instanceId, null);
+    }
+
+    /**
+     * @param socketAddress The socket to reach rild on, such as a
+     *        SimulatedRild, or null for the socket of the instance
+     */
+    RIL(Context context, int preferredNetworkType, int cdmaSubscription,
+            Integer instanceId, LocalSocketAddress socketAddress) {
         super(context);
         if (RILJ_LOGD) {
             riljLog("RIL(context, preferredNetworkType=" + preferredNetworkType +
@@ -608,6 +692,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         mPreferredNetworkType = preferredNetworkType;
         mPhoneType = RILConstants.NO_PHONE;
         mInstanceId = instanceId;
+        mSocketAddress = socketAddress;
 
         PowerManager pm = (PowerManager)context.getSystemService(Context.POWER_SERVICE);
         mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, RILJ_LOG_TAG);
@@ -616,6 +701,14 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 DEFAULT_WAKE_LOCK_TIMEOUT);
         mWakeLockCount = 0;
 
+        mRequestQueue = new RILRequestQueue(SystemProperties.getInt(
+                PROPERTY_MAX_BACKGROUND_IN_FLIGHT, DEFAULT_MAX_BACKGROUND_IN_FLIGHT));
+        mRequestTimeouts.put(RIL_REQUEST_SIM_IO, DEFAULT_SIM_REQUEST_TIMEOUT);
+        mRequestTimeouts.put(RIL_REQUEST_WRITE_SMS_TO_SIM, DEFAULT_SIM_REQUEST_TIMEOUT);
+        mRequestTimeouts.put(RIL_REQUEST_DELETE_SMS_ON_SIM, DEFAULT_SIM_REQUEST_TIMEOUT);
+        mRequestTimeouts.put(RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM, DEFAULT_SIM_REQUEST_TIMEOUT);
+        mRequestTimeouts.put(RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM, DEFAULT_SIM_REQUEST_TIMEOUT);
+        mRequestTimeouts.put(RIL_REQUEST_GET_SMSC_ADDRESS, DEFAULT_SIM_REQUEST_TIMEOUT);
         mSenderThread = new HandlerThread("RILSender");
         mSenderThread.start();
 
@@ -2319,13 +2412,156 @@ public final class RIL extends BaseCommands implements CommandsInterface {
             return;
         }
 
-        msg = mSender.obtainMessage(EVENT_SEND, rr);
+        startDeadline(rr);
+        mRequestQueue.add(rr);
+        msg = mSender.obtainMessage(EVENT_SEND);
 
         acquireWakeLock();
 
         msg.sendToTarget();
     }
 
+    /**
+     * Sets the deadline of a request type. A request not answered by then
+     * fails with {@link CommandException.Error#TIMEOUT}.
+     *
+     * @param request RIL_REQUEST_*
+     * @param timeoutMs The deadline after sending, or 0 for none
+     */
+    public void setRequestTimeout(int request, int timeoutMs) {
+        synchronized (mRequestTimeouts) {
+            mRequestTimeouts.put(request, timeoutMs);
+        }
+    }
+
+    /**
+     * Starts the deadline of a request when it's queued, which bounds how long
+     * it can be held back behind stalled requests, and again when it's sent,
+     * so that rild gets the whole timeout to answer it.
+     */
+    private void
+    startDeadline(RILRequest rr) {
+        int timeout;
+        synchronized (mRequestTimeouts) {
+            timeout = mRequestTimeouts.get(rr.mRequest);
+        }
+        if (timeout > 0) {
+            long now = SystemClock.elapsedRealtime();
+            rr.mDeadline = now + timeout;
+            if (mDeadlines.add(rr.mSerial, rr.mDeadline, now)) {
+                mSender.sendEmptyMessageDelayed(EVENT_DEADLINE_TICK, DEADLINE_TICK_MS);
+            }
+        } else {
+            rr.mDeadline = 0;
+        }
+    }
+
+    /**
+     * Fails a request that reached its deadline, if it hasn't been answered.
+     * A request sent to rild is abandoned, so a response rild loses doesn't
+     * hold its background slot and hold back the requests behind it.
+     */
+    private void
+    onRequestExpired(int serial, long now) {
+        int request;
+        synchronized (mRequestList) {
+            RILRequest rr = mRequestList.get(serial);
+            if (rr != null) {
+                if (rr.mDeadline == 0 || rr.mDeadline > now) {
+                    // The deadline it had in mRequestQueue, since restarted
+                    return;
+                }
+                request = rr.mRequest;
+                Rlog.w(RILJ_LOG_TAG, rr.serialString() + " " + requestToString(request)
+                        + " timed out");
+                rr.onError(new CommandException(CommandException.Error.TIMEOUT), null);
+                abandonRequestLocked(rr);
+            } else {
+                rr = mRequestQueue.removeExpired(serial, now);
+                if (rr == null) {
+                    return;
+                }
+                request = rr.mRequest;
+                Rlog.w(RILJ_LOG_TAG, rr.serialString() + " " + requestToString(request)
+                        + " timed out before it was sent");
+                rr.onError(new CommandException(CommandException.Error.TIMEOUT), null);
+                rr.release();
+                decrementWakeLock();
+            }
+        }
+
+        synchronized (mRequestTimeouts) {
+            mTimeoutCounts.put(request, mTimeoutCounts.get(request) + 1);
+        }
+    }
+
+    /**
+     * Gives up on a request sent to rild: frees its background slot and wake
+     * lock count, and keeps its serial number so that a late response is
+     * dropped rather than taken as unexpected. Called with mRequestList held.
+     */
+    private void
+    abandonRequestLocked(RILRequest rr) {
+        mRequestList.remove(rr.mSerial);
+        if (mAbandonedRequests.size() >= MAX_ABANDONED_REQUESTS) {
+            mAbandonedRequests.removeAt(0);
+        }
+        mAbandonedRequests.put(rr.mSerial, rr.mRequest);
+        rr.mResult = null;
+        releaseRequest(rr);
+        decrementWakeLock();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancelRequest(Message result) {
+        if (result == null) {
+            return;
+        }
+        RILRequest rr = mRequestQueue.remove(result);
+        if (rr != null) {
+            if (RILJ_LOGD) riljLog(rr.serialString() + " cancelled "
+                    + requestToString(rr.mRequest));
+            rr.mParcel.recycle();
+            rr.mParcel = null;
+            rr.release();
+            decrementWakeLock();
+        } else {
+            // Already sent: abandon it, like an expired request
+            synchronized (mRequestList) {
+                for (int i = 0, count = mRequestList.size(); i < count; i++) {
+                    rr = mRequestList.valueAt(i);
+                    if (rr.mResult == result) {
+                        if (RILJ_LOGD) riljLog(rr.serialString() + " cancelled "
+                                + requestToString(rr.mRequest) + " in flight");
+                        abandonRequestLocked(rr);
+                        break;
+                    }
+                    rr = null;
+                }
+            }
+        }
+        if (rr != null) {
+            synchronized (mRequestTimeouts) {
+                mCancelledCount++;
+            }
+        }
+    }
+
+    /**
+     * Releases a request taken from mRequestQueue, and sends a background
+     * request that was held back for it.
+     */
+    private void
+    releaseRequest(RILRequest rr) {
+        if (mRequestQueue.onCompleted(rr)) {
+            mSender.sendEmptyMessage(EVENT_SEND);
+        }
+        rr.release();
+    }
+
     private void
     processResponse (Parcel p) {
         int type;
@@ -2337,7 +2573,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         } else if (type == RESPONSE_SOLICITED) {
             RILRequest rr = processSolicited (p);
             if (rr != null) {
-                rr.release();
+                releaseRequest(rr);
                 decrementWakeLock();
             }
         }
@@ -2365,10 +2601,11 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                             requestToString(rr.mRequest));
                 }
                 rr.onError(error, null);
-                rr.release();
+                releaseRequest(rr);
                 decrementWakeLock();
             }
             mRequestList.clear();
+            mAbandonedRequests.clear();
         }
     }
 
@@ -2397,8 +2634,18 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr = findAndRemoveRequestFromList(serial);
 
         if (rr == null) {
-            Rlog.w(RILJ_LOG_TAG, "Unexpected solicited response! sn: "
-                            + serial + " error: " + error);
+            int abandoned;
+            synchronized (mRequestList) {
+                abandoned = mAbandonedRequests.get(serial, -1);
+                mAbandonedRequests.delete(serial);
+            }
+            if (abandoned >= 0) {
+                if (RILJ_LOGD) riljLog("[" + serial + "]< " + requestToString(abandoned)
+                        + " late response dropped, error: " + error);
+            } else {
+                Rlog.w(RILJ_LOG_TAG, "Unexpected solicited response! sn: "
+                        + serial + " error: " + error);
+            }
             return null;
         }
 
@@ -4392,6 +4639,16 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 RILRequest rr = mRequestList.valueAt(i);
                 pw.println("  [" + rr.mSerial + "] " + requestToString(rr.mRequest));
             }
+            pw.println(" mAbandonedRequests size=" + mAbandonedRequests.size());
+        }
+        mRequestQueue.dump(pw);
+        pw.println(" mDeadlines size=" + mDeadlines.size());
+        synchronized (mRequestTimeouts) {
+            pw.println(" mCancelledCount=" + mCancelledCount);
+            for (int i = 0; i < mTimeoutCounts.size(); i++) {
+                pw.println("  timeouts " + requestToString(mTimeoutCounts.keyAt(i)) + "="
+                        + mTimeoutCounts.valueAt(i));
+            }
         }
         pw.println(" mLastNITZTimeInfo=" + mLastNITZTimeInfo);
         pw.println(" mTestingEmergencyCall=" + mTestingEmergencyCall.get());
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.os.Message;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * The requests waiting to be written to rild, in three lanes: call control,
+ * interactive and background. The next request is taken from the first lane
+ * that isn't empty, and in order within a lane.
+ *
+ * Background requests are bulk SIM I/O, such as a phonebook load, which
+ * rild handles one at a time. At most a few of them are sent to rild before
+ * their responses come back, so that a call control request doesn't wait
+ * behind all of them in rild.
+ *
+ * {@hide}
+ */
+final class RILRequestQueue {
+    static final int LANE_CALL = 0;
+    static final int LANE_INTERACTIVE = 1;
+    static final int LANE_BACKGROUND = 2;
+    static final int NUM_LANES = 3;
+
+    private static final String[] LANE_NAMES = { "call", "interactive", "background" };
+
+    private final int mMaxBackgroundInFlight;
+    private int mBackgroundInFlight;
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<RILRequest>[] mLanes = new ArrayDeque[NUM_LANES];
+
+    // Metrics of each lane, guarded by this
+    private final int[] mMaxDepth = new int[NUM_LANES];
+    private final long[] mSent = new long[NUM_LANES];
+    private final long[] mTotalWaitMs = new long[NUM_LANES];
+    private final long[] mMaxWaitMs = new long[NUM_LANES];
+    private int mMaxBackgroundInFlightSeen;
+
+    /**
+     * @param maxBackgroundInFlight The most background requests sent to rild
+     *        and not yet answered, or 0 for no limit
+     */
+    RILRequestQueue(int maxBackgroundInFlight) {
+        mMaxBackgroundInFlight = maxBackgroundInFlight;
+        for (int i = 0; i < NUM_LANES; i++) {
+            mLanes[i] = new ArrayDeque<RILRequest>();
+        }
+    }
+
+    /**
+     * @param request RIL_REQUEST_*
+     * @return The lane of the request
+     */
+    static int laneOf(int request) {
+        switch (request) {
+            case RIL_REQUEST_DIAL:
+            case RIL_REQUEST_ANSWER:
+            case RIL_REQUEST_HANGUP:
+            case RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND:
+            case RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND:
+            case RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE:
+            case RIL_REQUEST_CONFERENCE:
+            case RIL_REQUEST_UDUB:
+            case RIL_REQUEST_SEPARATE_CONNECTION:
+            case RIL_REQUEST_EXPLICIT_CALL_TRANSFER:
+            case RIL_REQUEST_GET_CURRENT_CALLS:
+            case RIL_REQUEST_LAST_CALL_FAIL_CAUSE:
+            case RIL_REQUEST_DTMF:
+            case RIL_REQUEST_DTMF_START:
+            case RIL_REQUEST_DTMF_STOP:
+            case RIL_REQUEST_CDMA_FLASH:
+            case RIL_REQUEST_CDMA_BURST_DTMF:
+            case RIL_REQUEST_SET_MUTE:
+                return LANE_CALL;
+
+            case RIL_REQUEST_SIM_IO:
+            case RIL_REQUEST_WRITE_SMS_TO_SIM:
+            case RIL_REQUEST_DELETE_SMS_ON_SIM:
+            case RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM:
+            case RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM:
+                return LANE_BACKGROUND;
+
+            default:
+                return LANE_INTERACTIVE;
+        }
+    }
+
+    /**
+     * Queues a request to be sent.
+     */
+    synchronized void add(RILRequest rr) {
+        rr.mLane = laneOf(rr.mRequest);
+        rr.mEnqueueTime = SystemClock.elapsedRealtime();
+        ArrayDeque<RILRequest> lane = mLanes[rr.mLane];
+        lane.add(rr);
+        if (lane.size() > mMaxDepth[rr.mLane]) {
+            mMaxDepth[rr.mLane] = lane.size();
+        }
+    }
+
+    /**
+     * Takes the next request to send. A background request is counted as in
+     * flight until {@link #onCompleted} is called for it.
+     *
+     * @return The request, or null if none may be sent now
+     */
+    synchronized RILRequest poll() {
+        for (int i = 0; i < NUM_LANES; i++) {
+            if (i == LANE_BACKGROUND && mMaxBackgroundInFlight > 0
+                    && mBackgroundInFlight >= mMaxBackgroundInFlight) {
+                return null;
+            }
+            RILRequest rr = mLanes[i].poll();
+            if (rr != null) {
+                if (i == LANE_BACKGROUND) {
+                    rr.mInFlight = true;
+                    mBackgroundInFlight++;
+                    if (mBackgroundInFlight > mMaxBackgroundInFlightSeen) {
+                        mMaxBackgroundInFlightSeen = mBackgroundInFlight;
+                    }
+                }
+                long waitMs = SystemClock.elapsedRealtime() - rr.mEnqueueTime;
+                mSent[i]++;
+                mTotalWaitMs[i] += waitMs;
+                if (waitMs > mMaxWaitMs[i]) {
+                    mMaxWaitMs[i] = waitMs;
+                }
+                return rr;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called when a request taken with {@link #poll} has been answered or
+     * failed, before it's released.
+     *
+     * @return true if a background request was held back and may now be sent
+     */
+    synchronized boolean onCompleted(RILRequest rr) {
+        if (!rr.mInFlight) {
+            return false;
+        }
+        rr.mInFlight = false;
+        mBackgroundInFlight--;
+        return !mLanes[LANE_BACKGROUND].isEmpty();
+    }
+
+    /**
+     * Removes a request that reached its deadline before it could be sent.
+     *
+     * @param serial The serial number of the request
+     * @param now The current elapsedRealtime
+     * @return The request, or null if it isn't waiting or its deadline hasn't
+     *         passed
+     */
+    synchronized RILRequest removeExpired(int serial, long now) {
+        for (int i = 0; i < NUM_LANES; i++) {
+            Iterator<RILRequest> it = mLanes[i].iterator();
+            while (it.hasNext()) {
+                RILRequest rr = it.next();
+                if (rr.mSerial == serial) {
+                    if (rr.mDeadline == 0 || rr.mDeadline > now) {
+                        return null;
+                    }
+                    it.remove();
+                    return rr;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes a request that hasn't been sent.
+     *
+     * @param result The message the request was made with
+     * @return The request, or null if it isn't waiting
+     */
+    synchronized RILRequest remove(Message result) {
+        for (int i = 0; i < NUM_LANES; i++) {
+            Iterator<RILRequest> it = mLanes[i].iterator();
+            while (it.hasNext()) {
+                RILRequest rr = it.next();
+                if (rr.mResult == result) {
+                    it.remove();
+                    return rr;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of requests waiting in a lane
+     */
+    synchronized int getDepth(int lane) {
+        return mLanes[lane].size();
+    }
+
+    synchronized int getBackgroundInFlight() {
+        return mBackgroundInFlight;
+    }
+
+    /**
+     * @return The longest time a request of a lane waited to be sent
+     */
+    synchronized long getMaxWaitMs(int lane) {
+        return mMaxWaitMs[lane];
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println(" mRequestQueue: maxBackgroundInFlight=" + mMaxBackgroundInFlight
+                + " backgroundInFlight=" + mBackgroundInFlight
+                + " (max " + mMaxBackgroundInFlightSeen + ")");
+        for (int i = 0; i < NUM_LANES; i++) {
+            pw.println("  " + LANE_NAMES[i] + ": depth=" + mLanes[i].size()
+                    + " maxDepth=" + mMaxDepth[i] + " sent=" + mSent[i]
+                    + " avgWaitMs=" + (mSent[i] > 0 ? mTotalWaitMs[i] / mSent[i] : 0)
+                    + " maxWaitMs=" + mMaxWaitMs[i]);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The deadlines of RIL requests, by serial number, in a hashed timer wheel.
+ *
+ * A deadline goes in the slot of its tick, so adding one is constant time
+ * and each tick only looks at the requests of one slot. A deadline more
+ * than one turn of the wheel away stays in its slot until the turn it's
+ * due. Answered requests aren't removed; the caller ignores serial numbers
+ * that are no longer pending when they expire.
+ *
+ * {@hide}
+ */
+final class RILTimerWheel {
+    private static final int INITIAL_SLOT_CAPACITY = 4;
+
+    private final long mTickMs;
+    private final int[][] mSerials;
+    private final long[][] mDeadlines;
+    private final int[] mCounts;
+    private int mSize;
+    // The first tick that may still have deadlines due
+    private long mCurrentTick;
+
+    RILTimerWheel(long tickMs, int numSlots) {
+        mTickMs = tickMs;
+        mSerials = new int[numSlots][];
+        mDeadlines = new long[numSlots][];
+        mCounts = new int[numSlots];
+    }
+
+    long getTickMs() {
+        return mTickMs;
+    }
+
+    /**
+     * Adds the deadline of a request.
+     *
+     * @param serial The serial number of the request
+     * @param deadline When the request expires, in elapsedRealtime
+     * @param now The current elapsedRealtime
+     * @return true if the wheel was empty, and the caller needs to start
+     *         calling {@link #expire} each tick
+     */
+    synchronized boolean add(int serial, long deadline, long now) {
+        boolean wasEmpty = mSize == 0;
+        if (wasEmpty) {
+            mCurrentTick = now / mTickMs;
+        }
+        int slot = (int) ((deadline / mTickMs) % mCounts.length);
+        int count = mCounts[slot];
+        if (mSerials[slot] == null) {
+            mSerials[slot] = new int[INITIAL_SLOT_CAPACITY];
+            mDeadlines[slot] = new long[INITIAL_SLOT_CAPACITY];
+        } else if (count == mSerials[slot].length) {
+            mSerials[slot] = Arrays.copyOf(mSerials[slot], count * 2);
+            mDeadlines[slot] = Arrays.copyOf(mDeadlines[slot], count * 2);
+        }
+        mSerials[slot][count] = serial;
+        mDeadlines[slot][count] = deadline;
+        mCounts[slot] = count + 1;
+        mSize++;
+        return wasEmpty;
+    }
+
+    /**
+     * Removes the deadlines that have passed.
+     *
+     * @param now The current elapsedRealtime
+     * @param expired The serial numbers of the expired requests are added to this
+     * @return true if deadlines remain, and the caller should call this again
+     *         next tick
+     */
+    synchronized boolean expire(long now, List<Integer> expired) {
+        long nowTick = now / mTickMs;
+        // A slot is due at most once per turn, so never scan more than a turn.
+        long firstTick = Math.max(mCurrentTick, nowTick - mCounts.length + 1);
+        for (long tick = firstTick; tick <= nowTick && mSize > 0; tick++) {
+            int slot = (int) (tick % mCounts.length);
+            int[] serials = mSerials[slot];
+            long[] deadlines = mDeadlines[slot];
+            int kept = 0;
+            for (int i = 0; i < mCounts[slot]; i++) {
+                if (deadlines[i] <= now) {
+                    expired.add(serials[i]);
+                    mSize--;
+                } else {
+                    serials[kept] = serials[i];
+                    deadlines[kept] = deadlines[i];
+                    kept++;
+                }
+            }
+            mCounts[slot] = kept;
+        }
+        mCurrentTick = nowTick;
+        return mSize > 0;
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+}
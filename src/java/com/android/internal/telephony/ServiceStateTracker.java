@@ -163,6 +163,7 @@ public abstract class ServiceStateTracker extends Handler {
     protected static final int EVENT_GET_CELL_INFO_LIST                = 43;
     protected static final int EVENT_UNSOL_CELL_INFO_LIST              = 44;
     protected static final int EVENT_CHANGE_IMS_STATE                  = 45;
+    protected static final int EVENT_ESSENTIAL_RECORDS_LOADED          = 46;
 
     protected static final String TIMEZONE_PROPERTY = "persist.sys.timezone";
 
@@ -820,6 +821,7 @@ public abstract class ServiceStateTracker extends Handler {
         pw.println(" mDontPollSignalStrength=" + mDontPollSignalStrength);
         pw.println(" mPendingRadioPowerOffAfterDataOff=" + mPendingRadioPowerOffAfterDataOff);
         pw.println(" mPendingRadioPowerOffAfterDataOffTag=" + mPendingRadioPowerOffAfterDataOffTag);
+        NitzTimeZoneIndex.dump(pw);
     }
 
     /**
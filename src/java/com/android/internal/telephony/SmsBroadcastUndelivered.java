@@ -24,11 +24,18 @@ import android.net.Uri;
 import android.provider.Telephony;
 import android.telephony.Rlog;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.cdma.CdmaInboundSmsHandler;
 import com.android.internal.telephony.gsm.GsmInboundSmsHandler;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Called at boot time to clean out the raw table, collecting all acknowledged messages and
@@ -36,6 +43,13 @@ import java.util.HashSet;
  * avoid delaying phone app startup. The last step is to broadcast the first pending message
  * from the main thread, then the remaining pending messages will be broadcast after the
  * previous ordered broadcast completes.
+ *
+ * <p>The raw table is read in pages of {@link #RAW_TABLE_PAGE_SIZE} rows by a small pool of
+ * worker threads, so a large backlog left by a crash is recovered without holding the whole
+ * table in one cursor. The {@code _id} column is read first and split into ranges, and each
+ * page is selected by its {@code _id} range. The table doesn't change while the scan runs,
+ * because the inbound SMS handlers defer all new and pending messages until
+ * {@link InboundSmsHandler#EVENT_START_ACCEPTING_SMS}.
  */
 public class SmsBroadcastUndelivered implements Runnable {
     private static final String TAG = "SmsBroadcastUndelivered";
@@ -59,6 +73,21 @@ public class SmsBroadcastUndelivered implements Runnable {
             "_id"
     };
 
+    /** Query projection for splitting the raw table into pages. */
+    private static final String[] ID_PROJECTION = { "_id" };
+
+    /** Selection of the rows of one page, after the last row of the previous page. */
+    private static final String SELECT_BY_ID_RANGE = "_id > ? AND _id <= ?";
+
+    /** Number of raw table rows to read per query. */
+    static final int RAW_TABLE_PAGE_SIZE = 100;
+
+    /** Maximum number of worker threads reading pages of the raw table concurrently. */
+    private static final int MAX_RECOVERY_THREADS = 4;
+
+    /** Maximum number of messages to delete with a single raw table delete. */
+    private static final int MAX_MESSAGES_PER_DELETE = 100;
+
     /** URI for raw table from SmsProvider. */
     private static final Uri sRawUri = Uri.withAppendedPath(Telephony.Sms.CONTENT_URI, "raw");
 
@@ -96,81 +125,270 @@ public class SmsBroadcastUndelivered implements Runnable {
      */
     private void scanRawTable() {
         long startTime = System.nanoTime();
-        HashMap<SmsReferenceKey, Integer> multiPartReceivedCount =
-                new HashMap<SmsReferenceKey, Integer>(4);
-        HashSet<SmsReferenceKey> oldMultiPartMessages = new HashSet<SmsReferenceKey>(4);
+        long[] ids = queryRawIds();
+        if (ids == null) {
+            return;
+        }
+        RecoveryScan scan = new RecoveryScan(ids);
+        int threads = Math.max(1, Math.min(MAX_RECOVERY_THREADS,
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(scan);
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (DBG) Rlog.d(TAG, "waiting for raw table scan to complete");
+            }
+        } catch (InterruptedException e) {
+            Rlog.e(TAG, "interrupted while scanning raw table", e);
+            scan.mFailed = true;
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        // Delete old incomplete message segments
+        int deletedRows = 0;
+        if (!scan.mFailed) {
+            deletedRows = deleteExpiredMessages(scan.getExpiredMessages());
+        }
+
+        if (DBG) Rlog.d(TAG, "finished scanning raw table in "
+                + ((System.nanoTime() - startTime) / 1000000) + " ms: rows="
+                + scan.mRowCount.get() + " pages=" + scan.mPageCount.get()
+                + " messagesBroadcast=" + scan.mBroadcastCount.get()
+                + " expiredRowsDeleted=" + deletedRows + " threads=" + threads);
+    }
+
+    /**
+     * Read the {@code _id} of every raw table row, in ascending order.
+     * @return the ids, or null on error
+     */
+    private long[] queryRawIds() {
         Cursor cursor = null;
         try {
-            cursor = mResolver.query(sRawUri, PDU_PENDING_MESSAGE_PROJECTION, null, null, null);
+            cursor = mResolver.query(sRawUri, ID_PROJECTION, null, null, "_id");
             if (cursor == null) {
-                Rlog.e(TAG, "error getting pending message cursor");
-                return;
+                Rlog.e(TAG, "error getting raw table id cursor");
+                return null;
+            }
+            long[] ids = new long[cursor.getCount()];
+            int count = 0;
+            while (cursor.moveToNext() && count < ids.length) {
+                ids[count++] = cursor.getLong(0);
+            }
+            return count == ids.length ? ids : Arrays.copyOf(ids, count);
+        } catch (SQLException e) {
+            Rlog.e(TAG, "error reading raw table ids", e);
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Delete the segments of the given incomplete messages, combining up to
+     * {@link #MAX_MESSAGES_PER_DELETE} messages in each delete.
+     * @return the number of rows deleted
+     */
+    private int deleteExpiredMessages(ArrayList<SmsReferenceKey> messages) {
+        int totalRows = 0;
+        for (int start = 0; start < messages.size(); start += MAX_MESSAGES_PER_DELETE) {
+            int end = Math.min(start + MAX_MESSAGES_PER_DELETE, messages.size());
+            StringBuilder where = new StringBuilder();
+            String[] whereArgs = new String[(end - start) * 3];
+            for (int i = start; i < end; i++) {
+                if (i != start) {
+                    where.append(" OR ");
+                }
+                where.append('(').append(InboundSmsHandler.SELECT_BY_REFERENCE).append(')');
+                String[] args = messages.get(i).getDeleteWhereArgs();
+                System.arraycopy(args, 0, whereArgs, (i - start) * 3, 3);
+            }
+            try {
+                int rows = mResolver.delete(sRawUri, where.toString(), whereArgs);
+                if (rows == 0) {
+                    Rlog.e(TAG, "No rows were deleted from raw table!");
+                } else if (DBG) {
+                    Rlog.d(TAG, "Deleted " + rows + " rows from raw table for "
+                            + (end - start) + " incomplete messages");
+                }
+                totalRows += rows;
+            } catch (SQLException e) {
+                Rlog.e(TAG, "error deleting expired SMS segments", e);
+            }
+        }
+        return totalRows;
+    }
+
+    /**
+     * Shared state of a raw table scan. Each worker thread runs this to claim and process pages
+     * of the raw table until every page has been claimed. Complete messages are sent to the
+     * inbound SMS handler by whichever worker reads their last segment.
+     */
+    private class RecoveryScan implements Runnable {
+        /** The ids of the raw table rows in ascending order. */
+        final long[] mIds;
+        final int mPages;
+        final AtomicInteger mNextPage = new AtomicInteger();
+        final AtomicInteger mPageCount = new AtomicInteger();
+        final AtomicInteger mRowCount = new AtomicInteger();
+        final AtomicInteger mBroadcastCount = new AtomicInteger();
+        final ConcurrentHashMap<SmsReferenceKey, PartialMessage> mMultiPartMessages =
+                new ConcurrentHashMap<SmsReferenceKey, PartialMessage>(4);
+        final long mExpireTime = System.currentTimeMillis() - PARTIAL_SEGMENT_EXPIRE_AGE;
+        final boolean mIsCurrentFormat3gpp2 = InboundSmsHandler.isCurrentFormat3gpp2();
+        volatile boolean mFailed;
+
+        RecoveryScan(long[] ids) {
+            mIds = ids;
+            mPages = (ids.length + RAW_TABLE_PAGE_SIZE - 1) / RAW_TABLE_PAGE_SIZE;
+        }
+
+        @Override
+        public void run() {
+            int page;
+            while (!mFailed && (page = mNextPage.getAndIncrement()) < mPages) {
+                scanPage(page);
             }
+        }
 
-            boolean isCurrentFormat3gpp2 = InboundSmsHandler.isCurrentFormat3gpp2();
-            while (cursor.moveToNext()) {
-                InboundSmsTracker tracker;
-                try {
-                    tracker = new InboundSmsTracker(cursor, isCurrentFormat3gpp2);
-                } catch (IllegalArgumentException e) {
-                    Rlog.e(TAG, "error loading SmsTracker: " + e);
-                    continue;
+        /**
+         * Process one page of the raw table.
+         * @return the number of rows read, or -1 on error
+         */
+        private int scanPage(int page) {
+            int first = page * RAW_TABLE_PAGE_SIZE;
+            int last = Math.min(first + RAW_TABLE_PAGE_SIZE, mIds.length) - 1;
+            // the ids are distinct, so the range after the previous page's last row holds
+            // exactly the rows of this page
+            String[] selectionArgs = {
+                    Long.toString(first == 0 ? mIds[0] - 1 : mIds[first - 1]),
+                    Long.toString(mIds[last])
+            };
+            Cursor cursor = null;
+            try {
+                cursor = mResolver.query(sRawUri, PDU_PENDING_MESSAGE_PROJECTION,
+                        SELECT_BY_ID_RANGE, selectionArgs, "_id");
+                if (cursor == null) {
+                    Rlog.e(TAG, "error getting pending message cursor");
+                    mFailed = true;
+                    return -1;
                 }
 
-                if (tracker.getMessageCount() == 1) {
-                    // deliver single-part message
-                    broadcastSms(tracker);
-                } else {
-                    SmsReferenceKey reference = new SmsReferenceKey(tracker);
-                    Integer receivedCount = multiPartReceivedCount.get(reference);
-                    if (receivedCount == null) {
-                        multiPartReceivedCount.put(reference, 1);    // first segment seen
-                        if (tracker.getTimestamp() <
-                                (System.currentTimeMillis() - PARTIAL_SEGMENT_EXPIRE_AGE)) {
-                            // older than 30 days; delete if we don't find all the segments
-                            oldMultiPartMessages.add(reference);
-                        }
+                int rows = 0;
+                while (cursor.moveToNext()) {
+                    rows++;
+                    InboundSmsTracker tracker;
+                    try {
+                        tracker = new InboundSmsTracker(cursor, mIsCurrentFormat3gpp2);
+                    } catch (IllegalArgumentException e) {
+                        Rlog.e(TAG, "error loading SmsTracker: " + e);
+                        continue;
+                    }
+
+                    if (tracker.getMessageCount() == 1) {
+                        // deliver single-part message
+                        broadcastSms(tracker);
+                        mBroadcastCount.incrementAndGet();
                     } else {
-                        int newCount = receivedCount + 1;
-                        if (newCount == tracker.getMessageCount()) {
-                            // looks like we've got all the pieces; send a single tracker
-                            // to state machine which will find the other pieces to broadcast
-                            if (DBG) Rlog.d(TAG, "found complete multi-part message");
-                            broadcastSms(tracker);
-                            // don't delete this old message until after we broadcast it
-                            oldMultiPartMessages.remove(reference);
-                        } else {
-                            multiPartReceivedCount.put(reference, newCount);
-                        }
+                        addSegment(tracker);
                     }
                 }
+                mRowCount.addAndGet(rows);
+                mPageCount.incrementAndGet();
+                return rows;
+            } catch (SQLException e) {
+                Rlog.e(TAG, "error reading pending SMS messages", e);
+                mFailed = true;
+                return -1;
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
             }
-            // Delete old incomplete message segments
-            for (SmsReferenceKey message : oldMultiPartMessages) {
-                int rows = mResolver.delete(sRawUri, InboundSmsHandler.SELECT_BY_REFERENCE,
-                        message.getDeleteWhereArgs());
-                if (rows == 0) {
-                    Rlog.e(TAG, "No rows were deleted from raw table!");
-                } else if (DBG) {
-                    Rlog.d(TAG, "Deleted " + rows + " rows from raw table for incomplete "
-                            + message.mMessageCount + " part message");
+        }
+
+        private void addSegment(InboundSmsTracker tracker) {
+            SmsReferenceKey reference = new SmsReferenceKey(tracker);
+            PartialMessage message = mMultiPartMessages.get(reference);
+            if (message == null) {
+                PartialMessage newMessage = new PartialMessage(tracker.getMessageCount());
+                message = mMultiPartMessages.putIfAbsent(reference, newMessage);
+                if (message == null) {
+                    message = newMessage;
                 }
             }
-        } catch (SQLException e) {
-            Rlog.e(TAG, "error reading pending SMS messages", e);
-        } finally {
-            if (cursor != null) {
-                cursor.close();
+            if (message.addSegment(tracker.getTimestamp())) {
+                // looks like we've got all the pieces; send a single tracker
+                // to state machine which will find the other pieces to broadcast
+                if (DBG) Rlog.d(TAG, "found complete multi-part message");
+                broadcastSms(tracker);
+                mBroadcastCount.incrementAndGet();
+            }
+        }
+
+        /**
+         * Return the incomplete messages whose oldest segment is older than
+         * {@link #PARTIAL_SEGMENT_EXPIRE_AGE}.
+         * Must only be called after all worker threads have finished.
+         */
+        ArrayList<SmsReferenceKey> getExpiredMessages() {
+            ArrayList<SmsReferenceKey> expired = new ArrayList<SmsReferenceKey>();
+            for (Map.Entry<SmsReferenceKey, PartialMessage> entry
+                    : mMultiPartMessages.entrySet()) {
+                if (entry.getValue().isExpired(mExpireTime)) {
+                    expired.add(entry.getKey());
+                }
+            }
+            return expired;
+        }
+    }
+
+    /**
+     * Counts the segments of a multi-part message found by the scan.
+     */
+    private static class PartialMessage {
+        private final int mMessageCount;
+        private int mReceivedCount;
+        private long mOldestTimestamp = Long.MAX_VALUE;
+
+        PartialMessage(int messageCount) {
+            mMessageCount = messageCount;
+        }
+
+        /**
+         * Count a segment of this message. Segments may be counted in any order by the
+         * worker threads.
+         * @param timestamp the time the segment was received
+         * @return true if this was the last missing segment
+         */
+        synchronized boolean addSegment(long timestamp) {
+            if (timestamp < mOldestTimestamp) {
+                mOldestTimestamp = timestamp;
             }
-            if (DBG) Rlog.d(TAG, "finished scanning raw table in "
-                    + ((System.nanoTime() - startTime) / 1000000) + " ms");
+            return ++mReceivedCount == mMessageCount;
+        }
+
+        /**
+         * Return true if this message is incomplete and its oldest segment was received
+         * before the expire time.
+         */
+        synchronized boolean isExpired(long expireTime) {
+            // don't delete a complete old message until after we broadcast it
+            return mOldestTimestamp < expireTime && mReceivedCount < mMessageCount;
         }
     }
 
     /**
      * Send tracker to appropriate (3GPP or 3GPP2) inbound SMS handler for broadcast.
+     * Called from the worker threads of the scan.
      */
-    private void broadcastSms(InboundSmsTracker tracker) {
+    @VisibleForTesting
+    void broadcastSms(InboundSmsTracker tracker) {
         InboundSmsHandler handler;
         if (tracker.is3gpp2()) {
             handler = mCdmaInboundSmsHandler;
@@ -16,23 +16,15 @@
 
 package com.android.internal.telephony;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-
 import android.content.Context;
 import android.os.SystemProperties;
 import android.os.Build;
 import android.text.TextUtils;
-import android.content.ContentResolver;
-import android.database.Cursor;
-import android.database.SQLException;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.TelephonyManager;
 import android.telephony.Rlog;
-import com.android.internal.telephony.HbpcdLookup.MccIdd;
-import com.android.internal.telephony.HbpcdLookup.MccLookup;
+
+import java.util.Arrays;
 
 
  /**
@@ -98,11 +90,6 @@ public class SmsNumberUtils {
     /* <Country_code>-<Area_code>-<Phone Number>, 86-25-86281234*/
     private static final int NP_CC_AREA_LOCAL = NP_INTERNATIONAL_BEGIN + 4;
 
-    private static int[] ALL_COUNTRY_CODES = null;
-    private static int MAX_COUNTRY_CODES_LENGTH;
-    private static HashMap<String, ArrayList<String>> IDDS_MAPS =
-            new HashMap<String, ArrayList<String>>();
-
     private static class NumberEntry {
         public String number;
         public String IDD;
@@ -138,7 +125,9 @@ public class SmsNumberUtils {
         }
 
         NumberEntry numberEntry = new NumberEntry(networkPortionNumber);
-        ArrayList<String> allIDDs = getAllIDDs(context, activeMcc);
+        HbpcdLookupIndex lookup = HbpcdLookupIndex.getInstance(context);
+        String[] allIDDs = lookup.getIdds(activeMcc);
+        if (DBG) Rlog.d(TAG, "MCC = " + activeMcc + ", all IDDs = " + Arrays.toString(allIDDs));
 
         // First check whether the number is a NANP number.
         int nanpState = checkNANP(numberEntry, allIDDs);
@@ -170,7 +159,7 @@ public class SmsNumberUtils {
             }
         }
 
-        int internationalState = checkInternationalNumberPlan(context, numberEntry, allIDDs,
+        int internationalState = checkInternationalNumberPlan(lookup, numberEntry, allIDDs,
                 NANP_IDD);
         if (DBG) Rlog.d(TAG, "International type: " + getNumberPlanType(internationalState));
         String returnNumber = null;
@@ -231,59 +220,6 @@ public class SmsNumberUtils {
         return returnNumber;
     }
 
-    /* Query International direct dialing from HbpcdLookup.db
-     * for specified country code
-     *
-     * @param mcc current network's country code
-     *
-     * @return the IDD array list.
-     */
-    private static ArrayList<String> getAllIDDs(Context context, String mcc) {
-        ArrayList<String> allIDDs = IDDS_MAPS.get(mcc);
-        if (allIDDs != null) {
-            return allIDDs;
-        } else {
-            allIDDs = new ArrayList<String>();
-        }
-
-        String projection[] = {MccIdd.IDD, MccIdd.MCC};
-        String where = null;
-
-        // if mcc is null         : return all rows
-        // if mcc is empty-string : return those rows whose mcc is emptry-string
-        String[] selectionArgs = null;
-        if (mcc != null) {
-            where = MccIdd.MCC + "=?";
-            selectionArgs = new String[] {mcc};
-        }
-
-        Cursor cursor = null;
-        try {
-            cursor = context.getContentResolver().query(MccIdd.CONTENT_URI, projection,
-                    where, selectionArgs, null);
-            if (cursor.getCount() > 0) {
-                while (cursor.moveToNext()) {
-                    String idd = cursor.getString(0);
-                    if (!allIDDs.contains(idd)) {
-                        allIDDs.add(idd);
-                    }
-                }
-            }
-        } catch (SQLException e) {
-            Rlog.e(TAG, "Can't access HbpcdLookup database", e);
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-
-        IDDS_MAPS.put(mcc, allIDDs);
-
-        if (DBG) Rlog.d(TAG, "MCC = " + mcc + ", all IDDs = " + allIDDs);
-        return allIDDs;
-    }
-
-
     /* Verify if the the destination number is a NANP number
      *
      * @param numberEntry including number and IDD array
@@ -291,7 +227,7 @@ public class SmsNumberUtils {
      *
      * @return the number plan type related NANP
      */
-    private static int checkNANP(NumberEntry numberEntry, ArrayList<String> allIDDs) {
+    private static int checkNANP(NumberEntry numberEntry, String[] allIDDs) {
         boolean isNANP = false;
         String number = numberEntry.number;
 
@@ -369,43 +305,41 @@ public class SmsNumberUtils {
 
     /* Verify if the the destination number is an internal number
      *
+     * @param lookup the HbpcdLookup index to find country codes with
      * @param numberEntry including number and IDD array
      * @param allIDDs the IDD array list of the current network's country code
      *
      * @return the number plan type related international number
      */
-    private static int checkInternationalNumberPlan(Context context, NumberEntry numberEntry,
-            ArrayList<String> allIDDs,String homeIDD) {
+    private static int checkInternationalNumberPlan(HbpcdLookupIndex lookup,
+            NumberEntry numberEntry, String[] allIDDs, String homeIDD) {
         String number = numberEntry.number;
         int countryCode = -1;
 
         if (number.startsWith(PLUS_SIGN)) {
             // +xxxxxxxxxx
-            String numberNoNBPCD = number.substring(1);
-            if (numberNoNBPCD.startsWith(homeIDD)) {
+            if (number.startsWith(homeIDD, 1)) {
                 // +011xxxxxxxx
-                String numberCountryAreaLocal = numberNoNBPCD.substring(homeIDD.length());
-                if ((countryCode = getCountryCode(context, numberCountryAreaLocal)) > 0) {
+                if ((countryCode = getCountryCode(lookup, number,
+                        1 + homeIDD.length())) > 0) {
                     numberEntry.countryCode = countryCode;
                     return NP_NBPCD_HOMEIDD_CC_AREA_LOCAL;
                 }
-            } else if ((countryCode = getCountryCode(context, numberNoNBPCD)) > 0) {
+            } else if ((countryCode = getCountryCode(lookup, number, 1)) > 0) {
                 numberEntry.countryCode = countryCode;
                 return NP_NBPCD_CC_AREA_LOCAL;
             }
 
         } else if (number.startsWith(homeIDD)) {
             // 011xxxxxxxxx
-            String numberCountryAreaLocal = number.substring(homeIDD.length());
-            if ((countryCode = getCountryCode(context, numberCountryAreaLocal)) > 0) {
+            if ((countryCode = getCountryCode(lookup, number, homeIDD.length())) > 0) {
                 numberEntry.countryCode = countryCode;
                 return NP_HOMEIDD_CC_AREA_LOCAL;
             }
         } else {
             for (String exitCode : allIDDs) {
                 if (number.startsWith(exitCode)) {
-                    String numberNoIDD = number.substring(exitCode.length());
-                    if ((countryCode = getCountryCode(context, numberNoIDD)) > 0) {
+                    if ((countryCode = getCountryCode(lookup, number, exitCode.length())) > 0) {
                         numberEntry.countryCode = countryCode;
                         numberEntry.IDD = exitCode;
                         return NP_LOCALIDD_CC_AREA_LOCAL;
@@ -413,7 +347,7 @@ public class SmsNumberUtils {
                 }
             }
 
-            if (!number.startsWith("0") && (countryCode = getCountryCode(context, number)) > 0) {
+            if (!number.startsWith("0") && (countryCode = getCountryCode(lookup, number, 0)) > 0) {
                 numberEntry.countryCode = countryCode;
                 return NP_CC_AREA_LOCAL;
             }
@@ -422,72 +356,19 @@ public class SmsNumberUtils {
     }
 
     /**
-     *  Returns the country code from the given number.
+     *  Returns the country code at the given offset of the number.
      */
-    private static int getCountryCode(Context context, String number) {
+    private static int getCountryCode(HbpcdLookupIndex lookup, String number, int offset) {
         int countryCode = -1;
-        if (number.length() >= MIN_COUNTRY_AREA_LOCAL_LENGTH) {
+        if (number.length() - offset >= MIN_COUNTRY_AREA_LOCAL_LENGTH) {
             // Check Country code
-            int[] allCCs = getAllCountryCodes(context);
-            if (allCCs == null) {
-                return countryCode;
-            }
-
-            int[] ccArray = new int[MAX_COUNTRY_CODES_LENGTH];
-            for (int i = 0; i < MAX_COUNTRY_CODES_LENGTH; i ++) {
-                ccArray[i] = Integer.valueOf(number.substring(0, i+1));
-            }
-
-            for (int i = 0; i < allCCs.length; i ++) {
-                int tempCC = allCCs[i];
-                for (int j = 0; j < MAX_COUNTRY_CODES_LENGTH; j ++) {
-                    if (tempCC == ccArray[j]) {
-                        if (DBG) Rlog.d(TAG, "Country code = " + tempCC);
-                        return tempCC;
-                    }
-                }
-            }
+            countryCode = lookup.getCountryCode(number, offset);
+            if (DBG && countryCode > 0) Rlog.d(TAG, "Country code = " + countryCode);
         }
 
         return countryCode;
     }
 
-    /**
-     *  Gets all country Codes information with given MCC.
-     */
-    private static int[] getAllCountryCodes(Context context) {
-        if (ALL_COUNTRY_CODES != null) {
-            return ALL_COUNTRY_CODES;
-        }
-
-        Cursor cursor = null;
-        try {
-            String projection[] = {MccLookup.COUNTRY_CODE};
-            cursor = context.getContentResolver().query(MccLookup.CONTENT_URI,
-                    projection, null, null, null);
-
-            if (cursor.getCount() > 0) {
-                ALL_COUNTRY_CODES = new int[cursor.getCount()];
-                int i = 0;
-                while (cursor.moveToNext()) {
-                    int countryCode = cursor.getInt(0);
-                    ALL_COUNTRY_CODES[i++] = countryCode;
-                    int length = String.valueOf(countryCode).trim().length();
-                    if (length > MAX_COUNTRY_CODES_LENGTH) {
-                        MAX_COUNTRY_CODES_LENGTH = length;
-                    }
-                }
-            }
-        } catch (SQLException e) {
-            Rlog.e(TAG, "Can't access HbpcdLookup database", e);
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-        return ALL_COUNTRY_CODES;
-    }
-
     private static boolean inExceptionListForNpCcAreaLocal(NumberEntry numberEntry) {
         int countryCode = numberEntry.countryCode;
         boolean result = (numberEntry.number.length() == 12
@@ -309,6 +309,25 @@ public class SmsUsageMonitor {
         }
     }
 
+    /**
+     * Return a pattern matcher object for the specified country from the operator metadata
+     * store, when it was compiled from the resource the device resolves.
+     * @param metadata the operator metadata store, which has short codes
+     * @param country the country to search for
+     * @return a {@link ShortCodePatternMatcher} for the specified country, or null if not found
+     */
+    private ShortCodePatternMatcher getPatternMatcherFromMetadata(OperatorMetadata metadata,
+            String country) {
+        String[] patterns = metadata.getShortCodePatterns(country);
+        if (patterns == null) {
+            return null;
+        }
+        return new ShortCodePatternMatcher(patterns[OperatorMetadataFormat.SHORT_CODE_PATTERN],
+                patterns[OperatorMetadataFormat.SHORT_CODE_PREMIUM],
+                patterns[OperatorMetadataFormat.SHORT_CODE_FREE],
+                patterns[OperatorMetadataFormat.SHORT_CODE_STANDARD]);
+    }
+
     private ShortCodePatternMatcher getPatternMatcherFromXmlParser(XmlPullParser parser,
             String country) {
         try {
@@ -408,8 +427,18 @@ public class SmsUsageMonitor {
                         if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from file");
                         mCurrentPatternMatcher = getPatternMatcherFromFile(countryIso);
                     } else {
-                        if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from resource");
-                        mCurrentPatternMatcher = getPatternMatcherFromResource(countryIso);
+                        OperatorMetadata metadata = OperatorMetadata.getInstance();
+                        if (metadata != null && metadata.hasShortCodes()
+                                && metadata.matchesResource(mContext.getResources(),
+                                        com.android.internal.R.xml.sms_short_codes,
+                                        OperatorMetadataFormat.SHORT_CODES_RESOURCE)) {
+                            if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from metadata");
+                            mCurrentPatternMatcher = getPatternMatcherFromMetadata(metadata,
+                                    countryIso);
+                        } else {
+                            if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from resource");
+                            mCurrentPatternMatcher = getPatternMatcherFromResource(countryIso);
+                        }
                     }
                     mCurrentCountry = countryIso;
                 }
@@ -104,6 +104,48 @@ public class UiccSmsController extends ISms.Stub {
         }
     }
 
+    /**
+     * Hands the messages on the ICC of a subscription to the callback in pages
+     * as they're read, without blocking the binder thread.
+     */
+    public void loadMessagesFromIccEfForSubscriber(long subId, String callingPackage,
+            int pageSize, IIccSmsLoadCallback callback) throws android.os.RemoteException {
+        IccSmsInterfaceManager iccSmsIntMgr = getIccSmsInterfaceManager(subId);
+        if (iccSmsIntMgr != null) {
+            iccSmsIntMgr.loadMessagesFromIccEf(callingPackage, pageSize, callback);
+        } else {
+            Rlog.e(LOG_TAG,"loadMessagesFromIccEf iccSmsIntMgr is" +
+                          " null for Subscription: " + subId);
+            callback.onComplete(false, 0);
+        }
+    }
+
+    public void updateMessageOnIccEfForSubscriber(long subId, String callingPackage, int index,
+            int status, byte[] pdu, IIccSmsUpdateCallback callback)
+            throws android.os.RemoteException {
+        IccSmsInterfaceManager iccSmsIntMgr = getIccSmsInterfaceManager(subId);
+        if (iccSmsIntMgr != null) {
+            iccSmsIntMgr.updateMessageOnIccEf(callingPackage, index, status, pdu, callback);
+        } else {
+            Rlog.e(LOG_TAG,"updateMessageOnIccEf iccSmsIntMgr is null" +
+                          " for Subscription: " + subId);
+            callback.onComplete(false);
+        }
+    }
+
+    public void copyMessageToIccEfForSubscriber(long subId, String callingPackage, int status,
+            byte[] pdu, byte[] smsc, IIccSmsUpdateCallback callback)
+            throws android.os.RemoteException {
+        IccSmsInterfaceManager iccSmsIntMgr = getIccSmsInterfaceManager(subId);
+        if (iccSmsIntMgr != null) {
+            iccSmsIntMgr.copyMessageToIccEf(callingPackage, status, pdu, smsc, callback);
+        } else {
+            Rlog.e(LOG_TAG,"copyMessageToIccEf iccSmsIntMgr is null" +
+                          " for Subscription: " + subId);
+            callback.onComplete(false);
+        }
+    }
+
     public void sendData(String callingPackage, String destAddr, String scAddr, int destPort,
             byte[] data, PendingIntent sentIntent, PendingIntent deliveryIntent) {
          sendDataForSubscriber(getPreferredSmsSubscription(), callingPackage, destAddr, scAddr,
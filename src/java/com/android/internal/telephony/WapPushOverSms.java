@@ -33,6 +33,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteException;
@@ -55,6 +56,8 @@ import static com.google.android.mms.pdu.PduHeaders.MESSAGE_TYPE_DELIVERY_IND;
 import static com.google.android.mms.pdu.PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND;
 import static com.google.android.mms.pdu.PduHeaders.MESSAGE_TYPE_READ_ORIG_IND;
 
+import java.util.ArrayList;
+
 /**
  * WAP push handler class.
  *
@@ -72,6 +75,25 @@ public class WapPushOverSms implements ServiceConnection {
     /** Assigned from ServiceConnection callback on main threaad. */
     private volatile IWapPushManager mWapPushManager;
 
+    /**
+     * Content locations of the notification inds in the MMS provider, shared by the GSM and
+     * CDMA handlers. Only consulted once loaded; until then every notification is checked
+     * against the provider. Replaced by a filter sized for the provider's rows when it's
+     * loaded, and again when it's saturated or the provider changes.
+     */
+    private static volatile ContentLocationBloomFilter sNotificationLocations =
+            new ContentLocationBloomFilter();
+    private static volatile boolean sNotificationLocationsLoaded;
+
+    // Guards the load state and the locations added while loading
+    private static final Object sNotificationLocationsLock = new Object();
+    private static boolean sNotificationLocationsLoading;
+    // The provider changed while loading, so the load may have missed a row
+    private static boolean sNotificationLocationsChanged;
+    private static ContentObserver sNotificationLocationsObserver;
+    private static final ArrayList<String> sPendingNotificationLocations =
+            new ArrayList<String>();
+
     @Override
     public void onServiceConnected(ComponentName name, IBinder service) {
         mWapPushManager = IWapPushManager.Stub.asInterface(service);
@@ -94,6 +116,7 @@ public class WapPushOverSms implements ServiceConnection {
         } else {
             if (DBG) Rlog.v(TAG, "bindService() for wappush manager succeeded");
         }
+        loadNotificationLocations(context);
     }
 
     void dispose() {
@@ -248,6 +271,7 @@ public class WapPushOverSms implements ServiceConnection {
                         intent.putExtra("pduType", pduType);
                         intent.putExtra("header", header);
                         intent.putExtra("data", intentData);
+                        // builds the parameter map, which is kept for the fallback intent
                         intent.putExtra("contentTypeParameters",
                                 pduDecoder.getContentParameters());
                         SubscriptionManager.putPhoneIdAndSubIdExtra(intent, phoneId);
@@ -383,6 +407,9 @@ public class WapPushOverSms implements ServiceConnection {
                                 null/*preOpenedFiles*/);
                         if (uri == null) {
                             Rlog.e(TAG, "Failed to save MMS WAP push notification ind");
+                        } else if (nInd.getContentLocation() != null) {
+                            addNotificationLocation(mContext,
+                                    new String(nInd.getContentLocation()));
                         }
                     } else {
                         Rlog.d(TAG, "Skip storing duplicate MMS WAP push notification ind: "
@@ -448,7 +475,14 @@ public class WapPushOverSms implements ServiceConnection {
         final byte[] rawLocation = nInd.getContentLocation();
         if (rawLocation != null) {
             String location = new String(rawLocation);
-            String[] selectionArgs = new String[] { location };
+            boolean filtered = sNotificationLocationsLoaded;
+            ContentLocationBloomFilter filter = sNotificationLocations;
+            if (filtered && !filter.mightContain(location)) {
+                // never stored, so no need to query the provider
+                return false;
+            } else if (!filtered) {
+                loadNotificationLocations(context);
+            }
             Cursor cursor = null;
             try {
                 cursor = SqliteWrapper.query(
@@ -459,10 +493,15 @@ public class WapPushOverSms implements ServiceConnection {
                         LOCATION_SELECTION,
                         new String[]{
                                 Integer.toString(PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND),
-                                new String(rawLocation)
+                                location
                         },
                         null/*sortOrder*/);
-                if (cursor != null && cursor.getCount() > 0) {
+                boolean duplicate = cursor != null && cursor.getCount() > 0;
+                if (filtered) {
+                    filter.recordConfirmation(duplicate);
+                    if (DBG) Rlog.d(TAG, "isDuplicateNotification: " + filter);
+                }
+                if (duplicate) {
                     // We already received the same notification before.
                     return true;
                 }
@@ -476,4 +515,134 @@ public class WapPushOverSms implements ServiceConnection {
         }
         return false;
     }
+
+    private static void addNotificationLocation(Context context, String location) {
+        boolean saturated;
+        synchronized (sNotificationLocationsLock) {
+            sNotificationLocations.add(location);
+            if (sNotificationLocationsLoading) {
+                // the load may have read the provider before this location was stored
+                sPendingNotificationLocations.add(location);
+            }
+            saturated = sNotificationLocations.isSaturated();
+        }
+        if (saturated) {
+            // rebuild with room to grow; the saturated filter stays in use until then
+            loadNotificationLocations(context);
+        }
+    }
+
+    /**
+     * The default MMS app and others store notification inds too, and the filter only learns
+     * those stored here. So any change to the provider stops the filter from being consulted
+     * until it has been reloaded. MmsProvider notifies its changes under MmsSms.CONTENT_URI
+     * as well as Mms.CONTENT_URI, so both are observed.
+     */
+    private static void registerNotificationLocationsObserver(final Context context) {
+        synchronized (sNotificationLocationsLock) {
+            if (sNotificationLocationsObserver != null) {
+                return;
+            }
+            sNotificationLocationsObserver = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    onNotificationLocationsChanged(context);
+                }
+            };
+        }
+        context.getContentResolver().registerContentObserver(Telephony.Mms.CONTENT_URI, true,
+                sNotificationLocationsObserver);
+        context.getContentResolver().registerContentObserver(Telephony.MmsSms.CONTENT_URI, true,
+                sNotificationLocationsObserver);
+    }
+
+    private static void onNotificationLocationsChanged(Context context) {
+        synchronized (sNotificationLocationsLock) {
+            sNotificationLocationsLoaded = false;
+            if (sNotificationLocationsLoading) {
+                sNotificationLocationsChanged = true;
+                return;
+            }
+        }
+        loadNotificationLocations(context);
+    }
+
+    /**
+     * Load the content locations of the stored notification inds into a new filter, sized for
+     * the number of rows, on a background thread. If the provider isn't available yet, the load
+     * is retried with the next notification. If the provider changes during the load, the
+     * filter isn't consulted and the load starts over.
+     */
+    private static void loadNotificationLocations(final Context context) {
+        registerNotificationLocationsObserver(context);
+        synchronized (sNotificationLocationsLock) {
+            if (sNotificationLocationsLoading || (sNotificationLocationsLoaded
+                    && !sNotificationLocations.isSaturated())) {
+                return;
+            }
+            sNotificationLocationsLoading = true;
+            if (sNotificationLocationsLoaded) {
+                Rlog.d(TAG, "Reloading saturated notification locations: "
+                        + sNotificationLocations);
+            }
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ContentLocationBloomFilter filter = null;
+                Cursor cursor = null;
+                try {
+                    cursor = SqliteWrapper.query(
+                            context,
+                            context.getContentResolver(),
+                            Telephony.Mms.CONTENT_URI,
+                            new String[]{Telephony.Mms.CONTENT_LOCATION},
+                            Telephony.Mms.MESSAGE_TYPE + "=?",
+                            new String[]{
+                                    Integer.toString(PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND)
+                            },
+                            null/*sortOrder*/);
+                    if (cursor != null) {
+                        filter = new ContentLocationBloomFilter(
+                                ContentLocationBloomFilter.capacityFor(cursor.getCount()));
+                        while (cursor.moveToNext()) {
+                            String location = cursor.getString(0);
+                            if (location != null) {
+                                filter.add(location);
+                            }
+                        }
+                    }
+                } catch (SQLiteException e) {
+                    Rlog.e(TAG, "failed to load notification locations", e);
+                    filter = null;
+                } finally {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                }
+                boolean changed;
+                synchronized (sNotificationLocationsLock) {
+                    changed = sNotificationLocationsChanged;
+                    if (filter != null) {
+                        for (int i = 0, size = sPendingNotificationLocations.size(); i < size;
+                                i++) {
+                            filter.add(sPendingNotificationLocations.get(i));
+                        }
+                        sNotificationLocations = filter;
+                        sNotificationLocationsLoaded = !changed;
+                    }
+                    sPendingNotificationLocations.clear();
+                    sNotificationLocationsChanged = false;
+                    sNotificationLocationsLoading = false;
+                }
+                if (DBG) {
+                    Rlog.d(TAG, "loadNotificationLocations: loaded=" + (filter != null)
+                            + " changed=" + changed + " " + sNotificationLocations);
+                }
+                if (changed) {
+                    loadNotificationLocations(context);
+                }
+            }
+        }, "WapPushNotificationLocations").start();
+    }
 }
@@ -23,9 +23,6 @@ import android.os.Message;
 import com.android.internal.telephony.GsmAlphabet;
 import com.android.internal.telephony.uicc.IccFileHandler;
 
-import java.util.Iterator;
-import java.util.List;
-
 /**
  * Factory class, used for decoding raw byte arrays, received from baseband,
  * into a CommandParams object.
@@ -72,7 +69,7 @@ class CommandParamsFactory extends Handler {
         mIconLoader = IconLoader.getInstance(this, fh);
     }
 
-    private CommandDetails processCommandDetails(List<ComprehensionTlv> ctlvs) {
+    private CommandDetails processCommandDetails(ComprehensionTlvIndex ctlvs) {
         CommandDetails cmdDet = null;
 
         if (ctlvs != null) {
@@ -104,7 +101,7 @@ class CommandParamsFactory extends Handler {
             return;
         }
         boolean cmdPending = false;
-        List<ComprehensionTlv> ctlvs = berTlv.getComprehensionTlvs();
+        ComprehensionTlvIndex ctlvs = berTlv.getComprehensionTlvIndex();
         // process command dtails from the tlv list.
         CommandDetails cmdDet = processCommandDetails(ctlvs);
         if (cmdDet == null) {
@@ -233,56 +230,31 @@ class CommandParamsFactory extends Handler {
     }
 
     /**
-     * Search for a COMPREHENSION-TLV object with the given tag from a list
+     * Search for the first COMPREHENSION-TLV object with the given tag
      *
      * @param tag A tag to search for
-     * @param ctlvs List of ComprehensionTlv objects used to search in
+     * @param ctlvs ComprehensionTlv objects used to search in
      *
      * @return A ComprehensionTlv object that has the tag value of {@code tag}.
      *         If no object is found with the tag, null is returned.
      */
     private ComprehensionTlv searchForTag(ComprehensionTlvTag tag,
-            List<ComprehensionTlv> ctlvs) {
-        Iterator<ComprehensionTlv> iter = ctlvs.iterator();
-        return searchForNextTag(tag, iter);
-    }
-
-    /**
-     * Search for the next COMPREHENSION-TLV object with the given tag from a
-     * list iterated by {@code iter}. {@code iter} points to the object next to
-     * the found object when this method returns. Used for searching the same
-     * list for similar tags, usually item id.
-     *
-     * @param tag A tag to search for
-     * @param iter Iterator for ComprehensionTlv objects used for search
-     *
-     * @return A ComprehensionTlv object that has the tag value of {@code tag}.
-     *         If no object is found with the tag, null is returned.
-     */
-    private ComprehensionTlv searchForNextTag(ComprehensionTlvTag tag,
-            Iterator<ComprehensionTlv> iter) {
-        int tagValue = tag.value();
-        while (iter.hasNext()) {
-            ComprehensionTlv ctlv = iter.next();
-            if (ctlv.getTag() == tagValue) {
-                return ctlv;
-            }
-        }
-        return null;
+            ComprehensionTlvIndex ctlvs) {
+        return ctlvs.get(ctlvs.indexOf(tag.value()));
     }
 
     /**
      * Processes DISPLAY_TEXT proactive command from the SIM card.
      *
      * @param cmdDet Command Details container object.
-     * @param ctlvs List of ComprehensionTlv objects following Command Details
+     * @param ctlvs ComprehensionTlv objects following Command Details
      *        object and Device Identities object within the proactive command
      * @return true if the command is processing is pending and additional
      *         asynchronous processing is required.
      * @throws ResultException
      */
     private boolean processDisplayText(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs)
+            ComprehensionTlvIndex ctlvs)
             throws ResultException {
 
         CatLog.d(this, "process DisplayText");
@@ -336,14 +308,14 @@ class CommandParamsFactory extends Handler {
      * Processes SET_UP_IDLE_MODE_TEXT proactive command from the SIM card.
      *
      * @param cmdDet Command Details container object.
-     * @param ctlvs List of ComprehensionTlv objects following Command Details
+     * @param ctlvs ComprehensionTlv objects following Command Details
      *        object and Device Identities object within the proactive command
      * @return true if the command is processing is pending and additional
      *         asynchronous processing is required.
      * @throws ResultException
      */
     private boolean processSetUpIdleModeText(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process SetUpIdleModeText");
 
@@ -379,14 +351,14 @@ class CommandParamsFactory extends Handler {
      * Processes GET_INKEY proactive command from the SIM card.
      *
      * @param cmdDet Command Details container object.
-     * @param ctlvs List of ComprehensionTlv objects following Command Details
+     * @param ctlvs ComprehensionTlv objects following Command Details
      *        object and Device Identities object within the proactive command
      * @return true if the command is processing is pending and additional
      *         asynchronous processing is required.
      * @throws ResultException
      */
     private boolean processGetInkey(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process GetInkey");
 
@@ -436,14 +408,14 @@ class CommandParamsFactory extends Handler {
      * Processes GET_INPUT proactive command from the SIM card.
      *
      * @param cmdDet Command Details container object.
-     * @param ctlvs List of ComprehensionTlv objects following Command Details
+     * @param ctlvs ComprehensionTlv objects following Command Details
      *        object and Device Identities object within the proactive command
      * @return true if the command is processing is pending and additional
      *         asynchronous processing is required.
      * @throws ResultException
      */
     private boolean processGetInput(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process GetInput");
 
@@ -503,11 +475,11 @@ class CommandParamsFactory extends Handler {
      * Processes REFRESH proactive command from the SIM card.
      *
      * @param cmdDet Command Details container object.
-     * @param ctlvs List of ComprehensionTlv objects following Command Details
+     * @param ctlvs ComprehensionTlv objects following Command Details
      *        object and Device Identities object within the proactive command
      */
     private boolean processRefresh(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) {
+            ComprehensionTlvIndex ctlvs) {
 
         CatLog.d(this, "process Refresh");
 
@@ -522,6 +494,10 @@ class CommandParamsFactory extends Handler {
             mCmdParams = new DisplayTextParams(cmdDet, null);
             break;
         }
+        // The card's icons may have changed along with its files.
+        if (cmdDet.commandQualifier != REFRESH_NAA_INIT) {
+            mIconLoader.clearCachedIcons();
+        }
         return false;
     }
 
@@ -529,21 +505,20 @@ class CommandParamsFactory extends Handler {
      * Processes SELECT_ITEM proactive command from the SIM card.
      *
      * @param cmdDet Command Details container object.
-     * @param ctlvs List of ComprehensionTlv objects following Command Details
+     * @param ctlvs ComprehensionTlv objects following Command Details
      *        object and Device Identities object within the proactive command
      * @return true if the command is processing is pending and additional
      *         asynchronous processing is required.
      * @throws ResultException
      */
     private boolean processSelectItem(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process SelectItem");
 
         Menu menu = new Menu();
         IconId titleIconId = null;
         ItemsIconId itemsIconId = null;
-        Iterator<ComprehensionTlv> iter = ctlvs.iterator();
 
         ComprehensionTlv ctlv = searchForTag(ComprehensionTlvTag.ALPHA_ID,
                 ctlvs);
@@ -551,13 +526,9 @@ class CommandParamsFactory extends Handler {
             menu.title = ValueParser.retrieveAlphaId(ctlv);
         }
 
-        while (true) {
-            ctlv = searchForNextTag(ComprehensionTlvTag.ITEM, iter);
-            if (ctlv != null) {
-                menu.items.add(ValueParser.retrieveItem(ctlv));
-            } else {
-                break;
-            }
+        for (int i = ctlvs.indexOf(ComprehensionTlvTag.ITEM.value()); i >= 0;
+                i = ctlvs.nextIndexOf(i)) {
+            menu.items.add(ValueParser.retrieveItem(ctlvs.get(i)));
         }
 
         // We must have at least one menu item.
@@ -627,13 +598,13 @@ class CommandParamsFactory extends Handler {
      * Processes EVENT_NOTIFY message from baseband.
      *
      * @param cmdDet Command Details container object.
-     * @param ctlvs List of ComprehensionTlv objects following Command Details
+     * @param ctlvs ComprehensionTlv objects following Command Details
      *        object and Device Identities object within the proactive command
      * @return true if the command is processing is pending and additional
      *         asynchronous processing is required.
      */
     private boolean processEventNotify(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process EventNotify");
 
@@ -666,14 +637,14 @@ class CommandParamsFactory extends Handler {
      * Processes LAUNCH_BROWSER proactive command from the SIM card.
      *
      * @param cmdDet Command Details container object.
-     * @param ctlvs List of ComprehensionTlv objects following Command Details
+     * @param ctlvs ComprehensionTlv objects following Command Details
      *        object and Device Identities object within the proactive command
      * @return true if the command is processing is pending and additional
      *         asynchronous processing is required.
      * @throws ResultException
      */
     private boolean processLaunchBrowser(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process LaunchBrowser");
 
@@ -739,14 +710,14 @@ class CommandParamsFactory extends Handler {
      * Processes PLAY_TONE proactive command from the SIM card.
      *
      * @param cmdDet Command Details container object.
-     * @param ctlvs List of ComprehensionTlv objects following Command Details
+     * @param ctlvs ComprehensionTlv objects following Command Details
      *        object and Device Identities object within the proactive command
      * @return true if the command is processing is pending and additional
      *         asynchronous processing is required.t
      * @throws ResultException
      */
     private boolean processPlayTone(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process PlayTone");
 
@@ -806,16 +777,16 @@ class CommandParamsFactory extends Handler {
      *
      * @param cmdDet Command Details object retrieved from the proactive command
      *        object
-     * @param ctlvs List of ComprehensionTlv objects following Command Details
+     * @param ctlvs ComprehensionTlv objects following Command Details
      *        object and Device Identities object within the proactive command
      * @return true if the command is processing is pending and additional
      *         asynchronous processing is required.
      */
     private boolean processSetupCall(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
         CatLog.d(this, "process SetupCall");
 
-        Iterator<ComprehensionTlv> iter = ctlvs.iterator();
+        int alphaIdIndex = ctlvs.indexOf(ComprehensionTlvTag.ALPHA_ID.value());
         ComprehensionTlv ctlv = null;
         // User confirmation phase message.
         TextMessage confirmMsg = new TextMessage();
@@ -825,7 +796,7 @@ class CommandParamsFactory extends Handler {
         IconId callIconId = null;
 
         // get confirmation message string.
-        ctlv = searchForNextTag(ComprehensionTlvTag.ALPHA_ID, iter);
+        ctlv = ctlvs.get(alphaIdIndex);
         confirmMsg.text = ValueParser.retrieveAlphaId(ctlv);
 
         ctlv = searchForTag(ComprehensionTlvTag.ICON_ID, ctlvs);
@@ -835,7 +806,7 @@ class CommandParamsFactory extends Handler {
         }
 
         // get call set up message string.
-        ctlv = searchForNextTag(ComprehensionTlvTag.ALPHA_ID, iter);
+        ctlv = ctlvs.get(ctlvs.nextIndexOf(alphaIdIndex));
         if (ctlv != null) {
             callMsg.text = ValueParser.retrieveAlphaId(ctlv);
         }
@@ -863,7 +834,7 @@ class CommandParamsFactory extends Handler {
         return false;
     }
 
-    private boolean processProvideLocalInfo(CommandDetails cmdDet, List<ComprehensionTlv> ctlvs)
+    private boolean processProvideLocalInfo(CommandDetails cmdDet, ComprehensionTlvIndex ctlvs)
             throws ResultException {
         CatLog.d(this, "process ProvideLocalInfo");
         switch (cmdDet.commandQualifier) {
@@ -884,7 +855,7 @@ class CommandParamsFactory extends Handler {
     }
 
     private boolean processBIPClient(CommandDetails cmdDet,
-                                     List<ComprehensionTlv> ctlvs) throws ResultException {
+                                     ComprehensionTlvIndex ctlvs) throws ResultException {
         AppInterface.CommandType commandType =
                                     AppInterface.CommandType.fromInt(cmdDet.typeOfCommand);
         if (commandType != null) {
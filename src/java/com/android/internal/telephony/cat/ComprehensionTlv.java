@@ -31,6 +31,13 @@ import java.util.List;
  */
 class ComprehensionTlv {
     private static final String LOG_TAG = "ComprehensionTlv";
+
+    // The fields decodeHeader stores in its header array.
+    static final int HEADER_TAG = 0;
+    static final int HEADER_CR = 1;
+    static final int HEADER_LENGTH = 2;
+    static final int HEADER_SIZE = 3;
+
     private int mTag;
     private boolean mCr;
     private int mLength;
@@ -113,6 +120,29 @@ class ComprehensionTlv {
      */
     public static ComprehensionTlv decode(byte[] data, int startIndex)
             throws ResultException {
+        int[] header = new int[HEADER_SIZE];
+        int valueIndex = decodeHeader(data, startIndex, header);
+        if (valueIndex < 0) {
+            return null;
+        }
+        return new ComprehensionTlv(header[HEADER_TAG], header[HEADER_CR] != 0,
+                header[HEADER_LENGTH], data, valueIndex);
+    }
+
+    /**
+     * Parses the tag and length of an COMPREHENSION-TLV object from a byte
+     * array, without allocating.
+     *
+     * @param data A byte array containing data to be parsed
+     * @param startIndex Index in data at which to start parsing
+     * @param header Receives the tag, the Comprehension Required flag (1 or
+     *        0) and the length at HEADER_TAG, HEADER_CR and HEADER_LENGTH
+     * @return Index in data at which the value starts, or -1 if the tag byte
+     *         means decoding should stop
+     * @throws ResultException
+     */
+    static int decodeHeader(byte[] data, int startIndex, int[] header)
+            throws ResultException {
         int curIndex = startIndex;
         int endIndex = data.length;
 
@@ -128,9 +158,9 @@ class ComprehensionTlv {
                 Rlog.d("CAT     ", "decode: unexpected first tag byte=" + Integer.toHexString(temp) +
                         ", startIndex=" + startIndex + " curIndex=" + curIndex +
                         " endIndex=" + endIndex);
-                // Return null which will stop decoding, this has occurred
+                // Return -1 which will stop decoding, this has occurred
                 // with Ghana MTN simcard and JDI simcard.
-                return null;
+                return -1;
 
             case 0x7f: // tag is in three-byte format
                 tag = ((data[curIndex] & 0xff) << 8)
@@ -192,7 +222,10 @@ class ComprehensionTlv {
 
             }
 
-            return new ComprehensionTlv(tag, cr, length, data, curIndex);
+            header[HEADER_TAG] = tag;
+            header[HEADER_CR] = cr ? 1 : 0;
+            header[HEADER_LENGTH] = length;
+            return curIndex;
 
         } catch (IndexOutOfBoundsException e) {
             throw new ResultException(ResultCode.CMD_DATA_NOT_UNDERSTOOD,
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The COMPREHENSION-TLV objects of a command, decoded in one pass over the
+ * raw bytes into parallel arrays of tags, lengths and value offsets.
+ *
+ * Positions run from 0 to {@link #size()} - 1 in the order the objects
+ * appear. The first position of a tag and the next position with the same
+ * tag are found without searching, so reading all the parameters of a
+ * command is linear in the number of objects. A {@link ComprehensionTlv} is
+ * only created for the objects that are read with {@link #get(int)}, and it
+ * shares the raw bytes.
+ *
+ * {@hide}
+ */
+final class ComprehensionTlvIndex {
+    // Single-byte tags without the Comprehension Required flag are below
+    // this, and are looked up in a table. Three-byte tags are searched.
+    private static final int TABLE_SIZE = 0x80;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final byte[] mRawValue;
+    private int mSize;
+    private int[] mTags = new int[INITIAL_CAPACITY];
+    private int[] mLengths = new int[INITIAL_CAPACITY];
+    private int[] mValueIndexes = new int[INITIAL_CAPACITY];
+    private boolean[] mCr = new boolean[INITIAL_CAPACITY];
+    // The next position with the same tag, or -1
+    private int[] mNext = new int[INITIAL_CAPACITY];
+    // The first and last position of each tag below TABLE_SIZE, or -1
+    private final int[] mFirst = new int[TABLE_SIZE];
+    private final int[] mLast = new int[TABLE_SIZE];
+
+    private ComprehensionTlvIndex(byte[] data) {
+        mRawValue = data;
+        Arrays.fill(mFirst, -1);
+        Arrays.fill(mLast, -1);
+    }
+
+    /**
+     * Decodes the COMPREHENSION-TLV objects from a byte array, stopping
+     * where {@link ComprehensionTlv#decodeMany} would.
+     *
+     * @param data A byte array containing data to be parsed
+     * @param startIndex Index in data at which to start parsing
+     * @return The decoded objects
+     * @throws ResultException
+     */
+    static ComprehensionTlvIndex decode(byte[] data, int startIndex)
+            throws ResultException {
+        ComprehensionTlvIndex index = new ComprehensionTlvIndex(data);
+        int[] header = new int[ComprehensionTlv.HEADER_SIZE];
+        int endIndex = data.length;
+        while (startIndex < endIndex) {
+            int valueIndex = ComprehensionTlv.decodeHeader(data, startIndex, header);
+            if (valueIndex < 0) {
+                CatLog.d("ComprehensionTlvIndex", "decode: stop decoding");
+                break;
+            }
+            index.add(header[ComprehensionTlv.HEADER_TAG],
+                    header[ComprehensionTlv.HEADER_CR] != 0,
+                    header[ComprehensionTlv.HEADER_LENGTH], valueIndex);
+            startIndex = valueIndex + header[ComprehensionTlv.HEADER_LENGTH];
+        }
+        return index;
+    }
+
+    private void add(int tag, boolean cr, int length, int valueIndex) {
+        if (mSize == mTags.length) {
+            int capacity = mSize * 2;
+            mTags = Arrays.copyOf(mTags, capacity);
+            mLengths = Arrays.copyOf(mLengths, capacity);
+            mValueIndexes = Arrays.copyOf(mValueIndexes, capacity);
+            mCr = Arrays.copyOf(mCr, capacity);
+            mNext = Arrays.copyOf(mNext, capacity);
+        }
+        int position = mSize++;
+        mTags[position] = tag;
+        mLengths[position] = length;
+        mValueIndexes[position] = valueIndex;
+        mCr[position] = cr;
+        mNext[position] = -1;
+        if (tag < TABLE_SIZE) {
+            if (mFirst[tag] < 0) {
+                mFirst[tag] = position;
+            } else {
+                mNext[mLast[tag]] = position;
+            }
+            mLast[tag] = position;
+        }
+    }
+
+    /**
+     * @return The number of objects
+     */
+    int size() {
+        return mSize;
+    }
+
+    int getTag(int position) {
+        return mTags[position];
+    }
+
+    boolean isComprehensionRequired(int position) {
+        return mCr[position];
+    }
+
+    int getLength(int position) {
+        return mLengths[position];
+    }
+
+    int getValueIndex(int position) {
+        return mValueIndexes[position];
+    }
+
+    /**
+     * @return The byte array the values are in
+     */
+    byte[] getRawValue() {
+        return mRawValue;
+    }
+
+    /**
+     * @param tag A tag to search for
+     * @return The first position of an object with the tag, or -1
+     */
+    int indexOf(int tag) {
+        if (tag >= 0 && tag < TABLE_SIZE) {
+            return mFirst[tag];
+        }
+        return search(tag, 0);
+    }
+
+    /**
+     * @param position The position of an object
+     * @return The next position of an object with the same tag, or -1
+     */
+    int nextIndexOf(int position) {
+        if (position < 0) {
+            return -1;
+        }
+        int tag = mTags[position];
+        if (tag < TABLE_SIZE) {
+            return mNext[position];
+        }
+        return search(tag, position + 1);
+    }
+
+    private int search(int tag, int from) {
+        for (int i = from; i < mSize; i++) {
+            if (mTags[i] == tag) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param position The position of an object, or -1
+     * @return The object at the position, or null if position is -1
+     */
+    ComprehensionTlv get(int position) {
+        if (position < 0) {
+            return null;
+        }
+        return new ComprehensionTlv(mTags[position], mCr[position], mLengths[position],
+                mRawValue, mValueIndexes[position]);
+    }
+
+    /**
+     * @return All the objects, in order
+     */
+    List<ComprehensionTlv> toList() {
+        List<ComprehensionTlv> items = new ArrayList<ComprehensionTlv>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            items.add(get(i));
+        }
+        return items;
+    }
+}
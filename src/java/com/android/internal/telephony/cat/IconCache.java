@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cat;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded SIM icons, keyed by the ICCID of the card and the EF_IMG record
+ * number, so that a card's icons are not read again when CatService is
+ * recreated. The least recently used icons are dropped once the bitmaps
+ * exceed a size in bytes.
+ *
+ * {@hide}
+ */
+final class IconCache {
+    private final int mMaxBytes;
+    private int mBytes;
+    private int mHits;
+    private int mMisses;
+    private final LinkedHashMap<String, Bitmap> mIcons =
+            new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+
+    IconCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    private static String key(String iccId, int recordNumber) {
+        return iccId + ":" + recordNumber;
+    }
+
+    /**
+     * @return The icon, or null if it isn't cached or iccId is null
+     */
+    synchronized Bitmap get(String iccId, int recordNumber) {
+        if (iccId == null) {
+            return null;
+        }
+        Bitmap icon = mIcons.get(key(iccId, recordNumber));
+        if (icon != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return icon;
+    }
+
+    /**
+     * Caches an icon. Nothing is cached if iccId is null, as the icon can't be
+     * told apart from those of another card.
+     */
+    synchronized void put(String iccId, int recordNumber, Bitmap icon) {
+        if (iccId == null || icon == null) {
+            return;
+        }
+        int bytes = icon.getByteCount();
+        if (bytes > mMaxBytes) {
+            return;
+        }
+        Bitmap old = mIcons.put(key(iccId, recordNumber), icon);
+        if (old != null) {
+            mBytes -= old.getByteCount();
+        }
+        mBytes += bytes;
+
+        Iterator<Map.Entry<String, Bitmap>> it = mIcons.entrySet().iterator();
+        while (mBytes > mMaxBytes && it.hasNext()) {
+            mBytes -= it.next().getValue().getByteCount();
+            it.remove();
+        }
+    }
+
+    /**
+     * Drops the icons of a card, after its files were changed.
+     */
+    synchronized void remove(String iccId) {
+        String prefix = iccId + ":";
+        Iterator<Map.Entry<String, Bitmap>> it = mIcons.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Bitmap> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                mBytes -= entry.getValue().getByteCount();
+                it.remove();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return mIcons.size();
+    }
+
+    synchronized int getBytes() {
+        return mBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "IconCache{icons=" + mIcons.size() + " bytes=" + mBytes + "/" + mMaxBytes
+                + " hits=" + mHits + " misses=" + mMisses + "}";
+    }
+}
@@ -25,34 +25,33 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
- * Class for loading icons from the SIM card. Has two states: single, for loading
- * one icon. Multi, for loading icons list.
+ * Class for loading icons from the SIM card, either one icon or the icons
+ * list of a menu.
  *
+ * Each icon takes up to three reads: the EF_IMG record, the image instance
+ * and, for colour icons, the colour lookup table. The reads for all the icons
+ * of a list are sent together, so that loading a menu takes about as long as
+ * loading one icon. Decoded icons are kept in a cache shared by all loaders
+ * and keyed by the ICCID of the card.
  */
 class IconLoader extends Handler {
     // members
-    private int mState = STATE_SINGLE_ICON;
-    private ImageDescriptor mId = null;
-    private Bitmap mCurrentIcon = null;
-    private int mRecordNumber;
     private IccFileHandler mSimFH = null;
-    private Message mEndMsg = null;
-    private byte[] mIconData = null;
-    // multi icons state members
-    private int[] mRecordNumbers = null;
-    private int mCurrentRecordIndex = 0;
-    private Bitmap[] mIcons = null;
-    private HashMap<Integer, Bitmap> mIconsCache = null;
+    // Reused for decoding the pixels of each icon, on the loader thread.
+    private int[] mPixels = null;
 
     private static IconLoader sLoader = null;
     private static HandlerThread sThread = null;
 
-    // Loader state values.
-    private static final int STATE_SINGLE_ICON = 1;
-    private static final int STATE_MULTI_ICONS = 2;
+    // The most bytes of decoded icons kept for all cards.
+    private static final int ICON_CACHE_MAX_BYTES = 1024 * 1024;
+    private static final IconCache sIconCache = new IconCache(ICON_CACHE_MAX_BYTES);
 
     // Finished loading single record from a linear-fixed EF-IMG.
     private static final int EVENT_READ_EF_IMG_RECOED_DONE  = 1;
@@ -66,12 +65,45 @@ class IconLoader extends Handler {
     // CLUT entry size, {Red, Green, Black}
     private static final int CLUT_ENTRY_SIZE = 3;
 
+    /**
+     * A loadIcon or loadIcons call.
+     */
+    private static class IconLoad {
+        final Message mEndMsg;
+        final boolean mMulti;
+        final String mIccId;
+        final Bitmap[] mIcons;
+        final long mStartTime = SystemClock.elapsedRealtime();
+        int mPending;
+        int mCached;
+
+        IconLoad(Message endMsg, boolean multi, String iccId, int count) {
+            mEndMsg = endMsg;
+            mMulti = multi;
+            mIccId = iccId;
+            mIcons = new Bitmap[count];
+        }
+    }
+
+    /**
+     * The reads of one EF_IMG record, for all the positions of a load that use it.
+     */
+    private static class IconRead {
+        final IconLoad mLoad;
+        final int mRecordNumber;
+        final ArrayList<Integer> mPositions = new ArrayList<Integer>(1);
+        ImageDescriptor mId = null;
+        byte[] mIconData = null;
+
+        IconRead(IconLoad load, int recordNumber) {
+            mLoad = load;
+            mRecordNumber = recordNumber;
+        }
+    }
 
     private IconLoader(Looper looper , IccFileHandler fh) {
         super(looper);
         mSimFH = fh;
-
-        mIconsCache = new HashMap<Integer, Bitmap>(50);
     }
 
     static IconLoader getInstance(Handler caller, IccFileHandler fh) {
@@ -90,81 +122,101 @@ class IconLoader extends Handler {
         if (recordNumbers == null || recordNumbers.length == 0 || msg == null) {
             return;
         }
-        mEndMsg = msg;
-        // initialize multi icons load variables.
-        mIcons = new Bitmap[recordNumbers.length];
-        mRecordNumbers = recordNumbers;
-        mCurrentRecordIndex = 0;
-        mState = STATE_MULTI_ICONS;
-        startLoadingIcon(recordNumbers[0]);
+        startLoading(recordNumbers, true, msg);
     }
 
     void loadIcon(int recordNumber, Message msg) {
         if (msg == null) {
             return;
         }
-        mEndMsg = msg;
-        mState = STATE_SINGLE_ICON;
-        startLoadingIcon(recordNumber);
+        startLoading(new int[] { recordNumber }, false, msg);
     }
 
-    private void startLoadingIcon(int recordNumber) {
-        // Reset the load variables.
-        mId = null;
-        mIconData = null;
-        mCurrentIcon = null;
-        mRecordNumber = recordNumber;
-
-        // make sure the icon was not already loaded and saved in the local cache.
-        if (mIconsCache.containsKey(recordNumber)) {
-            mCurrentIcon = mIconsCache.get(recordNumber);
-            postIcon();
-            return;
+    /**
+     * Drops the cached icons of the card, after a REFRESH that may have changed its files.
+     */
+    void clearCachedIcons() {
+        String iccId = mSimFH != null ? mSimFH.getIccId() : null;
+        if (iccId != null) {
+            sIconCache.remove(iccId);
+        }
+    }
+
+    private void startLoading(int[] recordNumbers, boolean multi, Message msg) {
+        IconLoad load = new IconLoad(msg, multi, mSimFH.getIccId(), recordNumbers.length);
+
+        // Take the icons already loaded from the cache, and read each other record once.
+        HashMap<Integer, IconRead> reads = new HashMap<Integer, IconRead>();
+        for (int i = 0; i < recordNumbers.length; i++) {
+            int recordNumber = recordNumbers[i];
+            if (recordNumber < 0) {
+                continue;
+            }
+            Bitmap icon = sIconCache.get(load.mIccId, recordNumber);
+            if (icon != null) {
+                load.mIcons[i] = icon;
+                load.mCached++;
+                continue;
+            }
+            IconRead read = reads.get(recordNumber);
+            if (read == null) {
+                read = new IconRead(load, recordNumber);
+                reads.put(recordNumber, read);
+            }
+            read.mPositions.add(i);
         }
 
+        load.mPending = reads.size();
+        if (load.mPending == 0) {
+            postIcons(load);
+            return;
+        }
         // start the first phase ==> loading Image Descriptor.
-        readId();
+        for (IconRead read : reads.values()) {
+            mSimFH.loadEFImgLinearFixed(read.mRecordNumber,
+                    obtainMessage(EVENT_READ_EF_IMG_RECOED_DONE, read));
+        }
     }
 
     @Override
     public void handleMessage(Message msg) {
-        AsyncResult ar;
+        AsyncResult ar = (AsyncResult) msg.obj;
+        IconRead read = (IconRead) ar.userObj;
 
         try {
+            if (ar.exception != null) {
+                throw new Exception(ar.exception);
+            }
             switch (msg.what) {
             case EVENT_READ_EF_IMG_RECOED_DONE:
-                ar = (AsyncResult) msg.obj;
-                if (handleImageDescriptor((byte[]) ar.result)) {
-                    readIconData();
+                if (handleImageDescriptor(read, (byte[]) ar.result)) {
+                    readIconData(read);
                 } else {
                     throw new Exception("Unable to parse image descriptor");
                 }
                 break;
             case EVENT_READ_ICON_DONE:
-                ar = (AsyncResult) msg.obj;
                 byte[] rawData = ((byte[]) ar.result);
-                if (mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_BASIC) {
-                    mCurrentIcon = parseToBnW(rawData, rawData.length);
-                    mIconsCache.put(mRecordNumber, mCurrentIcon);
-                    postIcon();
-                } else if (mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_COLOUR) {
-                    mIconData = rawData;
-                    readClut();
+                if (read.mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_BASIC) {
+                    onIconLoaded(read, parseToBnW(rawData, rawData.length,
+                            getPixels(rawData)));
+                } else if (read.mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_COLOUR) {
+                    read.mIconData = rawData;
+                    readClut(read);
+                } else {
+                    onIconLoaded(read, null);
                 }
                 break;
             case EVENT_READ_CLUT_DONE:
-                ar = (AsyncResult) msg.obj;
                 byte [] clut = ((byte[]) ar.result);
-                mCurrentIcon = parseToRGB(mIconData, mIconData.length,
-                        false, clut);
-                mIconsCache.put(mRecordNumber, mCurrentIcon);
-                postIcon();
+                onIconLoaded(read, parseToRGB(read.mIconData, read.mIconData.length,
+                        false, clut, getPixels(read.mIconData)));
                 break;
             }
         } catch (Exception e) {
-            CatLog.d(this, "Icon load failed");
+            CatLog.d(this, "Icon load failed record=" + read.mRecordNumber + " e=" + e);
             // post null icon back to the caller.
-            postIcon();
+            onIconLoaded(read, null);
         }
     }
 
@@ -175,55 +227,60 @@ class IconLoader extends Handler {
      * @param rawData byte [] containing Image Instance descriptor as defined in
      * TS 51.011.
      */
-    private boolean handleImageDescriptor(byte[] rawData) {
-        mId = ImageDescriptor.parse(rawData, 1);
-        if (mId == null) {
+    private boolean handleImageDescriptor(IconRead read, byte[] rawData) {
+        read.mId = ImageDescriptor.parse(rawData, 1);
+        if (read.mId == null) {
             return false;
         }
         return true;
     }
 
     // Start reading color lookup table from SIM card.
-    private void readClut() {
-        int length = mIconData[3] * CLUT_ENTRY_SIZE;
-        Message msg = obtainMessage(EVENT_READ_CLUT_DONE);
-        mSimFH.loadEFImgTransparent(mId.mImageId,
-                mIconData[CLUT_LOCATION_OFFSET],
-                mIconData[CLUT_LOCATION_OFFSET + 1], length, msg);
+    private void readClut(IconRead read) {
+        int length = read.mIconData[3] * CLUT_ENTRY_SIZE;
+        Message msg = obtainMessage(EVENT_READ_CLUT_DONE, read);
+        mSimFH.loadEFImgTransparent(read.mId.mImageId,
+                read.mIconData[CLUT_LOCATION_OFFSET],
+                read.mIconData[CLUT_LOCATION_OFFSET + 1], length, msg);
     }
 
-    // Start reading Image Descriptor from SIM card.
-    private void readId() {
-        if (mRecordNumber < 0) {
-            mCurrentIcon = null;
-            postIcon();
-            return;
+    // Start reading icon bytes array from SIM card.
+    private void readIconData(IconRead read) {
+        Message msg = obtainMessage(EVENT_READ_ICON_DONE, read);
+        mSimFH.loadEFImgTransparent(read.mId.mImageId, 0, 0, read.mId.mLength, msg);
+    }
+
+    // Returns the pixel buffer, large enough for the image instance.
+    private int[] getPixels(byte[] data) {
+        int numOfPixels = (data[0] & 0xFF) * (data[1] & 0xFF);
+        if (mPixels == null || mPixels.length < numOfPixels) {
+            mPixels = new int[numOfPixels];
         }
-        Message msg = obtainMessage(EVENT_READ_EF_IMG_RECOED_DONE);
-        mSimFH.loadEFImgLinearFixed(mRecordNumber, msg);
+        return mPixels;
     }
 
-    // Start reading icon bytes array from SIM card.
-    private void readIconData() {
-        Message msg = obtainMessage(EVENT_READ_ICON_DONE);
-        mSimFH.loadEFImgTransparent(mId.mImageId, 0, 0, mId.mLength ,msg);
+    private void onIconLoaded(IconRead read, Bitmap icon) {
+        IconLoad load = read.mLoad;
+        sIconCache.put(load.mIccId, read.mRecordNumber, icon);
+        for (int position : read.mPositions) {
+            load.mIcons[position] = icon;
+        }
+        if (--load.mPending == 0) {
+            postIcons(load);
+        }
     }
 
-    // When all is done pass icon back to caller.
-    private void postIcon() {
-        if (mState == STATE_SINGLE_ICON) {
-            mEndMsg.obj = mCurrentIcon;
-            mEndMsg.sendToTarget();
-        } else if (mState == STATE_MULTI_ICONS) {
-            mIcons[mCurrentRecordIndex++] = mCurrentIcon;
-            // If not all icons were loaded, start loading the next one.
-            if (mCurrentRecordIndex < mRecordNumbers.length) {
-                startLoadingIcon(mRecordNumbers[mCurrentRecordIndex]);
-            } else {
-                mEndMsg.obj = mIcons;
-                mEndMsg.sendToTarget();
-            }
+    // When all is done pass icons back to caller.
+    private void postIcons(IconLoad load) {
+        CatLog.d(this, "Loaded " + load.mIcons.length + " icons (" + load.mCached
+                + " cached) in " + (SystemClock.elapsedRealtime() - load.mStartTime) + " ms "
+                + sIconCache);
+        if (load.mMulti) {
+            load.mEndMsg.obj = load.mIcons;
+        } else {
+            load.mEndMsg.obj = load.mIcons[0];
         }
+        load.mEndMsg.sendToTarget();
     }
 
     /**
@@ -233,29 +290,32 @@ class IconLoader extends Handler {
      * @return The bitmap
      */
     public static Bitmap parseToBnW(byte[] data, int length){
+        return parseToBnW(data, length, new int[(data[0] & 0xFF) * (data[1] & 0xFF)]);
+    }
+
+    /**
+     * Convert a TS 131.102 image instance of code scheme '11' into Bitmap
+     * @param data The raw data
+     * @param length The length of image body
+     * @param pixels Buffer for the pixels, with room for at least width * height
+     * @return The bitmap
+     */
+    static Bitmap parseToBnW(byte[] data, int length, int[] pixels) {
         int valueIndex = 0;
         int width = data[valueIndex++] & 0xFF;
         int height = data[valueIndex++] & 0xFF;
         int numOfPixels = width*height;
 
-        int[] pixels = new int[numOfPixels];
-
+        // each byte holds 8 pixels, from the most significant bit.
         int pixelIndex = 0;
-        int bitIndex = 7;
-        byte currentByte = 0x00;
         while (pixelIndex < numOfPixels) {
-            // reassign data and index for every byte (8 bits).
-            if (pixelIndex % 8 == 0) {
-                currentByte = data[valueIndex++];
-                bitIndex = 7;
+            int currentByte = data[valueIndex++];
+            for (int bitIndex = 7; bitIndex >= 0 && pixelIndex < numOfPixels; bitIndex--) {
+                pixels[pixelIndex++] = bitToBnW((currentByte >> bitIndex) & 0x01);
             }
-            pixels[pixelIndex++] = bitToBnW((currentByte >> bitIndex-- ) & 0x01);
         }
 
-        if (pixelIndex != numOfPixels) {
-            CatLog.d("IconLoader", "parseToBnW; size error");
-        }
-        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+        return Bitmap.createBitmap(pixels, 0, width, width, height, Bitmap.Config.ARGB_8888);
     }
 
     /**
@@ -284,18 +344,40 @@ class IconLoader extends Handler {
      */
     public static Bitmap parseToRGB(byte[] data, int length,
             boolean transparency, byte[] clut) {
+        return parseToRGB(data, length, transparency, clut,
+                new int[(data[0] & 0xFF) * (data[1] & 0xFF)]);
+    }
+
+    /**
+     * a TS 131.102 image instance of code scheme '11' into color Bitmap
+     *
+     * @param data The raw data
+     * @param length the length of image body
+     * @param transparency with or without transparency
+     * @param clut coulor lookup table
+     * @param pixels Buffer for the pixels, with room for at least width * height
+     * @return The color bitmap
+     */
+    static Bitmap parseToRGB(byte[] data, int length,
+            boolean transparency, byte[] clut, int[] pixels) {
         int valueIndex = 0;
         int width = data[valueIndex++] & 0xFF;
         int height = data[valueIndex++] & 0xFF;
         int bitsPerImg = data[valueIndex++] & 0xFF;
         int numOfClutEntries = data[valueIndex++] & 0xFF;
 
+        // Convert the lookup table to colors once rather than for each pixel.
+        int[] colors = new int[clut.length / CLUT_ENTRY_SIZE];
+        for (int i = 0; i < colors.length; i++) {
+            int clutIndex = i * CLUT_ENTRY_SIZE;
+            colors[i] = Color.rgb(clut[clutIndex] & 0xFF, clut[clutIndex + 1] & 0xFF,
+                    clut[clutIndex + 2] & 0xFF);
+        }
         if (true == transparency) {
-            clut[numOfClutEntries - 1] = Color.TRANSPARENT;
+            colors[numOfClutEntries - 1] = Color.TRANSPARENT;
         }
 
         int numOfPixels = width * height;
-        int[] pixels = new int[numOfPixels];
 
         valueIndex = 6;
         int pixelIndex = 0;
@@ -311,13 +393,11 @@ class IconLoader extends Handler {
                 bitIndex = bitsOverlaps ? (bitsStartOffset) : (bitIndex * -1);
             }
             int clutEntry = ((currentByte >> bitIndex) & mask);
-            int clutIndex = clutEntry * CLUT_ENTRY_SIZE;
-            pixels[pixelIndex++] = Color.rgb(clut[clutIndex],
-                    clut[clutIndex + 1], clut[clutIndex + 2]);
+            pixels[pixelIndex++] = colors[clutEntry];
             bitIndex -= bitsPerImg;
         }
 
-        return Bitmap.createBitmap(pixels, width, height,
+        return Bitmap.createBitmap(pixels, 0, width, width, height,
                 Bitmap.Config.ARGB_8888);
     }
 
@@ -364,7 +444,6 @@ class IconLoader extends Handler {
             sThread.quit();
             sThread = null;
         }
-        mIconsCache = null;
         sLoader = null;
     }
 }
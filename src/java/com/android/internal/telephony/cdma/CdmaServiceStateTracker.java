@@ -50,6 +50,7 @@ import com.android.internal.telephony.CommandsInterface;
 import com.android.internal.telephony.CommandsInterface.RadioState;
 import com.android.internal.telephony.EventLogTags;
 import com.android.internal.telephony.MccTable;
+import com.android.internal.telephony.NitzTimeZoneIndex;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.PhoneFactory;
@@ -65,7 +66,6 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
 
@@ -227,7 +227,10 @@ public class CdmaServiceStateTracker extends ServiceStateTracker {
         mCi.unregisterForCdmaOtaProvision(this);
         mPhone.unregisterForEriFileLoaded(this);
         if (mUiccApplcation != null) {mUiccApplcation.unregisterForReady(this);}
-        if (mIccRecords != null) {mIccRecords.unregisterForRecordsLoaded(this);}
+        if (mIccRecords != null) {
+            mIccRecords.unregisterForEssentialRecordsLoaded(this);
+            mIccRecords.unregisterForRecordsLoaded(this);
+        }
         mCi.unSetOnNITZTime(this);
         mCr.unregisterContentObserver(mAutoTimeObserver);
         mCr.unregisterContentObserver(mAutoTimeZoneObserver);
@@ -474,6 +477,14 @@ public class CdmaServiceStateTracker extends ServiceStateTracker {
             onSignalStrengthResult(ar, false);
             break;
 
+        case EVENT_ESSENTIAL_RECORDS_LOADED:
+            // Only the IMSI, ICCID and SPN are loaded; the MDN, SID/NID and
+            // PRL wait for EVENT_RUIM_RECORDS_LOADED.
+            log("EVENT_ESSENTIAL_RECORDS_LOADED: what=" + msg.what);
+            updatePhoneObject();
+            updateSpnDisplay();
+            break;
+
         case EVENT_RUIM_RECORDS_LOADED:
             log("EVENT_RUIM_RECORDS_LOADED: what=" + msg.what);
             updatePhoneObject();
@@ -989,7 +1000,8 @@ public class CdmaServiceStateTracker extends ServiceStateTracker {
             zone = getNitzTimeZone(mZoneOffset, mZoneDst, mZoneTime);
             if (DBG) log("fixTimeZone: using NITZ TimeZone");
         } else {
-            zone = TimeUtils.getTimeZone(mZoneOffset, mZoneDst, mZoneTime, isoCountryCode);
+            zone = NitzTimeZoneIndex.getTimeZone(mZoneOffset, mZoneDst, mZoneTime,
+                    isoCountryCode);
             if (DBG) log("fixTimeZone: using getTimeZone(off, dst, time, iso)");
         }
 
@@ -1232,35 +1244,11 @@ public class CdmaServiceStateTracker extends ServiceStateTracker {
      * Returns a TimeZone object based only on parameters from the NITZ string.
      */
     private TimeZone getNitzTimeZone(int offset, boolean dst, long when) {
-        TimeZone guess = findTimeZone(offset, dst, when);
-        if (guess == null) {
-            // Couldn't find a proper timezone.  Perhaps the DST data is wrong.
-            guess = findTimeZone(offset, !dst, when);
-        }
+        TimeZone guess = NitzTimeZoneIndex.getNitzTimeZone(offset, dst, when);
         if (DBG) log("getNitzTimeZone returning " + (guess == null ? guess : guess.getID()));
         return guess;
     }
 
-    private TimeZone findTimeZone(int offset, boolean dst, long when) {
-        int rawOffset = offset;
-        if (dst) {
-            rawOffset -= MS_PER_HOUR;
-        }
-        String[] zones = TimeZone.getAvailableIDs(rawOffset);
-        TimeZone guess = null;
-        Date d = new Date(when);
-        for (String zone : zones) {
-            TimeZone tz = TimeZone.getTimeZone(zone);
-            if (tz.getOffset(when) == offset &&
-                    tz.inDaylightTime(d) == dst) {
-                guess = tz;
-                break;
-            }
-        }
-
-        return guess;
-    }
-
     /**
      * TODO: This code is exactly the same as in GsmServiceStateTracker
      * and has a TODO to not poll signal strength if screen is off.
@@ -1471,7 +1459,7 @@ public class CdmaServiceStateTracker extends ServiceStateTracker {
             if (zone == null) {
                 if (mGotCountryCode) {
                     if (iso != null && iso.length() > 0) {
-                        zone = TimeUtils.getTimeZone(tzOffset, dst != 0,
+                        zone = NitzTimeZoneIndex.getTimeZone(tzOffset, dst != 0,
                                 c.getTimeInMillis(),
                                 iso);
                     } else {
@@ -1841,6 +1829,7 @@ public class CdmaServiceStateTracker extends ServiceStateTracker {
                 log("Removing stale icc objects.");
                 mUiccApplcation.unregisterForReady(this);
                 if (mIccRecords != null) {
+                    mIccRecords.unregisterForEssentialRecordsLoaded(this);
                     mIccRecords.unregisterForRecordsLoaded(this);
                 }
                 mIccRecords = null;
@@ -1853,6 +1842,10 @@ public class CdmaServiceStateTracker extends ServiceStateTracker {
                 if (mIsSubscriptionFromRuim) {
                     mUiccApplcation.registerForReady(this, EVENT_RUIM_READY, null);
                     if (mIccRecords != null) {
+                        // Show the SPN as soon as it's loaded, and update
+                        // again when all records are.
+                        mIccRecords.registerForEssentialRecordsLoaded(this,
+                                EVENT_ESSENTIAL_RECORDS_LOADED, null);
                         mIccRecords.registerForRecordsLoaded(this, EVENT_RUIM_RECORDS_LOADED, null);
                     }
                 }
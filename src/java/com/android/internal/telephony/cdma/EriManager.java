@@ -22,6 +22,8 @@ import android.content.res.XmlResourceParser;
 import android.telephony.Rlog;
 import android.util.Xml;
 
+import com.android.internal.telephony.OperatorMetadata;
+import com.android.internal.telephony.OperatorMetadataFormat;
 import com.android.internal.telephony.PhoneBase;
 import com.android.internal.util.XmlUtils;
 
@@ -32,7 +34,6 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.HashMap;
 
 /**
  * EriManager loads the ERI file definitions and manages the CDMA roaming information.
@@ -48,14 +49,14 @@ public final class EriManager {
         //int mNumberOfIconImages;               // reserved for future use
         //int mIconImageType;                    // reserved for future use
         String[] mCallPromptId;                  // reserved for future use
-        HashMap<Integer, EriInfo> mRoamIndTable; // Roaming Indicator Table
+        EriInfo[] mRoamIndTable;                 // Roaming Indicator Table
 
         EriFile() {
             mVersionNumber = -1;
             mNumberOfEriEntries = 0;
             mEriFileType = -1;
             mCallPromptId = new String[] { "", "", "" };
-            mRoamIndTable = new HashMap<Integer, EriInfo>();
+            mRoamIndTable = new EriInfo[OperatorMetadataFormat.NUM_ROAMING_INDICATORS];
         }
     }
 
@@ -146,7 +147,8 @@ public final class EriManager {
     }
 
     /**
-     * Load the ERI file from the application framework resources encoded in XML
+     * Load the ERI file from the application framework resources encoded in XML, or from the
+     * operator metadata store when it was compiled from the eri.xml the device resolves
      *
      */
     private void loadEriFileFromXml() {
@@ -170,6 +172,19 @@ public final class EriManager {
         }
 
         if (parser == null) {
+            OperatorMetadata metadata = OperatorMetadata.getInstance();
+            if (metadata != null && metadata.hasEri() && metadata.matchesResource(r,
+                    com.android.internal.R.xml.eri, OperatorMetadataFormat.ERI_RESOURCE)) {
+                try {
+                    if (stream != null) {
+                        stream.close();
+                    }
+                } catch (IOException e) {
+                    // Ignore
+                }
+                loadEriFileFromMetadata(metadata);
+                return;
+            }
             if (DBG) Rlog.d(LOG_TAG, "loadEriFileFromXml: open normal file");
             parser = r.getXml(com.android.internal.R.xml.eri);
         }
@@ -211,8 +226,15 @@ public final class EriManager {
                             parser.getAttributeValue(null, "CallPromptId"));
                     int alertId = Integer.parseInt(parser.getAttributeValue(null, "AlertId"));
                     parsedEriEntries++;
-                    mEriFile.mRoamIndTable.put(roamingIndicator, new EriInfo (roamingIndicator,
-                            iconIndex, iconMode, eriText, callPromptId, alertId));
+                    if (roamingIndicator >= 0
+                            && roamingIndicator < mEriFile.mRoamIndTable.length) {
+                        mEriFile.mRoamIndTable[roamingIndicator] = new EriInfo (
+                                roamingIndicator, iconIndex, iconMode, eriText, callPromptId,
+                                alertId);
+                    } else {
+                        Rlog.e(LOG_TAG, "Error Parsing ERI file: found RoamingIndicator "
+                                + roamingIndicator);
+                    }
                 }
             }
 
@@ -235,6 +257,32 @@ public final class EriManager {
         }
     }
 
+    private void loadEriFileFromMetadata(OperatorMetadata metadata) {
+        if (DBG) Rlog.d(LOG_TAG, "loadEriFileFromXml: load from operator metadata");
+        mEriFile.mVersionNumber = metadata.getEriVersion();
+        mEriFile.mNumberOfEriEntries = metadata.getEriNumberOfEntries();
+        mEriFile.mEriFileType = metadata.getEriFileType();
+        for (int id = 0; id < mEriFile.mCallPromptId.length; id++) {
+            String text = metadata.getEriCallPrompt(id);
+            if (text != null) {
+                mEriFile.mCallPromptId[id] = text;
+            }
+        }
+        int count = metadata.getEriInfoCount();
+        for (int i = 0; i < count; i++) {
+            EriInfo eriInfo = metadata.getEriInfo(i);
+            if (eriInfo.roamingIndicator >= 0
+                    && eriInfo.roamingIndicator < mEriFile.mRoamIndTable.length) {
+                mEriFile.mRoamIndTable[eriInfo.roamingIndicator] = eriInfo;
+            }
+        }
+        if (count != mEriFile.mNumberOfEriEntries) {
+            Rlog.e(LOG_TAG, "Error Parsing ERI file: " +  mEriFile.mNumberOfEriEntries
+                    + " defined, " + count + " parsed!");
+        }
+        mIsEriFileLoaded = true;
+    }
+
     /**
      * Returns the version of the ERI file
      *
@@ -272,8 +320,8 @@ public final class EriManager {
      * or null if the entry is not found
      */
     private EriInfo getEriInfo(int roamingIndicator) {
-        if (mEriFile.mRoamIndTable.containsKey(roamingIndicator)) {
-            return mEriFile.mRoamIndTable.get(roamingIndicator);
+        if (roamingIndicator >= 0 && roamingIndicator < mEriFile.mRoamIndTable.length) {
+            return mEriFile.mRoamIndTable[roamingIndicator];
         } else {
             return null;
         }
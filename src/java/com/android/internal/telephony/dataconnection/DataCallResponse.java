@@ -23,6 +23,7 @@ import android.net.NetworkUtils;
 import android.net.RouteInfo;
 import android.os.SystemProperties;
 import android.telephony.Rlog;
+import android.text.TextUtils;
 
 import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.dataconnection.DcFailCause;
@@ -30,6 +31,7 @@ import com.android.internal.telephony.dataconnection.DcFailCause;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 
 /**
  * This is RIL_Data_Call_Response_v5 from ril.h
@@ -114,6 +116,28 @@ public class DataCallResponse {
         return sb.toString();
     }
 
+    /**
+     * Compares all the fields of this response with another.
+     *
+     * @param target the response to compare with
+     * @return true if both responses describe the same data call state
+     */
+    public boolean isIdentical(DataCallResponse target) {
+        if (target == null) return false;
+        return version == target.version
+                && status == target.status
+                && cid == target.cid
+                && active == target.active
+                && suggestedRetryTime == target.suggestedRetryTime
+                && mtu == target.mtu
+                && TextUtils.equals(type, target.type)
+                && TextUtils.equals(ifname, target.ifname)
+                && Arrays.equals(addresses, target.addresses)
+                && Arrays.equals(dnses, target.dnses)
+                && Arrays.equals(gateways, target.gateways)
+                && Arrays.equals(pcscf, target.pcscf);
+    }
+
     public SetupResult setLinkProperties(LinkProperties linkProperties,
             boolean okToUseSystemPropertyDns) {
         SetupResult result;
@@ -183,6 +183,10 @@ public final class DataConnection extends StateMachine {
     private NetworkInfo mNetworkInfo;
     private NetworkAgent mNetworkAgent;
 
+    // The state read by DcAsyncChannel callers on other threads, see publishSnapshot()
+    private volatile DcSnapshot mSnapshot;
+    private long mSnapshotVersion;
+
     //***** Package visible variables
     int mTag;
     int mCid;
@@ -287,8 +291,31 @@ public final class DataConnection extends StateMachine {
         return mApnSetting;
     }
 
+    /**
+     * @return the last published snapshot of our state, may be called on any thread.
+     */
+    DcSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
     void setLinkPropertiesHttpProxy(ProxyInfo proxy) {
         mLinkProperties.setHttpProxy(proxy);
+        publishSnapshot();
+    }
+
+    /**
+     * Publish a new snapshot of the state returned by the getters above, so that other threads
+     * can read it without a round trip into the state machine. Must be called on our own thread
+     * after the state, cid, ApnSetting, LinkProperties or radio technology changes.
+     */
+    private void publishSnapshot() {
+        if (mDct == null) {
+            // We're quitting
+            return;
+        }
+        mSnapshot = new DcSnapshot(++mSnapshotVersion, getIsInactive(), mCid, mApnSetting,
+                mLinkProperties, makeNetworkCapabilities());
+        if (VDBG) log("publishSnapshot: " + mSnapshot);
     }
 
     static class UpdateLinkPropertyResult {
@@ -368,6 +395,7 @@ public final class DataConnection extends StateMachine {
             mNetworkAgent.sendLinkProperties(mLinkProperties);
         }
 
+        publishSnapshot();
         return result;
     }
 
@@ -435,6 +463,8 @@ public final class DataConnection extends StateMachine {
         setInitialState(mInactiveState);
 
         mApnContexts = new ArrayList<ApnContext>();
+        mSnapshot = new DcSnapshot(mSnapshotVersion, true, mCid, null, mLinkProperties,
+                makeNetworkCapabilities());
         if (DBG) log("DataConnection constructor X");
     }
 
@@ -1021,6 +1051,7 @@ public final class DataConnection extends StateMachine {
         mRetryManager.setRetryCount(0);
         mRetryManager.setCurMaxRetryCount(mConnectionParams.mInitialMaxRetry);
         mRetryManager.setRetryForever(false);
+        publishSnapshot();
 
         if (DBG) {
             log("initConnection: "
@@ -1216,6 +1247,7 @@ public final class DataConnection extends StateMachine {
                         mNetworkAgent.sendNetworkInfo(mNetworkInfo);
                         mNetworkAgent.sendLinkProperties(mLinkProperties);
                     }
+                    publishSnapshot();
                     break;
 
                 case EVENT_DATA_CONNECTION_ROAM_ON:
@@ -1297,6 +1329,7 @@ public final class DataConnection extends StateMachine {
             mDcController.removeActiveDcByCid(DataConnection.this);
 
             clearSettings();
+            publishSnapshot();
         }
 
         @Override
@@ -1384,6 +1417,7 @@ public final class DataConnection extends StateMachine {
                 // Remove ourselves from cid mapping
                 mDcController.removeActiveDcByCid(DataConnection.this);
                 mCid = -1;
+                publishSnapshot();
             }
         }
 
@@ -1526,6 +1560,12 @@ public final class DataConnection extends StateMachine {
      * The state machine is activating a connection.
      */
     private class DcActivatingState extends State {
+        @Override
+        public void enter() {
+            // We're no longer inactive
+            publishSnapshot();
+        }
+
         @Override
         public boolean processMessage(Message msg) {
             boolean retVal;
@@ -1723,6 +1763,7 @@ public final class DataConnection extends StateMachine {
             mNetworkAgent = new DcNetworkAgent(getHandler().getLooper(), mPhone.getContext(),
                     "DcNetworkAgent", mNetworkInfo, makeNetworkCapabilities(), mLinkProperties,
                     50);
+            publishSnapshot();
         }
 
         @Override
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.dataconnection;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+
+/**
+ * Switches data from one phone to another on a DSDS device, on behalf of
+ * {@link DctController#setDataSubId}.
+ *
+ * <p>The sequential switch tears down data on the old phone, waits until all of its data is
+ * disconnected, allows data on the new phone and only then starts setting up data there. The
+ * pipelined switch prepares the APN list of the new phone while the old phone tears down and,
+ * if the modem can have data allowed on both phones at once, allows data on the new phone
+ * without waiting for the teardown.
+ *
+ * <p>The latency of each phase is logged and kept in {@link Timings}.
+ */
+final class DataSwitchPipeline extends Handler {
+    private static final String LOG_TAG = "DataSwitchPipeline";
+    private static final boolean DBG = true;
+
+    private static final int EVENT_ALL_DATA_DISCONNECTED = 1;
+    private static final int EVENT_SET_DATA_ALLOW_DONE = 2;
+
+    /**
+     * What the switch needs from each phone. DctController implements it over PhoneProxy.
+     */
+    interface DataPhone {
+        /** See {@link DcTrackerBase#setDataAllowed}. */
+        void setDataAllowed(boolean allowed, Message response);
+
+        /** Notify h once all data connections are disconnected, at once if they already are. */
+        void registerForAllDataDisconnected(Handler h, int what, Object obj);
+
+        void unregisterForAllDataDisconnected(Handler h);
+
+        /** See {@link DcTracker#prepareForDataSwitch}. */
+        void prepareForDataSwitch();
+
+        /** Start setting up data connections on the phone. */
+        void updateDataConnectionTracker();
+    }
+
+    /**
+     * The latency of the phases of a switch, in milliseconds from its start. A phase that hasn't
+     * completed is -1.
+     */
+    static final class Timings {
+        final int mPhoneId;
+        final boolean mPipelined;
+        /** Data allowed was requested on the new phone. */
+        long mAttachStartMs = -1;
+        /** All data was disconnected on the old phone. */
+        long mTeardownMs = -1;
+        /** Data was allowed on the new phone. */
+        long mAttachMs = -1;
+        /** Data setup was started on the new phone. */
+        long mTotalMs = -1;
+
+        Timings(int phoneId, boolean pipelined) {
+            mPhoneId = phoneId;
+            mPipelined = pipelined;
+        }
+
+        @Override
+        public String toString() {
+            return "{phoneId=" + mPhoneId + " pipelined=" + mPipelined
+                    + " teardown=" + mTeardownMs + "ms attachStart=" + mAttachStartMs
+                    + "ms attach=" + mAttachMs + "ms total=" + mTotalMs + "ms}";
+        }
+    }
+
+    private final boolean mPipelined;
+    private final boolean mOverlapAttach;
+
+    // The switch in progress; responses for an older switch are ignored
+    private int mSwitchId;
+    private DataPhone mFrom;
+    private DataPhone mTo;
+    private Message mOnComplete;
+    private long mStartTime;
+    private boolean mTeardownDone;
+    private boolean mAttachRequested;
+    private boolean mAttachDone;
+    private Timings mTimings;
+    private Timings mLastTimings;
+
+    /**
+     * @param looper the looper the switch runs on
+     * @param pipelined true to prepare the new phone while the old one tears down
+     * @param overlapAttach true if the modem allows data on the new phone before data is
+     *  disconnected on the old one; only used if pipelined
+     */
+    DataSwitchPipeline(Looper looper, boolean pipelined, boolean overlapAttach) {
+        super(looper);
+        mPipelined = pipelined;
+        mOverlapAttach = pipelined && overlapAttach;
+    }
+
+    /**
+     * Switch data from one phone to another. Must be called on the looper passed to the
+     * constructor. A switch in progress is abandoned.
+     *
+     * @param from the phone data is switched from
+     * @param to the phone data is switched to
+     * @param toPhoneId the id of the phone data is switched to, for logging
+     * @param onComplete sent when data is allowed on the new phone, with AsyncResult.result
+     *  set to the Timings of the switch
+     */
+    void switchData(DataPhone from, DataPhone to, int toPhoneId, Message onComplete) {
+        if (mFrom != null) {
+            if (DBG) log("switchData: abandon switch " + mTimings);
+            mFrom.unregisterForAllDataDisconnected(this);
+        }
+        mSwitchId++;
+        mFrom = from;
+        mTo = to;
+        mOnComplete = onComplete;
+        mStartTime = SystemClock.elapsedRealtime();
+        mTeardownDone = false;
+        mAttachRequested = false;
+        mAttachDone = false;
+        mTimings = new Timings(toPhoneId, mPipelined);
+        if (DBG) log("switchData: to phoneId=" + toPhoneId + " pipelined=" + mPipelined
+                + " overlapAttach=" + mOverlapAttach);
+
+        if (mPipelined) {
+            to.prepareForDataSwitch();
+        }
+        from.setDataAllowed(false, null);
+        if (mOverlapAttach) {
+            requestAttach();
+        }
+        from.registerForAllDataDisconnected(this, EVENT_ALL_DATA_DISCONNECTED, mSwitchId);
+    }
+
+    /**
+     * @return the timings of the last completed switch, or null
+     */
+    Timings getLastTimings() {
+        return mLastTimings;
+    }
+
+    @Override
+    public void handleMessage(Message msg) {
+        AsyncResult ar = (AsyncResult) msg.obj;
+        if (mFrom == null || !Integer.valueOf(mSwitchId).equals(ar.userObj)) {
+            if (DBG) log("handleMessage: ignore stale msg.what=" + msg.what);
+            return;
+        }
+        switch (msg.what) {
+            case EVENT_ALL_DATA_DISCONNECTED:
+                mFrom.unregisterForAllDataDisconnected(this);
+                mTeardownDone = true;
+                mTimings.mTeardownMs = elapsed();
+                if (DBG) log("EVENT_ALL_DATA_DISCONNECTED " + mTimings);
+                if (!mAttachRequested) {
+                    requestAttach();
+                }
+                maybeComplete();
+                break;
+
+            case EVENT_SET_DATA_ALLOW_DONE:
+                if (ar.exception != null) {
+                    Rlog.e(LOG_TAG, "EVENT_SET_DATA_ALLOW_DONE: " + ar.exception);
+                }
+                mAttachDone = true;
+                mTimings.mAttachMs = elapsed();
+                if (DBG) log("EVENT_SET_DATA_ALLOW_DONE " + mTimings);
+                maybeComplete();
+                break;
+        }
+    }
+
+    private void requestAttach() {
+        mAttachRequested = true;
+        mTimings.mAttachStartMs = elapsed();
+        mTo.setDataAllowed(true, obtainMessage(EVENT_SET_DATA_ALLOW_DONE, mSwitchId));
+    }
+
+    /**
+     * Start data on the new phone once it is allowed. The sequential switch has also waited
+     * for the teardown, as it only allows data afterwards.
+     */
+    private void maybeComplete() {
+        if (!mAttachDone) {
+            return;
+        }
+        if (!mTeardownDone) {
+            // Stop waiting for the old phone, it will finish tearing down on its own
+            mFrom.unregisterForAllDataDisconnected(this);
+        }
+        DataPhone to = mTo;
+        Message onComplete = mOnComplete;
+        mTimings.mTotalMs = elapsed();
+        mLastTimings = mTimings;
+        mFrom = null;
+        mTo = null;
+        mOnComplete = null;
+        Rlog.d(LOG_TAG, "switch complete " + mLastTimings);
+
+        if (onComplete != null) {
+            AsyncResult.forMessage(onComplete, mLastTimings, null);
+            onComplete.sendToTarget();
+        }
+        to.updateDataConnectionTracker();
+    }
+
+    private long elapsed() {
+        return SystemClock.elapsedRealtime() - mStartTime;
+    }
+
+    private static void log(String s) {
+        Rlog.d(LOG_TAG, s);
+    }
+}
@@ -28,6 +28,9 @@ import android.os.Message;
 
 /**
  * AsyncChannel to a DataConnection
+ *
+ * The xxxSync getters called from other threads return the DataConnection's last published
+ * {@link DcSnapshot} instead of waiting for the state machine to answer a request.
  */
 public class DcAsyncChannel extends AsyncChannel {
     private static final boolean DBG = false;
@@ -143,13 +146,7 @@ public class DcAsyncChannel extends AsyncChannel {
     public boolean isInactiveSync() {
         boolean value;
         if (isCallerOnDifferentThread()) {
-            Message response = sendMessageSynchronously(REQ_IS_INACTIVE);
-            if ((response != null) && (response.what == RSP_IS_INACTIVE)) {
-                value = rspIsInactive(response);
-            } else {
-                log("rspIsInactive error response=" + response);
-                value = false;
-            }
+            value = mDc.getSnapshot().mIsInactive;
         } else {
             value = mDc.getIsInactive();
         }
@@ -183,13 +180,7 @@ public class DcAsyncChannel extends AsyncChannel {
     public int getCidSync() {
         int value;
         if (isCallerOnDifferentThread()) {
-            Message response = sendMessageSynchronously(REQ_GET_CID);
-            if ((response != null) && (response.what == RSP_GET_CID)) {
-                value = rspCid(response);
-            } else {
-                log("rspCid error response=" + response);
-                value = -1;
-            }
+            value = mDc.getSnapshot().mCid;
         } else {
             value = mDc.getCid();
         }
@@ -225,13 +216,7 @@ public class DcAsyncChannel extends AsyncChannel {
     public ApnSetting getApnSettingSync() {
         ApnSetting value;
         if (isCallerOnDifferentThread()) {
-            Message response = sendMessageSynchronously(REQ_GET_APNSETTING);
-            if ((response != null) && (response.what == RSP_GET_APNSETTING)) {
-                value = rspApnSetting(response);
-            } else {
-                log("getApnSetting error response=" + response);
-                value = null;
-            }
+            value = mDc.getSnapshot().mApnSetting;
         } else {
             value = mDc.getApnSetting();
         }
@@ -267,13 +252,7 @@ public class DcAsyncChannel extends AsyncChannel {
     public LinkProperties getLinkPropertiesSync() {
         LinkProperties value;
         if (isCallerOnDifferentThread()) {
-            Message response = sendMessageSynchronously(REQ_GET_LINK_PROPERTIES);
-            if ((response != null) && (response.what == RSP_GET_LINK_PROPERTIES)) {
-                value = rspLinkProperties(response);
-            } else {
-                log("getLinkProperties error response=" + response);
-                value = null;
-            }
+            value = mDc.getSnapshot().getLinkProperties();
         } else {
             value = mDc.getCopyLinkProperties();
         }
@@ -335,12 +314,7 @@ public class DcAsyncChannel extends AsyncChannel {
     public NetworkCapabilities getNetworkCapabilitiesSync() {
         NetworkCapabilities value;
         if (isCallerOnDifferentThread()) {
-            Message response = sendMessageSynchronously(REQ_GET_NETWORK_CAPABILITIES);
-            if ((response != null) && (response.what == RSP_GET_NETWORK_CAPABILITIES)) {
-                value = rspNetworkCapabilities(response);
-            } else {
-                value = null;
-            }
+            value = mDc.getSnapshot().getNetworkCapabilities();
         } else {
             value = mDc.getCopyNetworkCapabilities();
         }
@@ -406,6 +380,14 @@ public class DcAsyncChannel extends AsyncChannel {
                 new DisconnectParams(null, reason, onCompletedMsg));
     }
 
+    /**
+     * @return the snapshot of the connections state last published by the DataConnection,
+     * read without waiting for the state machine. May be called on any thread.
+     */
+    DcSnapshot getSnapshot() {
+        return mDc.getSnapshot();
+    }
+
     /**
      * @return connection id
      */
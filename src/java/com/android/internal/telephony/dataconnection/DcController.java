@@ -38,6 +38,7 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 
 /**
  * Data Connection Controller which is a package visible class and controls
@@ -57,6 +58,17 @@ class DcController extends StateMachine {
     private HashMap<Integer, DataConnection> mDcListActiveByCid =
             new HashMap<Integer, DataConnection>();
 
+    // The last response reconciled with each active DC, by cid. An identical response in a
+    // later RIL_UNSOL_DATA_CALL_LIST_CHANGED is skipped, as the DC already reflects it.
+    private HashMap<Integer, DataCallResponse> mLastDataCallResponseByCid =
+            new HashMap<Integer, DataCallResponse>();
+
+    // Reconciliation statistics for dump()
+    private int mDataStateChangedCount;
+    private int mReconciledCount;
+    private int mSkippedCount;
+    private long mReconcileTimeNs;
+
     /**
      * Constants for the data connection activity:
      * physical link down/up
@@ -110,6 +122,7 @@ class DcController extends StateMachine {
 
     void removeDc(DataConnection dc) {
         mDcListActiveByCid.remove(dc.mCid);
+        mLastDataCallResponseByCid.remove(dc.mCid);
         mDcListAll.remove(dc);
     }
 
@@ -118,10 +131,13 @@ class DcController extends StateMachine {
             log("addActiveDcByCid dc.mCid < 0 dc=" + dc);
         }
         mDcListActiveByCid.put(dc.mCid, dc);
+        // A new connection must reconcile with the next response even if it is unchanged
+        mLastDataCallResponseByCid.remove(dc.mCid);
     }
 
     void removeActiveDcByCid(DataConnection dc) {
         DataConnection removedDc = mDcListActiveByCid.remove(dc.mCid);
+        mLastDataCallResponseByCid.remove(dc.mCid);
         if (DBG && removedDc == null) {
             log("removeActiveDcByCid removedDc=null dc=" + dc);
         }
@@ -186,6 +202,7 @@ class DcController extends StateMachine {
          * @param dcsList as sent by RIL_UNSOL_DATA_CALL_LIST_CHANGED
          */
         private void onDataStateChanged(ArrayList<DataCallResponse> dcsList) {
+            final long startTime = SystemClock.elapsedRealtimeNanos();
             if (DBG) {
                 lr("onDataStateChanged: dcsList=" + dcsList
                         + " mDcListActiveByCid=" + mDcListActiveByCid);
@@ -212,12 +229,21 @@ class DcController extends StateMachine {
             }
             if (DBG) log("onDataStateChanged: dcsToRetry=" + dcsToRetry);
 
+            // Forget the responses of cids that are no longer in the list
+            Iterator<Integer> it = mLastDataCallResponseByCid.keySet().iterator();
+            while (it.hasNext()) {
+                if (!dataCallResponseListByCid.containsKey(it.next())) {
+                    it.remove();
+                }
+            }
+
             // Find which connections have changed state and send a notification or cleanup
             // and any that are in active need to be retried.
             ArrayList<ApnContext> apnsToCleanup = new ArrayList<ApnContext>();
 
             boolean isAnyDataCallDormant = false;
             boolean isAnyDataCallActive = false;
+            int reconciled = 0;
 
             for (DataCallResponse newState : dcsList) {
 
@@ -230,12 +256,19 @@ class DcController extends StateMachine {
 
                 if (dc.mApnContexts.size() == 0) {
                     if (DBG) loge("onDataStateChanged: no connected apns, ignore");
+                    mLastDataCallResponseByCid.remove(newState.cid);
+                } else if (newState.active != DATA_CONNECTION_ACTIVE_PH_LINK_INACTIVE
+                        && newState.isIdentical(mLastDataCallResponseByCid.get(newState.cid))) {
+                    if (VDBG) log("onDataStateChanged: unchanged ConnId=" + newState.cid);
+                    mSkippedCount++;
                 } else {
+                    reconciled++;
                     // Determine if the connection/apnContext should be cleaned up
                     // or just a notification should be sent out.
                     if (DBG) log("onDataStateChanged: Found ConnId=" + newState.cid
                             + " newState=" + newState.toString());
                     if (newState.active == DATA_CONNECTION_ACTIVE_PH_LINK_INACTIVE) {
+                        mLastDataCallResponseByCid.remove(newState.cid);
                         if (mDct.mIsCleanupRequired) {
                             apnsToCleanup.addAll(dc.mApnContexts);
                             mDct.mIsCleanupRequired = false;
@@ -256,6 +289,12 @@ class DcController extends StateMachine {
                     } else {
                         // Its active so update the DataConnections link properties
                         UpdateLinkPropertyResult result = dc.updateLinkProperty(newState);
+                        if (result.setupResult == DataCallResponse.SetupResult.SUCCESS) {
+                            mLastDataCallResponseByCid.put(newState.cid, newState);
+                        } else {
+                            // Reconcile the same response again rather than skip it
+                            mLastDataCallResponseByCid.remove(newState.cid);
+                        }
                         if (result.oldLp.equals(result.newLp)) {
                             if (DBG) log("onDataStateChanged: no change");
                         } else {
@@ -390,7 +429,14 @@ class DcController extends StateMachine {
                 dc.sendMessage(DataConnection.EVENT_LOST_CONNECTION, dc.mTag);
             }
 
-            if (DBG) log("onDataStateChanged: X");
+            long elapsedNs = SystemClock.elapsedRealtimeNanos() - startTime;
+            mDataStateChangedCount++;
+            mReconciledCount += reconciled;
+            mReconcileTimeNs += elapsedNs;
+            if (DBG) {
+                lr("onDataStateChanged: X reconciled " + reconciled + " of " + dcsList.size()
+                        + " data calls in " + (elapsedNs / 1000) + " us");
+            }
         }
     }
 
@@ -436,5 +482,8 @@ class DcController extends StateMachine {
         pw.println(" mPhone=" + mPhone);
         pw.println(" mDcListAll=" + mDcListAll);
         pw.println(" mDcListActiveByCid=" + mDcListActiveByCid);
+        pw.println(" mDataStateChangedCount=" + mDataStateChangedCount
+                + " mReconciledCount=" + mReconciledCount + " mSkippedCount=" + mSkippedCount
+                + " mReconcileTimeNs=" + mReconcileTimeNs);
     }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.dataconnection;
+
+import android.net.LinkProperties;
+import android.net.NetworkCapabilities;
+
+/**
+ * An immutable copy of the state of a {@link DataConnection} that other threads read through
+ * {@link DcAsyncChannel}. The DataConnection publishes a new snapshot from its own thread each
+ * time the state changes, so readers never wait for the state machine.
+ */
+final class DcSnapshot {
+    /** Incremented for each snapshot published by a DataConnection. */
+    final long mVersion;
+    final boolean mIsInactive;
+    final int mCid;
+    final ApnSetting mApnSetting;
+    private final LinkProperties mLinkProperties;
+    private final NetworkCapabilities mNetworkCapabilities;
+
+    DcSnapshot(long version, boolean isInactive, int cid, ApnSetting apnSetting,
+            LinkProperties linkProperties, NetworkCapabilities networkCapabilities) {
+        mVersion = version;
+        mIsInactive = isInactive;
+        mCid = cid;
+        mApnSetting = apnSetting;
+        mLinkProperties = (linkProperties != null)
+                ? new LinkProperties(linkProperties) : new LinkProperties();
+        mNetworkCapabilities = (networkCapabilities != null)
+                ? new NetworkCapabilities(networkCapabilities) : new NetworkCapabilities();
+    }
+
+    /** Return a copy of the LinkProperties, which the caller may modify. */
+    LinkProperties getLinkProperties() {
+        return new LinkProperties(mLinkProperties);
+    }
+
+    /** Return a copy of the NetworkCapabilities, which the caller may modify. */
+    NetworkCapabilities getNetworkCapabilities() {
+        return new NetworkCapabilities(mNetworkCapabilities);
+    }
+
+    @Override
+    public String toString() {
+        return "{mVersion=" + mVersion + " mIsInactive=" + mIsInactive + " mCid=" + mCid
+                + " mApnSetting=" + mApnSetting + " mLinkProperties=" + mLinkProperties
+                + " mNetworkCapabilities=" + mNetworkCapabilities + "}";
+    }
+}
@@ -273,7 +273,7 @@ public final class DcTracker extends DcTrackerBase {
         mPhone.mCi.unregisterForOffOrNotAvailable(this);
         IccRecords r = mIccRecords.get();
         if (r != null) {
-            r.unregisterForRecordsLoaded(this);
+            r.unregisterForEssentialRecordsLoaded(this);
             mIccRecords.set(null);
         }
         mPhone.mCi.unregisterForDataNetworkStateChanged(this);
@@ -811,7 +811,7 @@ public final class DcTracker extends DcTrackerBase {
         boolean attachedState = mAttached.get();
         boolean desiredPowerState = mPhone.getServiceStateTracker().getDesiredPowerState();
         IccRecords r = mIccRecords.get();
-        boolean recordsLoaded = (r != null) ? r.getRecordsLoaded() : false;
+        boolean recordsLoaded = (r != null) ? r.getEssentialRecordsLoaded() : false;
 
         //FIXME always attach
         boolean psRestricted = mIsPsRestricted;
@@ -1792,7 +1792,7 @@ public final class DcTracker extends DcTrackerBase {
         }
 
         IccRecords r = mIccRecords.get();
-        if (r != null && r.getRecordsLoaded()) {
+        if (r != null && r.getEssentialRecordsLoaded()) {
             notifyOffApnsOfAvailability(null);
         }
 
@@ -2794,13 +2794,16 @@ public final class DcTracker extends DcTrackerBase {
         if (r != newIccRecords) {
             if (r != null) {
                 log("Removing stale icc objects.");
-                r.unregisterForRecordsLoaded(this);
+                r.unregisterForEssentialRecordsLoaded(this);
                 mIccRecords.set(null);
             }
             if (newIccRecords != null) {
                 log("New records found");
                 mIccRecords.set(newIccRecords);
-                newIccRecords.registerForRecordsLoaded(
+                // Data only needs the operator numeric and the IMSI, SPN
+                // and GID1 that MVNO APNs are matched against, which are
+                // known before the rest of the records are loaded.
+                newIccRecords.registerForEssentialRecordsLoaded(
                         this, DctConstants.EVENT_RECORDS_LOADED, null);
             }
         }
@@ -2943,6 +2946,27 @@ public final class DcTracker extends DcTrackerBase {
         return true;
     }
 
+    /**
+     * Get ready to become the data subscription: track the current IccRecords and build the
+     * APN list and initial attach APN now, so that the attach and data setup that follow
+     * setDataAllowed(true) don't wait for them.
+     */
+    public void prepareForDataSwitch() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                onUpdateIcc();
+                IccRecords r = mIccRecords.get();
+                if (r != null && r.getEssentialRecordsLoaded()
+                        && (mAllApnSettings == null || mAllApnSettings.isEmpty())) {
+                    if (DBG) log("prepareForDataSwitch: createAllApnList");
+                    createAllApnList();
+                    setInitialAttachApn();
+                }
+            }
+        });
+    }
+
     public void setDataAllowed(boolean enable, Message response) {
          mIsCleanupRequired = !enable;
          mPhone.mCi.setDataAllowed(enable, response);
@@ -41,6 +41,7 @@ import com.android.internal.telephony.DefaultPhoneNotifier;
 import com.android.internal.telephony.SubscriptionController;
 
 import android.util.Log;
+import java.util.ArrayDeque;
 import java.util.HashSet;
 import java.util.Iterator;
 import android.os.Registrant;
@@ -64,8 +65,15 @@ public class DctController extends Handler {
 
     private static DctController sDctController;
 
-    private static final int EVENT_ALL_DATA_DISCONNECTED = 1;
-    private static final int EVENT_SET_DATA_ALLOW_DONE = 2;
+    private static final int EVENT_DATA_SWITCH_DONE = 1;
+    private static final int EVENT_APN_REQUEST = 2;
+
+    // Prepare the new phone while the old one tears down when switching the data subscription
+    private static final String PROPERTY_PIPELINED_DATA_SWITCH =
+            "persist.radio.pipelined_data_switch";
+    // The modem allows data on the new phone before it is torn down on the old one
+    private static final String PROPERTY_DATA_SWITCH_OVERLAP_ATTACH =
+            "persist.radio.data_switch_overlap";
 
     private RegistrantList mNotifyDataSwitchInfo = new RegistrantList();
     private SubscriptionController mSubController = SubscriptionController.getInstance();
@@ -76,10 +84,32 @@ public class DctController extends Handler {
     private PhoneProxy[] mPhones;
     private DcSwitchState[] mDcSwitchState;
     private DcSwitchAsyncChannel[] mDcSwitchAsyncChannel;
-    private Handler[] mDcSwitchStateHandler;
+    private DataSwitchPipeline mDataSwitchPipeline;
 
     private HashSet<String> mApnTypes = new HashSet<String>();
 
+    // Requests to enable or disable an APN type, handled in order on this handler
+    private ArrayDeque<ApnRequest> mApnRequests = new ArrayDeque<ApnRequest>();
+    // The request waiting for its DcSwitchState to tell whether it is idle or deacting
+    private ApnRequest mIdleCheckRequest;
+    // Enable requests per phone not yet turned into a connect or a switch, guarded by this
+    private int[] mQueuedEnables;
+
+    /**
+     * A request to enable or disable an APN type on a phone.
+     */
+    private static final class ApnRequest {
+        final int mPhoneId;
+        final String mType;
+        final boolean mEnable;
+
+        ApnRequest(int phoneId, String type, boolean enable) {
+            mPhoneId = phoneId;
+            mType = type;
+            mEnable = enable;
+        }
+    }
+
     private BroadcastReceiver mDataStateReceiver;
     private Context mContext;
 
@@ -96,16 +126,19 @@ public class DctController extends Handler {
                 case EVENT_PHONE4_DETACH:
                     logd("EVENT_PHONE" + msg.what +
                             "_DETACH: mRequestedDataPhone=" + mRequestedDataPhone);
-                    mCurrentDataPhone = PHONE_NONE;
-                    if (mRequestedDataPhone != PHONE_NONE) {
-                        mCurrentDataPhone = mRequestedDataPhone;
-                        mRequestedDataPhone = PHONE_NONE;
-
-                        Iterator<String> itrType = mApnTypes.iterator();
-                        while (itrType.hasNext()) {
-                            mDcSwitchAsyncChannel[mCurrentDataPhone].connectSync(itrType.next());
+                    synchronized (DctController.this) {
+                        mCurrentDataPhone = PHONE_NONE;
+                        if (mRequestedDataPhone != PHONE_NONE) {
+                            mCurrentDataPhone = mRequestedDataPhone;
+                            mRequestedDataPhone = PHONE_NONE;
+
+                            Iterator<String> itrType = mApnTypes.iterator();
+                            while (itrType.hasNext()) {
+                                mDcSwitchAsyncChannel[mCurrentDataPhone].reqConnect(
+                                        itrType.next());
+                            }
+                            mApnTypes.clear();
                         }
-                        mApnTypes.clear();
                     }
                 break;
 
@@ -229,11 +262,11 @@ public class DctController extends Handler {
         }
         mPhoneNum = phones.length;
         mServicePowerOffFlag = new boolean[mPhoneNum];
+        mQueuedEnables = new int[mPhoneNum];
         mPhones = phones;
 
         mDcSwitchState = new DcSwitchState[mPhoneNum];
         mDcSwitchAsyncChannel = new DcSwitchAsyncChannel[mPhoneNum];
-        mDcSwitchStateHandler = new Handler[mPhoneNum];
 
         mActivePhone = mPhones[0];
 
@@ -243,10 +276,10 @@ public class DctController extends Handler {
             mDcSwitchState[i] = new DcSwitchState(mPhones[i], "DcSwitchState-" + phoneId, phoneId);
             mDcSwitchState[i].start();
             mDcSwitchAsyncChannel[i] = new DcSwitchAsyncChannel(mDcSwitchState[i], phoneId);
-            mDcSwitchStateHandler[i] = new Handler();
 
+            // the responses to the requests sent on the channel are handled by handleMessage
             int status = mDcSwitchAsyncChannel[i].fullyConnectSync(mPhones[i].getContext(),
-                mDcSwitchStateHandler[i], mDcSwitchState[i].getHandler());
+                this, mDcSwitchState[i].getHandler());
 
             if (status == AsyncChannel.STATUS_SUCCESSFUL) {
                 logd("DctController(phones): Connect success: " + i);
@@ -262,6 +295,9 @@ public class DctController extends Handler {
         }
 
         mContext = mActivePhone.getContext();
+        mDataSwitchPipeline = new DataSwitchPipeline(getLooper(),
+                SystemProperties.getBoolean(PROPERTY_PIPELINED_DATA_SWITCH, false),
+                SystemProperties.getBoolean(PROPERTY_DATA_SWITCH_OVERLAP_ATTACH, false));
 
         IntentFilter filter = new IntentFilter();
         filter.addAction(TelephonyIntents.ACTION_DATA_CONNECTION_FAILED);
@@ -276,7 +312,9 @@ public class DctController extends Handler {
     }
 
     /**
-     * Enable PDP interface by apn type and phone id
+     * Enable PDP interface by apn type and phone id. The request is handled in order with the
+     * other enable and disable requests, on the DctController handler, without waiting for
+     * the DcSwitchState of the phone.
      *
      * @param type enable pdp interface by apn type, such as PhoneConstants.APN_TYPE_MMS, etc.
      * @param subId Indicate which sub to query
@@ -320,43 +358,20 @@ public class DctController extends Handler {
             }
         }
 
-        logd("enableApnType(): CurrentDataPhone=" +
-                    mCurrentDataPhone + ", RequestedDataPhone=" + mRequestedDataPhone);
-
-        if (phoneId == mCurrentDataPhone &&
-               !mDcSwitchAsyncChannel[mCurrentDataPhone].isIdleOrDeactingSync()) {
-           mRequestedDataPhone = PHONE_NONE;
-           logd("enableApnType(): mRequestedDataPhone equals request PHONE ID.");
-           return mDcSwitchAsyncChannel[phoneId].connectSync(type);
-        } else {
-            // Only can switch data when mCurrentDataPhone is PHONE_NONE,
-            // it is set to PHONE_NONE only as receiving EVENT_PHONEX_DETACH
-            if (mCurrentDataPhone == PHONE_NONE) {
-                mCurrentDataPhone = phoneId;
-                mRequestedDataPhone = PHONE_NONE;
-                logd("enableApnType(): current PHONE is NONE or IDLE, mCurrentDataPhone=" +
-                        mCurrentDataPhone);
-                return mDcSwitchAsyncChannel[phoneId].connectSync(type);
-            } else {
-                logd("enableApnType(): current PHONE:" + mCurrentDataPhone + " is active.");
-                if (phoneId != mRequestedDataPhone) {
-                    mApnTypes.clear();
-                }
-                mApnTypes.add(type);
-                mRequestedDataPhone = phoneId;
-                mDcSwitchState[mCurrentDataPhone].cleanupAllConnection();
-            }
-        }
+        mQueuedEnables[phoneId]++;
+        sendMessage(obtainMessage(EVENT_APN_REQUEST, new ApnRequest(phoneId, type, true)));
         return PhoneConstants.APN_REQUEST_STARTED;
     }
 
     /**
-     * disable PDP interface by apn type and sub id
+     * disable PDP interface by apn type and sub id. Like {@link #enableApnType}, the request
+     * is queued without waiting for the DcSwitchState of the phone, unless the phone is
+     * neither the data phone nor about to become it.
      *
      * @param type enable pdp interface by apn type, such as PhoneConstants.APN_TYPE_MMS, etc.
      * @param subId Indicate which sub to query
      * @return PhoneConstants.APN_REQUEST_STARTED: action is already started
-     * PhoneConstants.APN_ALREADY_ACTIVE: interface has already active
+     * PhoneConstants.APN_ALREADY_INACTIVE: interface has already inactive
      * PhoneConstants.APN_TYPE_NOT_AVAILABLE: invalid APN type
      * PhoneConstants.APN_REQUEST_FAILED: request failed
      * PhoneConstants.APN_REQUEST_FAILED_DUE_TO_RADIO_OFF: readio turn off
@@ -372,7 +387,85 @@ public class DctController extends Handler {
         }
         logd("disableApnType():type=" + type + ",phoneId=" + phoneId +
                 ",powerOff=" + mServicePowerOffFlag[phoneId]);
-        return mDcSwitchAsyncChannel[phoneId].disconnectSync(type);
+
+        // Only the data phone is connected, so the DcSwitchState of any other phone is
+        // idle or deacting and would answer APN_ALREADY_INACTIVE
+        if (mQueuedEnables[phoneId] == 0 && phoneId != mCurrentDataPhone
+                && phoneId != mRequestedDataPhone) {
+            logd("disableApnType(): phoneId=" + phoneId + " is not the data phone");
+            return PhoneConstants.APN_ALREADY_INACTIVE;
+        }
+        sendMessage(obtainMessage(EVENT_APN_REQUEST, new ApnRequest(phoneId, type, false)));
+        return PhoneConstants.APN_REQUEST_STARTED;
+    }
+
+    /**
+     * Handle the queued APN requests in order. An enable request for the current data phone
+     * waits for its DcSwitchState to tell whether it is idle or deacting, and the requests
+     * after it wait too.
+     */
+    private void processRequests() {
+        while (mIdleCheckRequest == null && !mApnRequests.isEmpty()) {
+            ApnRequest request = mApnRequests.poll();
+            if (!request.mEnable) {
+                mDcSwitchAsyncChannel[request.mPhoneId].reqDisconnect(request.mType);
+            } else if (request.mPhoneId == mCurrentDataPhone) {
+                // answered by RSP_IS_IDLE_OR_DEACTING_STATE, see onIdleOrDeactingResponse
+                mIdleCheckRequest = request;
+                mDcSwitchAsyncChannel[request.mPhoneId].reqIsIdleOrDeacting();
+            } else {
+                connectOrSwitch(request);
+            }
+        }
+    }
+
+    private void onIdleOrDeactingResponse(Message response) {
+        ApnRequest request = mIdleCheckRequest;
+        mIdleCheckRequest = null;
+        if (request == null) {
+            loge("onIdleOrDeactingResponse: no request is waiting for " + response);
+            return;
+        }
+        boolean idleOrDeacting =
+                mDcSwitchAsyncChannel[request.mPhoneId].rspIsIdleOrDeacting(response);
+        logd("onIdleOrDeactingResponse(): CurrentDataPhone=" +
+                mCurrentDataPhone + ", RequestedDataPhone=" + mRequestedDataPhone);
+        // the phone may have detached meanwhile
+        if (request.mPhoneId == mCurrentDataPhone && !idleOrDeacting) {
+            mQueuedEnables[request.mPhoneId]--;
+            mRequestedDataPhone = PHONE_NONE;
+            logd("enableApnType(): mRequestedDataPhone equals request PHONE ID.");
+            mDcSwitchAsyncChannel[request.mPhoneId].reqConnect(request.mType);
+        } else {
+            connectOrSwitch(request);
+        }
+        processRequests();
+    }
+
+    /**
+     * Connect the requested APN type if no phone is the data phone, or else tear down the
+     * data phone and connect it once that phone detaches.
+     */
+    private void connectOrSwitch(ApnRequest request) {
+        int phoneId = request.mPhoneId;
+        mQueuedEnables[phoneId]--;
+        // Only can switch data when mCurrentDataPhone is PHONE_NONE,
+        // it is set to PHONE_NONE only as receiving EVENT_PHONEX_DETACH
+        if (mCurrentDataPhone == PHONE_NONE) {
+            mCurrentDataPhone = phoneId;
+            mRequestedDataPhone = PHONE_NONE;
+            logd("enableApnType(): current PHONE is NONE or IDLE, mCurrentDataPhone=" +
+                    mCurrentDataPhone);
+            mDcSwitchAsyncChannel[phoneId].reqConnect(request.mType);
+        } else {
+            logd("enableApnType(): current PHONE:" + mCurrentDataPhone + " is active.");
+            if (phoneId != mRequestedDataPhone) {
+                mApnTypes.clear();
+            }
+            mApnTypes.add(request.mType);
+            mRequestedDataPhone = phoneId;
+            mDcSwitchState[mCurrentDataPhone].cleanupAllConnection();
+        }
     }
 
     public boolean isDataConnectivityPossible(String type, int phoneId) {
@@ -439,14 +532,59 @@ public class DctController extends Handler {
         //FIXME This should rework
         //FIXME Need to have a StateMachine logic to handle this api considering various clients
         Rlog.d(LOG_TAG, "setDataAllowed subId :" + subId);
-        int phoneId = mSubController.getPhoneId(subId);
-        int prefPhoneId = mSubController.getPhoneId(mSubController.getDefaultDataSubId());
-        Phone phone = mPhones[prefPhoneId].getActivePhone();
-        DcTrackerBase dcTracker =((PhoneBase)phone).mDcTracker;
-        dcTracker.setDataAllowed(false, null);
-        mPhones[prefPhoneId].registerForAllDataDisconnected(
-                this, EVENT_ALL_DATA_DISCONNECTED, new Integer(phoneId));
+        final int phoneId = mSubController.getPhoneId(subId);
+        final int prefPhoneId = mSubController.getPhoneId(mSubController.getDefaultDataSubId());
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mDataSwitchPipeline.switchData(new ProxyDataPhone(mPhones[prefPhoneId]),
+                        new ProxyDataPhone(mPhones[phoneId]), phoneId,
+                        obtainMessage(EVENT_DATA_SWITCH_DONE, new Integer(phoneId)));
+            }
+        });
+    }
+
+    /**
+     * The operations of a data subscription switch on a PhoneProxy.
+     */
+    private static final class ProxyDataPhone implements DataSwitchPipeline.DataPhone {
+        private final PhoneProxy mPhone;
+
+        ProxyDataPhone(PhoneProxy phone) {
+            mPhone = phone;
+        }
+
+        private DcTrackerBase getDcTracker() {
+            return ((PhoneBase) mPhone.getActivePhone()).mDcTracker;
+        }
+
+        @Override
+        public void setDataAllowed(boolean allowed, Message response) {
+            getDcTracker().setDataAllowed(allowed, response);
+        }
+
+        @Override
+        public void registerForAllDataDisconnected(Handler h, int what, Object obj) {
+            mPhone.registerForAllDataDisconnected(h, what, obj);
+        }
 
+        @Override
+        public void unregisterForAllDataDisconnected(Handler h) {
+            mPhone.unregisterForAllDataDisconnected(h);
+        }
+
+        @Override
+        public void prepareForDataSwitch() {
+            DcTrackerBase dcTracker = getDcTracker();
+            if (dcTracker instanceof DcTracker) {
+                ((DcTracker) dcTracker).prepareForDataSwitch();
+            }
+        }
+
+        @Override
+        public void updateDataConnectionTracker() {
+            mPhone.updateDataConnectionTracker();
+        }
     }
 
     public void registerForDataSwitchInfo(Handler h, int what, Object obj) {
@@ -460,29 +598,35 @@ public class DctController extends Handler {
     @Override
     public void handleMessage (Message msg) {
         //FIXME This should rework
-            AsyncResult ar = (AsyncResult)msg.obj;
             Rlog.d(LOG_TAG, "handleMessage msg=" + msg);
 
             switch (msg.what) {
-                case EVENT_ALL_DATA_DISCONNECTED:
+                case EVENT_DATA_SWITCH_DONE:
+                    AsyncResult ar = (AsyncResult)msg.obj;
                     Integer phoneId = (Integer)ar.userObj;
-                    int prefPhoneId = mSubController.getPhoneId(
-                            mSubController.getDefaultDataSubId());
-                    Rlog.d(LOG_TAG, "EVENT_ALL_DATA_DISCONNECTED phoneId :" + phoneId);
-                    mPhones[prefPhoneId].unregisterForAllDataDisconnected(this);
-                    Message alllowedDataDone = Message.obtain(this, EVENT_SET_DATA_ALLOW_DONE,
-                            new Integer(phoneId));
-                    Phone phone = mPhones[phoneId].getActivePhone();
-                    DcTrackerBase dcTracker =((PhoneBase)phone).mDcTracker;
-                    dcTracker.setDataAllowed(true, alllowedDataDone);
-                    break;
-
-                case EVENT_SET_DATA_ALLOW_DONE:
-                    phoneId = (Integer)ar.userObj;
                     long[] subId = mSubController.getSubId(phoneId);
-                    Rlog.d(LOG_TAG, "EVENT_SET_DATA_ALLOWED_DONE  phoneId :" + subId[0]);
+                    Rlog.d(LOG_TAG, "EVENT_DATA_SWITCH_DONE subId :" + subId[0]
+                            + " timings=" + ar.result);
                     mNotifyDataSwitchInfo.notifyRegistrants(new AsyncResult(null, subId[0], null));
-                    mPhones[phoneId].updateDataConnectionTracker();
+                    break;
+
+                case EVENT_APN_REQUEST:
+                    synchronized (this) {
+                        mApnRequests.add((ApnRequest) msg.obj);
+                        processRequests();
+                    }
+                    break;
+
+                case DcSwitchAsyncChannel.RSP_IS_IDLE_OR_DEACTING_STATE:
+                    synchronized (this) {
+                        onIdleOrDeactingResponse(msg);
+                    }
+                    break;
+
+                case DcSwitchAsyncChannel.RSP_CONNECT:
+                case DcSwitchAsyncChannel.RSP_DISCONNECT:
+                    Rlog.d(LOG_TAG, DcSwitchAsyncChannel.cmdToString(msg.what)
+                            + " result=" + msg.arg1);
                     break;
             }
     }
@@ -33,9 +33,6 @@ import android.telephony.Rlog;
 
 import static com.android.internal.telephony.CommandsInterface.*;
 
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
-
 /**
  * The motto for this file is:
  *
@@ -135,37 +132,6 @@ public final class GsmMmiCode extends Handler implements MmiCode {
     State mState = State.PENDING;
     CharSequence mMessage;
 
-    //***** Class Variables
-
-
-    // See TS 22.030 6.5.2 "Structure of the MMI"
-
-    static Pattern sPatternSuppService = Pattern.compile(
-        "((\\*|#|\\*#|\\*\\*|##)(\\d{2,3})(\\*([^*#]*)(\\*([^*#]*)(\\*([^*#]*)(\\*([^*#]*))?)?)?)?#)(.*)");
-/*       1  2                    3          4  5       6   7         8    9     10  11             12
-
-         1 = Full string up to and including #
-         2 = action (activation/interrogation/registration/erasure)
-         3 = service code
-         5 = SIA
-         7 = SIB
-         9 = SIC
-         10 = dialing number
-*/
-
-    static final int MATCH_GROUP_POUND_STRING = 1;
-
-    static final int MATCH_GROUP_ACTION = 2;
-                        //(activation/interrogation/registration/erasure)
-
-    static final int MATCH_GROUP_SERVICE_CODE = 3;
-    static final int MATCH_GROUP_SIA = 5;
-    static final int MATCH_GROUP_SIB = 7;
-    static final int MATCH_GROUP_SIC = 9;
-    static final int MATCH_GROUP_PWD_CONFIRM = 11;
-    static final int MATCH_GROUP_DIALING_NUMBER = 12;
-    static private String[] sTwoDigitNumberPattern;
-
     //***** Public Class methods
 
     /**
@@ -183,22 +149,21 @@ public final class GsmMmiCode extends Handler implements MmiCode {
 
     static GsmMmiCode
     newFromDialString(String dialString, GSMPhone phone, UiccCardApplication app) {
-        Matcher m;
         GsmMmiCode ret = null;
 
-        m = sPatternSuppService.matcher(dialString);
+        MmiCodeParser mmi = MmiCodeParser.parse(dialString);
 
         // Is this formatted like a standard supplementary service code?
-        if (m.matches()) {
+        if (mmi != null) {
             ret = new GsmMmiCode(phone, app);
-            ret.mPoundString = makeEmptyNull(m.group(MATCH_GROUP_POUND_STRING));
-            ret.mAction = makeEmptyNull(m.group(MATCH_GROUP_ACTION));
-            ret.mSc = makeEmptyNull(m.group(MATCH_GROUP_SERVICE_CODE));
-            ret.mSia = makeEmptyNull(m.group(MATCH_GROUP_SIA));
-            ret.mSib = makeEmptyNull(m.group(MATCH_GROUP_SIB));
-            ret.mSic = makeEmptyNull(m.group(MATCH_GROUP_SIC));
-            ret.mPwd = makeEmptyNull(m.group(MATCH_GROUP_PWD_CONFIRM));
-            ret.mDialingNumber = makeEmptyNull(m.group(MATCH_GROUP_DIALING_NUMBER));
+            ret.mPoundString = mmi.getPoundString();
+            ret.mAction = mmi.getAction();
+            ret.mSc = mmi.getServiceCode();
+            ret.mSia = mmi.getSia();
+            ret.mSib = mmi.getSib();
+            ret.mSic = mmi.getSic();
+            ret.mPwd = mmi.getPwd();
+            ret.mDialingNumber = mmi.getDialingNumber();
             // According to TS 22.030 6.5.2 "Structure of the MMI",
             // the dialing number should not ending with #.
             // The dialing number ending # is treated as unique USSD,
@@ -217,7 +182,7 @@ public final class GsmMmiCode extends Handler implements MmiCode {
 
             ret = new GsmMmiCode(phone, app);
             ret.mPoundString = dialString;
-        } else if (isTwoDigitShortCode(phone.getContext(), dialString)) {
+        } else if (MmiCodeParser.isTwoDigitShortCode(phone.getContext(), dialString)) {
             //Is a country-specific exception to short codes as defined in TS 22.030, 6.5.3.2
             ret = null;
         } else if (isShortCode(dialString, phone)) {
@@ -264,16 +229,6 @@ public final class GsmMmiCode extends Handler implements MmiCode {
 
     //***** Private Class methods
 
-    /** make empty strings be null.
-     *  Regexp returns empty strings for empty groups
-     */
-    private static String
-    makeEmptyNull (String s) {
-        if (s != null && s.length() == 0) return null;
-
-        return s;
-    }
-
     /** returns true of the string is empty or null */
     private static boolean
     isEmptyOrNull(CharSequence s) {
@@ -491,28 +446,6 @@ public final class GsmMmiCode extends Handler implements MmiCode {
 
     }
 
-    static private boolean
-    isTwoDigitShortCode(Context context, String dialString) {
-        Rlog.d(LOG_TAG, "isTwoDigitShortCode");
-
-        if (dialString == null || dialString.length() > 2) return false;
-
-        if (sTwoDigitNumberPattern == null) {
-            sTwoDigitNumberPattern = context.getResources().getStringArray(
-                    com.android.internal.R.array.config_twoDigitNumberPattern);
-        }
-
-        for (String dialnumber : sTwoDigitNumberPattern) {
-            Rlog.d(LOG_TAG, "Two Digit Number Pattern " + dialnumber);
-            if (dialString.equals(dialnumber)) {
-                Rlog.d(LOG_TAG, "Two Digit Number Pattern -true");
-                return true;
-            }
-        }
-        Rlog.d(LOG_TAG, "Two Digit Number Pattern -false");
-        return false;
-    }
-
     /**
      * Helper function for newFromDialString. Returns true if dialString appears
      * to be a short code AND conditions are correct for it to be treated as
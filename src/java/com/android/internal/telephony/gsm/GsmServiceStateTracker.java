@@ -58,6 +58,7 @@ import com.android.internal.telephony.CommandException;
 import com.android.internal.telephony.CommandsInterface;
 import com.android.internal.telephony.EventLogTags;
 import com.android.internal.telephony.MccTable;
+import com.android.internal.telephony.NitzTimeZoneIndex;
 import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.ProxyController;
 import com.android.internal.telephony.Phone;
@@ -80,7 +81,6 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
 
@@ -262,7 +262,10 @@ final class GsmServiceStateTracker extends ServiceStateTracker {
         mCi.unregisterForRadioStateChanged(this);
         mCi.unregisterForVoiceNetworkStateChanged(this);
         if (mUiccApplcation != null) {mUiccApplcation.unregisterForReady(this);}
-        if (mIccRecords != null) {mIccRecords.unregisterForRecordsLoaded(this);}
+        if (mIccRecords != null) {
+            mIccRecords.unregisterForEssentialRecordsLoaded(this);
+            mIccRecords.unregisterForRecordsLoaded(this);
+        }
         mCi.unSetOnRestrictedStateChanged(this);
         mCi.unSetOnNITZTime(this);
         mCr.unregisterContentObserver(mAutoTimeObserver);
@@ -406,6 +409,12 @@ final class GsmServiceStateTracker extends ServiceStateTracker {
                 onSignalStrengthResult(ar, true);
                 break;
 
+            case EVENT_ESSENTIAL_RECORDS_LOADED:
+                log("EVENT_ESSENTIAL_RECORDS_LOADED: what=" + msg.what);
+                updatePhoneObject();
+                updateSpnDisplay();
+                break;
+
             case EVENT_SIM_RECORDS_LOADED:
                 log("EVENT_SIM_RECORDS_LOADED: what=" + msg.what);
                 // Gsm doesn't support OTASP so its not needed
@@ -1060,7 +1069,8 @@ final class GsmServiceStateTracker extends ServiceStateTracker {
                                 TelephonyProperties.PROPERTY_IGNORE_NITZ, false) &&
                                     ((SystemClock.uptimeMillis() & 1) == 0);
 
-                    ArrayList<TimeZone> uniqueZones = TimeUtils.getTimeZonesWithUniqueOffsets(iso);
+                    ArrayList<TimeZone> uniqueZones =
+                            NitzTimeZoneIndex.getTimeZonesWithUniqueOffsets(iso);
                     if ((uniqueZones.size() == 1) || testOneUniqueOffsetPath) {
                         zone = uniqueZones.get(0);
                         if (DBG) {
@@ -1129,7 +1139,8 @@ final class GsmServiceStateTracker extends ServiceStateTracker {
                         }
                         if (DBG) log("pollStateDone: using default TimeZone");
                     } else {
-                        zone = TimeUtils.getTimeZone(mZoneOffset, mZoneDst, mZoneTime, iso);
+                        zone = NitzTimeZoneIndex.getTimeZone(mZoneOffset, mZoneDst, mZoneTime,
+                                iso);
                         if (DBG) log("pollStateDone: using getTimeZone(off, dst, time, iso)");
                     }
 
@@ -1211,35 +1222,11 @@ final class GsmServiceStateTracker extends ServiceStateTracker {
      * Returns a TimeZone object based only on parameters from the NITZ string.
      */
     private TimeZone getNitzTimeZone(int offset, boolean dst, long when) {
-        TimeZone guess = findTimeZone(offset, dst, when);
-        if (guess == null) {
-            // Couldn't find a proper timezone.  Perhaps the DST data is wrong.
-            guess = findTimeZone(offset, !dst, when);
-        }
+        TimeZone guess = NitzTimeZoneIndex.getNitzTimeZone(offset, dst, when);
         if (DBG) log("getNitzTimeZone returning " + (guess == null ? guess : guess.getID()));
         return guess;
     }
 
-    private TimeZone findTimeZone(int offset, boolean dst, long when) {
-        int rawOffset = offset;
-        if (dst) {
-            rawOffset -= 3600000;
-        }
-        String[] zones = TimeZone.getAvailableIDs(rawOffset);
-        TimeZone guess = null;
-        Date d = new Date(when);
-        for (String zone : zones) {
-            TimeZone tz = TimeZone.getTimeZone(zone);
-            if (tz.getOffset(when) == offset &&
-                tz.inDaylightTime(d) == dst) {
-                guess = tz;
-                break;
-            }
-        }
-
-        return guess;
-    }
-
     private void queueNextSignalStrengthPoll() {
         if (mDontPollSignalStrength) {
             // The radio is telling us about signal strength changes
@@ -1634,7 +1621,7 @@ final class GsmServiceStateTracker extends ServiceStateTracker {
 
                 if (mGotCountryCode) {
                     if (iso != null && iso.length() > 0) {
-                        zone = TimeUtils.getTimeZone(tzOffset, dst != 0,
+                        zone = NitzTimeZoneIndex.getTimeZone(tzOffset, dst != 0,
                                 c.getTimeInMillis(),
                                 iso);
                     } else {
@@ -1897,6 +1884,7 @@ final class GsmServiceStateTracker extends ServiceStateTracker {
                 log("Removing stale icc objects.");
                 mUiccApplcation.unregisterForReady(this);
                 if (mIccRecords != null) {
+                    mIccRecords.unregisterForEssentialRecordsLoaded(this);
                     mIccRecords.unregisterForRecordsLoaded(this);
                 }
                 mIccRecords = null;
@@ -1908,6 +1896,10 @@ final class GsmServiceStateTracker extends ServiceStateTracker {
                 mIccRecords = mUiccApplcation.getIccRecords();
                 mUiccApplcation.registerForReady(this, EVENT_SIM_READY, null);
                 if (mIccRecords != null) {
+                    // Show the SPN as soon as it's loaded, and again with the
+                    // SPDI and PNN when all records are.
+                    mIccRecords.registerForEssentialRecordsLoaded(this,
+                            EVENT_ESSENTIAL_RECORDS_LOADED, null);
                     mIccRecords.registerForRecordsLoaded(this, EVENT_SIM_RECORDS_LOADED, null);
                 }
             }
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.gsm;
+
+import android.telephony.SmsCbLocation;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reassembles the pages of GSM cell broadcasts and suppresses broadcasts that were already
+ * delivered, as the network repeats a broadcast every repetition period until it's cancelled.
+ *
+ * <p>Incomplete messages are dropped when no page has arrived for longer than the longest
+ * repetition period, or when the pages held would exceed a memory cap, least recently updated
+ * first. A message is identified by its location (PLMN, plus LAC and CID if they are part of
+ * its geographical scope), serial number and message identifier, so a broadcast with a new
+ * update number is a new message.
+ *
+ * {@hide}
+ */
+final class SmsCbAssembler {
+    /**
+     * Longer than the repetition period of a broadcast, which is normally at most an hour, so
+     * that a missed page can still be filled in by the next repetition.
+     */
+    static final long DEFAULT_PAGE_TIMEOUT_MS = 70 * 60 * 1000L;
+
+    /** Enough for a few dozen messages of the maximum 15 GSM pages each. */
+    static final int DEFAULT_MAX_PAGE_BYTES = 32 * 1024;
+
+    /** How long a delivered message is remembered, to suppress its repetitions. */
+    static final long DEFAULT_DUPLICATE_TIMEOUT_MS = 24 * 60 * 60 * 1000L;
+
+    static final int DEFAULT_MAX_DUPLICATES = 256;
+
+    private final long mPageTimeoutMs;
+    private final int mMaxPageBytes;
+    private final long mDuplicateTimeoutMs;
+    private final int mMaxDuplicates;
+
+    // Incomplete messages, least recently updated first
+    private final LinkedHashMap<Key, Pages> mPages =
+            new LinkedHashMap<Key, Pages>(4, 0.75f, true);
+    private int mPageBytes;
+
+    // When each delivered message was delivered, oldest first
+    private final LinkedHashMap<Key, Long> mDelivered = new LinkedHashMap<Key, Long>();
+
+    private long mPagesReceived;
+    private long mMessagesCompleted;
+    private long mDuplicatesSuppressed;
+    private long mMessagesExpired;
+    private long mMessagesEvicted;
+
+    SmsCbAssembler() {
+        this(DEFAULT_PAGE_TIMEOUT_MS, DEFAULT_MAX_PAGE_BYTES, DEFAULT_DUPLICATE_TIMEOUT_MS,
+                DEFAULT_MAX_DUPLICATES);
+    }
+
+    SmsCbAssembler(long pageTimeoutMs, int maxPageBytes, long duplicateTimeoutMs,
+            int maxDuplicates) {
+        mPageTimeoutMs = pageTimeoutMs;
+        mMaxPageBytes = maxPageBytes;
+        mDuplicateTimeoutMs = duplicateTimeoutMs;
+        mMaxDuplicates = maxDuplicates;
+    }
+
+    /**
+     * Adds a received page.
+     *
+     * @param header the header of the page
+     * @param location the location of the message, for its geographical scope
+     * @param pdu the page
+     * @param now the current elapsedRealtime
+     * @return the pages of the message if it's now complete and wasn't delivered before, or
+     *         null
+     */
+    synchronized byte[][] addPage(SmsCbHeader header, SmsCbLocation location, byte[] pdu,
+            long now) {
+        mPagesReceived++;
+        expire(now);
+
+        Key key = new Key(header, location);
+        if (mDelivered.containsKey(key)) {
+            mDuplicatesSuppressed++;
+            return null;
+        }
+
+        byte[][] pdus;
+        int pageCount = header.getNumberOfPages();
+        if (pageCount > 1) {
+            Pages pages = mPages.get(key);
+            if (pages == null || pages.mPdus.length != pageCount) {
+                if (pages != null) {
+                    mPageBytes -= pages.mBytes;
+                }
+                pages = new Pages(pageCount);
+                mPages.put(key, pages);
+            }
+            // Page parameter is one-based
+            int index = header.getPageIndex() - 1;
+            if (pages.mPdus[index] == null) {
+                pages.mReceived++;
+            } else {
+                pages.mBytes -= pages.mPdus[index].length;
+                mPageBytes -= pages.mPdus[index].length;
+            }
+            pages.mPdus[index] = pdu;
+            pages.mBytes += pdu.length;
+            pages.mUpdateTime = now;
+            mPageBytes += pdu.length;
+
+            if (pages.mReceived < pageCount) {
+                evict();
+                return null;
+            }
+            mPages.remove(key);
+            mPageBytes -= pages.mBytes;
+            pdus = pages.mPdus;
+        } else {
+            pdus = new byte[][] { pdu };
+        }
+
+        mMessagesCompleted++;
+        mDelivered.put(key, now);
+        if (mDelivered.size() > mMaxDuplicates) {
+            Iterator<Key> it = mDelivered.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+        return pdus;
+    }
+
+    /**
+     * Drops the incomplete messages that aren't for the current location, so that messages
+     * that will never be completed aren't kept until they expire.
+     *
+     * @param plmn the current PLMN
+     * @param lac the current Location Area (GSM) or Service Area (UMTS)
+     * @param cid the current Cell ID
+     */
+    synchronized void removeOutOfLocation(String plmn, int lac, int cid) {
+        Iterator<Map.Entry<Key, Pages>> it = mPages.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Pages> entry = it.next();
+            if (!entry.getKey().mLocation.isInLocationArea(plmn, lac, cid)) {
+                mPageBytes -= entry.getValue().mBytes;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops incomplete messages that haven't been updated within the page timeout, and
+     * forgets delivered messages older than the duplicate timeout.
+     */
+    private void expire(long now) {
+        Iterator<Pages> pages = mPages.values().iterator();
+        while (pages.hasNext()) {
+            Pages p = pages.next();
+            if (now - p.mUpdateTime < mPageTimeoutMs) {
+                break;
+            }
+            mPageBytes -= p.mBytes;
+            mMessagesExpired++;
+            pages.remove();
+        }
+        Iterator<Long> delivered = mDelivered.values().iterator();
+        while (delivered.hasNext()) {
+            if (now - delivered.next() < mDuplicateTimeoutMs) {
+                break;
+            }
+            delivered.remove();
+        }
+    }
+
+    /**
+     * Drops the least recently updated incomplete messages while the pages held exceed the cap.
+     */
+    private void evict() {
+        Iterator<Pages> pages = mPages.values().iterator();
+        while (mPageBytes > mMaxPageBytes && pages.hasNext()) {
+            Pages p = pages.next();
+            mPageBytes -= p.mBytes;
+            mMessagesEvicted++;
+            pages.remove();
+        }
+    }
+
+    synchronized int getIncompleteCount() {
+        return mPages.size();
+    }
+
+    synchronized int getPageBytes() {
+        return mPageBytes;
+    }
+
+    synchronized long getPagesReceived() {
+        return mPagesReceived;
+    }
+
+    synchronized long getMessagesCompleted() {
+        return mMessagesCompleted;
+    }
+
+    synchronized long getDuplicatesSuppressed() {
+        return mDuplicatesSuppressed;
+    }
+
+    synchronized long getMessagesExpired() {
+        return mMessagesExpired;
+    }
+
+    synchronized long getMessagesEvicted() {
+        return mMessagesEvicted;
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println(" mSmsCbAssembler: pagesReceived=" + mPagesReceived
+                + " messagesCompleted=" + mMessagesCompleted
+                + " duplicatesSuppressed=" + mDuplicatesSuppressed
+                + " messagesExpired=" + mMessagesExpired
+                + " messagesEvicted=" + mMessagesEvicted);
+        pw.println("  incomplete=" + mPages.size() + " pageBytes=" + mPageBytes
+                + " delivered=" + mDelivered.size());
+    }
+
+    /**
+     * The pages received so far of an incomplete message.
+     */
+    private static final class Pages {
+        final byte[][] mPdus;
+        int mReceived;
+        int mBytes;
+        long mUpdateTime;
+
+        Pages(int pageCount) {
+            mPdus = new byte[pageCount][];
+        }
+    }
+
+    /**
+     * Identifies a message: its location for its geographical scope, serial number (which
+     * includes the geographical scope and update number) and message identifier. An ETWS
+     * primary notification and the secondary notification that follows it with the same
+     * serial number are different messages.
+     */
+    private static final class Key {
+        final SmsCbLocation mLocation;
+        final int mSerialNumber;
+        final int mServiceCategory;
+        final boolean mEtwsPrimary;
+
+        Key(SmsCbHeader header, SmsCbLocation location) {
+            mLocation = location;
+            mSerialNumber = header.getSerialNumber();
+            mServiceCategory = header.getServiceCategory();
+            mEtwsPrimary = header.isEtwsPrimaryNotification();
+        }
+
+        @Override
+        public int hashCode() {
+            return ((mSerialNumber * 31 + mServiceCategory) * 31 + mLocation.hashCode()) * 2
+                    + (mEtwsPrimary ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return mSerialNumber == other.mSerialNumber
+                        && mServiceCategory == other.mServiceCategory
+                        && mEtwsPrimary == other.mEtwsPrimary
+                        && mLocation.equals(other.mLocation);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.imsphone;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Index from IMS call sessions to the connections that own them, used by
+ * {@link ImsPhoneCallTracker} to find the connection for an ImsCall.Listener callback without
+ * scanning its connections. Calls and connections are compared by identity.
+ *
+ * <p>The index has its own lock, held only for the map operation itself, so callback threads
+ * looking up a connection don't wait for the tracker's monitor while the tracker dials or
+ * holds a call.
+ *
+ * @param <K> the call session type
+ * @param <V> the connection type
+ */
+final class ImsCallConnectionIndex<K, V> {
+    private final Object mLock = new Object();
+    private final IdentityHashMap<K, V> mConnectionsByCall = new IdentityHashMap<K, V>();
+    private final IdentityHashMap<V, K> mCallsByConnection = new IdentityHashMap<V, K>();
+
+    /**
+     * Map a call session to a connection, replacing the call previously mapped to the
+     * connection (e.g. after a merge) and the connection previously mapped to the call.
+     * @param call the call session
+     * @param conn the connection owning the call session
+     */
+    void put(K call, V conn) {
+        synchronized (mLock) {
+            K oldCall = mCallsByConnection.put(conn, call);
+            if (oldCall != null && oldCall != call) {
+                mConnectionsByCall.remove(oldCall);
+            }
+            V oldConn = mConnectionsByCall.put(call, conn);
+            if (oldConn != null && oldConn != conn) {
+                mCallsByConnection.remove(oldConn);
+            }
+        }
+    }
+
+    /**
+     * Return the connection mapped to a call session, or null.
+     * @param call the call session
+     */
+    V get(K call) {
+        synchronized (mLock) {
+            return mConnectionsByCall.get(call);
+        }
+    }
+
+    /**
+     * Remove a connection and the call session mapped to it.
+     * @param conn the connection to remove
+     */
+    void remove(V conn) {
+        synchronized (mLock) {
+            K call = mCallsByConnection.remove(conn);
+            if (call != null) {
+                mConnectionsByCall.remove(call);
+            }
+        }
+    }
+
+    /** Return the number of indexed connections. */
+    int size() {
+        synchronized (mLock) {
+            return mCallsByConnection.size();
+        }
+    }
+}
@@ -18,7 +18,6 @@ package com.android.internal.telephony.imsphone;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.List;
 
 import android.app.PendingIntent;
@@ -53,6 +52,7 @@ import com.android.ims.ImsServiceClass;
 import com.android.ims.ImsUtInterface;
 import com.android.ims.internal.IImsVideoCallProvider;
 import com.android.ims.internal.ImsVideoCallProviderWrapper;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.Call;
 import com.android.internal.telephony.CallStateException;
 import com.android.internal.telephony.CallTracker;
@@ -142,7 +142,8 @@ public final class ImsPhoneCallTracker extends CallTracker {
     private static final int TIMEOUT_HANGUP_PENDINGMO = 500;
 
     //***** Instance Variables
-    private ArrayList<ImsPhoneConnection> mConnections = new ArrayList<ImsPhoneConnection>();
+    private final ImsCallConnectionIndex<ImsCall, ImsPhoneConnection> mConnections =
+            new ImsCallConnectionIndex<ImsCall, ImsPhoneConnection>();
     private RegistrantList mVoiceCallEndedRegistrants = new RegistrantList();
     private RegistrantList mVoiceCallStartedRegistrants = new RegistrantList();
 
@@ -404,6 +405,7 @@ public final class ImsPhoneCallTracker extends CallTracker {
             ImsCall imsCall = mImsManager.makeCall(mServiceId, profile,
                     callees, mImsCallListener);
             conn.setImsCall(imsCall);
+            addConnection(conn);
 
             IImsVideoCallProvider imsVideoCallProvider =
                     imsCall.getCallSession().getVideoCallProvider();
@@ -799,21 +801,31 @@ public final class ImsPhoneCallTracker extends CallTracker {
 
     }
 
-    private synchronized ImsPhoneConnection findConnection(ImsCall imsCall) {
-        for (ImsPhoneConnection conn : mConnections) {
-            if (conn.getImsCall() == imsCall) {
-                return conn;
-            }
+    @VisibleForTesting
+    ImsPhoneConnection findConnection(ImsCall imsCall) {
+        if (imsCall == null) {
+            return null;
         }
-        return null;
+        ImsPhoneConnection conn = mConnections.get(imsCall);
+        // a disconnected connection has released its call but may not be removed yet
+        return (conn != null && conn.getImsCall() == imsCall) ? conn : null;
     }
 
-    private synchronized void removeConnection(ImsPhoneConnection conn) {
+    @VisibleForTesting
+    void removeConnection(ImsPhoneConnection conn) {
         mConnections.remove(conn);
     }
 
-    private synchronized void addConnection(ImsPhoneConnection conn) {
-        mConnections.add(conn);
+    /**
+     * Index a connection by its ImsCall. A pending MO connection has no ImsCall until it is
+     * dialed, so this is called again once the call is made.
+     */
+    @VisibleForTesting
+    void addConnection(ImsPhoneConnection conn) {
+        ImsCall imsCall = conn.getImsCall();
+        if (imsCall != null) {
+            mConnections.put(imsCall, conn);
+        }
     }
 
     private void processCallStateChange(ImsCall imsCall, ImsPhoneCall.State state, int cause) {
@@ -904,7 +916,9 @@ public final class ImsPhoneCallTracker extends CallTracker {
     /**
      * Listen to the IMS call state change
      */
-    private ImsCall.Listener mImsCallListener = new ImsCall.Listener() {
+    /* package */
+    @VisibleForTesting
+    final ImsCall.Listener mImsCallListener = new ImsCall.Listener() {
         @Override
         public void onCallProgressing(ImsCall imsCall) {
             if (DBG) log("onCallProgressing");
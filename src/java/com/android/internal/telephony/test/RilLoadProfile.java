@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony.test;
+
+import java.util.Random;
+
+/**
+ * The load SimulatedRild puts on RIL: how often it sends unsolicited
+ * responses, and how long it takes to answer requests.
+ *
+ * Intervals are in ms, and 0 means the response isn't sent.
+ */
+public class RilLoadProfile {
+    /**
+     * How long a request takes to answer: between minMs and maxMs, or
+     * tailMs for a fraction tailFraction of requests, like a SIM that is
+     * sometimes busy.
+     */
+    public static class Latency {
+        public final int minMs;
+        public final int maxMs;
+        public final float tailFraction;
+        public final int tailMs;
+
+        public Latency(int minMs, int maxMs, float tailFraction, int tailMs) {
+            this.minMs = minMs;
+            this.maxMs = maxMs;
+            this.tailFraction = tailFraction;
+            this.tailMs = tailMs;
+        }
+
+        public Latency(int minMs, int maxMs) {
+            this(minMs, maxMs, 0, 0);
+        }
+
+        int sample(Random random) {
+            if (tailFraction > 0 && random.nextFloat() < tailFraction) {
+                return tailMs;
+            }
+            return minMs + (maxMs > minMs ? random.nextInt(maxMs - minMs + 1) : 0);
+        }
+
+        @Override
+        public String toString() {
+            return minMs + "-" + maxMs + "ms"
+                    + (tailFraction > 0 ? " (" + tailFraction + " at " + tailMs + "ms)" : "");
+        }
+    }
+
+    /** A GSM SMS-DELIVER, with the SMSC address, as sent in UNSOL_RESPONSE_NEW_SMS. */
+    public static final String DEFAULT_SMS_PDU =
+            "07914151551512f2040B916105551511f100006060605130308A04D4F29C0E";
+
+    public int signalStrengthIntervalMs;
+    public int cellInfoListIntervalMs;
+    public int dataCallListIntervalMs;
+
+    /** Every smsBurstIntervalMs, smsBurstSize new SMS are sent back to back. */
+    public int smsBurstIntervalMs;
+    public int smsBurstSize = 1;
+    public String smsPdu = DEFAULT_SMS_PDU;
+
+    public Latency simIoLatency = new Latency(0, 0);
+    public Latency defaultLatency = new Latency(0, 0);
+
+    /**
+     * The first droppedSimIoResponses SIM_IO requests are never answered,
+     * like a modem that loses them.
+     */
+    public int droppedSimIoResponses;
+
+    /** The hex data of each SIM_IO response. */
+    public String simIoResponse = "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF";
+
+    /** Seed of the latencies, so that runs can be compared. */
+    public long seed = 1;
+
+    @Override
+    public String toString() {
+        return "RilLoadProfile{signalStrength=" + signalStrengthIntervalMs
+                + " cellInfoList=" + cellInfoListIntervalMs
+                + " dataCallList=" + dataCallListIntervalMs
+                + " sms=" + smsBurstSize + "/" + smsBurstIntervalMs
+                + " simIoLatency=" + simIoLatency
+                + " droppedSimIoResponses=" + droppedSimIoResponses
+                + " defaultLatency=" + defaultLatency + "}";
+    }
+}
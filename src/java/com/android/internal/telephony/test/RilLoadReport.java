@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony.test;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+/**
+ * The throughput and latency of a run of requests against SimulatedRild,
+ * as seen by the RIL client that sent them.
+ *
+ * Call onRequest when a request is sent and onResponse when its answer is
+ * delivered, from any thread.
+ */
+public final class RilLoadReport {
+    private final String mName;
+    private final long[] mSentMs;
+    private final long[] mLatencyMs;
+    private long mStartMs = -1;
+    private long mEndMs;
+    private int mAnswered;
+
+    public RilLoadReport(String name, int requests) {
+        mName = name;
+        mSentMs = new long[requests];
+        mLatencyMs = new long[requests];
+        Arrays.fill(mLatencyMs, -1);
+    }
+
+    public synchronized void onRequest(int index) {
+        long now = SystemClock.elapsedRealtime();
+        if (mStartMs < 0) {
+            mStartMs = now;
+        }
+        mSentMs[index] = now;
+    }
+
+    public synchronized void onResponse(int index) {
+        long now = SystemClock.elapsedRealtime();
+        if (mLatencyMs[index] < 0) {
+            mAnswered++;
+        }
+        mLatencyMs[index] = now - mSentMs[index];
+        mEndMs = now;
+    }
+
+    public synchronized int getAnswered() {
+        return mAnswered;
+    }
+
+    /** Returns the answered requests per second, from the first request to the last answer. */
+    public synchronized long getThroughput() {
+        return mAnswered * 1000L / Math.max(1, mEndMs - mStartMs);
+    }
+
+    /** Returns the latency in ms that percent % of the answered requests didn't exceed. */
+    public synchronized long getLatencyPercentile(int percent) {
+        long[] latencies = getSortedLatencies();
+        if (latencies.length == 0) {
+            return 0;
+        }
+        return latencies[Math.min(latencies.length - 1, latencies.length * percent / 100)];
+    }
+
+    private long[] getSortedLatencies() {
+        long[] latencies = new long[mAnswered];
+        int n = 0;
+        for (long latency : mLatencyMs) {
+            if (latency >= 0) {
+                latencies[n++] = latency;
+            }
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mName + ": " + mAnswered + "/" + mLatencyMs.length + " requests in "
+                + Math.max(0, mEndMs - mStartMs) + " ms (" + getThroughput()
+                + "/s), latency p50 " + getLatencyPercentile(50)
+                + " ms, p90 " + getLatencyPercentile(90)
+                + " ms, p99 " + getLatencyPercentile(99)
+                + " ms, max " + getLatencyPercentile(100) + " ms";
+    }
+}
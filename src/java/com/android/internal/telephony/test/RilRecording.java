@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony.test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The messages sent each way on a rild socket, with the time each was sent,
+ * for SimulatedRild to replay.
+ *
+ * A message is the parcel of a request or response, without the length
+ * that precedes it on the socket. In the stream form each message is its
+ * time in ms, its direction, its length and its bytes, after a header.
+ */
+public final class RilRecording {
+    /** A request from RIL to rild. */
+    public static final int DIRECTION_REQUEST = 0;
+    /** A solicited or unsolicited response from rild to RIL. */
+    public static final int DIRECTION_RESPONSE = 1;
+
+    private static final int MAGIC = 0x52494c52; // "RILR"
+    private static final int VERSION = 1;
+
+    public static final class Message {
+        public final long timeMs;
+        public final int direction;
+        public final byte[] data;
+
+        Message(long timeMs, int direction, byte[] data) {
+            this.timeMs = timeMs;
+            this.direction = direction;
+            this.data = data;
+        }
+    }
+
+    private final ArrayList<Message> mMessages = new ArrayList<Message>();
+
+    public synchronized void add(long timeMs, int direction, byte[] data) {
+        mMessages.add(new Message(timeMs, direction, data));
+    }
+
+    /**
+     * @return The messages, in the order they were sent
+     */
+    public synchronized List<Message> getMessages() {
+        return new ArrayList<Message>(mMessages);
+    }
+
+    public synchronized int size() {
+        return mMessages.size();
+    }
+
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        for (Message message : mMessages) {
+            dos.writeLong(message.timeMs);
+            dos.writeByte(message.direction);
+            dos.writeInt(message.data.length);
+            dos.write(message.data);
+        }
+        dos.flush();
+    }
+
+    public static RilRecording readFrom(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(in);
+        if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+            throw new IOException("Not a RIL recording");
+        }
+        RilRecording recording = new RilRecording();
+        for (;;) {
+            long timeMs;
+            try {
+                timeMs = dis.readLong();
+            } catch (EOFException e) {
+                break;
+            }
+            int direction = dis.readByte();
+            byte[] data = new byte[dis.readInt()];
+            dis.readFully(data);
+            recording.add(timeMs, direction, data);
+        }
+        return recording;
+    }
+}
@@ -83,6 +83,8 @@ public final class SimulatedCommands extends BaseCommands
 
     int mNextCallFailCause = CallFailCause.NORMAL_CLEARING;
 
+    boolean mDataAllowed;
+
     //***** Constructor
 
     public
@@ -1041,6 +1043,20 @@ public final class SimulatedCommands extends BaseCommands
     @Override
     public void deactivateDataCall(int cid, int reason, Message result) {unimplemented(result);}
 
+    @Override
+    public void setDataAllowed(boolean allowed, Message result) {
+        Rlog.i(LOG_TAG, "[SimCmd] setDataAllowed: " + allowed);
+        mDataAllowed = allowed;
+        resultSuccess(result, null);
+    }
+
+    /**
+     * @return the last value passed to setDataAllowed
+     */
+    public boolean isDataAllowed() {
+        return mDataAllowed;
+    }
+
     @Override
     public void setPreferredNetworkType(int networkType , Message result) {
         mNetworkType = networkType;
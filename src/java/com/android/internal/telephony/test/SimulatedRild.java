@@ -0,0 +1,623 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony.test;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A stand-in for rild on a local socket in the abstract namespace, so that
+ * the real RIL, and the trackers above it, can be run against a known load.
+ *
+ * It answers the requests RIL sends on connection, calls, signal strength,
+ * data call list and SIM_IO requests, after a latency from its
+ * RilLoadProfile, and fails all other requests with REQUEST_NOT_SUPPORTED.
+ * It sends unsolicited signal strength, cell info, data call list and new
+ * SMS responses at the rates of the profile.
+ *
+ * It can also replay a RilRecording: the unsolicited responses are sent at
+ * their recorded times, and each request is answered with the recorded
+ * response to the next recorded request of the same type, after the
+ * recorded latency. Times are divided by the replay speed. A session can
+ * itself be recorded, to be replayed later.
+ *
+ * {@hide}
+ */
+public final class SimulatedRild {
+    private static final String LOG_TAG = "SimulatedRild";
+
+    // Match RIL.java
+    private static final int RESPONSE_SOLICITED = 0;
+    private static final int RESPONSE_UNSOLICITED = 1;
+    private static final int MAX_COMMAND_BYTES = 8 * 1024;
+
+    private static final int RIL_VERSION = 10;
+    private static final int DATA_CALL_LIST_VERSION = 10;
+
+    private final String mSocketName;
+    private final LocalServerSocket mServerSocket;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private Thread mAcceptThread;
+    private volatile boolean mShutdown;
+
+    private final Object mWriteLock = new Object();
+    private LocalSocket mSocket;
+    private OutputStream mOut;
+
+    private volatile RilLoadProfile mProfile = new RilLoadProfile();
+    private Random mRandom;
+    // Alternates the signal strength and data call list, so that RIL and the
+    // trackers see a change each time.
+    private int mUnsolSequence;
+
+    private RilRecording mRecording;
+    private long mRecordingStartMs;
+
+    // The recorded responses to replay, by request type, guarded by this
+    private SparseArray<ArrayDeque<ReplayResponse>> mReplayResponses =
+            new SparseArray<ArrayDeque<ReplayResponse>>();
+    // The recorded messages whose unsolicited responses to replay
+    private List<RilRecording.Message> mReplayUnsols;
+    private float mReplaySpeed;
+
+    // Counters, guarded by this
+    private final SparseIntArray mRequestCounts = new SparseIntArray();
+    private final SparseIntArray mUnsolCounts = new SparseIntArray();
+    private int mResponseCount;
+    private int mReplayedCount;
+    private long mBytesIn;
+    private long mBytesOut;
+
+    private static final class ReplayResponse {
+        final byte[] mData;
+        final long mLatencyMs;
+
+        ReplayResponse(byte[] data, long latencyMs) {
+            mData = data;
+            mLatencyMs = latencyMs;
+        }
+    }
+
+    /**
+     * @param socketName The name of the socket in the abstract namespace
+     */
+    public SimulatedRild(String socketName) throws IOException {
+        mSocketName = socketName;
+        mServerSocket = new LocalServerSocket(socketName);
+        mThread = new HandlerThread(LOG_TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    public String getSocketName() {
+        return mSocketName;
+    }
+
+    /**
+     * Sets the load, which applies from the next connection.
+     */
+    public void setLoadProfile(RilLoadProfile profile) {
+        mProfile = profile;
+    }
+
+    /**
+     * Records the messages of the next connection into a recording.
+     */
+    public synchronized void startRecording(RilRecording recording) {
+        mRecording = recording;
+    }
+
+    /**
+     * Replays a recording on the next connection.
+     *
+     * @param speed How many times faster than recorded to replay
+     */
+    public void startReplay(RilRecording recording, float speed) {
+        List<RilRecording.Message> messages = recording.getMessages();
+        SparseIntArray requestTypes = new SparseIntArray();
+        SparseArray<Long> requestTimes = new SparseArray<Long>();
+        SparseArray<ArrayDeque<ReplayResponse>> responses =
+                new SparseArray<ArrayDeque<ReplayResponse>>();
+        for (RilRecording.Message message : messages) {
+            Parcel p = unmarshall(message.data);
+            try {
+                if (message.direction == RilRecording.DIRECTION_REQUEST) {
+                    int request = p.readInt();
+                    int serial = p.readInt();
+                    requestTypes.put(serial, request);
+                    requestTimes.put(serial, message.timeMs);
+                } else if (p.readInt() == RESPONSE_SOLICITED) {
+                    int serial = p.readInt();
+                    int request = requestTypes.get(serial, -1);
+                    if (request < 0) {
+                        continue;
+                    }
+                    ArrayDeque<ReplayResponse> queue = responses.get(request);
+                    if (queue == null) {
+                        queue = new ArrayDeque<ReplayResponse>();
+                        responses.put(request, queue);
+                    }
+                    long latency = message.timeMs - requestTimes.get(serial);
+                    queue.add(new ReplayResponse(message.data, (long) (latency / speed)));
+                }
+            } finally {
+                p.recycle();
+            }
+        }
+        synchronized (this) {
+            mReplayResponses = responses;
+            mReplayUnsols = messages;
+            mReplaySpeed = speed;
+        }
+    }
+
+    private void scheduleReplayUnsols(List<RilRecording.Message> messages, float speed) {
+        // Recorded times are from the connection
+        long now = SystemClock.uptimeMillis();
+        for (RilRecording.Message message : messages) {
+            if (message.direction != RilRecording.DIRECTION_RESPONSE) {
+                continue;
+            }
+            Parcel p = unmarshall(message.data);
+            int type = p.readInt();
+            int response = p.readInt();
+            p.recycle();
+            // The connection already sent its own RIL_CONNECTED
+            if (type != RESPONSE_UNSOLICITED || response == RIL_UNSOL_RIL_CONNECTED) {
+                continue;
+            }
+            final byte[] data = message.data;
+            final int unsol = response;
+            mHandler.postAtTime(new Runnable() {
+                @Override
+                public void run() {
+                    writeUnsol(unsol, data);
+                }
+            }, now + (long) (message.timeMs / speed));
+        }
+    }
+
+    public void start() {
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mShutdown) {
+                    LocalSocket socket;
+                    try {
+                        socket = mServerSocket.accept();
+                    } catch (IOException e) {
+                        if (!mShutdown) {
+                            Rlog.e(LOG_TAG, "accept failed", e);
+                        }
+                        return;
+                    }
+                    serve(socket);
+                }
+            }
+        }, LOG_TAG + "-" + mSocketName);
+        mAcceptThread.start();
+    }
+
+    public void shutdown() {
+        mShutdown = true;
+        mHandler.removeCallbacksAndMessages(null);
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+        }
+        closeSocket();
+        mThread.quit();
+    }
+
+    private void closeSocket() {
+        synchronized (mWriteLock) {
+            if (mSocket != null) {
+                try {
+                    mSocket.shutdownInput();
+                    mSocket.close();
+                } catch (IOException e) {
+                }
+                mSocket = null;
+                mOut = null;
+            }
+        }
+    }
+
+    /**
+     * Serves one connection from RIL until it closes.
+     */
+    private void serve(LocalSocket socket) {
+        Rlog.i(LOG_TAG, "Connected on " + mSocketName + " " + mProfile);
+        RilLoadProfile profile = mProfile;
+        try {
+            synchronized (mWriteLock) {
+                mSocket = socket;
+                mOut = socket.getOutputStream();
+            }
+            final List<RilRecording.Message> replayUnsols;
+            final float replaySpeed;
+            synchronized (this) {
+                mRecordingStartMs = SystemClock.elapsedRealtime();
+                replayUnsols = mReplayUnsols;
+                replaySpeed = mReplaySpeed;
+                mReplayUnsols = null;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mRandom = new Random(mProfile.seed);
+                    mUnsolSequence = 0;
+                }
+            });
+
+            Parcel p = Parcel.obtain();
+            p.writeInt(RESPONSE_UNSOLICITED);
+            p.writeInt(RIL_UNSOL_RIL_CONNECTED);
+            p.writeInt(1);
+            p.writeInt(RIL_VERSION);
+            writeUnsol(RIL_UNSOL_RIL_CONNECTED, marshall(p));
+
+            if (replayUnsols != null) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        scheduleReplayUnsols(replayUnsols, replaySpeed);
+                    }
+                });
+            }
+            schedulePeriodic(RIL_UNSOL_SIGNAL_STRENGTH, profile.signalStrengthIntervalMs);
+            schedulePeriodic(RIL_UNSOL_CELL_INFO_LIST, profile.cellInfoListIntervalMs);
+            schedulePeriodic(RIL_UNSOL_DATA_CALL_LIST_CHANGED, profile.dataCallListIntervalMs);
+            schedulePeriodic(RIL_UNSOL_RESPONSE_NEW_SMS, profile.smsBurstIntervalMs);
+
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[MAX_COMMAND_BYTES];
+            for (;;) {
+                int length = readMessage(in, buffer);
+                if (length < 0) {
+                    break;
+                }
+                byte[] data = new byte[length];
+                System.arraycopy(buffer, 0, data, 0, length);
+                onRequest(data);
+            }
+        } catch (IOException e) {
+            if (!mShutdown) {
+                Rlog.i(LOG_TAG, "Connection on " + mSocketName + " closed", e);
+            }
+        } finally {
+            mHandler.removeCallbacksAndMessages(null);
+            closeSocket();
+            synchronized (this) {
+                mRecording = null;
+            }
+        }
+    }
+
+    /**
+     * Reads a message preceded by its length in 4 bytes, big endian.
+     *
+     * @return The length, or -1 at the end of the stream
+     */
+    private static int readMessage(InputStream in, byte[] buffer) throws IOException {
+        if (!readFully(in, buffer, 4)) {
+            return -1;
+        }
+        int length = ((buffer[0] & 0xff) << 24) | ((buffer[1] & 0xff) << 16)
+                | ((buffer[2] & 0xff) << 8) | (buffer[3] & 0xff);
+        if (length > buffer.length) {
+            throw new IOException("Message of " + length + " bytes");
+        }
+        if (!readFully(in, buffer, length)) {
+            return -1;
+        }
+        return length;
+    }
+
+    private static boolean readFully(InputStream in, byte[] buffer, int length)
+            throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int count = in.read(buffer, offset, length - offset);
+            if (count < 0) {
+                return false;
+            }
+            offset += count;
+        }
+        return true;
+    }
+
+    private void onRequest(byte[] data) {
+        Parcel p = unmarshall(data);
+        final int request = p.readInt();
+        final int serial = p.readInt();
+        p.recycle();
+
+        ReplayResponse replay = null;
+        boolean dropped;
+        synchronized (this) {
+            record(RilRecording.DIRECTION_REQUEST, data);
+            mRequestCounts.put(request, mRequestCounts.get(request) + 1);
+            mBytesIn += data.length;
+            ArrayDeque<ReplayResponse> queue = mReplayResponses.get(request);
+            if (queue != null) {
+                replay = queue.poll();
+            }
+            dropped = request == RIL_REQUEST_SIM_IO
+                    && mRequestCounts.get(request) <= mProfile.droppedSimIoResponses;
+        }
+
+        if (dropped) {
+            return;
+        } else if (replay != null) {
+            final byte[] recorded = replay.mData;
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    // Answer with the recorded response, to the live serial number
+                    Parcel response = unmarshall(recorded);
+                    response.setDataPosition(4);
+                    response.writeInt(serial);
+                    writeResponse(marshall(response), true);
+                }
+            }, replay.mLatencyMs);
+        } else {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    RilLoadProfile profile = mProfile;
+                    RilLoadProfile.Latency latency = request == RIL_REQUEST_SIM_IO
+                            ? profile.simIoLatency : profile.defaultLatency;
+                    final byte[] response = buildResponse(request, serial, profile);
+                    mHandler.postDelayed(new Runnable() {
+                        @Override
+                        public void run() {
+                            writeResponse(response, false);
+                        }
+                    }, latency.sample(mRandom));
+                }
+            });
+        }
+    }
+
+    /**
+     * Builds a valid response to a request, or REQUEST_NOT_SUPPORTED.
+     */
+    private byte[] buildResponse(int request, int serial, RilLoadProfile profile) {
+        Parcel p = Parcel.obtain();
+        p.writeInt(RESPONSE_SOLICITED);
+        p.writeInt(serial);
+        switch (request) {
+            case RIL_REQUEST_RADIO_POWER:
+            case RIL_REQUEST_SET_PREFERRED_NETWORK_TYPE:
+            case RIL_REQUEST_CDMA_SET_SUBSCRIPTION_SOURCE:
+            case RIL_REQUEST_SET_UNSOL_CELL_INFO_LIST_RATE:
+            case RIL_REQUEST_SCREEN_STATE:
+                p.writeInt(SUCCESS);
+                break;
+            case RIL_REQUEST_GET_CURRENT_CALLS:
+                p.writeInt(SUCCESS);
+                p.writeInt(0);
+                break;
+            case RIL_REQUEST_SIGNAL_STRENGTH:
+                p.writeInt(SUCCESS);
+                writeSignalStrength(p);
+                break;
+            case RIL_REQUEST_DATA_CALL_LIST:
+                p.writeInt(SUCCESS);
+                writeDataCallList(p);
+                break;
+            case RIL_REQUEST_SIM_IO:
+                p.writeInt(SUCCESS);
+                p.writeInt(0x90);
+                p.writeInt(0);
+                p.writeString(profile.simIoResponse);
+                break;
+            default:
+                p.writeInt(REQUEST_NOT_SUPPORTED);
+                break;
+        }
+        return marshall(p);
+    }
+
+    private void writeSignalStrength(Parcel p) {
+        // GSM signal strength and bit error rate, then CDMA, EVDO and LTE,
+        // which are unknown.
+        p.writeInt(10 + mUnsolSequence % 16);
+        p.writeInt(99);
+        for (int i = 0; i < 5; i++) {
+            p.writeInt(-1);
+        }
+        p.writeInt(99);
+        for (int i = 0; i < 4; i++) {
+            p.writeInt(Integer.MAX_VALUE);
+        }
+    }
+
+    private void writeDataCallList(Parcel p) {
+        p.writeInt(DATA_CALL_LIST_VERSION);
+        // Alternate between one active call and none
+        if (mUnsolSequence % 2 == 0) {
+            p.writeInt(0);
+            return;
+        }
+        p.writeInt(1);
+        p.writeInt(0);              // status
+        p.writeInt(-1);             // suggested retry time
+        p.writeInt(1);              // cid
+        p.writeInt(2);              // active, link up
+        p.writeString("IP");
+        p.writeString("rmnet0");
+        p.writeString("10.0.0.2/24");
+        p.writeString("10.0.0.1");  // dnses
+        p.writeString("10.0.0.1");  // gateways
+        p.writeString("");          // pcscf
+    }
+
+    private void schedulePeriodic(final int unsol, final int intervalMs) {
+        if (intervalMs <= 0) {
+            return;
+        }
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                sendUnsol(unsol);
+                mHandler.postDelayed(this, intervalMs);
+            }
+        }, intervalMs);
+    }
+
+    private void sendUnsol(int unsol) {
+        RilLoadProfile profile = mProfile;
+        int count = unsol == RIL_UNSOL_RESPONSE_NEW_SMS ? profile.smsBurstSize : 1;
+        for (int i = 0; i < count; i++) {
+            mUnsolSequence++;
+            Parcel p = Parcel.obtain();
+            p.writeInt(RESPONSE_UNSOLICITED);
+            p.writeInt(unsol);
+            switch (unsol) {
+                case RIL_UNSOL_SIGNAL_STRENGTH:
+                    writeSignalStrength(p);
+                    break;
+                case RIL_UNSOL_CELL_INFO_LIST:
+                    p.writeInt(0);
+                    break;
+                case RIL_UNSOL_DATA_CALL_LIST_CHANGED:
+                    writeDataCallList(p);
+                    break;
+                case RIL_UNSOL_RESPONSE_NEW_SMS:
+                    p.writeString(profile.smsPdu);
+                    break;
+            }
+            writeUnsol(unsol, marshall(p));
+        }
+    }
+
+    private void writeUnsol(int unsol, byte[] data) {
+        if (write(data)) {
+            synchronized (this) {
+                mUnsolCounts.put(unsol, mUnsolCounts.get(unsol) + 1);
+            }
+        }
+    }
+
+    private void writeResponse(byte[] data, boolean replayed) {
+        if (write(data)) {
+            synchronized (this) {
+                mResponseCount++;
+                if (replayed) {
+                    mReplayedCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a message preceded by its length in 4 bytes, big endian.
+     *
+     * @return true if it was written
+     */
+    private boolean write(byte[] data) {
+        synchronized (mWriteLock) {
+            if (mOut == null) {
+                return false;
+            }
+            try {
+                byte[] length = {
+                    (byte) (data.length >> 24), (byte) (data.length >> 16),
+                    (byte) (data.length >> 8), (byte) data.length
+                };
+                mOut.write(length);
+                mOut.write(data);
+            } catch (IOException e) {
+                Rlog.e(LOG_TAG, "write failed", e);
+                return false;
+            }
+        }
+        synchronized (this) {
+            record(RilRecording.DIRECTION_RESPONSE, data);
+            mBytesOut += data.length;
+        }
+        return true;
+    }
+
+    private void record(int direction, byte[] data) {
+        if (mRecording != null) {
+            mRecording.add(SystemClock.elapsedRealtime() - mRecordingStartMs, direction, data);
+        }
+    }
+
+    private static Parcel unmarshall(byte[] data) {
+        Parcel p = Parcel.obtain();
+        p.unmarshall(data, 0, data.length);
+        p.setDataPosition(0);
+        return p;
+    }
+
+    private static byte[] marshall(Parcel p) {
+        byte[] data = p.marshall();
+        p.recycle();
+        return data;
+    }
+
+    public synchronized int getRequestCount(int request) {
+        return mRequestCounts.get(request);
+    }
+
+    public synchronized int getUnsolCount(int unsol) {
+        return mUnsolCounts.get(unsol);
+    }
+
+    public synchronized int getResponseCount() {
+        return mResponseCount;
+    }
+
+    public synchronized int getReplayedCount() {
+        return mReplayedCount;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("SimulatedRild " + mSocketName + ": " + mProfile);
+        pw.println(" responses=" + mResponseCount + " replayed=" + mReplayedCount
+                + " bytesIn=" + mBytesIn + " bytesOut=" + mBytesOut);
+        for (int i = 0; i < mRequestCounts.size(); i++) {
+            pw.println("  request " + mRequestCounts.keyAt(i) + ": " + mRequestCounts.valueAt(i));
+        }
+        for (int i = 0; i < mUnsolCounts.size(); i++) {
+            pw.println("  unsol " + mUnsolCounts.keyAt(i) + ": " + mUnsolCounts.valueAt(i));
+        }
+    }
+}
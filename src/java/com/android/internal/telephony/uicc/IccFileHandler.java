@@ -104,6 +104,8 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         boolean mLoadAll;
 
         Message mOnLoaded;
+        // When loading all records, a copy is sent for each record instead of collecting them
+        Message mOnRecordLoaded;
 
         ArrayList<byte[]> results;
 
@@ -136,6 +138,15 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
     //***** Public Methods
 
+    /**
+     * @return the ICCID of the card the files are read from, or null if it
+     * isn't known yet
+     */
+    public String getIccId() {
+        IccRecords ir = (mParentApp != null) ? mParentApp.getIccRecords() : null;
+        return (ir != null) ? ir.getIccId() : null;
+    }
+
     /**
      * Load a record from a SIM Linear Fixed EF
      *
@@ -209,6 +220,30 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                         0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid, response);
     }
 
+    /**
+     * Load all records from a SIM Linear Fixed EF, handing each to the caller
+     * as it's read instead of collecting them
+     *
+     * @param fileid EF id
+     * @param onRecordLoaded a copy is sent for each record, with arg1 the
+     *        1-based record number and arg2 the number of records
+     *
+     * ((AsyncResult)(copy.obj)).result is the byte[]
+     *
+     * @param onLoaded sent after the last record, or on failure
+     *
+     * ((AsyncResult)(onLoaded.obj)).result is the number of records, an Integer
+     *
+     */
+    public void loadEFLinearFixedEach(int fileid, Message onRecordLoaded, Message onLoaded) {
+        LoadLinearFixedContext lc = new LoadLinearFixedContext(fileid, onLoaded);
+        lc.mOnRecordLoaded = onRecordLoaded;
+        Message response = obtainMessage(EVENT_GET_RECORD_SIZE_DONE, lc);
+
+        mCi.iccIOForApp(COMMAND_GET_RESPONSE, fileid, getEFPath(fileid),
+                        0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid, response);
+    }
+
     /**
      * Load a SIM Transparent EF
      *
@@ -405,7 +440,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
                 lc.mCountRecords = size / lc.mRecordSize;
 
-                 if (lc.mLoadAll) {
+                 if (lc.mLoadAll && lc.mOnRecordLoaded == null) {
                      lc.results = new ArrayList<byte[]>(lc.mCountRecords);
                  }
 
@@ -460,12 +495,23 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 if (!lc.mLoadAll) {
                     sendResult(response, result.payload, null);
                 } else {
-                    lc.results.add(result.payload);
+                    if (lc.mOnRecordLoaded != null) {
+                        Message record = Message.obtain(lc.mOnRecordLoaded);
+                        record.arg1 = lc.mRecordNum;
+                        record.arg2 = lc.mCountRecords;
+                        sendResult(record, result.payload, null);
+                    } else {
+                        lc.results.add(result.payload);
+                    }
 
                     lc.mRecordNum++;
 
                     if (lc.mRecordNum > lc.mCountRecords) {
-                        sendResult(response, lc.results, null);
+                        if (lc.mOnRecordLoaded != null) {
+                            sendResult(response, lc.mCountRecords, null);
+                        } else {
+                            sendResult(response, lc.results, null);
+                        }
                     } else {
                         mCi.iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, getEFPath(lc.mEfid),
                                     lc.mRecordNum,
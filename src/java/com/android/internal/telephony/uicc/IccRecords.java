@@ -22,6 +22,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.Registrant;
 import android.os.RegistrantList;
+import android.os.SystemClock;
 
 import com.android.internal.telephony.CommandsInterface;
 import com.android.internal.telephony.uicc.IccCardApplicationStatus.AppState;
@@ -44,6 +45,7 @@ public abstract class IccRecords extends Handler implements IccConstants {
     protected UiccCardApplication mParentApp;
 
     protected RegistrantList mRecordsLoadedRegistrants = new RegistrantList();
+    protected RegistrantList mEssentialRecordsLoadedRegistrants = new RegistrantList();
     protected RegistrantList mImsiReadyRegistrants = new RegistrantList();
     protected RegistrantList mRecordsEventsRegistrants = new RegistrantList();
     protected RegistrantList mNewSmsRegistrants = new RegistrantList();
@@ -57,6 +59,16 @@ public abstract class IccRecords extends Handler implements IccConstants {
 
     protected boolean mRecordsRequested = false; // true if we've made requests for the sim records
 
+    // Records are loaded in two phases: the essential records, which data
+    // setup and the SPN display need, then the rest. The second phase is
+    // requested when the first ends, so that it doesn't delay it.
+    protected boolean mLoadingEssentialRecords = false;
+    protected boolean mEssentialRecordsLoaded = false;
+    // elapsedRealtime when records were requested, and when each phase ended
+    protected long mRecordsRequestedTime;
+    protected long mEssentialRecordsLoadedTime;
+    protected long mAllRecordsLoadedTime;
+
     protected String mIccId;
     protected String mMsisdn = null;  // My mobile number
     protected String mMsisdnTag = null;
@@ -192,6 +204,26 @@ public abstract class IccRecords extends Handler implements IccConstants {
         mRecordsLoadedRegistrants.remove(h);
     }
 
+    /**
+     * Notifies when the essential records, such as the IMSI, MNC length and
+     * SPN, are loaded, before the rest of the records.
+     */
+    public void registerForEssentialRecordsLoaded(Handler h, int what, Object obj) {
+        if (mDestroyed.get()) {
+            return;
+        }
+
+        Registrant r = new Registrant(h, what, obj);
+        mEssentialRecordsLoadedRegistrants.add(r);
+
+        if (getEssentialRecordsLoaded()) {
+            r.notifyRegistrant(new AsyncResult(null, null, null));
+        }
+    }
+    public void unregisterForEssentialRecordsLoaded(Handler h) {
+        mEssentialRecordsLoadedRegistrants.remove(h);
+    }
+
     public void registerForImsiReady(Handler h, int what, Object obj) {
         if (mDestroyed.get()) {
             return;
@@ -426,6 +458,10 @@ public abstract class IccRecords extends Handler implements IccConstants {
         }
     }
 
+    public boolean getEssentialRecordsLoaded() {
+        return mEssentialRecordsLoaded || getRecordsLoaded();
+    }
+
     //***** Overridden from Handler
     @Override
     public void handleMessage(Message msg) {
@@ -481,6 +517,76 @@ public abstract class IccRecords extends Handler implements IccConstants {
 
     protected abstract void onAllRecordsLoaded();
 
+    /**
+     * Starts the essential phase of loading. Subclasses request the essential
+     * records after calling this.
+     */
+    protected void startLoadingEssentialRecords() {
+        mRecordsRequested = true;
+        mLoadingEssentialRecords = true;
+        mEssentialRecordsLoaded = false;
+        mRecordsRequestedTime = SystemClock.elapsedRealtime();
+        mEssentialRecordsLoadedTime = 0;
+        mAllRecordsLoadedTime = 0;
+    }
+
+    /**
+     * Called by subclasses when no more requested records are pending. Ends
+     * the essential phase if it was running, and requests the rest of the
+     * records; otherwise all records are loaded.
+     */
+    protected void onPendingRecordsLoaded() {
+        if (mLoadingEssentialRecords) {
+            mLoadingEssentialRecords = false;
+            mEssentialRecordsLoaded = true;
+            mEssentialRecordsLoadedTime = SystemClock.elapsedRealtime();
+            if (DBG) {
+                log("essential records loaded in "
+                        + (mEssentialRecordsLoadedTime - mRecordsRequestedTime) + " ms");
+            }
+            onEssentialRecordsLoaded();
+            // Request the rest first, so that the registrants don't see a
+            // fully loaded card.
+            fetchBackgroundRecords();
+            mEssentialRecordsLoadedRegistrants.notifyRegistrants(
+                    new AsyncResult(null, null, null));
+            if (mRecordsToLoad > 0) {
+                return;
+            }
+        }
+        if (mEssentialRecordsLoaded) {
+            mAllRecordsLoadedTime = SystemClock.elapsedRealtime();
+            if (DBG) {
+                log("background records loaded in "
+                        + (mAllRecordsLoadedTime - mEssentialRecordsLoadedTime) + " ms, all in "
+                        + (mAllRecordsLoadedTime - mRecordsRequestedTime) + " ms");
+            }
+        }
+        onAllRecordsLoaded();
+    }
+
+    /**
+     * Called when the essential records are loaded, before the registrants
+     * are notified.
+     */
+    protected void onEssentialRecordsLoaded() {
+    }
+
+    /**
+     * Requests the records that aren't essential, counting them in
+     * {@link #mRecordsToLoad}.
+     */
+    protected void fetchBackgroundRecords() {
+    }
+
+    /**
+     * Forgets the phases of the last load, when its requests are no longer valid.
+     */
+    protected void resetRecordsPhases() {
+        mLoadingEssentialRecords = false;
+        mEssentialRecordsLoaded = false;
+    }
+
     /**
      * Returns the SpnDisplayRule based on settings on the SIM and the
      * specified plmn (currently-registered PLMN).  See TS 22.101 Annex A
@@ -649,6 +755,16 @@ public abstract class IccRecords extends Handler implements IccConstants {
         }
         pw.println(" mRecordsRequested=" + mRecordsRequested);
         pw.println(" mRecordsToLoad=" + mRecordsToLoad);
+        pw.println(" mLoadingEssentialRecords=" + mLoadingEssentialRecords);
+        pw.println(" mEssentialRecordsLoaded=" + mEssentialRecordsLoaded);
+        if (mEssentialRecordsLoadedTime != 0) {
+            pw.println(" essential records loaded in "
+                    + (mEssentialRecordsLoadedTime - mRecordsRequestedTime) + " ms");
+        }
+        if (mAllRecordsLoadedTime != 0) {
+            pw.println(" background records loaded in "
+                    + (mAllRecordsLoadedTime - mEssentialRecordsLoadedTime) + " ms");
+        }
         pw.println(" mRdnCache=" + mAdnCache);
         pw.println(" iccid=" + mIccId);
         pw.println(" mMsisdn=" + mMsisdn);
@@ -159,8 +159,9 @@ public final class IsimUiccRecords extends IccRecords implements IsimRecords {
     }
 
     protected void fetchIsimRecords() {
-        mRecordsRequested = true;
+        startLoadingEssentialRecords();
 
+        // The essential records are the identities IMS registers with
         mFh.loadEFTransparent(EF_IMPI, obtainMessage(
                 IccRecords.EVENT_GET_ICC_RECORD_DONE, new EfIsimImpiLoaded()));
         mRecordsToLoad++;
@@ -172,6 +173,12 @@ public final class IsimUiccRecords extends IccRecords implements IsimRecords {
         mFh.loadEFTransparent(EF_DOMAIN, obtainMessage(
                 IccRecords.EVENT_GET_ICC_RECORD_DONE, new EfIsimDomainLoaded()));
         mRecordsToLoad++;
+
+        if (DBG) log("fetchIsimRecords " + mRecordsToLoad + " requested: " + mRecordsRequested);
+    }
+
+    @Override
+    protected void fetchBackgroundRecords() {
         mFh.loadEFTransparent(EF_IST, obtainMessage(
                     IccRecords.EVENT_GET_ICC_RECORD_DONE, new EfIsimIstLoaded()));
         mRecordsToLoad++;
@@ -179,7 +186,7 @@ public final class IsimUiccRecords extends IccRecords implements IsimRecords {
                     IccRecords.EVENT_GET_ICC_RECORD_DONE, new EfIsimPcscfLoaded()));
         mRecordsToLoad++;
 
-        if (DBG) log("fetchIsimRecords " + mRecordsToLoad + " requested: " + mRecordsRequested);
+        if (DBG) log("fetchBackgroundRecords " + mRecordsToLoad);
     }
 
     protected void resetRecords() {
@@ -194,6 +201,7 @@ public final class IsimUiccRecords extends IccRecords implements IsimRecords {
         auth_rsp = null;
 
         mRecordsRequested = false;
+        resetRecordsPhases();
     }
 
     private class EfIsimImpiLoaded implements IccRecords.IccRecordLoaded {
@@ -288,7 +296,7 @@ public final class IsimUiccRecords extends IccRecords implements IsimRecords {
         if (DBG) log("onRecordLoaded " + mRecordsToLoad + " requested: " + mRecordsRequested);
 
         if (mRecordsToLoad == 0 && mRecordsRequested == true) {
-            onAllRecordsLoaded();
+            onPendingRecordsLoaded();
         } else if (mRecordsToLoad < 0) {
             loge("recordsToLoad <0, programmer error suspected");
             mRecordsToLoad = 0;
@@ -151,6 +151,7 @@ public final class RuimRecords extends IccRecords {
         // read requests made so far are not valid. This is set to
         // true only when fresh set of read requests are made.
         mRecordsRequested = false;
+        resetRecordsPhases();
     }
 
     @Override
@@ -666,7 +667,7 @@ public final class RuimRecords extends IccRecords {
         if (DBG) log("onRecordLoaded " + mRecordsToLoad + " requested: " + mRecordsRequested);
 
         if (mRecordsToLoad == 0 && mRecordsRequested == true) {
-            onAllRecordsLoaded();
+            onPendingRecordsLoaded();
         } else if (mRecordsToLoad < 0) {
             loge("recordsToLoad <0, programmer error suspected");
             mRecordsToLoad = 0;
@@ -714,10 +715,13 @@ public final class RuimRecords extends IccRecords {
 
 
     private void fetchRuimRecords() {
-        mRecordsRequested = true;
+        startLoadingEssentialRecords();
 
         if (DBG) log("fetchRuimRecords " + mRecordsToLoad);
 
+        // The essential records: the IMSI, ICCID, SPN and MIN. The rest are
+        // requested when these are loaded.
+
         mCi.getIMSIForApp(mParentApp.getAid(), obtainMessage(EVENT_GET_IMSI_DONE));
         mRecordsToLoad++;
 
@@ -725,6 +729,21 @@ public final class RuimRecords extends IccRecords {
                 obtainMessage(EVENT_GET_ICCID_DONE));
         mRecordsToLoad++;
 
+        mFh.loadEFTransparent(EF_CSIM_SPN,
+                obtainMessage(EVENT_GET_ICC_RECORD_DONE, new EfCsimSpnLoaded()));
+        mRecordsToLoad++;
+
+        mFh.loadEFTransparent(EF_CSIM_IMSIM,
+                obtainMessage(EVENT_GET_ICC_RECORD_DONE, new EfCsimImsimLoaded()));
+        mRecordsToLoad++;
+
+        if (DBG) log("fetchRuimRecords " + mRecordsToLoad + " requested: " + mRecordsRequested);
+    }
+
+    @Override
+    protected void fetchBackgroundRecords() {
+        if (DBG) log("fetchBackgroundRecords " + mRecordsToLoad);
+
         mFh.loadEFTransparent(EF_PL,
                 obtainMessage(EVENT_GET_ICC_RECORD_DONE, new EfPlLoaded()));
         mRecordsToLoad++;
@@ -733,18 +752,10 @@ public final class RuimRecords extends IccRecords {
                 obtainMessage(EVENT_GET_ICC_RECORD_DONE, new EfCsimLiLoaded()));
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_CSIM_SPN,
-                obtainMessage(EVENT_GET_ICC_RECORD_DONE, new EfCsimSpnLoaded()));
-        mRecordsToLoad++;
-
         mFh.loadEFLinearFixed(EF_CSIM_MDN, 1,
                 obtainMessage(EVENT_GET_ICC_RECORD_DONE, new EfCsimMdnLoaded()));
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_CSIM_IMSIM,
-                obtainMessage(EVENT_GET_ICC_RECORD_DONE, new EfCsimImsimLoaded()));
-        mRecordsToLoad++;
-
         mFh.loadEFLinearFixedAll(EF_CSIM_CDMAHOME,
                 obtainMessage(EVENT_GET_ICC_RECORD_DONE, new EfCsimCdmaHomeLoaded()));
         mRecordsToLoad++;
@@ -755,7 +766,7 @@ public final class RuimRecords extends IccRecords {
                 obtainMessage(EVENT_GET_ICC_RECORD_DONE, new EfCsimEprlLoaded()));
         mRecordsToLoad++;
 
-        if (DBG) log("fetchRuimRecords " + mRecordsToLoad + " requested: " + mRecordsRequested);
+        if (DBG) log("fetchBackgroundRecords " + mRecordsToLoad);
         // Further records that can be inserted are Operator/OEM dependent
     }
 
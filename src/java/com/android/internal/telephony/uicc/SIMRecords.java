@@ -260,6 +260,7 @@ public class SIMRecords extends IccRecords {
         // read requests made so far are not valid. This is set to
         // true only when fresh set of read requests are made.
         mRecordsRequested = false;
+        resetRecordsPhases();
     }
 
 
@@ -1432,7 +1433,7 @@ public class SIMRecords extends IccRecords {
         if (DBG) log("onRecordLoaded " + mRecordsToLoad + " requested: " + mRecordsRequested);
 
         if (mRecordsToLoad == 0 && mRecordsRequested == true) {
-            onAllRecordsLoaded();
+            onPendingRecordsLoaded();
         } else if (mRecordsToLoad < 0) {
             loge("recordsToLoad <0, programmer error suspected");
             mRecordsToLoad = 0;
@@ -1455,31 +1456,48 @@ public class SIMRecords extends IccRecords {
 
         // Some fields require more than one SIM record to set
 
+        String operator = setOperatorProperties();
+
+        setVoiceMailByCountry(operator);
+        setSpnFromConfig(operator);
+
+        mRecordsLoadedRegistrants.notifyRegistrants(
+            new AsyncResult(null, null, null));
+    }
+
+    @Override
+    protected void onEssentialRecordsLoaded() {
+        // Data setup and the SPN display can use these before the rest is loaded
+        setSpnFromConfig(setOperatorProperties());
+    }
+
+    /**
+     * Sets the operator numeric and country properties from the IMSI and
+     * MNC length.
+     *
+     * @return The operator numeric, or null if it isn't known
+     */
+    private String setOperatorProperties() {
         String operator = getOperatorNumeric();
         if (!TextUtils.isEmpty(operator)) {
-            log("onAllRecordsLoaded set 'gsm.sim.operator.numeric' to operator='" +
+            log("setOperatorProperties set 'gsm.sim.operator.numeric' to operator='" +
                     operator + "'");
             log("update icc_operator_numeric=" + operator);
             setSystemProperty(PROPERTY_ICC_OPERATOR_NUMERIC, operator);
             final SubscriptionController subController = SubscriptionController.getInstance();
             subController.setMccMnc(operator, subController.getDefaultSmsSubId());
         } else {
-            log("onAllRecordsLoaded empty 'gsm.sim.operator.numeric' skipping");
+            log("setOperatorProperties empty 'gsm.sim.operator.numeric' skipping");
         }
 
         if (!TextUtils.isEmpty(mImsi)) {
-            log("onAllRecordsLoaded set mcc imsi=" + mImsi);
+            log("setOperatorProperties set mcc imsi=" + mImsi);
             setSystemProperty(PROPERTY_ICC_OPERATOR_ISO_COUNTRY,
                     MccTable.countryCodeForMcc(Integer.parseInt(mImsi.substring(0,3))));
         } else {
-            log("onAllRecordsLoaded empty imsi skipping setting mcc");
+            log("setOperatorProperties empty imsi skipping setting mcc");
         }
-
-        setVoiceMailByCountry(operator);
-        setSpnFromConfig(operator);
-
-        mRecordsLoadedRegistrants.notifyRegistrants(
-            new AsyncResult(null, null, null));
+        return operator;
     }
 
     //***** Private methods
@@ -1524,16 +1542,55 @@ public class SIMRecords extends IccRecords {
     }
 
     protected void fetchSimRecords() {
-        mRecordsRequested = true;
+        startLoadingEssentialRecords();
 
         if (DBG) log("fetchSimRecords " + mRecordsToLoad);
 
+        // The essential records: the IMSI and MNC length for the operator
+        // numeric, the ICCID, the SPN, and GID1, which DcTracker matches
+        // MVNO APNs against along with the IMSI and SPN. The rest are
+        // requested when these are loaded, so that they don't wait behind
+        // them in RIL.
+
         mCi.getIMSIForApp(mParentApp.getAid(), obtainMessage(EVENT_GET_IMSI_DONE));
         mRecordsToLoad++;
 
         mFh.loadEFTransparent(EF_ICCID, obtainMessage(EVENT_GET_ICCID_DONE));
         mRecordsToLoad++;
 
+        mFh.loadEFTransparent(EF_AD, obtainMessage(EVENT_GET_AD_DONE));
+        mRecordsToLoad++;
+
+        getSpnFsm(true, null);
+
+        mFh.loadEFTransparent(EF_GID1, obtainMessage(EVENT_GET_GID1_DONE));
+        mRecordsToLoad++;
+
+        // XXX should seek instead of examining them all
+        if (false) { // XXX
+            mFh.loadEFLinearFixedAll(EF_SMS, obtainMessage(EVENT_GET_ALL_SMS_DONE));
+            mRecordsToLoad++;
+        }
+
+        if (CRASH_RIL) {
+            String sms = "0107912160130310f20404d0110041007030208054832b0120"
+                         + "fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff"
+                         + "fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff"
+                         + "fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff"
+                         + "fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff"
+                         + "ffffffffffffffffffffffffffffff";
+            byte[] ba = IccUtils.hexStringToBytes(sms);
+
+            mFh.updateEFLinearFixed(EF_SMS, 1, ba, null,
+                            obtainMessage(EVENT_MARK_SMS_READ_DONE, 1));
+        }
+        if (DBG) log("fetchSimRecords " + mRecordsToLoad + " requested: " + mRecordsRequested);
+    }
+
+    @Override
+    protected void fetchBackgroundRecords() {
+        if (DBG) log("fetchBackgroundRecords " + mRecordsToLoad);
+
         // FIXME should examine EF[MSISDN]'s capability configuration
         // to determine which is the voice/data/fax line
         new AdnRecordLoader(mFh).loadFromEF(EF_MSISDN, EF_EXT1, 1,
@@ -1544,9 +1601,6 @@ public class SIMRecords extends IccRecords {
         mFh.loadEFLinearFixed(EF_MBI, 1, obtainMessage(EVENT_GET_MBI_DONE));
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_AD, obtainMessage(EVENT_GET_AD_DONE));
-        mRecordsToLoad++;
-
         // Record number is subscriber profile
         mFh.loadEFLinearFixed(EF_MWIS, 1, obtainMessage(EVENT_GET_MWIS_DONE));
         mRecordsToLoad++;
@@ -1568,9 +1622,6 @@ public class SIMRecords extends IccRecords {
         mFh.loadEFTransparent(EF_CFF_CPHS, obtainMessage(EVENT_GET_CFF_DONE));
         mRecordsToLoad++;
 
-
-        getSpnFsm(true, null);
-
         mFh.loadEFTransparent(EF_SPDI, obtainMessage(EVENT_GET_SPDI_DONE));
         mRecordsToLoad++;
 
@@ -1586,30 +1637,9 @@ public class SIMRecords extends IccRecords {
         mFh.loadEFTransparent(EF_CSP_CPHS,obtainMessage(EVENT_GET_CSP_CPHS_DONE));
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_GID1, obtainMessage(EVENT_GET_GID1_DONE));
-        mRecordsToLoad++;
-
         loadEfLiAndEfPl();
 
-        // XXX should seek instead of examining them all
-        if (false) { // XXX
-            mFh.loadEFLinearFixedAll(EF_SMS, obtainMessage(EVENT_GET_ALL_SMS_DONE));
-            mRecordsToLoad++;
-        }
-
-        if (CRASH_RIL) {
-            String sms = "0107912160130310f20404d0110041007030208054832b0120"
-                         + "fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff"
-                         + "fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff"
-                         + "fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff"
-                         + "fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff"
-                         + "ffffffffffffffffffffffffffffff";
-            byte[] ba = IccUtils.hexStringToBytes(sms);
-
-            mFh.updateEFLinearFixed(EF_SMS, 1, ba, null,
-                            obtainMessage(EVENT_MARK_SMS_READ_DONE, 1));
-        }
-        if (DBG) log("fetchSimRecords " + mRecordsToLoad + " requested: " + mRecordsRequested);
+        if (DBG) log("fetchBackgroundRecords " + mRecordsToLoad);
     }
 
     /**
@@ -29,29 +29,57 @@ import android.os.Environment;
 import android.telephony.Rlog;
 import android.util.Xml;
 
+import com.android.internal.telephony.OperatorMetadata;
 import com.android.internal.util.XmlUtils;
 
+/**
+ * The SPNs to show for operators, from the operator metadata store when it has them, or else
+ * from spn-conf.xml, which is parsed once per process.
+ */
 public class SpnOverride {
-    private HashMap<String, String> mCarrierSpnMap;
+    private final OperatorMetadata mMetadata;
+    private final HashMap<String, String> mCarrierSpnMap;
 
+    // spn-conf.xml, guarded by SpnOverride.class
+    private static HashMap<String, String> sCarrierSpnMap;
 
     static final String LOG_TAG = "SpnOverride";
     static final String PARTNER_SPN_OVERRIDE_PATH ="etc/spn-conf.xml";
 
     public SpnOverride () {
-        mCarrierSpnMap = new HashMap<String, String>();
-        loadSpnOverrides();
+        OperatorMetadata metadata = OperatorMetadata.getInstance();
+        if (metadata != null && metadata.hasSpnOverrides()) {
+            mMetadata = metadata;
+            mCarrierSpnMap = null;
+        } else {
+            mMetadata = null;
+            mCarrierSpnMap = getCarrierSpnMap();
+        }
+    }
+
+    private static synchronized HashMap<String, String> getCarrierSpnMap() {
+        if (sCarrierSpnMap == null) {
+            sCarrierSpnMap = new HashMap<String, String>();
+            loadSpnOverrides(sCarrierSpnMap);
+        }
+        return sCarrierSpnMap;
     }
 
     public boolean containsCarrier(String carrier) {
+        if (mMetadata != null) {
+            return mMetadata.hasSpnOverride(carrier);
+        }
         return mCarrierSpnMap.containsKey(carrier);
     }
 
     public String getSpn(String carrier) {
+        if (mMetadata != null) {
+            return mMetadata.getSpnOverride(carrier);
+        }
         return mCarrierSpnMap.get(carrier);
     }
 
-    private void loadSpnOverrides() {
+    private static void loadSpnOverrides(HashMap<String, String> carrierSpnMap) {
         FileReader spnReader;
 
         final File spnFile = new File(Environment.getRootDirectory(),
@@ -82,7 +110,7 @@ public class SpnOverride {
                 String numeric = parser.getAttributeValue(null, "numeric");
                 String data    = parser.getAttributeValue(null, "spn");
 
-                mCarrierSpnMap.put(numeric, data);
+                carrierSpnMap.put(numeric, data);
             }
             spnReader.close();
         } catch (XmlPullParserException e) {
@@ -41,8 +41,10 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -95,13 +97,16 @@ public class UiccCarrierPrivilegeRules extends Handler {
      *       DB
      */
     // Values from the data standard.
-    private static final String TAG_ALL_REF_AR_DO = "FF40";
-    private static final String TAG_REF_AR_DO = "E2";
-    private static final String TAG_REF_DO = "E1";
-    private static final String TAG_DEVICE_APP_ID_REF_DO = "C1";
-    private static final String TAG_PKG_REF_DO = "CA";
-    private static final String TAG_AR_DO = "E3";
-    private static final String TAG_PERM_AR_DO = "DB";
+    private static final int TAG_ALL_REF_AR_DO = 0xFF40;
+    private static final int TAG_REF_AR_DO = 0xE2;
+    private static final int TAG_REF_DO = 0xE1;
+    private static final int TAG_DEVICE_APP_ID_REF_DO = 0xC1;
+    private static final int TAG_PKG_REF_DO = 0xCA;
+    private static final int TAG_AR_DO = 0xE3;
+    private static final int TAG_PERM_AR_DO = 0xDB;
+
+    // The most packages and signatures whose privilege status is remembered.
+    private static final int MAX_CACHED_DECISIONS = 256;
 
     private static final int EVENT_OPEN_LOGICAL_CHANNEL_DONE = 1;
     private static final int EVENT_TRANSMIT_LOGICAL_CHANNEL_DONE = 2;
@@ -113,7 +118,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
     private static final int STATE_ERROR    = 2;
 
     // Describes a single rule.
-    private static class AccessRule {
+    static class AccessRule {
         public byte[] certificateHash;
         public String packageName;
         public long accessType;   // This bit is not currently used, but reserved for future use.
@@ -131,54 +136,116 @@ public class UiccCarrierPrivilegeRules extends Handler {
 
         @Override
         public String toString() {
-            return "cert: " + certificateHash + " pkg: " + packageName +
-                " access: " + accessType;
+            return "cert: " + IccUtils.bytesToHexString(certificateHash) + " pkg: " +
+                packageName + " access: " + accessType;
+        }
+    }
+
+    // The privilege status of a package, valid while the package is signed with the same
+    // signatures and the rules are unchanged.
+    private static class CachedDecision {
+        final Signature[] signatures;
+        final int rulesVersion;
+        final int status;
+
+        CachedDecision(Signature[] signatures, int rulesVersion, int status) {
+            this.signatures = signatures;
+            this.rulesVersion = rulesVersion;
+            this.status = status;
         }
     }
 
-    // Used for parsing the data from the UICC.
+    // A map that drops its least recently used entry beyond MAX_CACHED_DECISIONS entries.
+    private static class LruCache<K, V> extends LinkedHashMap<K, V> {
+        LruCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > MAX_CACHED_DECISIONS;
+        }
+    }
+
+    // Used for parsing the data from the UICC. The value is left in the input and located by
+    // valueStart and valueEnd.
     private static class TLV {
-        private String tag;
-        private Integer length;
-        private String value;
+        private final int tag;
+        private int valueStart;
+        private int valueEnd;
 
-        public TLV(String tag) {
+        public TLV(int tag) {
             this.tag = tag;
         }
 
-        public String parse(String data, boolean shouldConsumeAll) {
-            Rlog.d(LOG_TAG, "Parse TLV: " + tag);
-            if (!data.startsWith(tag)) {
+        /*
+         * Parses the TLV starting at offset, which must end by end.
+         * Returns the offset following the TLV.
+         */
+        public int parse(byte[] data, int offset, int end, boolean shouldConsumeAll) {
+            if (!hasTag(data, offset, end, tag)) {
                 throw new IllegalArgumentException("Tags don't match.");
             }
-            int index = tag.length();
-            if (index + 2 > data.length()) {
+            int index = offset + tagLength(tag);
+            if (index >= end) {
                 throw new IllegalArgumentException("No length.");
             }
-            length = new Integer(2 * Integer.parseInt(
-                    data.substring(index, index + 2), 16));
-            index += 2;
+            // BER length: one byte up to 127, otherwise 0x81 or 0x82 and then the length.
+            int length = data[index++] & 0xFF;
+            if (length > 0x7F) {
+                int lengthBytes = length & 0x7F;
+                if (lengthBytes < 1 || lengthBytes > 2 || index + lengthBytes > end) {
+                    throw new IllegalArgumentException("Invalid length.");
+                }
+                length = 0;
+                for (int i = 0; i < lengthBytes; i++) {
+                    length = (length << 8) | (data[index++] & 0xFF);
+                }
+            }
 
-            int remainingLength = data.length() - (index + length);
+            int remainingLength = end - (index + length);
             if (remainingLength < 0) {
                 throw new IllegalArgumentException("Not enough data.");
             }
             if (shouldConsumeAll && (remainingLength != 0)) {
                 throw new IllegalArgumentException("Did not consume all.");
             }
-            value = data.substring(index, index + length);
+            valueStart = index;
+            valueEnd = index + length;
+            return valueEnd;
+        }
 
-            Rlog.d(LOG_TAG, "Got TLV: " + tag + "," + length + "," + value);
+        private static int tagLength(int tag) {
+            return tag > 0xFF ? 2 : 1;
+        }
 
-            return data.substring(index + length);
+        /*
+         * Returns true if the data at offset starts with the tag.
+         */
+        static boolean hasTag(byte[] data, int offset, int end, int tag) {
+            if (tag > 0xFF) {
+                return offset + 2 <= end && (data[offset] & 0xFF) == (tag >> 8)
+                        && (data[offset + 1] & 0xFF) == (tag & 0xFF);
+            }
+            return offset < end && (data[offset] & 0xFF) == tag;
         }
     }
 
     private UiccCard mUiccCard;  // Parent
     private AtomicInteger mState;
     private List<AccessRule> mAccessRules;
+    // mAccessRules by the hex string of their certificate hash
+    private Map<String, List<AccessRule>> mAccessRulesByCertHash;
     private Message mLoadedCallback;
 
+    // Incremented when the rules are loaded, to discard decisions made with older rules.
+    private volatile int mRulesVersion;
+    // Package name to privilege status, guarded by itself.
+    private final LruCache<String, CachedDecision> mDecisionCache =
+            new LruCache<String, CachedDecision>();
+    // Signature to the hex string of its certificate hash, guarded by itself.
+    private final LruCache<Signature, String> mCertHashCache = new LruCache<Signature, String>();
+
     public UiccCarrierPrivilegeRules(UiccCard uiccCard, Message loadedCallback) {
         Rlog.d(LOG_TAG, "Creating UiccCarrierPrivilegeRules");
         mUiccCard = uiccCard;
@@ -215,17 +282,15 @@ public class UiccCarrierPrivilegeRules extends Handler {
             return TelephonyManager.CARRIER_PRIVILEGE_STATUS_ERROR_LOADING_RULES;
         }
 
-        byte[] certHash = getCertHash(signature);
+        String certHash = getCachedCertHash(signature);
         if (certHash == null) {
           return TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS;
         }
-        Rlog.e(LOG_TAG, "Checking: " + IccUtils.bytesToHexString(certHash) + " : " + packageName);
+        Rlog.d(LOG_TAG, "Checking: " + certHash + " : " + packageName);
 
-        for (AccessRule ar : mAccessRules) {
-            if (ar.matches(certHash, packageName)) {
-                Rlog.d(LOG_TAG, "Match found!");
-                return TelephonyManager.CARRIER_PRIVILEGE_STATUS_HAS_ACCESS;
-            }
+        if (findMatchingRule(mAccessRulesByCertHash, certHash, packageName) != null) {
+            Rlog.d(LOG_TAG, "Match found!");
+            return TelephonyManager.CARRIER_PRIVILEGE_STATUS_HAS_ACCESS;
         }
 
         Rlog.d(LOG_TAG, "No matching rule found. Returning false.");
@@ -244,12 +309,36 @@ public class UiccCarrierPrivilegeRules extends Handler {
             PackageInfo pInfo = packageManager.getPackageInfo(packageName,
                 PackageManager.GET_SIGNATURES);
             Signature[] signatures = pInfo.signatures;
+
+            // The decision only changes if the package is reinstalled with other signatures
+            // or the rules are reloaded.
+            int rulesVersion = mRulesVersion;
+            CachedDecision decision;
+            synchronized (mDecisionCache) {
+                decision = mDecisionCache.get(pInfo.packageName);
+            }
+            if (decision != null && decision.rulesVersion == rulesVersion
+                    && Arrays.equals(decision.signatures, signatures)) {
+                return decision.status;
+            }
+
+            int status = TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS;
             for (Signature sig : signatures) {
                 int accessStatus = getCarrierPrivilegeStatus(sig, pInfo.packageName);
                 if (accessStatus != TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS) {
-                    return accessStatus;
+                    status = accessStatus;
+                    break;
+                }
+            }
+            // Only decisions made with loaded rules are final.
+            if (status == TelephonyManager.CARRIER_PRIVILEGE_STATUS_HAS_ACCESS
+                    || status == TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS) {
+                synchronized (mDecisionCache) {
+                    mDecisionCache.put(pInfo.packageName,
+                            new CachedDecision(signatures, rulesVersion, status));
                 }
             }
+            return status;
         } catch (PackageManager.NameNotFoundException ex) {
             Rlog.e(LOG_TAG, "NameNotFoundException", ex);
         }
@@ -335,7 +424,9 @@ public class UiccCarrierPrivilegeRules extends Handler {
                   IccIoResult response = (IccIoResult) ar.result;
                   if (response.payload != null && response.sw1 == 0x90 && response.sw2 == 0x00) {
                       try {
-                          mAccessRules = parseRules(IccUtils.bytesToHexString(response.payload));
+                          mAccessRules = parseRules(response.payload);
+                          mAccessRulesByCertHash = indexRules(mAccessRules);
+                          mRulesVersion++;
                           updateState(STATE_LOADED);
                       } catch (IllegalArgumentException ex) {
                           Rlog.e(LOG_TAG, "Error parsing rules: " + ex);
@@ -366,91 +457,146 @@ public class UiccCarrierPrivilegeRules extends Handler {
     }
 
     /*
-     * Parses the rules from the input string.
+     * Parses the rules from the response of the UICC.
      */
-    private static List<AccessRule> parseRules(String rules) {
-        rules = rules.toUpperCase(Locale.US);
-        Rlog.d(LOG_TAG, "Got rules: " + rules);
+    static List<AccessRule> parseRules(byte[] rules) {
+        Rlog.d(LOG_TAG, "Got rules: " + IccUtils.bytesToHexString(rules));
 
         TLV allRefArDo = new TLV(TAG_ALL_REF_AR_DO); //FF40
-        allRefArDo.parse(rules, true);
+        allRefArDo.parse(rules, 0, rules.length, true);
 
-        String arDos = allRefArDo.value;
+        int offset = allRefArDo.valueStart;
+        int end = allRefArDo.valueEnd;
         List<AccessRule> accessRules = new ArrayList<AccessRule>();
-        while (!arDos.isEmpty()) {
+        while (offset < end) {
             TLV refArDo = new TLV(TAG_REF_AR_DO); //E2
-            arDos = refArDo.parse(arDos, false);
-            AccessRule accessRule = parseRefArdo(refArDo.value);
+            offset = refArDo.parse(rules, offset, end, false);
+            AccessRule accessRule = parseRefArdo(rules, refArDo.valueStart, refArDo.valueEnd);
             if (accessRule != null) {
                 accessRules.add(accessRule);
             } else {
-              Rlog.e(LOG_TAG, "Skip unrecognized rule." + refArDo.value);
+              Rlog.e(LOG_TAG, "Skip unrecognized rule." + IccUtils.bytesToHexString(
+                      Arrays.copyOfRange(rules, refArDo.valueStart, refArDo.valueEnd)));
             }
         }
         return accessRules;
     }
 
     /*
-     * Parses a single rule.
+     * Parses a single rule from rule[offset, end).
      */
-    private static AccessRule parseRefArdo(String rule) {
-        Rlog.d(LOG_TAG, "Got rule: " + rule);
-
-        String certificateHash = null;
+    private static AccessRule parseRefArdo(byte[] rule, int offset, int end) {
+        byte[] certificateHash = null;
         String packageName = null;
-        String tmp = null;
         long accessType = 0;
 
-        while (!rule.isEmpty()) {
-            if (rule.startsWith(TAG_REF_DO)) {
+        while (offset < end) {
+            if (TLV.hasTag(rule, offset, end, TAG_REF_DO)) {
                 TLV refDo = new TLV(TAG_REF_DO); //E1
-                rule = refDo.parse(rule, false);
+                offset = refDo.parse(rule, offset, end, false);
 
                 // Skip unrelated rules.
-                if (!refDo.value.startsWith(TAG_DEVICE_APP_ID_REF_DO)) {
+                if (!TLV.hasTag(rule, refDo.valueStart, refDo.valueEnd,
+                        TAG_DEVICE_APP_ID_REF_DO)) {
                     return null;
                 }
 
                 TLV deviceDo = new TLV(TAG_DEVICE_APP_ID_REF_DO); //C1
-                tmp = deviceDo.parse(refDo.value, false);
-                certificateHash = deviceDo.value;
+                int tmp = deviceDo.parse(rule, refDo.valueStart, refDo.valueEnd, false);
+                certificateHash = Arrays.copyOfRange(rule, deviceDo.valueStart,
+                        deviceDo.valueEnd);
 
-                if (!tmp.isEmpty()) {
-                  if (!tmp.startsWith(TAG_PKG_REF_DO)) {
+                if (tmp < refDo.valueEnd) {
+                  if (!TLV.hasTag(rule, tmp, refDo.valueEnd, TAG_PKG_REF_DO)) {
                       return null;
                   }
                   TLV pkgDo = new TLV(TAG_PKG_REF_DO); //CA
-                  pkgDo.parse(tmp, true);
-                  packageName = new String(IccUtils.hexStringToBytes(pkgDo.value));
+                  pkgDo.parse(rule, tmp, refDo.valueEnd, true);
+                  packageName = new String(rule, pkgDo.valueStart,
+                          pkgDo.valueEnd - pkgDo.valueStart);
                 } else {
                   packageName = null;
                 }
-            } else if (rule.startsWith(TAG_AR_DO)) {
+            } else if (TLV.hasTag(rule, offset, end, TAG_AR_DO)) {
                 TLV arDo = new TLV(TAG_AR_DO); //E3
-                rule = arDo.parse(rule, false);
+                offset = arDo.parse(rule, offset, end, false);
 
                 // Skip unrelated rules.
-                if (!arDo.value.startsWith(TAG_PERM_AR_DO)) {
+                if (!TLV.hasTag(rule, arDo.valueStart, arDo.valueEnd, TAG_PERM_AR_DO)) {
                     return null;
                 }
 
                 TLV permDo = new TLV(TAG_PERM_AR_DO); //DB
-                permDo.parse(arDo.value, true);
-                Rlog.e(LOG_TAG, permDo.value);
+                permDo.parse(rule, arDo.valueStart, arDo.valueEnd, true);
             } else  {
                 // Spec requires it must be either TAG_REF_DO or TAG_AR_DO.
                 throw new RuntimeException("Invalid Rule type");
             }
         }
 
-        Rlog.e(LOG_TAG, "Adding: " + certificateHash + " : " + packageName + " : " + accessType);
-
-        AccessRule accessRule = new AccessRule(IccUtils.hexStringToBytes(certificateHash),
-            packageName, accessType);
-        Rlog.e(LOG_TAG, "Parsed rule: " + accessRule);
+        AccessRule accessRule = new AccessRule(certificateHash, packageName, accessType);
+        Rlog.d(LOG_TAG, "Parsed rule: " + accessRule);
         return accessRule;
     }
 
+    /*
+     * Groups the rules by the hex string of their certificate hash.
+     */
+    static Map<String, List<AccessRule>> indexRules(List<AccessRule> accessRules) {
+        Map<String, List<AccessRule>> index = new HashMap<String, List<AccessRule>>();
+        for (AccessRule ar : accessRules) {
+            if (ar.certificateHash == null) {
+                continue;
+            }
+            String key = IccUtils.bytesToHexString(ar.certificateHash);
+            List<AccessRule> rules = index.get(key);
+            if (rules == null) {
+                rules = new ArrayList<AccessRule>(1);
+                index.put(key, rules);
+            }
+            rules.add(ar);
+        }
+        return index;
+    }
+
+    /*
+     * Returns the first rule for the certificate hash that allows the package, or null.
+     */
+    static AccessRule findMatchingRule(Map<String, List<AccessRule>> index, String certHash,
+            String packageName) {
+        List<AccessRule> rules = index.get(certHash);
+        if (rules != null) {
+            for (AccessRule ar : rules) {
+                if (ar.packageName == null || ar.packageName.equals(packageName)) {
+                    return ar;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Returns the hex string of the certificate hash of a Signature, computed once per
+     * signature.
+     */
+    private String getCachedCertHash(Signature signature) {
+        String certHash;
+        synchronized (mCertHashCache) {
+            certHash = mCertHashCache.get(signature);
+        }
+        if (certHash == null) {
+            byte[] hash = getCertHash(signature);
+            if (hash == null) {
+                return null;
+            }
+            certHash = IccUtils.bytesToHexString(hash);
+            synchronized (mCertHashCache) {
+                mCertHashCache.put(signature, certHash);
+            }
+        }
+        return certHash;
+    }
+
     /*
      * Converts a Signature into a Certificate hash usable for comparison.
      */
@@ -0,0 +1,32 @@
+# Copyright (C) 2015 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Benchmarks of the telephony codecs and loaders that run on the host JVM,
+# against shims of the few framework classes they use. The telephony sources
+# they cover are listed in sources.list. Run with
+#   java -jar $ANDROID_HOST_OUT/framework/telephony-hostbench.jar
+# or, without a platform build, with run-hostbench.sh.
+
+LOCAL_PATH := $(call my-dir)
+
+include $(CLEAR_VARS)
+
+LOCAL_SRC_FILES := $(call all-java-files-under, shims src) \
+	$(addprefix ../../src/java/, $(shell cat $(LOCAL_PATH)/sources.list))
+
+LOCAL_JAR_MANIFEST := manifest.txt
+LOCAL_MODULE_TAGS := optional
+LOCAL_MODULE := telephony-hostbench
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,32 @@
+#!/bin/bash
+#
+# Copyright (C) 2015 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Builds the host benchmarks with the JDK on the path and runs them. Arguments
+# are passed to HostBenchmark, for example:
+#   run-hostbench.sh > baseline.txt
+#   run-hostbench.sh --baseline baseline.txt
+
+set -e
+
+dir=$(cd "$(dirname "$0")" && pwd)
+src=$dir/../../src/java
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+
+javac -source 1.7 -target 1.7 -nowarn -encoding UTF-8 -d "$out" \
+    $(find "$dir/shims" "$dir/src" -name '*.java') \
+    $(sed -e "s|^|$src/|" "$dir/sources.list")
+java -cp "$out" com.android.internal.telephony.bench.HostBenchmark "$@"
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.content.res;
+
+import com.android.internal.R;
+
+/**
+ * Host shim of android.content.res.Resources, answering the framework
+ * config values the benchmarked code reads with their defaults.
+ */
+public class Resources {
+    private static final Resources sSystem = new Resources();
+
+    public static Resources getSystem() {
+        return sSystem;
+    }
+
+    public boolean getBoolean(int id) {
+        switch (id) {
+            case R.bool.config_mms_content_disposition_support:
+                return true;
+            default:
+                throw new NotFoundException("Resource ID #0x" + Integer.toHexString(id));
+        }
+    }
+
+    public static class NotFoundException extends RuntimeException {
+        public NotFoundException(String name) {
+            super(name);
+        }
+    }
+}
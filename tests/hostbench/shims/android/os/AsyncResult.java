@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.os;
+
+/**
+ * Host shim of android.os.AsyncResult.
+ */
+public class AsyncResult {
+    public Object userObj;
+    public Throwable exception;
+    public Object result;
+
+    public static AsyncResult forMessage(Message m, Object r, Throwable ex) {
+        AsyncResult ret = new AsyncResult(m.obj, r, ex);
+        m.obj = ret;
+        return ret;
+    }
+
+    public AsyncResult(Object uo, Object r, Throwable ex) {
+        userObj = uo;
+        result = r;
+        exception = ex;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.os;
+
+import java.util.ArrayDeque;
+
+/**
+ * Host shim of android.os.Looper: a queue of messages that loop() dispatches
+ * on the calling thread until quit() is called or the queue is empty. Unlike
+ * the platform's, the looper can loop again after quit(), so that a benchmark
+ * can reuse its thread for each rep.
+ */
+public final class Looper {
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<Looper>();
+
+    private final ArrayDeque<Message> mQueue = new ArrayDeque<Message>();
+    private boolean mQuitting;
+
+    private Looper() {
+    }
+
+    public static void prepare() {
+        if (sThreadLocal.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        sThreadLocal.set(new Looper());
+    }
+
+    public static Looper myLooper() {
+        return sThreadLocal.get();
+    }
+
+    public static void loop() {
+        Looper me = myLooper();
+        if (me == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+        me.mQuitting = false;
+        Message msg;
+        while (!me.mQuitting && (msg = me.mQueue.poll()) != null) {
+            msg.target.dispatchMessage(msg);
+        }
+    }
+
+    /** Discards the pending messages and makes loop() return. */
+    public void quit() {
+        mQuitting = true;
+        mQueue.clear();
+    }
+
+    void enqueue(Message msg) {
+        mQueue.add(msg);
+    }
+}
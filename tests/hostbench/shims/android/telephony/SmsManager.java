@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.telephony;
+
+/**
+ * Host shim of android.telephony.SmsManager, with the status of a message on
+ * the ICC.
+ */
+public final class SmsManager {
+    public static final int STATUS_ON_ICC_FREE = 0;
+    public static final int STATUS_ON_ICC_READ = 1;
+    public static final int STATUS_ON_ICC_UNREAD = 3;
+    public static final int STATUS_ON_ICC_SENT = 5;
+    public static final int STATUS_ON_ICC_UNSENT = 7;
+
+    private SmsManager() {
+    }
+}
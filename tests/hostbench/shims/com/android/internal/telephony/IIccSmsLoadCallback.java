@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import android.os.RemoteException;
+
+import java.util.List;
+
+/**
+ * Host shim of the interface generated from IIccSmsLoadCallback.aidl, without
+ * the binder.
+ */
+public interface IIccSmsLoadCallback {
+    void onMessages(int[] indexes, List<SmsRawData> messages) throws RemoteException;
+
+    void onComplete(boolean success, int numRecords) throws RemoteException;
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony.uicc;
+
+import android.os.Message;
+
+/**
+ * Host shim of com.android.internal.telephony.uicc.IccFileHandler, with the
+ * linear fixed EF operations the SMS loaders use. There is no ICC, so
+ * benchmarks override them to answer from memory.
+ */
+public class IccFileHandler {
+    public void loadEFLinearFixedAll(int fileid, Message onLoaded) {
+        throw new UnsupportedOperationException("No ICC on the host");
+    }
+
+    public void loadEFLinearFixedEach(int fileid, Message onRecordLoaded, Message onLoaded) {
+        throw new UnsupportedOperationException("No ICC on the host");
+    }
+
+    public void updateEFLinearFixed(int fileid, int recordNum, byte[] data,
+            String pin2, Message onComplete) {
+        throw new UnsupportedOperationException("No ICC on the host");
+    }
+}
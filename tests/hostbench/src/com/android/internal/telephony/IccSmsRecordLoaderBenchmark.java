@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import static android.telephony.SmsManager.STATUS_ON_ICC_FREE;
+import static android.telephony.SmsManager.STATUS_ON_ICC_READ;
+import static android.telephony.SmsManager.STATUS_ON_ICC_UNREAD;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import com.android.internal.telephony.uicc.IccConstants;
+import com.android.internal.telephony.uicc.IccFileHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads a nearly full EF_SMS with IccSmsRecordLoader, to the first page and to the last, and
+ * with the whole-file read IccSmsInterfaceManager used before, where the caller gets no
+ * message until every record has been read.
+ *
+ * Each record is read on the looper after the previous one, as IccFileHandler does over RIL,
+ * and is decoded from the hex string rild answers SIM_IO with.
+ */
+public class IccSmsRecordLoaderBenchmark {
+    private static final int RECORDS = 250;
+    private static final int MESSAGES = 200;
+    private static final int RECORD_LENGTH = 176;
+
+    private static final int EVENT_READ_RECORD = 1;
+    private static final int EVENT_LOAD_DONE = 2;
+
+    private String[] mRecords;
+    private Looper mLooper;
+    private FakeFileHandler mFh;
+    private int mSink;
+
+    /**
+     * Reads the records one after another from memory, as rild answers SIM_IO.
+     */
+    private final class FakeFileHandler extends IccFileHandler {
+        private final Handler mReader;
+
+        FakeFileHandler(Looper looper) {
+            mReader = new Handler(looper) {
+                @Override
+                public void handleMessage(Message msg) {
+                    readRecord(msg.arg1, (Load) msg.obj);
+                }
+            };
+        }
+
+        @Override
+        public void loadEFLinearFixedAll(int fileid, Message onLoaded) {
+            Load load = new Load(null, onLoaded);
+            load.mResults = new ArrayList<byte[]>(RECORDS);
+            mReader.obtainMessage(EVENT_READ_RECORD, 1, 0, load).sendToTarget();
+        }
+
+        @Override
+        public void loadEFLinearFixedEach(int fileid, Message onRecordLoaded, Message onLoaded) {
+            mReader.obtainMessage(EVENT_READ_RECORD, 1, 0, new Load(onRecordLoaded, onLoaded))
+                    .sendToTarget();
+        }
+
+        @Override
+        public void updateEFLinearFixed(int fileid, int recordNum, byte[] data,
+                String pin2, Message onComplete) {
+            if (onComplete != null) {
+                AsyncResult.forMessage(onComplete, null, null);
+                onComplete.sendToTarget();
+            }
+        }
+
+        private void readRecord(int recordNum, Load load) {
+            byte[] record = hexStringToBytes(mRecords[recordNum - 1]);
+            if (load.mOnRecordLoaded != null) {
+                Message copy = Message.obtain(load.mOnRecordLoaded);
+                copy.arg1 = recordNum;
+                copy.arg2 = RECORDS;
+                AsyncResult.forMessage(copy, record, null);
+                copy.sendToTarget();
+            } else {
+                load.mResults.add(record);
+            }
+
+            if (recordNum < RECORDS) {
+                mReader.obtainMessage(EVENT_READ_RECORD, recordNum + 1, 0, load).sendToTarget();
+            } else {
+                Object result = load.mOnRecordLoaded != null ? RECORDS : load.mResults;
+                AsyncResult.forMessage(load.mOnLoaded, result, null);
+                load.mOnLoaded.sendToTarget();
+            }
+        }
+    }
+
+    private static final class Load {
+        final Message mOnRecordLoaded;
+        final Message mOnLoaded;
+        ArrayList<byte[]> mResults;
+
+        Load(Message onRecordLoaded, Message onLoaded) {
+            mOnRecordLoaded = onRecordLoaded;
+            mOnLoaded = onLoaded;
+        }
+    }
+
+    /**
+     * Quits the looper after the first page. Otherwise the loop ends once every record has
+     * been read and the unread messages marked as read.
+     */
+    private final class PageCallback implements IIccSmsLoadCallback {
+        private final boolean mFirstPageOnly;
+
+        PageCallback(boolean firstPageOnly) {
+            mFirstPageOnly = firstPageOnly;
+        }
+
+        @Override
+        public void onMessages(int[] indexes, List<SmsRawData> messages) {
+            mSink += messages.size();
+            if (mFirstPageOnly) {
+                mLooper.quit();
+            }
+        }
+
+        @Override
+        public void onComplete(boolean success, int numRecords) {
+        }
+    }
+
+    public void setUp() {
+        Looper.prepare();
+        mLooper = Looper.myLooper();
+        mFh = new FakeFileHandler(mLooper);
+
+        mRecords = new String[RECORDS];
+        StringBuilder sb = new StringBuilder(RECORD_LENGTH * 2);
+        for (int i = 0; i < RECORDS; i++) {
+            sb.setLength(0);
+            int status;
+            if (i >= MESSAGES) {
+                status = STATUS_ON_ICC_FREE;
+            } else {
+                status = i % 4 == 0 ? STATUS_ON_ICC_UNREAD : STATUS_ON_ICC_READ;
+            }
+            sb.append(String.format("%02X", status));
+            for (int j = 1; j < RECORD_LENGTH; j++) {
+                int b = status == STATUS_ON_ICC_FREE ? 0xff : (i * 31 + j * 7) & 0xff;
+                sb.append(String.format("%02X", b));
+            }
+            mRecords[i] = sb.toString();
+        }
+    }
+
+    private static byte[] hexStringToBytes(String s) {
+        byte[] bytes = new byte[s.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(s.charAt(i * 2), 16) << 4)
+                    | Character.digit(s.charAt(i * 2 + 1), 16));
+        }
+        return bytes;
+    }
+
+    public void timeFirstPage(int reps) {
+        for (int i = 0; i < reps; i++) {
+            new IccSmsRecordLoader(mLooper, mFh, RECORD_LENGTH, 0,
+                    new PageCallback(true)).start();
+            Looper.loop();
+        }
+    }
+
+    public void timeAllPages(int reps) {
+        for (int i = 0; i < reps; i++) {
+            new IccSmsRecordLoader(mLooper, mFh, RECORD_LENGTH, 0,
+                    new PageCallback(false)).start();
+            Looper.loop();
+        }
+    }
+
+    /**
+     * The first message as IccSmsInterfaceManager handed it over before IccSmsRecordLoader:
+     * after reading the whole file, building a list with a null for each free record and
+     * marking the unread messages as read.
+     */
+    public void timeWholeFile(int reps) {
+        Handler handler = new Handler(mLooper) {
+            @Override
+            public void handleMessage(Message msg) {
+                @SuppressWarnings("unchecked")
+                ArrayList<byte[]> records = (ArrayList<byte[]>) ((AsyncResult) msg.obj).result;
+                ArrayList<SmsRawData> messages = new ArrayList<SmsRawData>(records.size());
+                for (int i = 0; i < records.size(); i++) {
+                    byte[] record = records.get(i);
+                    if (record[0] == STATUS_ON_ICC_FREE) {
+                        messages.add(null);
+                    } else {
+                        messages.add(new SmsRawData(record));
+                    }
+                }
+                for (int i = 0; i < records.size(); i++) {
+                    byte[] record = records.get(i);
+                    if (record[0] == STATUS_ON_ICC_UNREAD) {
+                        byte[] read = record.clone();
+                        read[0] = STATUS_ON_ICC_READ;
+                        mFh.updateEFLinearFixed(IccConstants.EF_SMS, i + 1, read, null, null);
+                    }
+                }
+                mSink += messages.size();
+                mLooper.quit();
+            }
+        };
+        for (int i = 0; i < reps; i++) {
+            mFh.loadEFLinearFixedAll(IccConstants.EF_SMS, handler.obtainMessage(EVENT_LOAD_DONE));
+            Looper.loop();
+        }
+    }
+}
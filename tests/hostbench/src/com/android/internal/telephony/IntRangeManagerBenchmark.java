@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+/**
+ * Enables and disables overlapping cell broadcast ranges for several clients, as the
+ * cell broadcast receiver and carrier apps do, with the updates sent to a manager that
+ * only counts them.
+ */
+public class IntRangeManagerBenchmark {
+    private static final int CLIENTS = 4;
+    private static final int RANGES_PER_CLIENT = 16;
+    private static final int DISCRETE_CHANNELS = 256;
+
+    private int mSink;
+
+    private final class CountingIntRangeManager extends IntRangeManager {
+        @Override
+        protected void startUpdate() {
+        }
+
+        @Override
+        protected void addRange(int startId, int endId, boolean selected) {
+            mSink += endId - startId;
+        }
+
+        @Override
+        protected boolean finishUpdate() {
+            return true;
+        }
+    }
+
+    private static int start(int client, int range) {
+        // the ranges of different clients overlap, leaving a gap between each group
+        return 4352 + range * 64 + client * 7;
+    }
+
+    public void timeEnableDisableRanges(int reps) {
+        for (int i = 0; i < reps; i++) {
+            IntRangeManager manager = new CountingIntRangeManager();
+            for (int client = 0; client < CLIENTS; client++) {
+                for (int range = 0; range < RANGES_PER_CLIENT; range++) {
+                    int start = start(client, range);
+                    manager.enableRange(start, start + 30, "client" + client);
+                }
+            }
+            for (int client = 0; client < CLIENTS; client++) {
+                for (int range = 0; range < RANGES_PER_CLIENT; range++) {
+                    int start = start(client, range);
+                    manager.disableRange(start, start + 30, "client" + client);
+                }
+            }
+        }
+    }
+
+    /**
+     * A carrier app enabling many single channels that don't coalesce, then disabling them.
+     */
+    public void timeEnableDisableDiscreteChannels(int reps) {
+        for (int i = 0; i < reps; i++) {
+            IntRangeManager manager = new CountingIntRangeManager();
+            for (int channel = 0; channel < DISCRETE_CHANNELS; channel++) {
+                int id = 4352 + channel * 2;
+                manager.enableRange(id, id, "carrier");
+            }
+            for (int channel = 0; channel < DISCRETE_CHANNELS; channel++) {
+                int id = 4352 + channel * 2;
+                manager.disableRange(id, id, "carrier");
+            }
+        }
+    }
+
+    /**
+     * Many overlapping channels of one client that coalesce into a single range, disabled
+     * from the middle out so that the range is split and joined again.
+     */
+    public void timeEnableDisableOverlappingChannels(int reps) {
+        for (int i = 0; i < reps; i++) {
+            IntRangeManager manager = new CountingIntRangeManager();
+            for (int channel = 0; channel < DISCRETE_CHANNELS; channel++) {
+                manager.enableRange(4352 + channel, 4352 + channel + 8, "carrier");
+            }
+            for (int channel = 0; channel < DISCRETE_CHANNELS; channel++) {
+                int start = 4352 + (channel * 97) % DISCRETE_CHANNELS;
+                manager.disableRange(start, start + 8, "carrier");
+            }
+        }
+    }
+
+    public void timeUpdateRanges(int reps) {
+        IntRangeManager manager = new CountingIntRangeManager();
+        for (int client = 0; client < CLIENTS; client++) {
+            for (int range = 0; range < RANGES_PER_CLIENT; range++) {
+                int start = start(client, range);
+                manager.enableRange(start, start + 30, "client" + client);
+            }
+        }
+        for (int i = 0; i < reps; i++) {
+            manager.updateRanges();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+/**
+ * Decodes the WSP headers of a WAP push the way WapPushOverSms does: the header
+ * length, the content type and the X-Wap-Application-Id. The routing benchmarks
+ * decode MMS notification, SUPL INIT and OMA-DM pushes, with and without building
+ * the content type parameters, as WapPushOverSms does for each push it dispatches.
+ */
+public class WspTypeDecoderBenchmark {
+    // Header length, a content type with a charset parameter, X-Wap-Initiator-URI
+    // and X-Wap-Application-Id.
+    private static final byte[] WAP_PUSH = {
+        0x01, 0x06,                                             // transaction id, PDU type
+        0x28,                                                   // header length
+        0x1F, 0x1A,                                             // content type value length
+        'a', 'p', 'p', 'l', 'i', 'c', 'a', 't', 'i', 'o', 'n', '/', 'v', 'n', 'd', '.',
+        'w', 'a', 'p', '.', 's', 'i', 'c', 0,
+        (byte) 0x81, (byte) 0xEA,                               // charset utf-8
+        (byte) 0xB7, 'h', 't', 't', 'p', ':', '/', '/', 'i', 0, // X-Wap-Initiator-URI
+        (byte) 0xAF, (byte) 0x84,                               // X-Wap-Application-Id
+        0x02, 0x05, 0x6A, 0x00,                                 // body
+    };
+
+    private static final byte[][] ROUTED_PUSHES = {
+        // M-Notification.ind: application/vnd.wap.mms-message, app id 4
+        { 0x01, 0x06, 0x03, (byte) 0xBE, (byte) 0xAF, (byte) 0x84, (byte) 0x8C,
+          (byte) 0x82, (byte) 0x98, 0x31, 0x32, 0x33, 0x34, 0x00 },
+        // SUPL INIT: application/vnd.omaloc-supl-init (0x0312), app id 16
+        { 0x01, 0x06, 0x06, 0x03, 0x02, 0x03, 0x12, (byte) 0xAF, (byte) 0x90,
+          0x00, 0x01, 0x02, 0x03, 0x04, 0x05 },
+        // OMA-DM: application/vnd.syncml.notification; charset=utf-8, app id 7
+        { 0x01, 0x06, 0x06, 0x03, (byte) 0xC4, (byte) 0x81, (byte) 0xEA,
+          (byte) 0xAF, (byte) 0x87, (byte) 0xC0, (byte) 0xFF, (byte) 0xEE },
+    };
+
+    private long mSink;
+
+    public void timeDecodeWapPushHeaders(int reps) {
+        for (int i = 0; i < reps; i++) {
+            WspTypeDecoder pduDecoder = new WspTypeDecoder(WAP_PUSH);
+            int index = 2;
+            if (!pduDecoder.decodeUintvarInteger(index)) {
+                throw new IllegalStateException("header length");
+            }
+            int headerLength = (int) pduDecoder.getValue32();
+            index += pduDecoder.getDecodedDataLength();
+            if (!pduDecoder.decodeContentType(index)) {
+                throw new IllegalStateException("content type");
+            }
+            mSink += pduDecoder.getValueString().length();
+            index += pduDecoder.getDecodedDataLength();
+            if (pduDecoder.seekXWapApplicationId(index, index + headerLength - 1)) {
+                pduDecoder.decodeXWapApplicationId((int) pduDecoder.getValue32());
+                mSink += pduDecoder.getValue32();
+            }
+        }
+    }
+
+    public void timeRoutePushes(int reps) {
+        routePushes(reps, false);
+    }
+
+    public void timeRoutePushesWithParameters(int reps) {
+        routePushes(reps, true);
+    }
+
+    private void routePushes(int reps, boolean buildParameters) {
+        for (int i = 0; i < reps; i++) {
+            for (byte[] pdu : ROUTED_PUSHES) {
+                WspTypeDecoder pduDecoder = new WspTypeDecoder(pdu);
+                if (!pduDecoder.decodeUintvarInteger(2)) {
+                    throw new IllegalStateException("header length");
+                }
+                int headerLength = (int) pduDecoder.getValue32();
+                int index = 2 + pduDecoder.getDecodedDataLength();
+                if (!pduDecoder.decodeContentType(index)) {
+                    throw new IllegalStateException("content type");
+                }
+                mSink += pduDecoder.getValueString().length();
+                if (buildParameters) {
+                    mSink += pduDecoder.getContentParameters().size();
+                }
+                index += pduDecoder.getDecodedDataLength();
+                if (!pduDecoder.seekXWapApplicationId(index, index + headerLength - 1)
+                        || !pduDecoder.decodeXWapApplicationId(
+                                (int) pduDecoder.getValue32())) {
+                    throw new IllegalStateException("application id");
+                }
+                mSink += pduDecoder.getValue32();
+            }
+        }
+    }
+}
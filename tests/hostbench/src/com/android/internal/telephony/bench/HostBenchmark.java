@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony.bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs telephony benchmarks on a host JVM.
+ *
+ * A benchmark is a class with a public no-argument constructor, an optional
+ * public setUp() method, and public void time*(int reps) methods that run the
+ * measured code reps times, as in Caliper. Each method is warmed up, its reps
+ * are scaled until a trial takes long enough to time, and the median of the
+ * trials is printed in ns per rep.
+ *
+ * Usage: HostBenchmark [--baseline FILE [--tolerance RATIO]] [CLASS...]
+ *
+ * With a baseline, a file of lines printed by an earlier run, the exit status
+ * is 1 if any benchmark is more than RATIO (default 1.5) times slower.
+ */
+public final class HostBenchmark {
+    private static final String[] DEFAULT_BENCHMARKS = {
+        "com.android.internal.telephony.IccSmsRecordLoaderBenchmark",
+        "com.android.internal.telephony.IntRangeManagerBenchmark",
+        "com.android.internal.telephony.WspTypeDecoderBenchmark",
+        "com.android.internal.telephony.cat.ComprehensionTlvBenchmark",
+        "com.google.android.mms.pdu.PduBenchmark",
+    };
+
+    private static final long WARMUP_NS = 500 * 1000 * 1000L;
+    private static final long TRIAL_NS = 200 * 1000 * 1000L;
+    private static final int TRIALS = 7;
+
+    private HostBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseline = null;
+        double tolerance = 1.5;
+        List<String> classNames = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--baseline".equals(args[i])) {
+                baseline = args[++i];
+            } else if ("--tolerance".equals(args[i])) {
+                tolerance = Double.parseDouble(args[++i]);
+            } else {
+                classNames.add(args[i]);
+            }
+        }
+        if (classNames.isEmpty()) {
+            classNames.addAll(Arrays.asList(DEFAULT_BENCHMARKS));
+        }
+
+        Map<String, Double> results = new HashMap<String, Double>();
+        for (String className : classNames) {
+            run(Class.forName(className), results);
+        }
+
+        if (baseline != null && regressed(readResults(baseline), results, tolerance)) {
+            System.exit(1);
+        }
+    }
+
+    private static void run(Class<?> benchmarkClass, Map<String, Double> results)
+            throws Exception {
+        Object benchmark = benchmarkClass.newInstance();
+        Method setUp = null;
+        List<Method> timeMethods = new ArrayList<Method>();
+        for (Method method : benchmarkClass.getMethods()) {
+            if (method.getName().equals("setUp") && method.getParameterTypes().length == 0) {
+                setUp = method;
+            } else if (method.getName().startsWith("time")
+                    && Arrays.equals(method.getParameterTypes(), new Class<?>[] { int.class })
+                    && !Modifier.isStatic(method.getModifiers())) {
+                timeMethods.add(method);
+            }
+        }
+        if (setUp != null) {
+            setUp.invoke(benchmark);
+        }
+
+        for (Method method : timeMethods) {
+            String name = benchmarkClass.getSimpleName() + "."
+                    + method.getName().substring("time".length());
+            double nsPerRep = measure(benchmark, method);
+            results.put(name, nsPerRep);
+            System.out.println(String.format("%-60s %14.1f ns", name, nsPerRep));
+        }
+    }
+
+    private static double measure(Object benchmark, Method method) throws Exception {
+        // Scale reps until a run takes long enough to time, which also warms
+        // up the JIT.
+        int reps = 1;
+        long warmupStart = System.nanoTime();
+        long elapsed;
+        do {
+            elapsed = time(benchmark, method, reps);
+            if (elapsed < TRIAL_NS && reps < Integer.MAX_VALUE / 2) {
+                reps *= 2;
+            }
+        } while (elapsed < TRIAL_NS || System.nanoTime() - warmupStart < WARMUP_NS);
+
+        double[] trials = new double[TRIALS];
+        for (int i = 0; i < TRIALS; i++) {
+            trials[i] = (double) time(benchmark, method, reps) / reps;
+        }
+        Arrays.sort(trials);
+        return trials[TRIALS / 2];
+    }
+
+    private static long time(Object benchmark, Method method, int reps) throws Exception {
+        long start = System.nanoTime();
+        try {
+            method.invoke(benchmark, reps);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static Map<String, Double> readResults(String fileName) throws IOException {
+        Map<String, Double> results = new HashMap<String, Double>();
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length == 3 && "ns".equals(fields[2])) {
+                    results.put(fields[0], Double.parseDouble(fields[1]));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return results;
+    }
+
+    private static boolean regressed(Map<String, Double> baseline, Map<String, Double> results,
+            double tolerance) {
+        boolean regressed = false;
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            Double before = baseline.get(result.getKey());
+            if (before != null && result.getValue() > before * tolerance) {
+                System.out.println(String.format("REGRESSION %s: %.1f ns, was %.1f ns",
+                        result.getKey(), result.getValue(), before));
+                regressed = true;
+            }
+        }
+        return regressed;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony.cat;
+
+/**
+ * Decodes proactive commands and looks up their parameters, as
+ * CommandParamsFactory does for each command from the SIM.
+ */
+public class ComprehensionTlvBenchmark {
+    /** SETUP MENU with a title, 8 items and an item icon list. */
+    private static final String SETUP_MENU =
+            "D06A810301250082028182850C546F6F6C6B6974204D656E758F07014974656D"
+            + "20318F07024974656D20328F07034974656D20338F07044974656D20348F0705"
+            + "4974656D20358F07064974656D20368F07074974656D20378F07084974656D20"
+            + "389F09000102030405060708";
+
+    /** SEND SHORT MESSAGE with an alpha id, an address and a TPDU. */
+    private static final String SEND_SMS =
+            "D037810301130082028183850753656E6420534D86099111223344556677F88B"
+            + "180100099110325476F840F40C54657374204D657373616765";
+
+    private byte[] mSetupMenu;
+    private byte[] mSendSms;
+    private int mSink;
+
+    private static byte[] hexToBytes(String s) {
+        byte[] bytes = new byte[s.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    public void setUp() {
+        mSetupMenu = hexToBytes(SETUP_MENU);
+        mSendSms = hexToBytes(SEND_SMS);
+    }
+
+    public void timeDecodeSetupMenu(int reps) throws ResultException {
+        for (int i = 0; i < reps; i++) {
+            ComprehensionTlvIndex index = BerTlv.decode(mSetupMenu).getComprehensionTlvIndex();
+            for (int item = index.indexOf(ComprehensionTlvTag.ITEM.value()); item >= 0;
+                    item = index.nextIndexOf(item)) {
+                mSink += index.getLength(item);
+            }
+            mSink += index.indexOf(ComprehensionTlvTag.ITEM_ICON_ID_LIST.value());
+        }
+    }
+
+    public void timeDecodeSendSms(int reps) throws ResultException {
+        for (int i = 0; i < reps; i++) {
+            ComprehensionTlvIndex index = BerTlv.decode(mSendSms).getComprehensionTlvIndex();
+            mSink += index.indexOf(ComprehensionTlvTag.ALPHA_ID.value());
+            mSink += index.indexOf(ComprehensionTlvTag.ADDRESS.value());
+            mSink += index.indexOf(ComprehensionTlvTag.SMS_TPDU.value());
+        }
+    }
+}
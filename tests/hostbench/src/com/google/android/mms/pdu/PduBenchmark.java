@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.mms.pdu;
+
+import android.content.Context;
+
+import com.google.android.mms.ContentType;
+
+/**
+ * Composes and parses an M-Send.req with a SMIL part, a text part and an image part,
+ * and parses an M-Notification.ind as received by WAP push.
+ */
+public class PduBenchmark {
+    private static final byte[] NOTIFICATION_IND = {
+        (byte) 0x8C, (byte) 0x82,                               // message type: notification-ind
+        (byte) 0x98, 'T', 'I', 'D', '0', '0', '0', '1', 0,      // transaction id
+        (byte) 0x8D, (byte) 0x92,                               // MMS version 1.2
+        (byte) 0x89, 0x0E, (byte) 0x80,                         // from
+        '+', '1', '5', '5', '5', '5', '5', '5', '0', '1', '0', '0', 0,
+        (byte) 0x8A, (byte) 0x80,                               // message class: personal
+        (byte) 0x8E, 0x02, 0x30, 0x00,                          // message size
+        (byte) 0x88, 0x05, (byte) 0x81, 0x03, 0x03, (byte) 0xF4, (byte) 0x80, // expiry
+        (byte) 0x83,                                            // content location
+        'h', 't', 't', 'p', ':', '/', '/', 'm', 'm', 's', 'c', '/', 'm', '1', 0,
+    };
+
+    private final Context mContext = new Context();
+    private SendReq mSendReq;
+    private byte[] mSendReqPdu;
+    private int mSink;
+
+    private static PduPart newPart(String contentType, String contentId, byte[] data) {
+        PduPart part = new PduPart();
+        part.setContentType(contentType.getBytes());
+        part.setContentId(contentId.getBytes());
+        part.setContentLocation(contentId.getBytes());
+        part.setCharset(CharacterSets.UTF_8);
+        part.setData(data);
+        return part;
+    }
+
+    public void setUp() throws Exception {
+        mSendReq = new SendReq();
+        mSendReq.addTo(new EncodedStringValue("+15555550100/TYPE=PLMN"));
+        mSendReq.addTo(new EncodedStringValue("+15555550101/TYPE=PLMN"));
+        mSendReq.setSubject(new EncodedStringValue("Benchmark"));
+        mSendReq.setDate(1420070400L);
+        mSendReq.setMessageClass(PduHeaders.MESSAGE_CLASS_PERSONAL_STR.getBytes());
+        mSendReq.setExpiry(7 * 24 * 60 * 60);
+
+        PduBody body = new PduBody();
+        body.addPart(newPart(ContentType.APP_SMIL, "smil.xml",
+                ("<smil><body><par dur=\"5000ms\"><img src=\"image.jpg\"/>"
+                        + "<text src=\"text.txt\"/></par></body></smil>").getBytes()));
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            text.append("The quick brown fox jumps over the lazy dog. ");
+        }
+        body.addPart(newPart(ContentType.TEXT_PLAIN, "text.txt",
+                text.toString().getBytes("UTF-8")));
+        byte[] image = new byte[30 * 1024];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i * 31);
+        }
+        body.addPart(newPart(ContentType.IMAGE_JPEG, "image.jpg", image));
+        mSendReq.setBody(body);
+
+        mSendReqPdu = new PduComposer(mContext, mSendReq).make();
+        if (mSendReqPdu == null || new PduParser(mSendReqPdu).parse() == null
+                || new PduParser(NOTIFICATION_IND).parse() == null) {
+            throw new IllegalStateException("Benchmark PDUs don't round trip");
+        }
+    }
+
+    public void timeComposeSendReq(int reps) {
+        for (int i = 0; i < reps; i++) {
+            mSink += new PduComposer(mContext, mSendReq).make().length;
+        }
+    }
+
+    public void timeParseSendReq(int reps) {
+        for (int i = 0; i < reps; i++) {
+            SendReq sendReq = (SendReq) new PduParser(mSendReqPdu).parse();
+            mSink += sendReq.getBody().getPartsNum();
+        }
+    }
+
+    public void timeParseNotificationInd(int reps) {
+        for (int i = 0; i < reps; i++) {
+            NotificationInd ind = (NotificationInd) new PduParser(NOTIFICATION_IND).parse();
+            mSink += ind.getContentLocation().length;
+        }
+    }
+}
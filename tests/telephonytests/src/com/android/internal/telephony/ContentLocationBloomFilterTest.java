@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.telephony.Rlog;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Test cases for the ContentLocationBloomFilter class.
+ */
+public class ContentLocationBloomFilterTest extends AndroidTestCase {
+    private static final String TAG = "ContentLocationBloomFilterTest";
+
+    private static String location(int i) {
+        return "http://mmsc.example.com/mms/wapenc?location=" + i + "_1&rid=" + (i * 7919);
+    }
+
+    @SmallTest
+    public void testMightContain() {
+        ContentLocationBloomFilter filter = new ContentLocationBloomFilter(16);
+        filter.add(location(1));
+        filter.add(location(2));
+
+        assertTrue(filter.mightContain(location(1)));
+        assertTrue(filter.mightContain(location(2)));
+        assertEquals(2, filter.getCheckCount());
+        assertEquals(2, filter.getPossibleHitCount());
+
+        filter.recordConfirmation(true);
+        filter.recordConfirmation(false);
+        assertEquals(1, filter.getDuplicateCount());
+        assertEquals(1, filter.getFalsePositiveCount());
+
+        filter.clear();
+        assertEquals(0, filter.getEntryCount());
+        assertFalse(filter.mightContain(location(1)));
+        assertEquals(3, filter.getCheckCount());
+    }
+
+    @SmallTest
+    public void testSaturation() {
+        ContentLocationBloomFilter filter = new ContentLocationBloomFilter(4);
+        for (int i = 0; i < 4; i++) {
+            filter.add(location(i));
+        }
+        assertFalse(filter.isSaturated());
+        filter.add(location(4));
+        assertTrue(filter.isSaturated());
+    }
+
+    /**
+     * A filter reloaded from the provider has room for as many locations again, so it's only
+     * rebuilt after the locations have doubled.
+     */
+    @SmallTest
+    public void testCapacityFor() {
+        assertEquals(ContentLocationBloomFilter.DEFAULT_CAPACITY,
+                ContentLocationBloomFilter.capacityFor(0));
+        assertEquals(ContentLocationBloomFilter.DEFAULT_CAPACITY,
+                ContentLocationBloomFilter.capacityFor(100));
+        assertEquals(20000, ContentLocationBloomFilter.capacityFor(10000));
+        assertTrue(ContentLocationBloomFilter.capacityFor(Integer.MAX_VALUE) > 0);
+
+        final int rows = 10000;
+        ContentLocationBloomFilter filter = new ContentLocationBloomFilter(
+                ContentLocationBloomFilter.capacityFor(rows));
+        for (int i = 0; i < rows * 2; i++) {
+            filter.add(location(i));
+        }
+        assertFalse(filter.isSaturated());
+        filter.add(location(rows * 2));
+        assertTrue(filter.isSaturated());
+    }
+
+    /**
+     * Fill the filter to capacity, then check it has no false negatives and that the false
+     * positive rate for new locations stays near the design rate.
+     */
+    @LargeTest
+    public void testFalsePositiveRate() {
+        ContentLocationBloomFilter filter = new ContentLocationBloomFilter();
+        final int capacity = filter.getCapacity();
+        for (int i = 0; i < capacity; i++) {
+            filter.add(location(i));
+        }
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < capacity; i++) {
+            assertTrue(filter.mightContain(location(i)));
+        }
+        int falsePositives = 0;
+        for (int i = capacity; i < capacity * 2; i++) {
+            if (filter.mightContain(location(i))) {
+                falsePositives++;
+            }
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        assertTrue("false positives " + falsePositives, falsePositives < capacity / 25);
+        Rlog.d(TAG, "Checked " + (capacity * 2) + " locations in " + (elapsed / 1000)
+                + " us, " + falsePositives + " false positives");
+    }
+}
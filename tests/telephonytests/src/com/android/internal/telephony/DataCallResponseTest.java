@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.dataconnection.DataCallResponse;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for DataCallResponse.isIdentical, which DcController uses to skip data calls
+ * that are unchanged in RIL_UNSOL_DATA_CALL_LIST_CHANGED.
+ */
+public class DataCallResponseTest extends TestCase {
+
+    private static DataCallResponse makeResponse() {
+        DataCallResponse response = new DataCallResponse();
+        response.version = 10;
+        response.cid = 1;
+        response.active = 2;
+        response.type = "IPV4V6";
+        response.ifname = "rmnet0";
+        response.addresses = new String[] {"10.0.0.2/30", "2001:db8::1/64"};
+        response.dnses = new String[] {"8.8.8.8"};
+        response.gateways = new String[] {"10.0.0.1"};
+        response.pcscf = new String[0];
+        response.mtu = 1400;
+        return response;
+    }
+
+    @SmallTest
+    public void testIdentical() {
+        assertTrue(makeResponse().isIdentical(makeResponse()));
+        assertFalse(makeResponse().isIdentical(null));
+    }
+
+    @SmallTest
+    public void testChangedFields() {
+        DataCallResponse response = makeResponse();
+
+        DataCallResponse changed = makeResponse();
+        changed.active = 1;
+        assertFalse(response.isIdentical(changed));
+
+        changed = makeResponse();
+        changed.ifname = "rmnet1";
+        assertFalse(response.isIdentical(changed));
+
+        changed = makeResponse();
+        changed.addresses = new String[] {"10.0.0.6/30", "2001:db8::1/64"};
+        assertFalse(response.isIdentical(changed));
+
+        changed = makeResponse();
+        changed.dnses = new String[] {"8.8.8.8", "8.8.4.4"};
+        assertFalse(response.isIdentical(changed));
+
+        changed = makeResponse();
+        changed.mtu = 1500;
+        assertFalse(response.isIdentical(changed));
+    }
+}
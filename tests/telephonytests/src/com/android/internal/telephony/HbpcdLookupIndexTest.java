@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Random;
+
+/**
+ * Test cases for the HbpcdLookupIndex class.
+ */
+public class HbpcdLookupIndexTest extends AndroidTestCase {
+    // a subset of the country codes in the HbpcdLookup mcc_lookup table
+    private static final int[] COUNTRY_CODES = {
+            1, 7, 20, 27, 30, 31, 32, 33, 34, 36, 39, 40, 41, 43, 44, 45, 46, 47, 48, 49,
+            51, 52, 53, 54, 55, 56, 57, 58, 60, 61, 62, 63, 64, 65, 66, 81, 82, 84, 86, 90,
+            91, 92, 93, 94, 95, 98, 212, 213, 216, 218, 220, 234, 254, 255, 351, 352, 353,
+            354, 355, 356, 357, 358, 359, 370, 371, 372, 380, 381, 852, 853, 855, 856, 880,
+            886, 960, 961, 962, 963, 964, 965, 966, 967, 968, 971, 972, 973, 974, 975, 976,
+            977, 992, 993, 994, 995, 996, 998
+    };
+
+    private static HbpcdLookupIndex createIndex() {
+        HbpcdLookupIndex index = new HbpcdLookupIndex();
+        for (int i = 0; i < COUNTRY_CODES.length; i++) {
+            index.addCountryCode(COUNTRY_CODES[i], i);
+        }
+        index.addIdd(310, "011");
+        index.addIdd(460, "00");
+        index.addIdd(460, "00");
+        index.addIdd(460, "17951");
+        return index;
+    }
+
+    /** The country code matching previously used by SmsNumberUtils. */
+    private static int getCountryCodeByPrefixValues(String number) {
+        int[] ccArray = new int[3];
+        for (int i = 0; i < 3; i++) {
+            ccArray[i] = Integer.valueOf(number.substring(0, i + 1));
+        }
+        for (int cc : COUNTRY_CODES) {
+            for (int prefix : ccArray) {
+                if (cc == prefix) {
+                    return cc;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @SmallTest
+    public void testCountryCode() {
+        HbpcdLookupIndex index = createIndex();
+        assertEquals(1, index.getCountryCode("+16505551234", 1));
+        assertEquals(86, index.getCountryCode("011862586281234", 3));
+        assertEquals(886, index.getCountryCode("886912345678", 0));
+        assertEquals(355, index.getCountryCode("355691234567", 0));
+        assertEquals(-1, index.getCountryCode("0862586281234", 0));
+        assertEquals(-1, index.getCountryCode("8", 0));
+        assertEquals(-1, index.getCountryCode("*#06#", 0));
+    }
+
+    /**
+     * The prefix value matching parsed "01" and "001" as 1, so a number with a leading 0 after
+     * the IDD matched the NANP country code. Country codes don't start with 0, so the trie
+     * doesn't match them.
+     */
+    @SmallTest
+    public void testLeadingZero() {
+        HbpcdLookupIndex index = createIndex();
+        assertEquals(1, getCountryCodeByPrefixValues("0165055512"));
+        assertEquals(1, getCountryCodeByPrefixValues("0016505551"));
+        assertEquals(7, getCountryCodeByPrefixValues("0749512345"));
+        assertEquals(-1, index.getCountryCode("0165055512", 0));
+        assertEquals(-1, index.getCountryCode("0016505551", 0));
+        assertEquals(-1, index.getCountryCode("0749512345", 0));
+        assertEquals(-1, index.getCountryCode("+0110165055512", 4));
+    }
+
+    /**
+     * A failed load is kept until its retry time, and the retry delay doubles.
+     */
+    @SmallTest
+    public void testFailedLoadBackoff() {
+        final UnavailableProvider provider = new UnavailableProvider();
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(HbpcdLookup.AUTHORITY, provider);
+        Context context = new ContextWrapper(getContext()) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        };
+
+        HbpcdLookupIndex.clearInstance();
+        try {
+            long now = 100000;
+            HbpcdLookupIndex index = HbpcdLookupIndex.getInstance(context, now);
+            assertFalse(index.hasCountryCodes());
+            int queries = provider.mQueries;
+            assertTrue(queries > 0);
+
+            assertSame(index, HbpcdLookupIndex.getInstance(context,
+                    now + HbpcdLookupIndex.MIN_RETRY_DELAY_MS - 1));
+            assertEquals(queries, provider.mQueries);
+
+            now += HbpcdLookupIndex.MIN_RETRY_DELAY_MS;
+            index = HbpcdLookupIndex.getInstance(context, now);
+            assertEquals(2 * queries, provider.mQueries);
+
+            // the second failure doubles the delay
+            assertSame(index, HbpcdLookupIndex.getInstance(context,
+                    now + HbpcdLookupIndex.MIN_RETRY_DELAY_MS));
+            assertEquals(2 * queries, provider.mQueries);
+            HbpcdLookupIndex.getInstance(context, now + 2 * HbpcdLookupIndex.MIN_RETRY_DELAY_MS);
+            assertEquals(3 * queries, provider.mQueries);
+        } finally {
+            HbpcdLookupIndex.clearInstance();
+        }
+    }
+
+    /**
+     * An HbpcdLookup provider whose tables can't be read.
+     */
+    private static final class UnavailableProvider extends MockContentProvider {
+        int mQueries;
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            mQueries++;
+            return null;
+        }
+    }
+
+    @SmallTest
+    public void testIdds() {
+        HbpcdLookupIndex index = createIndex();
+        assertEquals(1, index.getIdds("310").length);
+        assertEquals("011", index.getIdds(310)[0]);
+        String[] idds = index.getIdds("460");
+        assertEquals(2, idds.length);
+        assertEquals("00", idds[0]);
+        assertEquals("17951", idds[1]);
+        assertEquals(0, index.getIdds("999").length);
+        assertEquals(0, index.getIdds("31").length);
+        assertEquals(0, index.getIdds("3a0").length);
+    }
+
+    @SmallTest
+    public void testSidLookup() {
+        HbpcdLookupIndex index = new HbpcdLookupIndex();
+        index.addSidRange(2, 2175, 310);
+        index.addSidRange(2176, 2303, 302);
+        index.addSidRange(2000, 2200, 334);
+        index.addArbitrarySid(4, 310, true);
+        index.addArbitrarySid(5, 310, true);
+        index.addArbitrarySid(5, 311, false);
+        index.addSidConflict(6, 310, -10, -5, -9, -4);
+        index.addSidConflict(6, 440, 9, 9, 9, 9);
+
+        assertEquals(310, index.getMcc(4, 0, 0, false));
+        assertEquals(310, index.getMcc(5, 0, 0, false));    // not unique, use the range
+        assertEquals(440, index.getMcc(6, 9, 0, true));
+        assertEquals(0, index.getMcc(6, 9, 0, false));      // time zone not from NITZ
+        assertEquals(310, index.getMcc(6, 3, 0, true));     // no conflict matches the time zone
+        assertEquals(310, index.getMcc(2100, 0, 0, false));
+        assertEquals(302, index.getMcc(2200, 0, 0, false));
+        assertEquals(0, index.getMcc(30000, 0, 0, false));
+    }
+
+    /**
+     * Compare against the previous country code matching on a realistic destination number
+     * mix.
+     */
+    @SmallTest
+    public void testCountryCodeMix() {
+        HbpcdLookupIndex index = createIndex();
+        Random r = new Random(0x2015);  // use the same seed for reproducibility
+        String[] numbers = new String[1000];
+        for (int i = 0; i < numbers.length; i++) {
+            StringBuilder sb = new StringBuilder(15);
+            int kind = r.nextInt(10);
+            if (kind < 6) {
+                // domestic NANP numbers are the most common destinations
+                sb.append('1').append(2 + r.nextInt(8));
+            } else if (kind < 9) {
+                sb.append(COUNTRY_CODES[r.nextInt(COUNTRY_CODES.length)]);
+            } else {
+                sb.append(r.nextInt(1000));
+            }
+            while (sb.length() < 12) {
+                sb.append(r.nextInt(10));
+            }
+            numbers[i] = sb.toString();
+        }
+
+        for (String number : numbers) {
+            if (number.charAt(0) != '0') {
+                assertEquals(number, getCountryCodeByPrefixValues(number),
+                        index.getCountryCode(number, 0));
+            }
+        }
+    }
+}
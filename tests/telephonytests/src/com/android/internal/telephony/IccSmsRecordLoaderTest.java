@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import static android.telephony.SmsManager.STATUS_ON_ICC_FREE;
+import static android.telephony.SmsManager.STATUS_ON_ICC_READ;
+import static android.telephony.SmsManager.STATUS_ON_ICC_SENT;
+import static android.telephony.SmsManager.STATUS_ON_ICC_UNREAD;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.android.internal.telephony.uicc.IccConstants;
+import com.android.internal.telephony.uicc.IccException;
+import com.android.internal.telephony.uicc.IccFileHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for IccSmsRecordLoader against a simulated EF_SMS.
+ */
+public class IccSmsRecordLoaderTest extends AndroidTestCase {
+    private static final String TAG = "IccSmsRecordLoaderTest";
+
+    private static final int PAGE_SIZE = 4;
+    // Roughly what a SIM_IO of one record takes in rild and the modem.
+    private static final long RECORD_MS = 5;
+    private static final int FULL_SIM_RECORDS = 100;
+
+    private HandlerThread mThread;
+
+    /**
+     * EF_SMS of a simulated SIM, answering each read and write after RECORD_MS.
+     */
+    private static final class FakeFileHandler extends IccFileHandler {
+        final byte[][] mRecords;
+        int mFailAtRecord;
+        int mRecordsRead;
+        volatile int mWrites;
+        int mWritesInFlight;
+        int mMaxWritesInFlight;
+        int mRecordsReadAtFirstWrite = -1;
+
+        FakeFileHandler(byte[][] records) {
+            super(null, null, null);
+            mRecords = records;
+        }
+
+        /**
+         * Hands the answer to its target on this handler's looper, which the loader shares, so
+         * that mRecordsRead counts exactly the records the loader has seen.
+         */
+        private void respond(final Message response, Object result, Throwable ex,
+                long delayMs, final boolean isRecord) {
+            AsyncResult.forMessage(response, result, ex);
+            postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (isRecord) {
+                        mRecordsRead++;
+                    }
+                    response.getTarget().dispatchMessage(response);
+                }
+            }, delayMs);
+        }
+
+        @Override
+        public void loadEFLinearFixedEach(int fileid, final Message onRecordLoaded,
+                final Message onLoaded) {
+            assertEquals(IccConstants.EF_SMS, fileid);
+            long delay = RECORD_MS;
+            for (int i = 1; i <= mRecords.length; i++, delay += RECORD_MS) {
+                if (i == mFailAtRecord) {
+                    respond(onLoaded, null, new IccException("read failed"), delay, false);
+                    return;
+                }
+                Message record = Message.obtain(onRecordLoaded);
+                record.arg1 = i;
+                record.arg2 = mRecords.length;
+                respond(record, mRecords[i - 1].clone(), null, delay, true);
+            }
+            respond(onLoaded, mRecords.length, null, delay - RECORD_MS, false);
+        }
+
+        @Override
+        public void updateEFLinearFixed(int fileid, final int recordNum, final byte[] data,
+                String pin2, final Message onComplete) {
+            if (mRecordsReadAtFirstWrite < 0) {
+                mRecordsReadAtFirstWrite = mRecordsRead;
+            }
+            mWrites++;
+            mWritesInFlight++;
+            mMaxWritesInFlight = Math.max(mMaxWritesInFlight, mWritesInFlight);
+            postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    mRecords[recordNum - 1] = data;
+                    mWritesInFlight--;
+                    AsyncResult.forMessage(onComplete, null, null);
+                    onComplete.sendToTarget();
+                }
+            }, RECORD_MS);
+        }
+
+        @Override
+        protected String getEFPath(int efid) {
+            return null;
+        }
+
+        @Override
+        protected void logd(String s) {
+        }
+
+        @Override
+        protected void loge(String s) {
+        }
+    }
+
+    /**
+     * Collects the pages of a load.
+     */
+    private static class Collector extends IIccSmsLoadCallback.Stub {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        final CountDownLatch mFirstPage = new CountDownLatch(1);
+        final ArrayList<Integer> mIndexes = new ArrayList<Integer>();
+        final ArrayList<byte[]> mMessages = new ArrayList<byte[]>();
+        volatile int mPages;
+        int mBadPages;
+        boolean mSuccess;
+        int mNumRecords;
+
+        @Override
+        public void onMessages(int[] indexes, List<SmsRawData> messages) throws RemoteException {
+            // called on the loader's thread, so checked by the test later
+            if (indexes.length != messages.size() || messages.size() > PAGE_SIZE) {
+                mBadPages++;
+            }
+            for (int i = 0; i < indexes.length; i++) {
+                mIndexes.add(indexes[i]);
+                mMessages.add(messages.get(i).getBytes());
+            }
+            mPages++;
+            mFirstPage.countDown();
+        }
+
+        @Override
+        public void onComplete(boolean success, int numRecords) {
+            mSuccess = success;
+            mNumRecords = numRecords;
+            mDone.countDown();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quitSafely();
+        mThread.join();
+        super.tearDown();
+    }
+
+    private static byte[] record(int status, int tag) {
+        byte[] record = new byte[IccConstants.SMS_RECORD_LENGTH];
+        record[0] = (byte) status;
+        for (int i = 1; i < record.length; i++) {
+            record[i] = (byte) (status == STATUS_ON_ICC_FREE ? 0xff : tag);
+        }
+        return record;
+    }
+
+    /**
+     * @return a SIM with every third record free and every fourth message unread
+     */
+    private static byte[][] sim(int numRecords) {
+        byte[][] records = new byte[numRecords][];
+        for (int i = 0; i < numRecords; i++) {
+            if (i % 3 == 2) {
+                records[i] = record(STATUS_ON_ICC_FREE, 0);
+            } else {
+                records[i] = record(i % 4 == 0 ? STATUS_ON_ICC_UNREAD : STATUS_ON_ICC_READ, i);
+            }
+        }
+        return records;
+    }
+
+    /** IccFileHandler is a Handler, so it's created on the test thread's looper. */
+    private FakeFileHandler createFileHandler(final byte[][] records) throws Exception {
+        final FakeFileHandler[] fileHandler = new FakeFileHandler[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                fileHandler[0] = new FakeFileHandler(records);
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return fileHandler[0];
+    }
+
+    private Collector load(FakeFileHandler fh, Collector collector) throws Exception {
+        new IccSmsRecordLoader(mThread.getLooper(), fh, IccConstants.SMS_RECORD_LENGTH,
+                PAGE_SIZE, collector).start();
+        assertTrue(collector.mDone.await(10, TimeUnit.SECONDS));
+        return collector;
+    }
+
+    /** Waits for the writes that follow a load. */
+    private void waitForWrites(final FakeFileHandler fh, int writes) throws Exception {
+        long deadline = SystemClock.elapsedRealtime() + 5000;
+        while (true) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final int[] done = new int[1];
+            fh.post(new Runnable() {
+                @Override
+                public void run() {
+                    done[0] = fh.mWrites - fh.mWritesInFlight;
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            if (done[0] >= writes) {
+                return;
+            }
+            assertTrue(SystemClock.elapsedRealtime() < deadline);
+            SystemClock.sleep(RECORD_MS);
+        }
+    }
+
+    @MediumTest
+    public void testPagesSkipFreeRecords() throws Exception {
+        byte[][] records = sim(30);
+        records[29] = record(STATUS_ON_ICC_SENT, 29);
+        FakeFileHandler fh = createFileHandler(records);
+        Collector collector = load(fh, new Collector());
+
+        assertTrue(collector.mSuccess);
+        assertEquals(30, collector.mNumRecords);
+        // 21 used records: 5 full pages and one of 1
+        assertEquals(21, collector.mIndexes.size());
+        assertEquals(6, collector.mPages);
+        assertEquals(0, collector.mBadPages);
+        int message = 0;
+        for (int i = 0; i < 30; i++) {
+            if (i % 3 == 2 && i != 29) {
+                continue;
+            }
+            assertEquals(i + 1, (int) collector.mIndexes.get(message));
+            assertEquals(i, collector.mMessages.get(message)[1]);
+            message++;
+        }
+        // the caller sees the status the message had before it was marked as read
+        assertEquals(STATUS_ON_ICC_UNREAD, collector.mMessages.get(0)[0]);
+    }
+
+    @MediumTest
+    public void testMarkAsReadInBatches() throws Exception {
+        byte[][] records = sim(60);
+        int unread = 0;
+        for (byte[] record : records) {
+            if (record[0] == STATUS_ON_ICC_UNREAD) {
+                unread++;
+            }
+        }
+        FakeFileHandler fh = createFileHandler(records);
+        load(fh, new Collector());
+        waitForWrites(fh, unread);
+
+        assertEquals(unread, fh.mWrites);
+        assertTrue(fh.mMaxWritesInFlight <= IccSmsRecordLoader.MARK_READ_BATCH_SIZE);
+        // the writes don't compete with the reads
+        assertEquals(records.length, fh.mRecordsReadAtFirstWrite);
+        for (int i = 0; i < records.length; i++) {
+            byte[] record = fh.mRecords[i];
+            assertTrue(record[0] != STATUS_ON_ICC_UNREAD);
+            assertEquals(IccConstants.SMS_RECORD_LENGTH, record.length);
+            if (i % 3 != 2) {
+                assertEquals(i, record[1]);
+            }
+        }
+    }
+
+    @MediumTest
+    public void testLoadFailure() throws Exception {
+        FakeFileHandler fh = createFileHandler(sim(30));
+        fh.mFailAtRecord = 20;
+        Collector collector = load(fh, new Collector());
+
+        assertFalse(collector.mSuccess);
+        assertTrue(collector.mPages > 0);
+        SystemClock.sleep(10 * RECORD_MS);
+        assertEquals(0, fh.mWrites);
+    }
+
+    @MediumTest
+    public void testCallerDied() throws Exception {
+        FakeFileHandler fh = createFileHandler(sim(30));
+        final Collector collector = new Collector() {
+            @Override
+            public void onMessages(int[] indexes, List<SmsRawData> messages)
+                    throws RemoteException {
+                super.onMessages(indexes, messages);
+                if (mPages == 2) {
+                    throw new RemoteException();
+                }
+            }
+        };
+        new IccSmsRecordLoader(mThread.getLooper(), fh, IccConstants.SMS_RECORD_LENGTH,
+                PAGE_SIZE, collector).start();
+        SystemClock.sleep((30 + 10) * RECORD_MS);
+
+        assertEquals(2, collector.mPages);
+        assertEquals(1, collector.mDone.getCount());
+        // the caller may not have kept the messages it was handed
+        assertEquals(0, fh.mWrites);
+    }
+
+    /**
+     * The first page of a full SIM reaches the caller once its records are read, not after the
+     * whole file as with getAllMessagesFromIccEf.
+     */
+    @MediumTest
+    public void testFirstMessagesOfFullSim() throws Exception {
+        byte[][] records = new byte[FULL_SIM_RECORDS][];
+        for (int i = 0; i < FULL_SIM_RECORDS; i++) {
+            records[i] = record(STATUS_ON_ICC_READ, i);
+        }
+        final FakeFileHandler fh = createFileHandler(records);
+
+        final int[] recordsReadAtPage = new int[FULL_SIM_RECORDS / PAGE_SIZE];
+        Collector collector = new Collector() {
+            @Override
+            public void onMessages(int[] indexes, List<SmsRawData> messages)
+                    throws RemoteException {
+                recordsReadAtPage[mPages] = fh.mRecordsRead;
+                super.onMessages(indexes, messages);
+            }
+        };
+        load(fh, collector);
+
+        assertTrue(collector.mSuccess);
+        assertEquals(FULL_SIM_RECORDS, collector.mIndexes.size());
+        assertEquals(FULL_SIM_RECORDS / PAGE_SIZE, collector.mPages);
+        for (int page = 0; page < recordsReadAtPage.length; page++) {
+            assertEquals((page + 1) * PAGE_SIZE, recordsReadAtPage[page]);
+        }
+    }
+}
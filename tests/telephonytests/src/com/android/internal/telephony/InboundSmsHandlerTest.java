@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Message;
+import android.provider.Telephony.Sms.Intents;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Test cases for the reassembly of concatenated messages by InboundSmsHandler, against a fake
+ * raw table.
+ */
+public class InboundSmsHandlerTest extends AndroidTestCase {
+    private static final String ADDRESS = "+15555550100";
+
+    private FakeRawProvider mProvider;
+    private TestInboundSmsHandler mHandler;
+
+    /**
+     * Keeps the rows of the raw table in memory, and answers the query by reference.
+     */
+    private static final class FakeRawProvider extends MockContentProvider {
+        private final List<ContentValues> mRows = new ArrayList<ContentValues>();
+        private long mNextId = 1;
+
+        @Override
+        public synchronized Uri insert(Uri uri, ContentValues values) {
+            ContentValues row = new ContentValues(values);
+            row.put("_id", mNextId);
+            mRows.add(row);
+            return ContentUris.withAppendedId(uri, mNextId++);
+        }
+
+        @Override
+        public synchronized Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            MatrixCursor cursor = new MatrixCursor(projection);
+            for (ContentValues row : mRows) {
+                if (matches(row, selectionArgs)) {
+                    Object[] values = new Object[projection.length];
+                    for (int i = 0; i < projection.length; i++) {
+                        values[i] = row.get(projection[i]);
+                    }
+                    cursor.addRow(values);
+                }
+            }
+            return cursor;
+        }
+
+        @Override
+        public synchronized int delete(Uri uri, String selection, String[] selectionArgs) {
+            int count = 0;
+            Iterator<ContentValues> it = mRows.iterator();
+            while (it.hasNext()) {
+                if (matches(it.next(), selectionArgs)) {
+                    it.remove();
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /** Matches the address, reference number and count of SELECT_BY_REFERENCE. */
+        private static boolean matches(ContentValues row, String[] selectionArgs) {
+            return selectionArgs[0].equals(row.getAsString("address"))
+                    && selectionArgs[1].equals(row.getAsString("reference_number"))
+                    && selectionArgs[2].equals(row.getAsString("count"));
+        }
+    }
+
+    /**
+     * Records the messages it would broadcast instead of broadcasting them.
+     */
+    private static final class TestInboundSmsHandler extends InboundSmsHandler {
+        final List<byte[][]> mDispatched = new ArrayList<byte[][]>();
+
+        TestInboundSmsHandler(Context context) {
+            super("TestInboundSmsHandler", context, null, null, null);
+        }
+
+        @Override
+        boolean dispatchMessageParts(InboundSmsTracker tracker, byte[][] pdus, int destPort) {
+            mDispatched.add(pdus);
+            return true;
+        }
+
+        @Override
+        protected int dispatchMessageRadioSpecific(SmsMessageBase smsb) {
+            return Intents.RESULT_SMS_HANDLED;
+        }
+
+        @Override
+        protected void acknowledgeLastIncomingSms(boolean success, int result,
+                Message response) {
+        }
+
+        @Override
+        protected boolean is3gpp2() {
+            return false;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProvider = new FakeRawProvider();
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider("sms", mProvider);
+        Context context = new ContextWrapper(getContext()) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        };
+        mHandler = new TestInboundSmsHandler(context);
+        // stays in the startup state, so that only the test thread touches the raw table
+        mHandler.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHandler.dispose();
+        super.tearDown();
+    }
+
+    private static InboundSmsTracker segment(int refNumber, int seqNumber, int count,
+            int body) {
+        byte[] pdu = new byte[] {(byte) refNumber, (byte) seqNumber, (byte) count, (byte) body};
+        return new InboundSmsTracker(pdu, 0L, -1, false, ADDRESS, refNumber, seqNumber, count,
+                false);
+    }
+
+    /** Stores and processes a segment, as the delivering state does. */
+    private int receive(InboundSmsTracker tracker) {
+        int result = mHandler.addTrackerToRawTable(tracker);
+        if (result == Intents.RESULT_SMS_HANDLED) {
+            mHandler.processMessagePart(tracker);
+        }
+        return result;
+    }
+
+    @SmallTest
+    public void testReassembly() {
+        assertEquals(Intents.RESULT_SMS_HANDLED, receive(segment(7, 2, 3, 0)));
+        assertEquals(Intents.RESULT_SMS_DUPLICATED, receive(segment(7, 2, 3, 0)));
+        assertEquals(Intents.RESULT_SMS_HANDLED, receive(segment(7, 3, 3, 0)));
+        assertEquals(0, mHandler.mDispatched.size());
+        assertEquals(Intents.RESULT_SMS_HANDLED, receive(segment(7, 1, 3, 0)));
+
+        assertEquals(1, mHandler.mDispatched.size());
+        byte[][] pdus = mHandler.mDispatched.get(0);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, pdus[i][1]);
+        }
+    }
+
+    /**
+     * A duplicate segment received while a message is being broadcast is rejected, and a later
+     * message reusing the reference number is still delivered.
+     */
+    @SmallTest
+    public void testDuplicateDuringBroadcastThenReusedReference() {
+        for (int seq = 1; seq <= 3; seq++) {
+            assertEquals(Intents.RESULT_SMS_HANDLED, receive(segment(7, seq, 3, 0)));
+        }
+        assertEquals(1, mHandler.mDispatched.size());
+
+        // the rows of the message are deleted only once the broadcast completes
+        assertEquals(Intents.RESULT_SMS_DUPLICATED, receive(segment(7, 2, 3, 0)));
+        String[] whereArgs = {ADDRESS, "7", "3"};
+        assertEquals(3, mProvider.delete(null, InboundSmsHandler.SELECT_BY_REFERENCE,
+                whereArgs));
+
+        for (int seq = 1; seq <= 3; seq++) {
+            assertEquals(Intents.RESULT_SMS_HANDLED, receive(segment(7, seq, 3, 1)));
+        }
+        assertEquals(2, mHandler.mDispatched.size());
+        byte[][] pdus = mHandler.mDispatched.get(1);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(Arrays.equals(new byte[] {7, (byte) (i + 1), 3, 1}, pdus[i]));
+        }
+    }
+}
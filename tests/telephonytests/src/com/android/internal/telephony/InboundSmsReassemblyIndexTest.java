@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Test cases for the InboundSmsReassemblyIndex class.
+ */
+public class InboundSmsReassemblyIndexTest extends AndroidTestCase {
+    private static final String ADDRESS = "+15555550100";
+
+    private static InboundSmsTracker segment(int refNumber, int seqNumber, int count) {
+        byte[] pdu = new byte[] {(byte) refNumber, (byte) seqNumber, (byte) count};
+        return new InboundSmsTracker(pdu, 0L, -1, false, ADDRESS, refNumber, seqNumber, count,
+                false);
+    }
+
+    @SmallTest
+    public void testReassembly() {
+        InboundSmsReassemblyIndex index = new InboundSmsReassemblyIndex();
+        assertEquals(InboundSmsReassemblyIndex.MESSAGE_NOT_INDEXED,
+                index.addSegment(segment(7, 2, 3)));
+
+        index.startMessage(segment(7, 2, 3));
+        assertEquals(InboundSmsReassemblyIndex.SEGMENT_ADDED, index.addSegment(segment(7, 2, 3)));
+        assertEquals(InboundSmsReassemblyIndex.SEGMENT_ADDED, index.addSegment(segment(7, 3, 3)));
+        assertFalse(index.getMessage(segment(7, 1, 3)).isComplete());
+
+        // same reference with a different count is a different message
+        assertEquals(InboundSmsReassemblyIndex.MESSAGE_NOT_INDEXED,
+                index.addSegment(segment(7, 1, 2)));
+
+        assertEquals(InboundSmsReassemblyIndex.SEGMENT_ADDED, index.addSegment(segment(7, 1, 3)));
+        InboundSmsReassemblyIndex.Entry message = index.getMessage(segment(7, 1, 3));
+        assertTrue(message.isComplete());
+        byte[][] pdus = message.getPdus();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, pdus[i][1]);
+        }
+
+        index.removeMessage(segment(7, 1, 3));
+        assertNull(index.getMessage(segment(7, 1, 3)));
+        assertEquals(0, index.size());
+    }
+
+    @SmallTest
+    public void testDuplicateAndInvalidSegments() {
+        InboundSmsReassemblyIndex index = new InboundSmsReassemblyIndex();
+        index.startMessage(segment(1, 1, 2));
+        index.addLoadedSegment(segment(1, 1, 2), 0, new byte[] {1, 1, 2}, 2948);
+
+        assertEquals(InboundSmsReassemblyIndex.SEGMENT_DUPLICATE,
+                index.addSegment(segment(1, 1, 2)));
+        assertEquals(InboundSmsReassemblyIndex.SEGMENT_INVALID,
+                index.addSegment(segment(1, 3, 2)));
+        assertEquals(2948, index.getMessage(segment(1, 1, 2)).getFirstSegmentDestPort());
+
+        // a segment that failed to be stored can be received again
+        assertEquals(InboundSmsReassemblyIndex.SEGMENT_ADDED, index.addSegment(segment(1, 2, 2)));
+        index.removeSegment(segment(1, 2, 2));
+        assertNull(index.getIndexedPdu(segment(1, 2, 2)));
+        assertEquals(InboundSmsReassemblyIndex.SEGMENT_ADDED, index.addSegment(segment(1, 2, 2)));
+    }
+
+    @SmallTest
+    public void testEviction() {
+        InboundSmsReassemblyIndex index = new InboundSmsReassemblyIndex(2);
+        index.startMessage(segment(1, 1, 2));
+        index.startMessage(segment(2, 1, 2));
+        index.addSegment(segment(1, 1, 2));     // makes reference 2 the least recent
+        index.startMessage(segment(3, 1, 2));
+
+        assertEquals(2, index.size());
+        assertNotNull(index.getMessage(segment(1, 1, 2)));
+        assertNull(index.getMessage(segment(2, 1, 2)));
+        assertNotNull(index.getMessage(segment(3, 1, 2)));
+    }
+
+    /**
+     * Reassemble a burst of 10-segment messages received in reverse order, reusing each
+     * reference number once it has been removed.
+     */
+    @SmallTest
+    public void testTenSegmentBurst() {
+        final int messages = 300;
+        final int count = 10;
+        InboundSmsTracker[] trackers = new InboundSmsTracker[count];
+        InboundSmsReassemblyIndex index = new InboundSmsReassemblyIndex();
+
+        for (int m = 0; m < messages; m++) {
+            int refNumber = m & 0xff;
+            for (int seq = count; seq > 0; seq--) {
+                trackers[seq - 1] = segment(refNumber, seq, count);
+            }
+            for (int seq = count; seq > 0; seq--) {
+                InboundSmsTracker tracker = trackers[seq - 1];
+                if (index.addSegment(tracker) == InboundSmsReassemblyIndex.MESSAGE_NOT_INDEXED) {
+                    index.startMessage(tracker);
+                    assertEquals(InboundSmsReassemblyIndex.SEGMENT_ADDED,
+                            index.addSegment(tracker));
+                }
+                InboundSmsReassemblyIndex.Entry message = index.getMessage(tracker);
+                assertEquals(seq == 1, message.isComplete());
+            }
+            index.removeMessage(trackers[0]);
+        }
+
+        assertEquals(0, index.size());
+    }
+}
@@ -21,6 +21,8 @@ import android.test.AndroidTestCase;
 import com.android.internal.telephony.gsm.SmsBroadcastConfigInfo;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
 
 /**
  * Test cases for the IntRangeManager class.
@@ -1134,4 +1136,115 @@ public class IntRangeManagerTest extends AndroidTestCase {
                 testManager.flags);
         assertEquals("configlist size", 0, testManager.mConfigList.size());
     }
+
+    // new [3, 20] existing [1, 2] [5, 7] [9, 10]
+    public void testJoinSeveralRanges() {
+        TestIntRangeManager testManager = new TestIntRangeManager();
+        assertTrue("enabling range 1", testManager.enableRange(1, 2, "client1"));
+        assertTrue("enabling range 2", testManager.enableRange(5, 7, "client2"));
+        assertTrue("enabling range 3", testManager.enableRange(9, 10, "client3"));
+        testManager.reset();
+        assertTrue("enabling range 4", testManager.enableRange(3, 20, "client4"));
+        assertEquals("configlist size", 1, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(0), 3, 20, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+        testManager.reset();
+        assertTrue("disabling range 4", testManager.disableRange(3, 20, "client4"));
+        assertEquals("configlist size", 3, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(0), 1, 2, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+        checkConfigInfo(testManager.mConfigList.get(1), 5, 7, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+        checkConfigInfo(testManager.mConfigList.get(2), 9, 10, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+    }
+
+    public void testFailedUpdate() {
+        TestIntRangeManager testManager = new TestIntRangeManager();
+        assertTrue("enabling range 1", testManager.enableRange(1, 5, "client1"));
+        testManager.finishUpdateReturnValue = false;
+        assertFalse("enabling range 2", testManager.enableRange(4, 8, "client2"));
+        assertFalse("disabling range 1", testManager.disableRange(1, 5, "client1"));
+        // a range that doesn't change the radio is still added
+        assertTrue("enabling range 3", testManager.enableRange(2, 3, "client2"));
+        testManager.finishUpdateReturnValue = true;
+        assertFalse("disabling range 2", testManager.disableRange(4, 8, "client2"));
+        testManager.reset();
+        assertTrue("disabling range 1", testManager.disableRange(1, 5, "client1"));
+        assertEquals("configlist size", 1, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(0), 2, 3, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+    }
+
+    /**
+     * Enables and disables random ranges for a few clients, and checks the ranges sent to
+     * the radio against the union of the enabled client ranges.
+     */
+    public void testRandomRanges() {
+        final int maxId = 200;
+        Random random = new Random(1);
+        TestIntRangeManager testManager = new TestIntRangeManager();
+        ArrayList<int[]> enabled = new ArrayList<int[]>();
+        for (int i = 0; i < 2000; i++) {
+            BitSet before = new BitSet();
+            for (int[] range : enabled) {
+                before.set(range[0], range[1] + 1);
+            }
+            testManager.reset();
+            if (enabled.isEmpty() || random.nextInt(3) != 0) {
+                int startId = random.nextInt(maxId);
+                int endId = startId + random.nextInt(20);
+                int client = random.nextInt(4);
+                assertTrue("enabling range", testManager.enableRange(startId, endId,
+                        "client" + client));
+                boolean duplicate = false;
+                for (int[] range : enabled) {
+                    duplicate |= range[0] == startId && range[1] == endId && range[2] == client;
+                }
+                if (!duplicate) {
+                    enabled.add(new int[] { startId, endId, client });
+                }
+                BitSet added = new BitSet();
+                added.set(startId, endId + 1);
+                added.andNot(before);
+                if (added.isEmpty()) {
+                    assertEquals("flags after enable", 0, testManager.flags);
+                } else {
+                    // the range sent covers every new id
+                    assertEquals("configlist size", 1, testManager.mConfigList.size());
+                    SmsBroadcastConfigInfo info = testManager.mConfigList.get(0);
+                    assertEquals("first new id", added.nextSetBit(0), info.getFromServiceId());
+                    assertEquals("last new id", added.length() - 1, info.getToServiceId());
+                }
+            } else {
+                int[] range = enabled.remove(random.nextInt(enabled.size()));
+                assertTrue("disabling range", testManager.disableRange(range[0], range[1],
+                        "client" + range[2]));
+                BitSet after = new BitSet();
+                for (int[] r : enabled) {
+                    after.set(r[0], r[1] + 1);
+                }
+                if (after.equals(before)) {
+                    assertEquals("flags after disable", 0, testManager.flags);
+                }
+            }
+
+            BitSet expected = new BitSet();
+            for (int[] range : enabled) {
+                expected.set(range[0], range[1] + 1);
+            }
+            testManager.reset();
+            assertTrue("updating ranges", testManager.updateRanges());
+            BitSet actual = new BitSet();
+            int lastEndId = -2;
+            for (SmsBroadcastConfigInfo info : testManager.mConfigList) {
+                // ranges are sorted and coalesced
+                assertTrue("range after gap", info.getFromServiceId() > lastEndId + 1);
+                actual.set(info.getFromServiceId(), info.getToServiceId() + 1);
+                lastEndId = info.getToServiceId();
+            }
+            assertEquals("enabled ids", expected, actual);
+            assertEquals("empty", expected.isEmpty(), testManager.isEmpty());
+        }
+    }
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Test cases for the MmiCodeParser class, compared against the regular expression that the
+ * MMI code classes used before.
+ */
+public class MmiCodeParserTest extends AndroidTestCase {
+    private static final Pattern PATTERN_SUPP_SERVICE = Pattern.compile(
+        "((\\*|#|\\*#|\\*\\*|##)(\\d{2,3})(\\*([^*#]*)(\\*([^*#]*)(\\*([^*#]*)(\\*([^*#]*))?)?)?)?#)(.*)");
+
+    private static final int MATCH_GROUP_POUND_STRING = 1;
+    private static final int MATCH_GROUP_ACTION = 2;
+    private static final int MATCH_GROUP_SERVICE_CODE = 3;
+    private static final int MATCH_GROUP_SIA = 5;
+    private static final int MATCH_GROUP_SIB = 7;
+    private static final int MATCH_GROUP_SIC = 9;
+    private static final int MATCH_GROUP_PWD_CONFIRM = 11;
+    private static final int MATCH_GROUP_DIALING_NUMBER = 12;
+
+    /** Characters that make up the generated dial strings, weighted towards MMI syntax. */
+    private static final String ALPHABET = "0123456789**##+,;pPwWN\n\r\u2028 ";
+
+    private static String makeEmptyNull(String s) {
+        return (s != null && s.length() == 0) ? null : s;
+    }
+
+    private static void assertSameAsRegex(String dialString) {
+        Matcher m = PATTERN_SUPP_SERVICE.matcher(dialString);
+        MmiCodeParser mmi = MmiCodeParser.parse(dialString);
+        if (!m.matches()) {
+            assertNull(dialString, mmi);
+            return;
+        }
+        assertNotNull(dialString, mmi);
+        assertEquals(dialString, makeEmptyNull(m.group(MATCH_GROUP_POUND_STRING)),
+                mmi.getPoundString());
+        assertEquals(dialString, makeEmptyNull(m.group(MATCH_GROUP_ACTION)), mmi.getAction());
+        assertEquals(dialString, makeEmptyNull(m.group(MATCH_GROUP_SERVICE_CODE)),
+                mmi.getServiceCode());
+        assertEquals(dialString, makeEmptyNull(m.group(MATCH_GROUP_SIA)), mmi.getSia());
+        assertEquals(dialString, makeEmptyNull(m.group(MATCH_GROUP_SIB)), mmi.getSib());
+        assertEquals(dialString, makeEmptyNull(m.group(MATCH_GROUP_SIC)), mmi.getSic());
+        assertEquals(dialString, makeEmptyNull(m.group(MATCH_GROUP_PWD_CONFIRM)), mmi.getPwd());
+        assertEquals(dialString, makeEmptyNull(m.group(MATCH_GROUP_DIALING_NUMBER)),
+                mmi.getDialingNumber());
+    }
+
+    /** Generate a dial string, usually starting like an MMI code. */
+    private static String generateDialString(Random r) {
+        StringBuilder sb = new StringBuilder();
+        if (r.nextInt(4) != 0) {
+            sb.append(new String[] {"*", "#", "*#", "**", "##", "#*"}[r.nextInt(6)]);
+            int digits = r.nextInt(5);
+            for (int i = 0; i < digits; i++) {
+                sb.append((char) ('0' + r.nextInt(10)));
+            }
+        }
+        int length = r.nextInt(24);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    @SmallTest
+    public void testStructuredCodes() {
+        MmiCodeParser mmi = MmiCodeParser.parse("**21*+16505551234*11*20#");
+        assertEquals("**", mmi.getAction());
+        assertEquals("21", mmi.getServiceCode());
+        assertEquals("+16505551234", mmi.getSia());
+        assertEquals("11", mmi.getSib());
+        assertEquals("20", mmi.getSic());
+        assertNull(mmi.getPwd());
+        assertNull(mmi.getDialingNumber());
+
+        mmi = MmiCodeParser.parse("**03*330*1234*4321*4321#");
+        assertEquals("4321", mmi.getPwd());
+
+        mmi = MmiCodeParser.parse("*#31#6505551234");
+        assertEquals("*#31#", mmi.getPoundString());
+        assertEquals("*#", mmi.getAction());
+        assertEquals("6505551234", mmi.getDialingNumber());
+
+        mmi = MmiCodeParser.parse("#31#");
+        assertEquals("#", mmi.getAction());
+        assertEquals("31", mmi.getServiceCode());
+    }
+
+    @SmallTest
+    public void testNotStructuredCodes() {
+        assertNull(MmiCodeParser.parse(""));
+        assertNull(MmiCodeParser.parse("6505551234"));
+        assertNull(MmiCodeParser.parse("*1#"));
+        assertNull(MmiCodeParser.parse("*1234#"));
+        assertNull(MmiCodeParser.parse("#*21#"));
+        assertNull(MmiCodeParser.parse("**21*1*2*3*4*5#"));
+        assertNull(MmiCodeParser.parse("*21*1"));
+        assertNull(MmiCodeParser.parse("*21#\n"));
+        // Arabic-Indic digits aren't a service code, as for the regex
+        assertNull(MmiCodeParser.parse("*\u0662\u0661#"));
+        assertSameAsRegex("*\u0662\u0661#");
+    }
+
+    @SmallTest
+    public void testTwoDigitShortCodeLength() {
+        assertFalse(MmiCodeParser.isTwoDigitShortCode(getContext(), null));
+        assertFalse(MmiCodeParser.isTwoDigitShortCode(getContext(), "112"));
+    }
+
+    /**
+     * Compare against the regular expression on a generated corpus of dial strings.
+     */
+    @MediumTest
+    public void testGeneratedCorpus() {
+        Random r = new Random(0x22030);  // use the same seed for reproducibility
+        int matches = 0;
+        for (int i = 0; i < 20000; i++) {
+            String dialString = generateDialString(r);
+            assertSameAsRegex(dialString);
+            if (MmiCodeParser.parse(dialString) != null) {
+                matches++;
+            }
+        }
+        assertTrue(matches > 0);
+    }
+}
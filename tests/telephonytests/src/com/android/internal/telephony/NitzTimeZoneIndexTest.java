@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.TimeUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Test cases for NitzTimeZoneIndex, with TimeUtils and the trackers' former findTimeZone as
+ * the oracles.
+ */
+public class NitzTimeZoneIndexTest extends AndroidTestCase {
+    private static final String TAG = "NitzTimeZoneIndexTest";
+
+    private static final String[] COUNTRIES = {
+        "us", "ca", "mx", "br", "au", "ru", "kz", "cn", "in", "gb", "de", "fr", "es", "pt",
+        "id", "nz", "cl", "ar", "ua", "za",
+    };
+
+    private static final long HOUR_MS = 60 * 60 * 1000;
+    private static final long DAY_MS = 24 * HOUR_MS;
+    // 2015-01-01T00:00Z
+    private static final long JAN_2015 = 1420070400000L;
+
+    private static long[] sampleTimes() {
+        long[] times = new long[24];
+        for (int i = 0; i < times.length; i++) {
+            // twice a month, at varying hours, to cover both sides of DST transitions
+            times[i] = JAN_2015 + i * 15 * DAY_MS + (i * 7 % 24) * HOUR_MS;
+        }
+        return times;
+    }
+
+    private static String id(TimeZone tz) {
+        return tz == null ? null : tz.getID();
+    }
+
+    /**
+     * The findTimeZone of the service state trackers before the index.
+     */
+    private static TimeZone findTimeZone(int offset, boolean dst, long when) {
+        int rawOffset = dst ? offset - (int) HOUR_MS : offset;
+        Date d = new Date(when);
+        for (String zone : TimeZone.getAvailableIDs(rawOffset)) {
+            TimeZone tz = TimeZone.getTimeZone(zone);
+            if (tz.getOffset(when) == offset && tz.inDaylightTime(d) == dst) {
+                return tz;
+            }
+        }
+        return null;
+    }
+
+    private static TimeZone nitzTimeZone(int offset, boolean dst, long when) {
+        TimeZone guess = findTimeZone(offset, dst, when);
+        return guess != null ? guess : findTimeZone(offset, !dst, when);
+    }
+
+    @LargeTest
+    public void testMatchesTimeUtils() {
+        for (String iso : COUNTRIES) {
+            for (long when : sampleTimes()) {
+                for (TimeZone tz : TimeUtils.getTimeZones(iso)) {
+                    int offset = tz.getOffset(when);
+                    for (boolean dst : new boolean[] { false, true }) {
+                        // and a neighbouring offset, which may match nothing
+                        for (int o : new int[] { offset, offset + (int) HOUR_MS / 2 }) {
+                            assertEquals(iso + " " + o + " " + dst + " " + when,
+                                    id(TimeUtils.getTimeZone(o, dst, when, iso)),
+                                    id(NitzTimeZoneIndex.getTimeZone(o, dst, when, iso)));
+                        }
+                    }
+                }
+            }
+            ArrayList<TimeZone> expected = TimeUtils.getTimeZonesWithUniqueOffsets(iso);
+            ArrayList<TimeZone> actual = NitzTimeZoneIndex.getTimeZonesWithUniqueOffsets(iso);
+            assertEquals(iso, expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(iso, expected.get(i).getID(), actual.get(i).getID());
+            }
+        }
+    }
+
+    @LargeTest
+    public void testMatchesFindTimeZone() {
+        for (long when : sampleTimes()) {
+            for (int quarters = -12 * 4; quarters <= 14 * 4; quarters++) {
+                int offset = quarters * 15 * 60 * 1000;
+                for (boolean dst : new boolean[] { false, true }) {
+                    assertEquals(offset + " " + dst + " " + when,
+                            id(nitzTimeZone(offset, dst, when)),
+                            id(NitzTimeZoneIndex.getNitzTimeZone(offset, dst, when)));
+                }
+            }
+        }
+    }
+
+    /**
+     * The default zone wins when it's in the country and matches, as in TimeUtils.
+     */
+    @SmallTest
+    public void testPrefersDefaultZone() {
+        TimeZone saved = TimeZone.getDefault();
+        try {
+            long when = JAN_2015;
+            int offset = -6 * (int) HOUR_MS;
+            TimeZone.setDefault(TimeZone.getTimeZone("Europe/Paris"));
+            TimeZone first = NitzTimeZoneIndex.getTimeZone(offset, false, when, "us");
+            assertFalse("America/Menominee".equals(first.getID()));
+            // after the memoized answer for the same key
+            TimeZone.setDefault(TimeZone.getTimeZone("America/Menominee"));
+            assertEquals("America/Menominee",
+                    NitzTimeZoneIndex.getTimeZone(offset, false, when, "us").getID());
+            TimeZone.setDefault(TimeZone.getTimeZone("Europe/Paris"));
+            assertEquals(first.getID(),
+                    NitzTimeZoneIndex.getTimeZone(offset, false, when, "us").getID());
+        } finally {
+            TimeZone.setDefault(saved);
+        }
+    }
+
+    /**
+     * A phone near a border gets NITZ from networks of two countries in turn, so the memo
+     * and the country indexes are reused and replaced between updates.
+     */
+    @MediumTest
+    public void testBorderAreaNitz() {
+        final int updates = 2000;
+        final String[] isos = { "us", "ca" };
+        final int[] offsets = { -5 * (int) HOUR_MS, -4 * (int) HOUR_MS };
+        final long when = JAN_2015 + 180 * DAY_MS;
+
+        for (int i = 0; i < updates; i++) {
+            String iso = isos[i % 2];
+            int offset = offsets[i % 2];
+            long t = when + i * 1000;
+            assertEquals(iso, TimeUtils.getTimeZonesWithUniqueOffsets(iso).size(),
+                    NitzTimeZoneIndex.getTimeZonesWithUniqueOffsets(iso).size());
+            assertEquals(iso + " " + t, id(TimeUtils.getTimeZone(offset, true, t, iso)),
+                    id(NitzTimeZoneIndex.getTimeZone(offset, true, t, iso)));
+            assertEquals(offset + " " + t, id(nitzTimeZone(offset, true, t)),
+                    id(NitzTimeZoneIndex.getNitzTimeZone(offset, true, t)));
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.cdma.EriInfo;
+import com.android.internal.util.XmlUtils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Test cases for OperatorMetadata, reading stores built with OperatorMetadataFormat.Writer,
+ * with the short code resource as the oracle for a real store.
+ */
+public class OperatorMetadataTest extends AndroidTestCase {
+    private static OperatorMetadata read(OperatorMetadataFormat.Writer writer) {
+        return new OperatorMetadata(ByteBuffer.wrap(writer.toByteArray()));
+    }
+
+    @SmallTest
+    public void testSpnOverrides() {
+        OperatorMetadataFormat.Writer writer = new OperatorMetadataFormat.Writer();
+        writer.addSpnOverride("310260", "Three digit");
+        writer.addSpnOverride("31026", "Two digit");
+        writer.addSpnOverride("310026", "Leading zero");
+        writer.addSpnOverride("22201", null);
+        writer.addSpnOverride("00101", "Test");
+        writer.addSpnOverride("99999", "Last");
+        OperatorMetadata metadata = read(writer);
+
+        assertTrue(metadata.hasSpnOverrides());
+        assertEquals("Three digit", metadata.getSpnOverride("310260"));
+        assertEquals("Two digit", metadata.getSpnOverride("31026"));
+        assertEquals("Leading zero", metadata.getSpnOverride("310026"));
+        assertEquals("Test", metadata.getSpnOverride("00101"));
+        assertEquals("Last", metadata.getSpnOverride("99999"));
+        assertTrue(metadata.hasSpnOverride("22201"));
+        assertNull(metadata.getSpnOverride("22201"));
+
+        assertFalse(metadata.hasSpnOverride("310410"));
+        assertFalse(metadata.hasSpnOverride("31041"));
+        assertFalse(metadata.hasSpnOverride("2220"));
+        assertFalse(metadata.hasSpnOverride("3102600"));
+        assertFalse(metadata.hasSpnOverride("31a260"));
+        assertFalse(metadata.hasSpnOverride(null));
+        assertFalse(metadata.hasEri());
+        assertFalse(metadata.hasShortCodes());
+
+        try {
+            writer.addSpnOverride("3102", "Short");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @SmallTest
+    public void testEri() {
+        OperatorMetadataFormat.Writer writer = new OperatorMetadataFormat.Writer();
+        writer.setEriFile(1357, 3, 1);
+        writer.setEriCallPrompt(0, "CallPromptId0");
+        writer.setEriCallPrompt(2, "CallPromptId2");
+        writer.addEriInfo(255, 2, 0, "Last", 0, 0);
+        writer.addEriInfo(64, 1, 0, "Network Extender", 0, 0);
+        writer.addEriInfo(65, 2, 1, "Roaming\u00ae", 1, 2);
+        OperatorMetadata metadata = read(writer);
+
+        assertTrue(metadata.hasEri());
+        assertEquals(1357, metadata.getEriVersion());
+        assertEquals(3, metadata.getEriNumberOfEntries());
+        assertEquals(1, metadata.getEriFileType());
+        assertEquals("CallPromptId0", metadata.getEriCallPrompt(0));
+        assertNull(metadata.getEriCallPrompt(1));
+        assertEquals("CallPromptId2", metadata.getEriCallPrompt(2));
+        assertNull(metadata.getEriCallPrompt(3));
+
+        assertEquals(3, metadata.getEriInfoCount());
+        EriInfo eriInfo = metadata.getEriInfo(1);
+        assertEquals(65, eriInfo.roamingIndicator);
+        assertEquals(2, eriInfo.iconIndex);
+        assertEquals(1, eriInfo.iconMode);
+        assertEquals("Roaming\u00ae", eriInfo.eriText);
+        assertEquals(1, eriInfo.callPromptId);
+        assertEquals(2, eriInfo.alertId);
+        assertEquals(64, metadata.getEriInfo(0).roamingIndicator);
+        assertEquals(255, metadata.getEriInfo(2).roamingIndicator);
+
+        try {
+            writer.addEriInfo(256, 0, 0, "Out of range", 0, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @SmallTest
+    public void testShortCodes() {
+        OperatorMetadataFormat.Writer writer = new OperatorMetadataFormat.Writer();
+        assertTrue(writer.addShortCodes("us", "\\d{5,6}", "20433|21(?:344|472)", "1000", null));
+        assertTrue(writer.addShortCodes("aa", "\\d{4}", null, null, null));
+        assertTrue(writer.addShortCodes("zz", null, null, null, "\\d{3}"));
+        assertFalse(writer.addShortCodes("us", "\\d{3}", null, null, null));
+        OperatorMetadata metadata = read(writer);
+
+        assertTrue(metadata.hasShortCodes());
+        assertEquals(Arrays.asList("\\d{5,6}", "20433|21(?:344|472)", "1000", null),
+                Arrays.asList(metadata.getShortCodePatterns("us")));
+        assertEquals(Arrays.asList("\\d{5,6}", "20433|21(?:344|472)", "1000", null),
+                Arrays.asList(metadata.getShortCodePatterns("US")));
+        assertEquals("\\d{4}", metadata.getShortCodePatterns("aa")[
+                OperatorMetadataFormat.SHORT_CODE_PATTERN]);
+        assertEquals("\\d{3}", metadata.getShortCodePatterns("zz")[
+                OperatorMetadataFormat.SHORT_CODE_STANDARD]);
+        assertNull(metadata.getShortCodePatterns("gb"));
+        assertNull(metadata.getShortCodePatterns("usa"));
+        assertNull(metadata.getShortCodePatterns("1a"));
+        assertNull(metadata.getShortCodePatterns(null));
+        assertFalse(metadata.hasSpnOverrides());
+    }
+
+    /**
+     * The ERI section stands for the resource only when the store has the checksum of the
+     * eri.xml the device resolves.
+     */
+    @SmallTest
+    public void testResourceChecksums() throws Exception {
+        Resources res = getContext().getResources();
+        CRC32 crc = new CRC32();
+        InputStream in = res.openRawResource(com.android.internal.R.xml.eri);
+        try {
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        OperatorMetadataFormat.Writer writer = new OperatorMetadataFormat.Writer();
+        writer.setEriFile(1357, 0, 1);
+        writer.setResourceChecksum(OperatorMetadataFormat.ERI_RESOURCE, crc.getValue());
+        OperatorMetadata metadata = read(writer);
+        assertEquals(crc.getValue(),
+                metadata.getResourceChecksum(OperatorMetadataFormat.ERI_RESOURCE));
+        assertTrue(metadata.matchesResource(res, com.android.internal.R.xml.eri,
+                OperatorMetadataFormat.ERI_RESOURCE));
+        // no checksum for the short codes
+        assertEquals(-1, metadata.getResourceChecksum(
+                OperatorMetadataFormat.SHORT_CODES_RESOURCE));
+        assertFalse(metadata.matchesResource(res, com.android.internal.R.xml.sms_short_codes,
+                OperatorMetadataFormat.SHORT_CODES_RESOURCE));
+
+        // compiled from another eri.xml
+        writer.setResourceChecksum(OperatorMetadataFormat.ERI_RESOURCE, crc.getValue() ^ 1);
+        assertFalse(read(writer).matchesResource(res, com.android.internal.R.xml.eri,
+                OperatorMetadataFormat.ERI_RESOURCE));
+
+        // compiled without checksums
+        writer = new OperatorMetadataFormat.Writer();
+        writer.setEriFile(1357, 0, 1);
+        assertFalse(read(writer).matchesResource(res, com.android.internal.R.xml.eri,
+                OperatorMetadataFormat.ERI_RESOURCE));
+    }
+
+    @SmallTest
+    public void testInvalid() {
+        OperatorMetadataFormat.Writer writer = new OperatorMetadataFormat.Writer();
+        writer.addSpnOverride("310260", "Three digit");
+        byte[] store = writer.toByteArray();
+
+        byte[] badMagic = store.clone();
+        badMagic[0] ^= 1;
+        byte[] badVersion = store.clone();
+        badVersion[7]++;
+        byte[] truncated = Arrays.copyOf(store, store.length - 1);
+        for (byte[] bytes : new byte[][] { badMagic, badVersion, truncated, new byte[4] }) {
+            try {
+                new OperatorMetadata(ByteBuffer.wrap(bytes));
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        OperatorMetadata empty = read(new OperatorMetadataFormat.Writer());
+        assertFalse(empty.hasSpnOverrides());
+        assertFalse(empty.hasEri());
+        assertFalse(empty.hasShortCodes());
+        assertNull(empty.getSpnOverride("310260"));
+        assertNull(empty.getShortCodePatterns("us"));
+    }
+
+    /**
+     * Compiles the short code resource into a store and checks each country against the
+     * resource, parsed as SmsUsageMonitor does.
+     */
+    @MediumTest
+    public void testShortCodesFromResource() throws Exception {
+        ArrayList<String[]> shortCodes = new ArrayList<String[]>();
+        XmlResourceParser parser = getContext().getResources().getXml(
+                com.android.internal.R.xml.sms_short_codes);
+        try {
+            XmlUtils.beginDocument(parser, "shortcodes");
+            while (true) {
+                XmlUtils.nextElement(parser);
+                if (!"shortcode".equals(parser.getName())) {
+                    break;
+                }
+                shortCodes.add(new String[] {
+                    parser.getAttributeValue(null, "country"),
+                    parser.getAttributeValue(null, "pattern"),
+                    parser.getAttributeValue(null, "premium"),
+                    parser.getAttributeValue(null, "free"),
+                    parser.getAttributeValue(null, "standard"),
+                });
+            }
+        } finally {
+            parser.close();
+        }
+        assertFalse(shortCodes.isEmpty());
+
+        OperatorMetadataFormat.Writer writer = new OperatorMetadataFormat.Writer();
+        ArrayList<String[]> added = new ArrayList<String[]>();
+        for (String[] s : shortCodes) {
+            if (writer.addShortCodes(s[0], s[1], s[2], s[3], s[4])) {
+                added.add(s);
+            }
+        }
+        OperatorMetadata metadata = read(writer);
+
+        for (String[] s : added) {
+            assertEquals(Arrays.asList(s).subList(1, 5),
+                    Arrays.asList(metadata.getShortCodePatterns(s[0])));
+        }
+    }
+}
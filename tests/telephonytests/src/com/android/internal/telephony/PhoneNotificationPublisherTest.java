@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test cases for the PhoneNotificationPublisher class.
+ */
+public class PhoneNotificationPublisherTest extends AndroidTestCase {
+    private static final String TAG = "PhoneNotificationPublisherTest";
+
+    private static final long WINDOW_MS = 50;
+    private static final String[] APN_TYPES = {
+            "default", "mms", "supl", "dun", "hipri", "fota", "ims", "cbs", "ia", "emergency"
+    };
+
+    private HandlerThread mThread;
+    private PhoneNotificationPublisher mPublisher;
+
+    /** Counts the binder calls the real registry would receive. */
+    private final AtomicInteger mRegistryCalls = new AtomicInteger();
+
+    private final Runnable mRegistryCall = new Runnable() {
+        @Override
+        public void run() {
+            mRegistryCalls.incrementAndGet();
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mPublisher = new PhoneNotificationPublisher(mThread.getLooper(), WINDOW_MS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    /** Wait until the notifications coalesced so far have been sent. */
+    private void flush() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, WINDOW_MS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @SmallTest
+    public void testUnchangedPayloadSuppressed() {
+        mPublisher.publish(PhoneNotificationPublisher.KIND_SERVICE_STATE, 0, 1, null,
+                "in service", mRegistryCall);
+        mPublisher.publish(PhoneNotificationPublisher.KIND_SERVICE_STATE, 0, 1, null,
+                "in service", mRegistryCall);
+        assertEquals(1, mRegistryCalls.get());
+
+        // another phone, subscription or kind is tracked separately
+        mPublisher.publish(PhoneNotificationPublisher.KIND_SERVICE_STATE, 1, 2, null,
+                "in service", mRegistryCall);
+        mPublisher.publish(PhoneNotificationPublisher.KIND_SERVICE_STATE, 0, 2, null,
+                "in service", mRegistryCall);
+        mPublisher.publish(PhoneNotificationPublisher.KIND_CALL_STATE, 0, 1, null,
+                "in service", mRegistryCall);
+        assertEquals(4, mRegistryCalls.get());
+
+        mPublisher.publish(PhoneNotificationPublisher.KIND_SERVICE_STATE, 0, 1, null, null,
+                mRegistryCall);
+        mPublisher.publish(PhoneNotificationPublisher.KIND_SERVICE_STATE, 0, 1, null, null,
+                mRegistryCall);
+        assertEquals(5, mRegistryCalls.get());
+        assertEquals(5, mPublisher.getSentCount());
+        assertEquals(2, mPublisher.getSuppressedCount());
+    }
+
+    @SmallTest
+    public void testApnTypesTrackedSeparately() {
+        for (String apnType : APN_TYPES) {
+            mPublisher.publish(PhoneNotificationPublisher.KIND_DATA_CONNECTION, 0, 1, apnType,
+                    Arrays.asList(2, true, "connected"), mRegistryCall);
+        }
+        assertEquals(APN_TYPES.length, mRegistryCalls.get());
+        mPublisher.publish(PhoneNotificationPublisher.KIND_DATA_CONNECTION, 0, 1, "default",
+                Arrays.asList(2, true, "connected"), mRegistryCall);
+        assertEquals(APN_TYPES.length, mRegistryCalls.get());
+    }
+
+    @MediumTest
+    public void testBurstCoalesced() throws Exception {
+        final AtomicReference<Object> sent = new AtomicReference<Object>();
+        for (int i = 0; i < 10; i++) {
+            final Integer level = i;
+            mPublisher.publishCoalesced(PhoneNotificationPublisher.KIND_SIGNAL_STRENGTH, 0, 1,
+                    null, level, new Runnable() {
+                @Override
+                public void run() {
+                    mRegistryCalls.incrementAndGet();
+                    sent.set(level);
+                }
+            });
+        }
+        assertEquals(0, mRegistryCalls.get());
+        flush();
+        assertEquals(1, mRegistryCalls.get());
+        assertEquals(9, sent.get());
+        assertEquals(1, mPublisher.getSentCount());
+        assertEquals(9, mPublisher.getCoalescedCount());
+
+        // a later notification starts a new window
+        mPublisher.publishCoalesced(PhoneNotificationPublisher.KIND_SIGNAL_STRENGTH, 0, 1, null,
+                3, mRegistryCall);
+        flush();
+        assertEquals(2, mRegistryCalls.get());
+    }
+
+    /**
+     * Count the registry calls for a burst of notifications like those sent when the phone
+     * attaches to a new cell with all APN types connected.
+     */
+    @MediumTest
+    public void testRegistryCallsPerNetworkEvent() throws Exception {
+        final int events = 200;
+        int notifications = 0;
+        for (int event = 0; event < events; event++) {
+            int cell = event % 4;
+            // the service state tracker notifies on each poll, mostly unchanged
+            for (int i = 0; i < 3; i++) {
+                mPublisher.publish(PhoneNotificationPublisher.KIND_SERVICE_STATE, 0, 1, null,
+                        "cell " + cell, mRegistryCall);
+                notifications++;
+            }
+            for (int i = 0; i < 5; i++) {
+                mPublisher.publishCoalesced(PhoneNotificationPublisher.KIND_SIGNAL_STRENGTH, 0,
+                        1, null, cell * 10 + i, mRegistryCall);
+                notifications++;
+            }
+            mPublisher.publishCoalesced(PhoneNotificationPublisher.KIND_CELL_INFO, 0, 1, null,
+                    "cell info " + cell, mRegistryCall);
+            notifications++;
+            // data connection notifications are sent for every APN type
+            for (String apnType : APN_TYPES) {
+                mPublisher.publish(PhoneNotificationPublisher.KIND_DATA_CONNECTION, 0, 1,
+                        apnType, Arrays.asList(2, true, "connected", cell), mRegistryCall);
+                notifications++;
+            }
+            for (int i = 0; i < 4; i++) {
+                mPublisher.publish(PhoneNotificationPublisher.KIND_DATA_ACTIVITY, 0, 1, null,
+                        i % 2, mRegistryCall);
+                notifications++;
+            }
+        }
+        flush();
+
+        int calls = mRegistryCalls.get();
+        assertEquals(calls, mPublisher.getSentCount());
+        assertEquals(notifications, mPublisher.getSentCount() + mPublisher.getSuppressedCount()
+                + mPublisher.getCoalescedCount());
+        assertTrue(calls < notifications);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Test cases for RILRequestQueue, and the order a call is answered in while the phonebook
+ * is read from a rild that handles one request at a time.
+ */
+public class RILRequestQueueTest extends AndroidTestCase {
+    private static final String TAG = "RILRequestQueueTest";
+
+    private static final int PHONEBOOK_RECORDS = 100;
+
+    private final ArrayList<RILRequest> mRequests = new ArrayList<RILRequest>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (RILRequest rr : mRequests) {
+            rr.mParcel.recycle();
+            rr.mParcel = null;
+            rr.release();
+        }
+        super.tearDown();
+    }
+
+    private RILRequest obtain(int request) {
+        RILRequest rr = RILRequest.obtain(request, null);
+        mRequests.add(rr);
+        return rr;
+    }
+
+    @SmallTest
+    public void testLaneOf() {
+        assertEquals(RILRequestQueue.LANE_CALL, RILRequestQueue.laneOf(RIL_REQUEST_DIAL));
+        assertEquals(RILRequestQueue.LANE_CALL, RILRequestQueue.laneOf(RIL_REQUEST_ANSWER));
+        assertEquals(RILRequestQueue.LANE_CALL, RILRequestQueue.laneOf(RIL_REQUEST_HANGUP));
+        assertEquals(RILRequestQueue.LANE_BACKGROUND,
+                RILRequestQueue.laneOf(RIL_REQUEST_SIM_IO));
+        assertEquals(RILRequestQueue.LANE_INTERACTIVE,
+                RILRequestQueue.laneOf(RIL_REQUEST_SIGNAL_STRENGTH));
+    }
+
+    @SmallTest
+    public void testPriorityAndAdmission() {
+        RILRequestQueue queue = new RILRequestQueue(2);
+        RILRequest[] simIo = new RILRequest[4];
+        for (int i = 0; i < simIo.length; i++) {
+            simIo[i] = obtain(RIL_REQUEST_SIM_IO);
+            queue.add(simIo[i]);
+        }
+        RILRequest signal = obtain(RIL_REQUEST_SIGNAL_STRENGTH);
+        queue.add(signal);
+        RILRequest answer = obtain(RIL_REQUEST_ANSWER);
+        queue.add(answer);
+
+        assertSame(answer, queue.poll());
+        assertSame(signal, queue.poll());
+        assertSame(simIo[0], queue.poll());
+        assertSame(simIo[1], queue.poll());
+        // two background requests are in flight
+        assertNull(queue.poll());
+        assertEquals(2, queue.getDepth(RILRequestQueue.LANE_BACKGROUND));
+        assertEquals(2, queue.getBackgroundInFlight());
+
+        // an answered request that isn't background doesn't admit one
+        assertFalse(queue.onCompleted(answer));
+        assertNull(queue.poll());
+
+        assertTrue(queue.onCompleted(simIo[0]));
+        assertFalse(queue.onCompleted(simIo[0]));
+        assertSame(simIo[2], queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.onCompleted(simIo[1]));
+        assertSame(simIo[3], queue.poll());
+        assertFalse(queue.onCompleted(simIo[2]));
+        assertFalse(queue.onCompleted(simIo[3]));
+        assertEquals(0, queue.getBackgroundInFlight());
+    }
+
+    @SmallTest
+    public void testNoLimit() {
+        RILRequestQueue queue = new RILRequestQueue(0);
+        for (int i = 0; i < 10; i++) {
+            queue.add(obtain(RIL_REQUEST_SIM_IO));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(queue.poll());
+        }
+        assertNull(queue.poll());
+    }
+
+    @SmallTest
+    public void testRemoveExpired() {
+        RILRequestQueue queue = new RILRequestQueue(1);
+        RILRequest sent = obtain(RIL_REQUEST_SIM_IO);
+        RILRequest held = obtain(RIL_REQUEST_SIM_IO);
+        RILRequest noDeadline = obtain(RIL_REQUEST_SIM_IO);
+        sent.mDeadline = 1000;
+        held.mDeadline = 1000;
+        queue.add(sent);
+        queue.add(held);
+        queue.add(noDeadline);
+        assertSame(sent, queue.poll());
+
+        assertNull(queue.removeExpired(held.mSerial, 999));
+        assertSame(held, queue.removeExpired(held.mSerial, 1000));
+        assertNull(queue.removeExpired(noDeadline.mSerial, 1000));
+        // a sent request is expired by RIL, not the queue
+        assertNull(queue.removeExpired(sent.mSerial, 1000));
+        assertEquals(1, queue.getDepth(RILRequestQueue.LANE_BACKGROUND));
+
+        assertTrue(queue.onCompleted(sent));
+        assertSame(noDeadline, queue.poll());
+    }
+
+    /**
+     * Sends requests the way RILSender does to a rild that answers one request at a time, in
+     * the order it got them. The phonebook is queued first, and an ANSWER once rild has
+     * answered the first record.
+     *
+     * @return The requests in the order they were sent to rild
+     */
+    private ArrayList<RILRequest> dispatchOrder(int maxBackgroundInFlight) {
+        RILRequestQueue queue = new RILRequestQueue(maxBackgroundInFlight);
+        ArrayDeque<RILRequest> rild = new ArrayDeque<RILRequest>();
+        ArrayList<RILRequest> sent = new ArrayList<RILRequest>();
+
+        for (int i = 0; i < PHONEBOOK_RECORDS; i++) {
+            queue.add(obtain(RIL_REQUEST_SIM_IO));
+        }
+        send(queue, rild, sent);
+        queue.onCompleted(rild.poll());
+        queue.add(obtain(RIL_REQUEST_ANSWER));
+        send(queue, rild, sent);
+        while (!rild.isEmpty()) {
+            queue.onCompleted(rild.poll());
+            send(queue, rild, sent);
+        }
+
+        assertEquals(PHONEBOOK_RECORDS + 1, sent.size());
+        assertEquals(0, queue.getBackgroundInFlight());
+        return sent;
+    }
+
+    private static void send(RILRequestQueue queue, ArrayDeque<RILRequest> rild,
+            ArrayList<RILRequest> sent) {
+        RILRequest rr;
+        while ((rr = queue.poll()) != null) {
+            rild.add(rr);
+            sent.add(rr);
+        }
+    }
+
+    private static int indexOfAnswer(ArrayList<RILRequest> sent) {
+        for (int i = 0; i < sent.size(); i++) {
+            if (sent.get(i).mRequest == RIL_REQUEST_ANSWER) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SmallTest
+    public void testAnswerOrderUnderPhonebookLoad() {
+        // without a limit the whole phonebook is in rild before the ANSWER
+        assertEquals(PHONEBOOK_RECORDS, indexOfAnswer(dispatchOrder(0)));
+
+        // with lanes only the two records in flight are, and the ANSWER goes before the rest
+        ArrayList<RILRequest> sent = dispatchOrder(2);
+        assertEquals(2, indexOfAnswer(sent));
+        for (int i = indexOfAnswer(sent) + 1; i < sent.size(); i++) {
+            assertEquals(RIL_REQUEST_SIM_IO, sent.get(i).mRequest);
+        }
+    }
+}
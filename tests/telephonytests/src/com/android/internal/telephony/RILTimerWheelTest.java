@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.os.Message;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Test cases for RILTimerWheel, and removing requests from RILRequestQueue when they expire
+ * or are cancelled.
+ */
+public class RILTimerWheelTest extends AndroidTestCase {
+    private static final long TICK_MS = 1000;
+    private static final int SLOTS = 8;
+
+    @SmallTest
+    public void testExpire() {
+        RILTimerWheel wheel = new RILTimerWheel(TICK_MS, SLOTS);
+        long now = 100000;
+        assertTrue(wheel.add(1, now + 500, now));
+        assertFalse(wheel.add(2, now + 2500, now));
+        assertFalse(wheel.add(3, now + 2500, now));
+        // more than a turn of the wheel away, in the same slot as 1
+        assertFalse(wheel.add(4, now + 500 + SLOTS * TICK_MS, now));
+
+        ArrayList<Integer> expired = new ArrayList<Integer>();
+        assertTrue(wheel.expire(now + 400, expired));
+        assertTrue(expired.isEmpty());
+
+        assertTrue(wheel.expire(now + 1000, expired));
+        assertEquals(1, expired.size());
+        assertEquals(1, (int) expired.get(0));
+
+        expired.clear();
+        assertTrue(wheel.expire(now + 3000, expired));
+        Collections.sort(expired);
+        assertEquals(2, expired.size());
+        assertEquals(2, (int) expired.get(0));
+        assertEquals(3, (int) expired.get(1));
+        assertEquals(1, wheel.size());
+
+        expired.clear();
+        assertFalse(wheel.expire(now + 500 + SLOTS * TICK_MS, expired));
+        assertEquals(1, expired.size());
+        assertEquals(4, (int) expired.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+    /**
+     * Ticks can be late, for example while the device is asleep.
+     */
+    @SmallTest
+    public void testLateTick() {
+        RILTimerWheel wheel = new RILTimerWheel(TICK_MS, SLOTS);
+        long now = 100000;
+        for (int i = 0; i < 100; i++) {
+            wheel.add(i, now + i * 100, now);
+        }
+        ArrayList<Integer> expired = new ArrayList<Integer>();
+        assertFalse(wheel.expire(now + 60 * TICK_MS, expired));
+        assertEquals(100, expired.size());
+    }
+
+    @SmallTest
+    public void testRemoveFromQueue() {
+        RILRequestQueue queue = new RILRequestQueue(1);
+        Message result = Message.obtain();
+        RILRequest simIo = RILRequest.obtain(RIL_REQUEST_SIM_IO, null);
+        RILRequest signal = RILRequest.obtain(RIL_REQUEST_SIGNAL_STRENGTH, null);
+        RILRequest answer = RILRequest.obtain(RIL_REQUEST_ANSWER, null);
+        answer.mResult = result;
+        queue.add(simIo);
+        queue.add(signal);
+        queue.add(answer);
+
+        assertSame(answer, queue.remove(result));
+        assertNull(queue.remove(result));
+        // a request is only removed as expired once its deadline has passed
+        simIo.mDeadline = 100000;
+        assertNull(queue.removeExpired(simIo.mSerial, 99999));
+        assertSame(simIo, queue.removeExpired(simIo.mSerial, 100000));
+        assertNull(queue.removeExpired(simIo.mSerial, 100000));
+        assertSame(signal, queue.poll());
+        assertNull(queue.poll());
+
+        for (RILRequest rr : new RILRequest[] { simIo, signal, answer }) {
+            rr.mParcel.recycle();
+            rr.mParcel = null;
+            rr.release();
+        }
+        result.recycle();
+    }
+}
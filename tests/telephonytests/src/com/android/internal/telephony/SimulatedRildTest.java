@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.net.LocalSocketAddress;
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.android.internal.telephony.test.RilLoadProfile;
+import com.android.internal.telephony.test.RilLoadReport;
+import com.android.internal.telephony.test.RilRecording;
+import com.android.internal.telephony.test.SimulatedRild;
+import com.android.internal.telephony.uicc.IccIoResult;
+import com.android.internal.telephony.uicc.IccUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs RIL against a SimulatedRild, under a load of unsolicited responses and replaying a
+ * recorded session. Each run logs its throughput and latency percentiles.
+ */
+public class SimulatedRildTest extends AndroidTestCase {
+    private static final String TAG = "SimulatedRildTest";
+
+    private static final int EVENT_RIL_CONNECTED = 1;
+    private static final int EVENT_SIGNAL_STRENGTH = 2;
+    private static final int EVENT_RESPONSE = 3;
+
+    private static final long TIMEOUT_MS = 30000;
+    private static final int EF_ADN = 0x6F3A;
+
+    private SimulatedRild mRild;
+    private RIL mRil;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private CountDownLatch mConnected;
+    private final AtomicInteger mSignalStrengths = new AtomicInteger();
+
+    // Answered requests of a run, guarded by this
+    private Object[] mResults;
+    private int mAnswered;
+    private int mFailed;
+    private CountDownLatch mDone;
+    private RilLoadReport mReport;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case EVENT_RIL_CONNECTED:
+                        mConnected.countDown();
+                        break;
+                    case EVENT_SIGNAL_STRENGTH:
+                        mSignalStrengths.incrementAndGet();
+                        break;
+                    case EVENT_RESPONSE:
+                        onResponse((AsyncResult) msg.obj);
+                        break;
+                }
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mRild != null) {
+            mRild.shutdown();
+        }
+        mThread.quitSafely();
+        super.tearDown();
+    }
+
+    /**
+     * Starts a SimulatedRild with a load, and a RIL connected to it.
+     */
+    private void connect(RilLoadProfile profile, RilRecording recording,
+            RilRecording replay, float speed) throws Exception {
+        if (mRild != null) {
+            mRild.shutdown();
+        }
+        String name = TAG + "-" + SystemClock.elapsedRealtimeNanos();
+        mRild = new SimulatedRild(name);
+        mRild.setLoadProfile(profile);
+        if (recording != null) {
+            mRild.startRecording(recording);
+        }
+        if (replay != null) {
+            mRild.startReplay(replay, speed);
+        }
+        mRild.start();
+
+        mConnected = new CountDownLatch(1);
+        mRil = new RIL(getContext(), RILConstants.PREFERRED_NETWORK_MODE,
+                Phone.PREFERRED_CDMA_SUBSCRIPTION, null,
+                new LocalSocketAddress(name, LocalSocketAddress.Namespace.ABSTRACT));
+        mRil.registerForRilConnected(mHandler, EVENT_RIL_CONNECTED, null);
+        mRil.setOnSignalStrengthUpdate(mHandler, EVENT_SIGNAL_STRENGTH, null);
+        assertTrue(mConnected.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private void onResponse(AsyncResult ar) {
+        synchronized (this) {
+            if (ar.exception != null) {
+                mFailed++;
+            }
+            mResults[(Integer) ar.userObj] = ar.result;
+            mAnswered++;
+            if (mReport != null) {
+                mReport.onResponse((Integer) ar.userObj);
+            }
+        }
+        mDone.countDown();
+    }
+
+    private synchronized void startRun(RilLoadReport report, int requests) {
+        mReport = report;
+        mResults = new Object[requests];
+        mAnswered = 0;
+        mFailed = 0;
+        mDone = new CountDownLatch(requests);
+    }
+
+    /**
+     * Sends requests as fast as RIL takes them, waits for all of them to be answered, and
+     * logs the throughput and percentiles of the latency.
+     *
+     * @return The result of each request
+     */
+    private Object[] run(String name, int requests, boolean simIo) throws Exception {
+        RilLoadReport report = new RilLoadReport(name, requests);
+        startRun(report, requests);
+        for (int i = 0; i < requests; i++) {
+            Message result = mHandler.obtainMessage(EVENT_RESPONSE, i);
+            report.onRequest(i);
+            if (simIo) {
+                mRil.iccIOForApp(0xb2, EF_ADN, "3F007F10", i % 250 + 1, 4, 28, null, null, null,
+                        result);
+            } else {
+                mRil.getCurrentCalls(result);
+            }
+        }
+        assertTrue(mDone.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Rlog.d(TAG, report.toString());
+        synchronized (this) {
+            assertEquals(requests, mAnswered);
+            assertEquals(0, mFailed);
+            return mResults;
+        }
+    }
+
+    /** Asserts that each result of a SIM_IO run is the given payload. */
+    private static void assertPayloads(String payload, Object[] results) {
+        for (Object result : results) {
+            IccIoResult iccIo = (IccIoResult) result;
+            assertEquals(payload, IccUtils.bytesToHexString(iccIo.payload).toUpperCase());
+        }
+    }
+
+    @MediumTest
+    public void testRequests() throws Exception {
+        connect(new RilLoadProfile(), null, null, 1);
+        run("GET_CURRENT_CALLS", 100, false);
+        run("SIM_IO", 100, true);
+        assertEquals(100, mRild.getRequestCount(RIL_REQUEST_GET_CURRENT_CALLS));
+        assertEquals(100, mRild.getRequestCount(RIL_REQUEST_SIM_IO));
+
+        // RIL fails the requests rild doesn't support
+        startRun(null, 1);
+        mRil.getIMSI(mHandler.obtainMessage(EVENT_RESPONSE, 0));
+        assertTrue(mDone.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        synchronized (this) {
+            assertEquals(1, mFailed);
+        }
+    }
+
+    /**
+     * Sends two SIM_IO requests and then a background request of another type, and waits
+     * for their results.
+     *
+     * @return The exception of each result, or null
+     */
+    private Throwable[] sendBackgroundRequests() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(3);
+        final Throwable[] exceptions = new Throwable[3];
+        Handler handler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                exceptions[msg.what] = ((AsyncResult) msg.obj).exception;
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < 2; i++) {
+            mRil.iccIOForApp(0xb2, EF_ADN, "3F007F10", i + 1, 4, 28, null, null, null,
+                    handler.obtainMessage(i));
+        }
+        mRil.deleteSmsOnSim(1, handler.obtainMessage(2));
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        return exceptions;
+    }
+
+    private static boolean isTimeout(Throwable exception) {
+        return exception instanceof CommandException && ((CommandException) exception)
+                .getCommandError() == CommandException.Error.TIMEOUT;
+    }
+
+    /**
+     * Two SIM_IO requests whose responses rild loses take both background slots. When they
+     * expire they free the slots, so the background request held back behind them is sent.
+     */
+    @MediumTest
+    public void testExpiredRequestsFreeBackgroundSlots() throws Exception {
+        RilLoadProfile profile = new RilLoadProfile();
+        profile.droppedSimIoResponses = 2;
+        connect(profile, null, null, 1);
+        mRil.setRequestTimeout(RIL_REQUEST_SIM_IO, 1000);
+        mRil.setRequestTimeout(RIL_REQUEST_DELETE_SMS_ON_SIM, (int) TIMEOUT_MS);
+
+        Throwable[] exceptions = sendBackgroundRequests();
+        assertTrue(isTimeout(exceptions[0]));
+        assertTrue(isTimeout(exceptions[1]));
+        // rild answered it, though it doesn't support it
+        assertFalse(isTimeout(exceptions[2]));
+        assertEquals(1, mRild.getRequestCount(RIL_REQUEST_DELETE_SMS_ON_SIM));
+    }
+
+    /**
+     * A background request held back behind two slow SIM_IO requests without a deadline
+     * fails with TIMEOUT instead of waiting for them, and is never sent.
+     */
+    @MediumTest
+    public void testHeldBackRequestExpires() throws Exception {
+        RilLoadProfile profile = new RilLoadProfile();
+        profile.simIoLatency = new RilLoadProfile.Latency(5000, 5000);
+        connect(profile, null, null, 1);
+        mRil.setRequestTimeout(RIL_REQUEST_SIM_IO, 0);
+        mRil.setRequestTimeout(RIL_REQUEST_DELETE_SMS_ON_SIM, 1000);
+
+        Throwable[] exceptions = sendBackgroundRequests();
+        assertNull(exceptions[0]);
+        assertNull(exceptions[1]);
+        assertTrue(isTimeout(exceptions[2]));
+        assertEquals(0, mRild.getRequestCount(RIL_REQUEST_DELETE_SMS_ON_SIM));
+    }
+
+    /**
+     * Every request is answered, with its own response, while rild sends signal strength, cell
+     * info and data call list responses much faster than a real modem. The logged latencies
+     * compare the run with a quiet one.
+     */
+    @LargeTest
+    public void testUnsolLoad() throws Exception {
+        RilLoadProfile profile = new RilLoadProfile();
+        profile.simIoLatency = new RilLoadProfile.Latency(5, 15, 0.05f, 200);
+        profile.defaultLatency = new RilLoadProfile.Latency(1, 5);
+        profile.simIoResponse = "00112233";
+        connect(profile, null, null, 1);
+        assertPayloads("00112233", run("SIM_IO quiet", 200, true));
+
+        profile.signalStrengthIntervalMs = 5;
+        profile.cellInfoListIntervalMs = 20;
+        profile.dataCallListIntervalMs = 100;
+        connect(profile, null, null, 1);
+
+        int unsolsBefore = mRild.getUnsolCount(RIL_UNSOL_SIGNAL_STRENGTH);
+        assertPayloads("00112233", run("SIM_IO under unsol load", 200, true));
+        run("GET_CURRENT_CALLS under unsol load", 200, false);
+        assertEquals(200, mRild.getRequestCount(RIL_REQUEST_SIM_IO));
+        assertEquals(200, mRild.getRequestCount(RIL_REQUEST_GET_CURRENT_CALLS));
+        // the requests were interleaved with unsolicited responses, which RIL delivered
+        assertTrue(mRild.getUnsolCount(RIL_UNSOL_SIGNAL_STRENGTH) > unsolsBefore);
+        assertTrue(mSignalStrengths.get() > 0);
+    }
+
+    /**
+     * A recorded session replayed at ten times its speed gets the recorded responses.
+     */
+    @LargeTest
+    public void testRecordAndReplay() throws Exception {
+        RilLoadProfile profile = new RilLoadProfile();
+        profile.simIoLatency = new RilLoadProfile.Latency(20, 40);
+        profile.simIoResponse = "00112233";
+        profile.signalStrengthIntervalMs = 50;
+        RilRecording recording = new RilRecording();
+        connect(profile, recording, null, 1);
+        assertPayloads("00112233", run("SIM_IO recorded", 50, true));
+        int signalStrengths = mRild.getUnsolCount(RIL_UNSOL_SIGNAL_STRENGTH);
+        assertTrue(signalStrengths > 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recording.writeTo(out);
+        RilRecording replay = RilRecording.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(recording.size(), replay.size());
+
+        // the replay answers with the recorded responses, not the profile's
+        RilLoadProfile quiet = new RilLoadProfile();
+        quiet.simIoResponse = "FFFF";
+        connect(quiet, null, replay, 10);
+        assertPayloads("00112233", run("SIM_IO replayed", 50, true));
+        // and to the requests RIL made on connection
+        assertTrue(mRild.getReplayedCount() >= 50);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final IccIoResult[] iccIo = new IccIoResult[1];
+        Handler handler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                iccIo[0] = (IccIoResult) ((AsyncResult) msg.obj).result;
+                done.countDown();
+            }
+        };
+        mRil.iccIOForApp(0xb2, EF_ADN, "3F007F10", 1, 4, 28, null, null, null,
+                handler.obtainMessage());
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        // the recording ran out, so rild is back to the profile
+        assertEquals("FFFF", IccUtils.bytesToHexString(iccIo[0].payload).toUpperCase());
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Test cases for the recovery of undelivered messages from a fake raw table of several pages,
+ * read by the worker threads of SmsBroadcastUndelivered.
+ */
+public class SmsBroadcastUndeliveredTest extends AndroidTestCase {
+    private static final String ADDRESS = "+15555550100";
+
+    private static final int SINGLE_PART_MESSAGES = 250;
+
+    // Multi-part messages by reference number
+    private static final int REF_COMPLETE = 1;
+    private static final int REF_EXPIRED = 2;
+    private static final int REF_RECENT = 3;
+    private static final int REF_INVALID = 4;
+
+    private FakeRawProvider mProvider;
+    private TestSmsBroadcastUndelivered mRecovery;
+
+    /**
+     * Keeps the rows of the raw table in memory, by _id. Answers the query of every _id, the
+     * query of a page by _id range and the delete of messages by reference.
+     */
+    private static final class FakeRawProvider extends MockContentProvider {
+        final TreeMap<Long, ContentValues> mRows = new TreeMap<Long, ContentValues>();
+        int mPageQueries;
+
+        void add(long id, InboundSmsTracker tracker) {
+            ContentValues row = tracker.getContentValues();
+            row.put("_id", id);
+            mRows.put(id, row);
+        }
+
+        @Override
+        public synchronized Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            long after = Long.MIN_VALUE;
+            long last = Long.MAX_VALUE;
+            if (selection != null) {
+                assertEquals("_id > ? AND _id <= ?", selection);
+                after = Long.parseLong(selectionArgs[0]);
+                last = Long.parseLong(selectionArgs[1]);
+                mPageQueries++;
+            }
+            MatrixCursor cursor = new MatrixCursor(projection);
+            for (ContentValues row : mRows.values()) {
+                long id = row.getAsLong("_id");
+                if (id > after && id <= last) {
+                    Object[] values = new Object[projection.length];
+                    for (int i = 0; i < projection.length; i++) {
+                        values[i] = row.get(projection[i]);
+                    }
+                    cursor.addRow(values);
+                }
+            }
+            return cursor;
+        }
+
+        @Override
+        public synchronized int delete(Uri uri, String selection, String[] selectionArgs) {
+            int count = 0;
+            Iterator<ContentValues> it = mRows.values().iterator();
+            while (it.hasNext()) {
+                ContentValues row = it.next();
+                // one SELECT_BY_REFERENCE for each message
+                for (int i = 0; i < selectionArgs.length; i += 3) {
+                    if (selectionArgs[i].equals(row.getAsString("address"))
+                            && selectionArgs[i + 1].equals(row.getAsString("reference_number"))
+                            && selectionArgs[i + 2].equals(row.getAsString("count"))) {
+                        it.remove();
+                        count++;
+                        break;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Records the messages it would send to the inbound SMS handlers.
+     */
+    private static final class TestSmsBroadcastUndelivered extends SmsBroadcastUndelivered {
+        final List<InboundSmsTracker> mBroadcast = new ArrayList<InboundSmsTracker>();
+
+        TestSmsBroadcastUndelivered(Context context) {
+            super(context, null, null);
+        }
+
+        @Override
+        void broadcastSms(InboundSmsTracker tracker) {
+            synchronized (mBroadcast) {
+                mBroadcast.add(tracker);
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProvider = new FakeRawProvider();
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider("sms", mProvider);
+        Context context = new ContextWrapper(getContext()) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        };
+        mRecovery = new TestSmsBroadcastUndelivered(context);
+    }
+
+    private static InboundSmsTracker singlePart(int body, long timestamp) {
+        return new InboundSmsTracker(new byte[] {(byte) (body >> 8), (byte) body}, timestamp,
+                -1, false, false);
+    }
+
+    private static InboundSmsTracker segment(int refNumber, int seqNumber, int count,
+            long timestamp) {
+        byte[] pdu = new byte[] {(byte) refNumber, (byte) seqNumber, (byte) count};
+        return new InboundSmsTracker(pdu, timestamp, -1, false, ADDRESS, refNumber, seqNumber,
+                count, false);
+    }
+
+    @SmallTest
+    public void testRecoveryOverSeveralPages() {
+        long now = System.currentTimeMillis();
+        long old = now - SmsBroadcastUndelivered.PARTIAL_SEGMENT_EXPIRE_AGE - 1000;
+
+        // every other id, as if the rows in between had been deleted
+        long id = 1;
+        for (int i = 0; i < SINGLE_PART_MESSAGES; i++) {
+            mProvider.add(id, singlePart(i, now));
+            id += 2;
+        }
+        // a complete message with a segment on each page, an old one and a recent one that
+        // are missing segments, and a row that can't be loaded
+        mProvider.add(4, segment(REF_COMPLETE, 1, 3, now));
+        mProvider.add(250, segment(REF_COMPLETE, 3, 3, now));
+        mProvider.add(id, segment(REF_COMPLETE, 2, 3, now));
+        mProvider.add(6, segment(REF_EXPIRED, 1, 3, old));
+        mProvider.add(id + 5, segment(REF_EXPIRED, 3, 3, old));
+        mProvider.add(300, segment(REF_RECENT, 2, 2, now));
+        mProvider.add(id + 10, segment(REF_INVALID, 9, 2, old));
+        int rows = mProvider.mRows.size();
+        assertTrue(rows > 2 * SmsBroadcastUndelivered.RAW_TABLE_PAGE_SIZE);
+
+        mRecovery.run();
+
+        // every page was read once
+        assertEquals((rows + SmsBroadcastUndelivered.RAW_TABLE_PAGE_SIZE - 1)
+                / SmsBroadcastUndelivered.RAW_TABLE_PAGE_SIZE, mProvider.mPageQueries);
+
+        // each single-part message and the complete message were broadcast once
+        Map<String, Integer> broadcast = new HashMap<String, Integer>();
+        for (InboundSmsTracker tracker : mRecovery.mBroadcast) {
+            String key = tracker.getMessageCount() == 1
+                    ? "id " + tracker.getDeleteWhereArgs()[0]
+                    : "ref " + tracker.getReferenceNumber();
+            Integer count = broadcast.get(key);
+            broadcast.put(key, count == null ? 1 : count + 1);
+        }
+        assertEquals(SINGLE_PART_MESSAGES + 1, mRecovery.mBroadcast.size());
+        assertEquals(SINGLE_PART_MESSAGES + 1, broadcast.size());
+        assertEquals(Integer.valueOf(1), broadcast.get("ref " + REF_COMPLETE));
+        assertNull(broadcast.get("ref " + REF_RECENT));
+
+        // only the segments of the expired incomplete message were deleted; the broadcast
+        // rows are deleted by the handlers once delivered
+        assertEquals(rows - 2, mProvider.mRows.size());
+        for (ContentValues row : mProvider.mRows.values()) {
+            assertFalse(Integer.valueOf(REF_EXPIRED).equals(row.getAsInteger("reference_number")));
+        }
+        assertTrue(mProvider.mRows.containsKey(300L));
+        assertTrue(mProvider.mRows.containsKey(id + 10));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.Telephony.Threads;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test cases for looking up thread IDs with Telephony.Threads, against a fake mms-sms provider
+ * that counts its queries.
+ */
+public class ThreadIdLookupTest extends AndroidTestCase {
+    private FakeThreadProvider mProvider;
+    private Context mContext;
+
+    /**
+     * Gives each distinct set of recipients a thread ID, as the threadID query does.
+     */
+    private static final class FakeThreadProvider extends MockContentProvider {
+        final AtomicInteger mQueries = new AtomicInteger();
+        private final HashMap<Set<String>, Long> mThreads = new HashMap<Set<String>, Long>();
+
+        @Override
+        public synchronized Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            mQueries.incrementAndGet();
+            Set<String> recipients = new HashSet<String>(uri.getQueryParameters("recipient"));
+            Long threadId = mThreads.get(recipients);
+            if (threadId == null) {
+                threadId = (long) mThreads.size() + 1;
+                mThreads.put(recipients, threadId);
+            }
+            MatrixCursor cursor = new MatrixCursor(projection);
+            cursor.addRow(new Object[] { threadId });
+            return cursor;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProvider = new FakeThreadProvider();
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider("mms-sms", mProvider);
+        mContext = new ContextWrapper(getContext()) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        };
+    }
+
+    private static Set<String> recipients(String... addresses) {
+        return new HashSet<String>(Arrays.asList(addresses));
+    }
+
+    @SmallTest
+    public void testThreadId() {
+        long threadId = Threads.getOrCreateThreadId(mContext, "+15555550100");
+        assertEquals(threadId, Threads.getOrCreateThreadId(mContext, "+15555550100"));
+
+        long groupId = Threads.getOrCreateThreadId(mContext,
+                recipients("+15555550100", "+15555550101"));
+        assertTrue(groupId != threadId);
+        assertEquals(groupId, Threads.getOrCreateThreadId(mContext,
+                recipients("+15555550101", "+15555550100")));
+
+        // the provider sees only the addr-spec of an email address
+        long emailId = Threads.getOrCreateThreadId(mContext, "Someone <someone@example.com>");
+        assertEquals(emailId, Threads.getOrCreateThreadId(mContext, "someone@example.com"));
+
+        // nothing is remembered between lookups, as a thread may have been deleted since
+        assertEquals(6, mProvider.mQueries.get());
+    }
+
+    @SmallTest
+    public void testBulkThreadIds() {
+        List<Set<String>> recipientSets = new ArrayList<Set<String>>();
+        for (int i = 0; i < 10; i++) {
+            recipientSets.add(recipients("+1555555010" + (i % 3)));
+        }
+        recipientSets.add(recipients("+15555550100", "+15555550101"));
+        recipientSets.add(recipients("Someone <someone@example.com>"));
+        recipientSets.add(recipients("someone@example.com"));
+        long[] threadIds = Threads.getOrCreateThreadIds(mContext, recipientSets);
+
+        assertEquals(recipientSets.size(), threadIds.length);
+        assertEquals(5, mProvider.mQueries.get());
+        for (int i = 0; i < recipientSets.size(); i++) {
+            assertEquals(Threads.getOrCreateThreadId(mContext, recipientSets.get(i)),
+                    threadIds[i]);
+        }
+    }
+
+    /**
+     * The provider queries of looking up the thread of each message of a busy inbox, where
+     * most messages are from a few senders, one message at a time and all at once.
+     */
+    @SmallTest
+    public void testPerMessageQueries() {
+        final int messages = 500;
+        final int senders = 20;
+        List<Set<String>> recipientSets = new ArrayList<Set<String>>();
+        for (int i = 0; i < messages; i++) {
+            recipientSets.add(recipients("+1555555" + (1000 + i % senders)));
+        }
+
+        long[] oneAtATime = new long[messages];
+        for (int i = 0; i < messages; i++) {
+            oneAtATime[i] = Threads.getOrCreateThreadId(mContext, recipientSets.get(i));
+        }
+        assertEquals(messages, mProvider.mQueries.get());
+
+        mProvider.mQueries.set(0);
+        assertTrue(Arrays.equals(oneAtATime,
+                Threads.getOrCreateThreadIds(mContext, recipientSets)));
+        assertEquals(senders, mProvider.mQueries.get());
+    }
+}
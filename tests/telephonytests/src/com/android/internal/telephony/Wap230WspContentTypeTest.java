@@ -870,4 +870,65 @@ public class Wap230WspContentTypeTest extends TestCase {
         WspTypeDecoder unit = new WspTypeDecoder(out.toByteArray());
         assertFalse(unit.decodeContentType(0));
     }
+
+    public void testContentParametersDoNotDisturbLatestResult() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x03);
+        out.write(SHORT_MIME_TYPE_ROLLOVER_CERTIFICATE | WSP_SHORT_INTEGER_MASK);
+        out.write(TYPED_PARAM_Q);
+        out.write(0x10);
+        out.write("text".getBytes("US-ASCII"));
+        out.write(WSP_STRING_TERMINATOR);
+
+        WspTypeDecoder unit = new WspTypeDecoder(out.toByteArray());
+        assertTrue(unit.decodeContentType(0));
+        assertTrue(unit.decodeTextString(4));
+        assertEquals("text", unit.getValueString());
+
+        Map<String, String> params = unit.getContentParameters();
+        assertEquals("16", params.get("Q"));
+        assertSame(params, unit.getContentParameters());
+        assertEquals("text", unit.getValueString());
+        assertEquals(5, unit.getDecodedDataLength());
+    }
+
+    /**
+     * Routes MMS notification, SUPL INIT and OMA-DM pushes as WapPushOverSms does: decodes the
+     * content type and finds the X-Wap-Application-Id. Routing alone, as for a push that is
+     * dropped before it's dispatched, doesn't build the content type parameters.
+     */
+    public void testRoutingDoesNotBuildParameters() throws Exception {
+        byte[][] pdus = {
+                // M-Notification.ind: application/vnd.wap.mms-message, app id 4
+                HexDump.hexStringToByteArray("010603BEAF848C82983132333400"),
+                // SUPL INIT: application/vnd.omaloc-supl-init (0x0312), app id 16
+                HexDump.hexStringToByteArray("01060603020312AF90000102030405"),
+                // OMA-DM: application/vnd.syncml.notification; charset=utf-8, app id 7
+                HexDump.hexStringToByteArray("01060603C481EAAF87C0FFEE"),
+        };
+        String[] expectedTypes = {
+                "application/vnd.wap.mms-message",
+                "application/vnd.omaloc-supl-init",
+                "application/vnd.syncml.notification",
+        };
+        int[] expectedAppIds = {4, 16, 7};
+
+        for (int j = 0; j < pdus.length; j++) {
+            WspTypeDecoder unit = new WspTypeDecoder(pdus[j]);
+            assertTrue(unit.decodeUintvarInteger(2));
+            int headerLength = (int) unit.getValue32();
+            int index = 2 + unit.getDecodedDataLength();
+            assertTrue(unit.decodeContentType(index));
+            assertSame(expectedTypes[j], unit.getValueString());
+            index += unit.getDecodedDataLength();
+            assertTrue(unit.seekXWapApplicationId(index, index + headerLength - 1));
+            assertTrue(unit.decodeXWapApplicationId((int) unit.getValue32()));
+            assertEquals(expectedAppIds[j], unit.getValue32());
+            assertNull(unit.mContentParameters);
+
+            HashMap<String, String> params = unit.getContentParameters();
+            assertEquals(j == 2 ? 1 : 0, params.size());
+            assertSame(params, unit.mContentParameters);
+        }
+    }
 }
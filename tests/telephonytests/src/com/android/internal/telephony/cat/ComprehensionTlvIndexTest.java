@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cat;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.uicc.IccUtils;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Test cases for ComprehensionTlvIndex, compared against ComprehensionTlv.decodeMany and
+ * the linear tag search CommandParamsFactory used before.
+ */
+public class ComprehensionTlvIndexTest extends AndroidTestCase {
+
+    /** SETUP MENU with a title, 8 items and an item icon list. */
+    private static final String SETUP_MENU =
+            "D06A810301250082028182850C546F6F6C6B6974204D656E758F07014974656D"
+            + "20318F07024974656D20328F07034974656D20338F07044974656D20348F0705"
+            + "4974656D20358F07064974656D20368F07074974656D20378F07084974656D20"
+            + "389F09000102030405060708";
+
+    /** DISPLAY TEXT "Toolkit Test 1", high priority, with an icon. */
+    private static final String DISPLAY_TEXT =
+            "D01E8103012180820281028D0F04546F6F6C6B6974205465737420319E020001";
+
+    /** SEND SHORT MESSAGE with an alpha id, an address and a TPDU. */
+    private static final String SEND_SMS =
+            "D037810301130082028183850753656E6420534D86099111223344556677F88B"
+            + "180100099110325476F840F40C54657374204D657373616765";
+
+    private static final String[] COMMANDS = { SETUP_MENU, DISPLAY_TEXT, SEND_SMS };
+
+    private static final int[] TAGS = {
+        ComprehensionTlvTag.COMMAND_DETAILS.value(),
+        ComprehensionTlvTag.DEVICE_IDENTITIES.value(),
+        ComprehensionTlvTag.ALPHA_ID.value(),
+        ComprehensionTlvTag.ADDRESS.value(),
+        ComprehensionTlvTag.SMS_TPDU.value(),
+        ComprehensionTlvTag.TEXT_STRING.value(),
+        ComprehensionTlvTag.ITEM.value(),
+        ComprehensionTlvTag.ITEM_ID.value(),
+        ComprehensionTlvTag.ICON_ID.value(),
+        ComprehensionTlvTag.ITEM_ICON_ID_LIST.value(),
+        ComprehensionTlvTag.TEXT_ATTRIBUTE.value(),
+    };
+
+    private static ComprehensionTlv searchForTag(int tag, List<ComprehensionTlv> ctlvs) {
+        for (ComprehensionTlv ctlv : ctlvs) {
+            if (ctlv.getTag() == tag) {
+                return ctlv;
+            }
+        }
+        return null;
+    }
+
+    private static void assertSameTlv(ComprehensionTlv expected, ComprehensionTlv actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.getTag(), actual.getTag());
+        assertEquals(expected.isComprehensionRequired(), actual.isComprehensionRequired());
+        assertEquals(expected.getLength(), actual.getLength());
+        assertEquals(expected.getValueIndex(), actual.getValueIndex());
+        assertTrue(expected.getRawValue() == actual.getRawValue());
+    }
+
+    @SmallTest
+    public void testSameAsDecodeMany() throws Exception {
+        for (String command : COMMANDS) {
+            byte[] data = IccUtils.hexStringToBytes(command);
+            List<ComprehensionTlv> ctlvs = ComprehensionTlv.decodeMany(data, 2);
+            ComprehensionTlvIndex index = ComprehensionTlvIndex.decode(data, 2);
+
+            assertEquals(ctlvs.size(), index.size());
+            for (int i = 0; i < ctlvs.size(); i++) {
+                assertSameTlv(ctlvs.get(i), index.get(i));
+            }
+            for (int tag : TAGS) {
+                assertSameTlv(searchForTag(tag, ctlvs), index.get(index.indexOf(tag)));
+            }
+        }
+    }
+
+    @SmallTest
+    public void testRepeatedTags() throws Exception {
+        ComprehensionTlvIndex index = BerTlv.decode(IccUtils.hexStringToBytes(SETUP_MENU))
+                .getComprehensionTlvIndex();
+        int items = 0;
+        for (int i = index.indexOf(ComprehensionTlvTag.ITEM.value()); i >= 0;
+                i = index.nextIndexOf(i)) {
+            assertEquals(ComprehensionTlvTag.ITEM.value(), index.getTag(i));
+            items++;
+            assertEquals(items, ValueParser.retrieveItem(index.get(i)).id);
+        }
+        assertEquals(8, items);
+        assertEquals(-1, index.indexOf(ComprehensionTlvTag.DURATION.value()));
+        assertEquals(-1, index.nextIndexOf(-1));
+    }
+
+    @SmallTest
+    public void testBerTlv() throws Exception {
+        for (String command : COMMANDS) {
+            BerTlv berTlv = BerTlv.decode(IccUtils.hexStringToBytes(command));
+            assertEquals(BerTlv.BER_PROACTIVE_COMMAND_TAG, berTlv.getTag());
+            assertTrue(berTlv.isLengthValid());
+            assertEquals(berTlv.getComprehensionTlvIndex().size(),
+                    berTlv.getComprehensionTlvs().size());
+        }
+
+        // a wrong BER-TLV length is reported, not thrown
+        String shortLength = "D01D" + DISPLAY_TEXT.substring(4);
+        BerTlv berTlv = BerTlv.decode(IccUtils.hexStringToBytes(shortLength));
+        assertFalse(berTlv.isLengthValid());
+    }
+
+    /**
+     * Decoding the commands and looking up every tag finds the same TLVs with a list and a
+     * linear search, as CommandParamsFactory did before, and with the index. The timings
+     * are in tests/hostbench, in ComprehensionTlvBenchmark.
+     */
+    @SmallTest
+    public void testDecodeAndSearch() throws Exception {
+        byte[][] commands = new byte[COMMANDS.length][];
+        for (int i = 0; i < COMMANDS.length; i++) {
+            commands[i] = IccUtils.hexStringToBytes(COMMANDS[i]);
+        }
+
+        for (byte[] data : commands) {
+            int found = 0;
+            List<ComprehensionTlv> ctlvs = ComprehensionTlv.decodeMany(data, 2);
+            for (int tag : TAGS) {
+                if (searchForTag(tag, ctlvs) != null) {
+                    found++;
+                }
+            }
+            Iterator<ComprehensionTlv> iter = ctlvs.iterator();
+            while (iter.hasNext()) {
+                if (iter.next().getTag() == ComprehensionTlvTag.ITEM.value()) {
+                    found++;
+                }
+            }
+
+            int indexFound = 0;
+            ComprehensionTlvIndex index = ComprehensionTlvIndex.decode(data, 2);
+            for (int tag : TAGS) {
+                if (index.indexOf(tag) >= 0) {
+                    indexFound++;
+                }
+            }
+            for (int i = index.indexOf(ComprehensionTlvTag.ITEM.value()); i >= 0;
+                    i = index.nextIndexOf(i)) {
+                indexFound++;
+            }
+            assertEquals(found, indexFound);
+        }
+    }
+}
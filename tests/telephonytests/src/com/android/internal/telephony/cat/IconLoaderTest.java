@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cat;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.uicc.IccFileHandler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test cases for IconLoader, loading icons from a simulated SIM that answers each read after
+ * a delay.
+ */
+public class IconLoaderTest extends AndroidTestCase {
+    private static final String TAG = "IconLoaderTest";
+
+    private static final long READ_LATENCY_MS = 30;
+    private static final int MENU_ITEMS = 8;
+
+    private static final int IMAGE_ID_BASE = 0x4F01;
+    private static final int COLOUR_RECORD = 100;
+    private static final int COLOUR_IMAGE_ID = 0x4F50;
+    private static final int CLUT_OFFSET = 0x10;
+
+    /** An 8x2 black and white icon: a white row, then alternate pixels. */
+    private static final byte[] BNW_IMAGE = { 8, 2, (byte) 0xFF, (byte) 0xAA };
+
+    /** A 4x1 colour icon, 2 bits per pixel, with a 4 entry CLUT. */
+    private static final byte[] COLOUR_IMAGE = {
+        4, 1, 2, 4, 0, CLUT_OFFSET, (byte) 0x1B
+    };
+    private static final byte[] CLUT = {
+        0, 0, 0,
+        (byte) 0xFF, 0, 0,
+        0, (byte) 0x80, 0,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF
+    };
+
+    private HandlerThread mThread;
+    private FakeFileHandler mFileHandler;
+    private IconLoader mIconLoader;
+    private static int sIccIdCount;
+
+    /**
+     * Answers the EF_IMG record and image instance reads after READ_LATENCY_MS, and counts the
+     * reads waiting for their answer.
+     */
+    private static final class FakeFileHandler extends IccFileHandler {
+        final AtomicInteger mReads = new AtomicInteger();
+        final AtomicInteger mReadsInFlight = new AtomicInteger();
+        final AtomicInteger mMaxReadsInFlight = new AtomicInteger();
+        final String mIccId;
+
+        FakeFileHandler(String iccId) {
+            super(null, null, null);
+            mIccId = iccId;
+        }
+
+        @Override
+        public String getIccId() {
+            return mIccId;
+        }
+
+        private void respond(final Message onLoaded, byte[] data) {
+            mReads.incrementAndGet();
+            int inFlight = mReadsInFlight.incrementAndGet();
+            if (inFlight > mMaxReadsInFlight.get()) {
+                mMaxReadsInFlight.set(inFlight);
+            }
+            AsyncResult.forMessage(onLoaded, data, null);
+            postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    mReadsInFlight.decrementAndGet();
+                    onLoaded.sendToTarget();
+                }
+            }, READ_LATENCY_MS);
+        }
+
+        @Override
+        public void loadEFImgLinearFixed(int recordNum, Message onLoaded) {
+            int imageId;
+            int codingScheme;
+            int length;
+            if (recordNum == COLOUR_RECORD) {
+                imageId = COLOUR_IMAGE_ID;
+                codingScheme = ImageDescriptor.CODING_SCHEME_COLOUR;
+                length = COLOUR_IMAGE.length;
+            } else {
+                imageId = IMAGE_ID_BASE + recordNum;
+                codingScheme = ImageDescriptor.CODING_SCHEME_BASIC;
+                length = BNW_IMAGE.length;
+            }
+            respond(onLoaded, new byte[] {
+                1, 8, 2, (byte) codingScheme, (byte) (imageId >> 8), (byte) imageId, 0, 0,
+                0, (byte) length
+            });
+        }
+
+        @Override
+        public void loadEFImgTransparent(int fileid, int highOffset, int lowOffset,
+                int length, Message onLoaded) {
+            if (fileid == COLOUR_IMAGE_ID) {
+                respond(onLoaded, lowOffset == CLUT_OFFSET ? CLUT : COLOUR_IMAGE);
+            } else {
+                respond(onLoaded, BNW_IMAGE);
+            }
+        }
+
+        @Override
+        protected String getEFPath(int efid) {
+            return null;
+        }
+
+        @Override
+        protected void logd(String s) {
+        }
+
+        @Override
+        protected void loge(String s) {
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mFileHandler = newFileHandler("8901000000000000" + (sIccIdCount++));
+        mIconLoader = IconLoader.getInstance(null, mFileHandler);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mIconLoader.dispose();
+        mThread.quit();
+        super.tearDown();
+    }
+
+    /** IccFileHandler is a Handler, so it's created on the test thread's looper. */
+    private FakeFileHandler newFileHandler(final String iccId) throws InterruptedException {
+        final FakeFileHandler[] fileHandler = new FakeFileHandler[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                fileHandler[0] = new FakeFileHandler(iccId);
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return fileHandler[0];
+    }
+
+    /** Load icons and wait for the result. */
+    private Object load(IconLoader iconLoader, int[] recordNumbers) throws InterruptedException {
+        final Object[] result = new Object[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        Handler handler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                result[0] = msg.obj;
+                latch.countDown();
+            }
+        };
+        if (recordNumbers.length == 1) {
+            iconLoader.loadIcon(recordNumbers[0], handler.obtainMessage());
+        } else {
+            iconLoader.loadIcons(recordNumbers, handler.obtainMessage());
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    private static int[] menuRecords() {
+        int[] recordNumbers = new int[MENU_ITEMS];
+        for (int i = 0; i < MENU_ITEMS; i++) {
+            recordNumbers[i] = i + 1;
+        }
+        return recordNumbers;
+    }
+
+    @SmallTest
+    public void testParseToBnW() {
+        Bitmap icon = IconLoader.parseToBnW(BNW_IMAGE, BNW_IMAGE.length);
+        assertEquals(8, icon.getWidth());
+        assertEquals(2, icon.getHeight());
+        for (int x = 0; x < 8; x++) {
+            assertEquals(Color.WHITE, icon.getPixel(x, 0));
+            assertEquals(x % 2 == 0 ? Color.WHITE : Color.BLACK, icon.getPixel(x, 1));
+        }
+
+        // a reused buffer larger than the icon gives the same bitmap
+        int[] pixels = new int[64];
+        assertTrue(icon.sameAs(IconLoader.parseToBnW(BNW_IMAGE, BNW_IMAGE.length, pixels)));
+    }
+
+    @SmallTest
+    public void testParseToRGB() {
+        Bitmap icon = IconLoader.parseToRGB(COLOUR_IMAGE, COLOUR_IMAGE.length, false, CLUT);
+        assertEquals(4, icon.getWidth());
+        assertEquals(1, icon.getHeight());
+        // 0x1B is the CLUT entries 0, 1, 2, 3
+        assertEquals(Color.rgb(0, 0, 0), icon.getPixel(0, 0));
+        assertEquals(Color.rgb(0xFF, 0, 0), icon.getPixel(1, 0));
+        assertEquals(Color.rgb(0, 0x80, 0), icon.getPixel(2, 0));
+        assertEquals(Color.rgb(0xFF, 0xFF, 0xFF), icon.getPixel(3, 0));
+    }
+
+    @MediumTest
+    public void testLoadIcon() throws Exception {
+        Bitmap icon = (Bitmap) load(mIconLoader, new int[] { COLOUR_RECORD });
+        assertNotNull(icon);
+        assertEquals(Color.rgb(0xFF, 0, 0), icon.getPixel(1, 0));
+        // EF_IMG record, image instance and CLUT
+        assertEquals(3, mFileHandler.mReads.get());
+
+        assertNull(load(mIconLoader, new int[] { -1 }));
+    }
+
+    /**
+     * The EF_IMG records of all the icons of a menu are read at once, rather than one icon at a
+     * time.
+     */
+    @MediumTest
+    public void testLoadMenuIcons() throws Exception {
+        Bitmap[] icons = (Bitmap[]) load(mIconLoader, menuRecords());
+
+        assertEquals(MENU_ITEMS, icons.length);
+        for (Bitmap icon : icons) {
+            assertNotNull(icon);
+        }
+        assertEquals(2 * MENU_ITEMS, mFileHandler.mReads.get());
+        int maxInFlight = mFileHandler.mMaxReadsInFlight.get();
+        assertTrue("max reads in flight " + maxInFlight, maxInFlight >= MENU_ITEMS);
+        assertEquals(0, mFileHandler.mReadsInFlight.get());
+    }
+
+    @MediumTest
+    public void testDuplicateRecordsReadOnce() throws Exception {
+        Bitmap[] icons = (Bitmap[]) load(mIconLoader, new int[] { 1, 2, 1, 2, 1 });
+        assertEquals(5, icons.length);
+        assertSame(icons[0], icons[2]);
+        assertSame(icons[1], icons[3]);
+        assertEquals(4, mFileHandler.mReads.get());
+    }
+
+    /**
+     * Icons are kept for the card when the loader is recreated, but not for another card.
+     */
+    @MediumTest
+    public void testCacheSurvivesLoader() throws Exception {
+        load(mIconLoader, menuRecords());
+        mIconLoader.dispose();
+
+        FakeFileHandler sameCard = newFileHandler(mFileHandler.getIccId());
+        mIconLoader = IconLoader.getInstance(null, sameCard);
+        Bitmap[] icons = (Bitmap[]) load(mIconLoader, menuRecords());
+        assertEquals(0, sameCard.mReads.get());
+        for (Bitmap icon : icons) {
+            assertNotNull(icon);
+        }
+
+        mIconLoader.clearCachedIcons();
+        load(mIconLoader, menuRecords());
+        assertEquals(2 * MENU_ITEMS, sameCard.mReads.get());
+        mIconLoader.dispose();
+
+        FakeFileHandler otherCard = newFileHandler(mFileHandler.getIccId() + "1");
+        mIconLoader = IconLoader.getInstance(null, otherCard);
+        load(mIconLoader, menuRecords());
+        assertEquals(2 * MENU_ITEMS, otherCard.mReads.get());
+    }
+
+    @SmallTest
+    public void testIconCacheBounded() {
+        Bitmap icon = IconLoader.parseToBnW(BNW_IMAGE, BNW_IMAGE.length);
+        int bytes = icon.getByteCount();
+        IconCache cache = new IconCache(bytes * 3);
+        for (int i = 0; i < 5; i++) {
+            cache.put("1", i, icon);
+        }
+        assertEquals(3, cache.size());
+        assertEquals(bytes * 3, cache.getBytes());
+        assertNull(cache.get("1", 0));
+        assertNotNull(cache.get("1", 4));
+
+        // nothing is cached without an ICCID
+        cache.put(null, 1, icon);
+        assertNull(cache.get(null, 1));
+
+        cache.put("2", 1, icon);
+        cache.remove("1");
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get("2", 1));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.dataconnection;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Registrant;
+import android.os.RegistrantList;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.android.internal.telephony.test.SimulatedCommands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for DataSwitchPipeline, switching data between two phones backed by
+ * SimulatedCommands.
+ */
+public class DataSwitchPipelineTest extends AndroidTestCase {
+    private static final String TAG = "DataSwitchPipelineTest";
+
+    /** How long the old phone takes to disconnect all its data. */
+    private static final long TEARDOWN_MS = 200;
+    /** How long the modem takes to answer setDataAllowed. */
+    private static final long ATTACH_MS = 50;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    /** What the phones and the switch did, in order; only touched on mThread. */
+    private final List<String> mEvents = new ArrayList<String>();
+
+    /**
+     * Stands in for a phone: answers setDataAllowed through SimulatedCommands after a delay and
+     * disconnects its data a while after data is disallowed.
+     */
+    private final class FakeDataPhone implements DataSwitchPipeline.DataPhone {
+        final SimulatedCommands mCi = new SimulatedCommands();
+        private final int mPhoneId;
+        private final RegistrantList mAllDataDisconnectedRegistrants = new RegistrantList();
+        private boolean mDataConnected;
+        final CountDownLatch mTeardownLatch = new CountDownLatch(1);
+        int mPrepareCount;
+        int mUpdateCount;
+
+        FakeDataPhone(int phoneId, boolean dataConnected) {
+            mPhoneId = phoneId;
+            mDataConnected = dataConnected;
+            mCi.setDataAllowed(dataConnected, null);
+        }
+
+        @Override
+        public void setDataAllowed(final boolean allowed, final Message response) {
+            mEvents.add((allowed ? "allow " : "disallow ") + mPhoneId);
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (allowed) {
+                        mEvents.add("allowed " + mPhoneId);
+                    }
+                    mCi.setDataAllowed(allowed, response);
+                }
+            }, ATTACH_MS);
+            if (!allowed && mDataConnected) {
+                mHandler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        mDataConnected = false;
+                        mEvents.add("disconnected " + mPhoneId);
+                        mAllDataDisconnectedRegistrants.notifyRegistrants();
+                        mTeardownLatch.countDown();
+                    }
+                }, TEARDOWN_MS);
+            }
+        }
+
+        @Override
+        public void registerForAllDataDisconnected(Handler h, int what, Object obj) {
+            Registrant r = new Registrant(h, what, obj);
+            mAllDataDisconnectedRegistrants.add(r);
+            if (!mDataConnected) {
+                r.notifyRegistrant();
+            }
+        }
+
+        @Override
+        public void unregisterForAllDataDisconnected(Handler h) {
+            mAllDataDisconnectedRegistrants.remove(h);
+        }
+
+        @Override
+        public void prepareForDataSwitch() {
+            mPrepareCount++;
+            mEvents.add("prepare " + mPhoneId);
+        }
+
+        @Override
+        public void updateDataConnectionTracker() {
+            mUpdateCount++;
+            mEvents.add("update " + mPhoneId);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    /**
+     * Switch data from phone 0 to phone 1 and check both phones once the switch and the
+     * teardown have completed.
+     *
+     * @return what the phones and the switch did, in order
+     */
+    private List<String> switchData(boolean pipelined, boolean overlapAttach)
+            throws InterruptedException {
+        final DataSwitchPipeline pipeline =
+                new DataSwitchPipeline(mThread.getLooper(), pipelined, overlapAttach);
+        final FakeDataPhone from = new FakeDataPhone(0, true);
+        final FakeDataPhone to = new FakeDataPhone(1, false);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final DataSwitchPipeline.Timings[] timings = new DataSwitchPipeline.Timings[1];
+        final Handler onComplete = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                timings[0] = (DataSwitchPipeline.Timings) ((AsyncResult) msg.obj).result;
+                mEvents.add("complete");
+                latch.countDown();
+            }
+        };
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mEvents.clear();
+                pipeline.switchData(from, to, 1, onComplete.obtainMessage());
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(from.mTeardownLatch.await(5, TimeUnit.SECONDS));
+
+        assertFalse(from.mCi.isDataAllowed());
+        assertTrue(to.mCi.isDataAllowed());
+        assertEquals(pipelined ? 1 : 0, to.mPrepareCount);
+        assertEquals(0, from.mPrepareCount);
+        assertEquals(1, to.mUpdateCount);
+        assertEquals(0, from.mUpdateCount);
+        assertSame(timings[0], pipeline.getLastTimings());
+        assertEquals(1, timings[0].mPhoneId);
+        assertEquals(pipelined, timings[0].mPipelined);
+        // an overlapped switch completes before the teardown
+        assertEquals(pipelined && overlapAttach, timings[0].mTeardownMs == -1);
+
+        // the teardown ran on mThread, so the events are all in
+        final CountDownLatch drained = new CountDownLatch(1);
+        final List<String> events = new ArrayList<String>();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                events.addAll(mEvents);
+                drained.countDown();
+            }
+        });
+        assertTrue(drained.await(5, TimeUnit.SECONDS));
+        return events;
+    }
+
+    @MediumTest
+    public void testSequentialSwitch() throws Exception {
+        assertEquals(Arrays.asList("disallow 0", "disconnected 0", "allow 1", "allowed 1",
+                "update 1", "complete"), switchData(false, false));
+    }
+
+    @MediumTest
+    public void testPipelinedSwitch() throws Exception {
+        // without overlap data is still only allowed after the teardown
+        assertEquals(Arrays.asList("prepare 1", "disallow 0", "disconnected 0", "allow 1",
+                "allowed 1", "update 1", "complete"), switchData(true, false));
+    }
+
+    @MediumTest
+    public void testOverlappedSwitch() throws Exception {
+        // the switch completes without waiting for the old phone
+        assertEquals(Arrays.asList("prepare 1", "disallow 0", "allow 1", "allowed 1",
+                "update 1", "complete", "disconnected 0"), switchData(true, true));
+    }
+
+    @MediumTest
+    public void testOverlapIgnoredWhenNotPipelined() throws Exception {
+        assertEquals(Arrays.asList("disallow 0", "disconnected 0", "allow 1", "allowed 1",
+                "update 1", "complete"), switchData(false, true));
+    }
+}
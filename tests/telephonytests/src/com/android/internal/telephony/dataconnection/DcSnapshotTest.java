@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.dataconnection;
+
+import android.net.LinkProperties;
+import android.os.Message;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.util.State;
+import com.android.internal.util.StateMachine;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for DcSnapshot, which DcAsyncChannel callers on other threads read instead of
+ * waiting in AsyncChannel.sendMessageSynchronously.
+ */
+public class DcSnapshotTest extends AndroidTestCase {
+    private static final String TAG = "DcSnapshotTest";
+
+    private static final int CMD_WORK = 1;
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    /**
+     * Stands in for a DataConnection: publishes a snapshot after each piece of work. The work
+     * blocks until the test releases it.
+     */
+    private static final class BusyStateMachine extends StateMachine {
+        volatile DcSnapshot mSnapshot = new DcSnapshot(0, true, -1, null, null, null);
+
+        volatile CountDownLatch mWorkStarted;
+        volatile CountDownLatch mWorkReleased;
+        volatile CountDownLatch mWorkDone;
+
+        private final State mDefaultState = new State() {
+            @Override
+            public boolean processMessage(Message msg) {
+                switch (msg.what) {
+                    case CMD_WORK:
+                        mWorkStarted.countDown();
+                        try {
+                            mWorkReleased.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        mSnapshot = new DcSnapshot(mSnapshot.mVersion + 1, false, msg.arg1,
+                                null, null, null);
+                        mWorkDone.countDown();
+                        break;
+                }
+                return HANDLED;
+            }
+        };
+
+        BusyStateMachine() {
+            super(TAG);
+            addState(mDefaultState);
+            setInitialState(mDefaultState);
+            start();
+        }
+    }
+
+    private BusyStateMachine mSm;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSm = new BusyStateMachine();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSm.quitNow();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testSnapshotReturnsCopies() {
+        LinkProperties lp = new LinkProperties();
+        lp.setInterfaceName("rmnet0");
+        DcSnapshot snapshot = new DcSnapshot(1, false, 1, null, lp, null);
+        lp.setInterfaceName("rmnet1");
+        assertEquals("rmnet0", snapshot.getLinkProperties().getInterfaceName());
+        snapshot.getLinkProperties().setInterfaceName("rmnet2");
+        assertEquals("rmnet0", snapshot.getLinkProperties().getInterfaceName());
+        assertNotNull(snapshot.getNetworkCapabilities());
+    }
+
+    /**
+     * A caller on another thread reads the snapshot while the state machine is blocked in its
+     * work, and sees the last published one.
+     */
+    @MediumTest
+    public void testReadWhileBusy() throws Exception {
+        final int works = 3;
+        for (int i = 0; i < works; i++) {
+            mSm.mWorkStarted = new CountDownLatch(1);
+            mSm.mWorkReleased = new CountDownLatch(1);
+            mSm.mWorkDone = new CountDownLatch(1);
+            mSm.sendMessage(CMD_WORK, i);
+            assertTrue(mSm.mWorkStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+            DcSnapshot snapshot = mSm.mSnapshot;
+            assertNotNull(snapshot);
+            assertEquals(i, snapshot.mVersion);
+            assertEquals(i - 1, snapshot.mCid);
+            // the work has not finished, so the read did not wait for it
+            assertEquals(1, mSm.mWorkDone.getCount());
+
+            mSm.mWorkReleased.countDown();
+            assertTrue(mSm.mWorkDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        assertEquals(works, mSm.mSnapshot.mVersion);
+        assertEquals(works - 1, mSm.mSnapshot.mCid);
+        assertFalse(mSm.mSnapshot.mIsInactive);
+    }
+}
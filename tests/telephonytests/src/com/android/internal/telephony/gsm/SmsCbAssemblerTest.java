@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.gsm;
+
+import android.telephony.SmsCbLocation;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Test cases for SmsCbAssembler: reassembly of GSM cell broadcast pages, expiry and the
+ * memory cap of incomplete messages, and suppression of repeated broadcasts.
+ */
+public class SmsCbAssemblerTest extends AndroidTestCase {
+    private static final SmsCbLocation sCellLocation = new SmsCbLocation("94040", 1234, 5678);
+    private static final SmsCbLocation sOtherCellLocation =
+            new SmsCbLocation("94040", 1234, 5679);
+
+    private static final int MESSAGE_ID = 0x0032;
+    private static final long PAGE_TIMEOUT_MS = 60 * 1000;
+    private static final long DUPLICATE_TIMEOUT_MS = 10 * 60 * 1000;
+
+    /**
+     * @return a GSM format page of a cell wide message
+     */
+    private static byte[] page(int serialNumber, int messageId, int pageIndex, int pageCount) {
+        byte[] pdu = new byte[88];
+        pdu[0] = (byte) (serialNumber >>> 8);
+        pdu[1] = (byte) serialNumber;
+        pdu[2] = (byte) (messageId >>> 8);
+        pdu[3] = (byte) messageId;
+        pdu[4] = 0x40;
+        pdu[5] = (byte) ((pageIndex << 4) | pageCount);
+        return pdu;
+    }
+
+    private static byte[][] add(SmsCbAssembler assembler, byte[] pdu, SmsCbLocation location,
+            long now) {
+        return assembler.addPage(new SmsCbHeader(pdu), location, pdu, now);
+    }
+
+    private static SmsCbAssembler newAssembler(int maxPageBytes) {
+        return new SmsCbAssembler(PAGE_TIMEOUT_MS, maxPageBytes, DUPLICATE_TIMEOUT_MS, 16);
+    }
+
+    @SmallTest
+    public void testReassembly() {
+        SmsCbAssembler assembler = newAssembler(SmsCbAssembler.DEFAULT_MAX_PAGE_BYTES);
+        long now = 100000;
+        byte[] page1 = page(0x1230, MESSAGE_ID, 1, 3);
+        byte[] page2 = page(0x1230, MESSAGE_ID, 2, 3);
+        byte[] page3 = page(0x1230, MESSAGE_ID, 3, 3);
+
+        assertNull(add(assembler, page3, sCellLocation, now));
+        assertNull(add(assembler, page1, sCellLocation, now));
+        assertEquals(1, assembler.getIncompleteCount());
+        assertEquals(2 * 88, assembler.getPageBytes());
+
+        byte[][] pdus = add(assembler, page2, sCellLocation, now);
+        assertNotNull(pdus);
+        assertEquals(3, pdus.length);
+        assertSame(page1, pdus[0]);
+        assertSame(page2, pdus[1]);
+        assertSame(page3, pdus[2]);
+        assertEquals(0, assembler.getIncompleteCount());
+        assertEquals(0, assembler.getPageBytes());
+        assertEquals(1, assembler.getMessagesCompleted());
+    }
+
+    /**
+     * A message is delivered once while the network repeats it, until the repetitions have
+     * been forgotten.
+     */
+    @SmallTest
+    public void testDuplicateSuppressed() {
+        SmsCbAssembler assembler = newAssembler(SmsCbAssembler.DEFAULT_MAX_PAGE_BYTES);
+        long now = 100000;
+        byte[] single = page(0x1230, MESSAGE_ID, 1, 1);
+        assertNotNull(add(assembler, single, sCellLocation, now));
+        assertNull(add(assembler, single, sCellLocation, now + 1000));
+
+        assertNull(add(assembler, page(0x2340, MESSAGE_ID, 1, 2), sCellLocation, now));
+        assertNotNull(add(assembler, page(0x2340, MESSAGE_ID, 2, 2), sCellLocation, now));
+        // the pages of a repetition aren't held
+        assertNull(add(assembler, page(0x2340, MESSAGE_ID, 1, 2), sCellLocation, now + 1000));
+        assertEquals(0, assembler.getIncompleteCount());
+        assertEquals(2, assembler.getDuplicatesSuppressed());
+
+        now += DUPLICATE_TIMEOUT_MS;
+        assertNotNull(add(assembler, single, sCellLocation, now));
+        assertEquals(3, assembler.getMessagesCompleted());
+    }
+
+    /**
+     * A new update number, another message identifier or another cell is another message.
+     */
+    @SmallTest
+    public void testDistinctMessages() {
+        SmsCbAssembler assembler = newAssembler(SmsCbAssembler.DEFAULT_MAX_PAGE_BYTES);
+        long now = 100000;
+        assertNotNull(add(assembler, page(0x1230, MESSAGE_ID, 1, 1), sCellLocation, now));
+        assertNotNull(add(assembler, page(0x1231, MESSAGE_ID, 1, 1), sCellLocation, now));
+        assertNotNull(add(assembler, page(0x1230, MESSAGE_ID + 1, 1, 1), sCellLocation, now));
+        assertNotNull(add(assembler, page(0x1230, MESSAGE_ID, 1, 1), sOtherCellLocation, now));
+        assertEquals(0, assembler.getDuplicatesSuppressed());
+
+        // pages of the same serial number and another message identifier aren't mixed up
+        assertNull(add(assembler, page(0x2340, MESSAGE_ID, 1, 2), sCellLocation, now));
+        assertNull(add(assembler, page(0x2340, MESSAGE_ID + 1, 2, 2), sCellLocation, now));
+        assertEquals(2, assembler.getIncompleteCount());
+    }
+
+    @SmallTest
+    public void testPageTimeout() {
+        SmsCbAssembler assembler = newAssembler(SmsCbAssembler.DEFAULT_MAX_PAGE_BYTES);
+        long now = 100000;
+        assertNull(add(assembler, page(0x1230, MESSAGE_ID, 1, 2), sCellLocation, now));
+        assertNull(add(assembler, page(0x2340, MESSAGE_ID, 1, 2), sCellLocation,
+                now + PAGE_TIMEOUT_MS / 2));
+
+        // the first message expires when the next page arrives, the second is still held
+        now += PAGE_TIMEOUT_MS;
+        assertNotNull(add(assembler, page(0x3450, MESSAGE_ID, 1, 1), sCellLocation, now));
+        assertEquals(1, assembler.getMessagesExpired());
+        assertEquals(1, assembler.getIncompleteCount());
+        assertNull(add(assembler, page(0x1230, MESSAGE_ID, 2, 2), sCellLocation, now));
+        assertNotNull(add(assembler, page(0x2340, MESSAGE_ID, 2, 2), sCellLocation, now));
+    }
+
+    /**
+     * The least recently updated messages are dropped to keep the pages held under the cap.
+     */
+    @SmallTest
+    public void testMaxPageBytes() {
+        SmsCbAssembler assembler = newAssembler(3 * 88);
+        long now = 100000;
+        for (int i = 0; i < 3; i++) {
+            assertNull(add(assembler, page(0x1230 + (i << 4), MESSAGE_ID, 1, 3), sCellLocation,
+                    now + i));
+        }
+        assertEquals(3, assembler.getIncompleteCount());
+
+        // updating the first message makes the second the least recently updated
+        assertNull(add(assembler, page(0x1230, MESSAGE_ID, 2, 3), sCellLocation, now + 3));
+        assertEquals(1, assembler.getMessagesEvicted());
+        assertEquals(3 * 88, assembler.getPageBytes());
+        assertNotNull(add(assembler, page(0x1230, MESSAGE_ID, 3, 3), sCellLocation, now + 4));
+        assertNull(add(assembler, page(0x1240, MESSAGE_ID, 2, 3), sCellLocation, now + 5));
+        assertEquals(2, assembler.getIncompleteCount());
+    }
+
+    @SmallTest
+    public void testRemoveOutOfLocation() {
+        SmsCbAssembler assembler = newAssembler(SmsCbAssembler.DEFAULT_MAX_PAGE_BYTES);
+        long now = 100000;
+        assertNull(add(assembler, page(0x1230, MESSAGE_ID, 1, 2), sCellLocation, now));
+        assertNull(add(assembler, page(0x2340, MESSAGE_ID, 1, 2), sOtherCellLocation, now));
+
+        assembler.removeOutOfLocation("94040", 1234, 5679);
+        assertEquals(1, assembler.getIncompleteCount());
+        assertEquals(88, assembler.getPageBytes());
+        assertNotNull(add(assembler, page(0x2340, MESSAGE_ID, 2, 2), sOtherCellLocation, now));
+    }
+}
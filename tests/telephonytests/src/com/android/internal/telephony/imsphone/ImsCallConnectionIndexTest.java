@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.imsphone;
+
+import android.os.Handler;
+import android.telephony.Rlog;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.ims.ImsCall;
+import com.android.ims.ImsCallProfile;
+import com.android.internal.telephony.TestPhoneNotifier;
+import com.android.internal.telephony.gsm.GSMPhone;
+import com.android.internal.telephony.gsm.GSMTestHandler;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Test cases for the ImsCallConnectionIndex class.
+ */
+public class ImsCallConnectionIndexTest extends AndroidTestCase {
+    private static final String TAG = "ImsCallConnectionIndexTest";
+
+    /** Stands in for an ImsPhoneConnection, which needs a running tracker. */
+    private static final class TestConnection {
+        volatile Object mCall;
+
+        TestConnection(Object call) {
+            mCall = call;
+        }
+    }
+
+    @SmallTest
+    public void testPutGetRemove() {
+        ImsCallConnectionIndex<Object, TestConnection> index =
+                new ImsCallConnectionIndex<Object, TestConnection>();
+        Object call1 = new Object();
+        Object call2 = new Object();
+        TestConnection conn1 = new TestConnection(call1);
+        TestConnection conn2 = new TestConnection(call2);
+
+        index.put(call1, conn1);
+        index.put(call2, conn2);
+        assertSame(conn1, index.get(call1));
+        assertSame(conn2, index.get(call2));
+        assertNull(index.get(new Object()));
+
+        index.remove(conn1);
+        assertNull(index.get(call1));
+        assertEquals(1, index.size());
+    }
+
+    @SmallTest
+    public void testRebind() {
+        ImsCallConnectionIndex<Object, TestConnection> index =
+                new ImsCallConnectionIndex<Object, TestConnection>();
+        Object call1 = new Object();
+        Object call2 = new Object();
+        TestConnection conn1 = new TestConnection(call1);
+        TestConnection conn2 = new TestConnection(call1);
+
+        // the connection moves to a new call session
+        index.put(call1, conn1);
+        index.put(call2, conn1);
+        assertNull(index.get(call1));
+        assertSame(conn1, index.get(call2));
+
+        // another connection takes over the call session
+        index.put(call2, conn2);
+        assertSame(conn2, index.get(call2));
+        index.remove(conn1);
+        assertSame(conn2, index.get(call2));
+        assertEquals(1, index.size());
+    }
+
+    @SmallTest
+    public void testIdentityKeys() {
+        ImsCallConnectionIndex<String, TestConnection> index =
+                new ImsCallConnectionIndex<String, TestConnection>();
+        String call = new String("call");
+        index.put(call, new TestConnection(call));
+        assertNull(index.get(new String("call")));
+    }
+
+    /**
+     * Run the tracker's ImsCall.Listener callbacks on several threads while the test thread
+     * answers, holds, merges and ends calls on the same tracker under its monitor, as its
+     * synchronized paths do, and log the callback latency. The baseline takes the tracker's
+     * monitor for each callback, as findConnection() used to.
+     */
+    @LargeTest
+    public void testConcurrentCallbacks() throws Exception {
+        long[] indexed = runConcurrentCallbacks(false);
+        long[] locked = runConcurrentCallbacks(true);
+        Rlog.d(TAG, "Callback latency while answering, holding, merging and ending calls:"
+                + " indexed average " + indexed[1] + " ns, max " + (indexed[2] / 1000) + " us ("
+                + indexed[0] + " callbacks); under the tracker's monitor average " + locked[1]
+                + " ns, max " + (locked[2] / 1000) + " us (" + locked[0] + " callbacks)");
+    }
+
+    /**
+     * @param lockTracker true to take the tracker's monitor for each callback
+     * @return the number of callbacks, their average and their maximum latency in ns
+     */
+    private long[] runConcurrentCallbacks(final boolean lockTracker) throws Exception {
+        final int slots = ImsPhoneCallTracker.MAX_CONNECTIONS;
+        final int callbackThreads = 4;
+        final int operations = 500;
+
+        // The ImsPhone creates the tracker through its real constructor. The phones, the
+        // tracker and its connections are Handlers, so they need a Looper.
+        GSMTestHandler gsmTestHandler = new GSMTestHandler(getContext());
+        gsmTestHandler.start();
+        synchronized (gsmTestHandler) {
+            while (gsmTestHandler.getGSMPhone() == null) {
+                gsmTestHandler.wait();
+            }
+        }
+        final GSMPhone gsmPhone = gsmTestHandler.getGSMPhone();
+        final ImsPhone[] created = new ImsPhone[1];
+        final CountDownLatch ready = new CountDownLatch(1);
+        new Handler(gsmTestHandler.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                created[0] = new ImsPhone(getContext(), new TestPhoneNotifier(), gsmPhone);
+                ready.countDown();
+            }
+        });
+        assertTrue(ready.await(5, TimeUnit.SECONDS));
+        final ImsPhone imsPhone = created[0];
+        final ImsPhoneCallTracker tracker = imsPhone.mCT;
+
+        final AtomicReferenceArray<ImsCall> liveCalls = new AtomicReferenceArray<ImsCall>(slots);
+        final ImsPhoneConnection[] connections = new ImsPhoneConnection[slots];
+        final ArrayList<ImsCall> endedCalls = new ArrayList<ImsCall>();
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong callbacks = new AtomicLong();
+        final AtomicLong totalLatency = new AtomicLong();
+        final AtomicLong maxLatency = new AtomicLong();
+
+        Thread[] threads = new Thread[callbackThreads];
+        for (int t = 0; t < callbackThreads; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    int i = seed;
+                    while (!done.get()) {
+                        ImsCall call = liveCalls.get(i++ % slots);
+                        if (call == null) {
+                            continue;
+                        }
+                        long start = System.nanoTime();
+                        if (lockTracker) {
+                            synchronized (tracker) {
+                                tracker.mImsCallListener.onCallHoldReceived(call);
+                            }
+                        } else {
+                            tracker.mImsCallListener.onCallHoldReceived(call);
+                        }
+                        long latency = System.nanoTime() - start;
+                        callbacks.incrementAndGet();
+                        totalLatency.addAndGet(latency);
+                        long max;
+                        while (latency > (max = maxLatency.get())
+                                && !maxLatency.compareAndSet(max, latency)) {
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        try {
+            for (int op = 0; op < operations; op++) {
+                int slot = op % slots;
+                synchronized (tracker) {
+                    switch (op % 4) {
+                        case 0:
+                            // an incoming call is answered, as onReceive() and
+                            // onCallStarted() add and activate it
+                            endCall(tracker, connections, liveCalls, endedCalls, slot);
+                            ImsCall imsCall = new ImsCall(getContext(), new ImsCallProfile());
+                            ImsPhoneConnection conn = new ImsPhoneConnection(getContext(),
+                                    imsCall, tracker, tracker.mRingingCall);
+                            tracker.addConnection(conn);
+                            conn.update(imsCall, ImsPhoneCall.State.ACTIVE);
+                            connections[slot] = conn;
+                            liveCalls.set(slot, imsCall);
+                            break;
+                        case 1:
+                            // hold, as switchWaitingOrHoldingAndActive() does before it
+                            // calls ImsCall.hold(), a binder call to the IMS service
+                            tracker.mForegroundCall.switchWith(tracker.mBackgroundCall);
+                            Thread.sleep(1);
+                            break;
+                        case 2:
+                            // the calls are merged, as onCallMerged() does; the connections
+                            // keep their ImsCalls and move to the foreground call
+                            tracker.mForegroundCall.merge(tracker.mBackgroundCall,
+                                    ImsPhoneCall.State.ACTIVE);
+                            break;
+                        default:
+                            endCall(tracker, connections, liveCalls, endedCalls, slot);
+                            break;
+                    }
+                }
+            }
+        } finally {
+            done.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        for (int i = 0; i < slots; i++) {
+            if (connections[i] != null) {
+                assertSame(connections[i], tracker.findConnection(liveCalls.get(i)));
+            }
+        }
+        for (ImsCall call : endedCalls) {
+            assertNull(tracker.findConnection(call));
+        }
+        imsPhone.dispose();
+        gsmTestHandler.cleanup();
+        gsmTestHandler.join();
+
+        long count = callbacks.get();
+        return new long[] {count, count > 0 ? totalLatency.get() / count : 0, maxLatency.get()};
+    }
+
+    /**
+     * End the call in a slot, as processCallStateChange() does for a disconnected call, except
+     * for notifying the phone.
+     */
+    private static void endCall(ImsPhoneCallTracker tracker, ImsPhoneConnection[] connections,
+            AtomicReferenceArray<ImsCall> liveCalls, ArrayList<ImsCall> endedCalls, int slot) {
+        ImsPhoneConnection conn = connections[slot];
+        if (conn == null) {
+            return;
+        }
+        endedCalls.add(liveCalls.get(slot));
+        liveCalls.set(slot, null);
+        ((ImsPhoneCall) conn.getCall()).detach(conn);
+        tracker.removeConnection(conn);
+        connections[slot] = null;
+    }
+}
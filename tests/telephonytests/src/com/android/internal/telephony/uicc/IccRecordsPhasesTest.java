@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony.uicc;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.RegistrantList;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.android.internal.telephony.test.SimulatedCommands;
+import com.android.internal.telephony.uicc.IccCardApplicationStatus.AppState;
+import com.android.internal.telephony.uicc.IccCardApplicationStatus.AppType;
+import com.android.internal.telephony.uicc.IccCardApplicationStatus.PersoSubState;
+import com.android.internal.telephony.uicc.IccCardStatus.PinState;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for loading IccRecords in two phases, with a SIM that reads one file at a time.
+ */
+public class IccRecordsPhasesTest extends AndroidTestCase {
+    private static final String TAG = "IccRecordsPhasesTest";
+
+    private static final int EVENT_ESSENTIAL_LOADED = 1;
+    private static final int EVENT_ALL_LOADED = 2;
+
+    // Roughly what reading a file takes on a SIM
+    private static final long READ_MS = 20;
+    private static final long TIMEOUT_MS = 10000;
+
+    // The files of SIMRecords, in the order it used to request them all
+    private static final String[] ALL_FILES = {
+        "IMSI", "ICCID", "MSISDN", "MBI", "AD", "MWIS", "VMWI", "CFIS", "CFF", "SPN", "SPDI",
+        "PNN", "SST", "INFO", "CSP", "GID1", "LI", "PL",
+    };
+    private static final String[] ESSENTIAL_FILES = { "IMSI", "ICCID", "AD", "SPN", "GID1" };
+
+    private HandlerThread mThread;
+    private Handler mListener;
+    private CountDownLatch mEssentialLoaded;
+    private CountDownLatch mAllLoaded;
+
+    /**
+     * Records of made-up files, read one at a time.
+     */
+    private static final class FakeRecords extends IccRecords {
+        private static final int EVENT_READ_DONE = 1000;
+
+        final boolean mTwoPhases;
+        final ArrayList<String> mLoaded = new ArrayList<String>();
+        private long mSimBusyUntil;
+        // What the card looked like when the essential registrants were notified
+        int mFilesReadAtEssential = -1;
+        boolean mAllLoadedAtEssential;
+
+        FakeRecords(UiccCardApplication app, boolean twoPhases) {
+            super(app, null, new SimulatedCommands());
+            mTwoPhases = twoPhases;
+            mEssentialRecordsLoadedRegistrants = new RegistrantList() {
+                @Override
+                public void notifyRegistrants() {
+                    onNotifyEssential();
+                    super.notifyRegistrants();
+                }
+
+                @Override
+                public void notifyRegistrants(AsyncResult ar) {
+                    onNotifyEssential();
+                    super.notifyRegistrants(ar);
+                }
+            };
+        }
+
+        private void onNotifyEssential() {
+            mFilesReadAtEssential = mLoaded.size();
+            mAllLoadedAtEssential = getRecordsLoaded();
+        }
+
+        private void read(String file) {
+            long now = SystemClock.uptimeMillis();
+            mSimBusyUntil = Math.max(now, mSimBusyUntil) + READ_MS;
+            sendMessageAtTime(obtainMessage(EVENT_READ_DONE, file), mSimBusyUntil);
+            mRecordsToLoad++;
+        }
+
+        @Override
+        public void onReady() {
+            if (mTwoPhases) {
+                startLoadingEssentialRecords();
+                for (String file : ESSENTIAL_FILES) {
+                    read(file);
+                }
+            } else {
+                mRecordsRequested = true;
+                for (String file : ALL_FILES) {
+                    read(file);
+                }
+            }
+        }
+
+        @Override
+        protected void fetchBackgroundRecords() {
+            for (String file : ALL_FILES) {
+                if (!isEssential(file)) {
+                    read(file);
+                }
+            }
+        }
+
+        private static boolean isEssential(String file) {
+            for (String essential : ESSENTIAL_FILES) {
+                if (essential.equals(file)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == EVENT_READ_DONE) {
+                mLoaded.add((String) msg.obj);
+                onRecordLoaded();
+            } else {
+                super.handleMessage(msg);
+            }
+        }
+
+        @Override
+        protected void onRecordLoaded() {
+            mRecordsToLoad -= 1;
+            if (mRecordsToLoad == 0 && mRecordsRequested) {
+                onPendingRecordsLoaded();
+            }
+        }
+
+        @Override
+        protected void onAllRecordsLoaded() {
+            if (!mTwoPhases) {
+                // as before the phases, when everything waited for all records
+                mEssentialRecordsLoadedRegistrants.notifyRegistrants();
+            }
+            mRecordsLoadedRegistrants.notifyRegistrants();
+        }
+
+        @Override
+        public void setVoiceMailNumber(String alphaTag, String voiceNumber, Message onComplete) {
+        }
+
+        @Override
+        public void setVoiceMessageWaiting(int line, int countWaiting) {
+        }
+
+        @Override
+        public void onRefresh(boolean fileChanged, int[] fileList) {
+        }
+
+        @Override
+        public int getDisplayRule(String plmn) {
+            return 0;
+        }
+
+        @Override
+        protected void log(String s) {
+            Rlog.d(TAG, s);
+        }
+
+        @Override
+        protected void loge(String s) {
+            Rlog.e(TAG, s);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mListener = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case EVENT_ESSENTIAL_LOADED:
+                        mEssentialLoaded.countDown();
+                        break;
+                    case EVENT_ALL_LOADED:
+                        mAllLoaded.countDown();
+                        break;
+                }
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quitSafely();
+        super.tearDown();
+    }
+
+    /**
+     * Creates records on the listener's thread, which becomes their thread too.
+     */
+    private FakeRecords createRecords(final boolean twoPhases) throws InterruptedException {
+        final FakeRecords[] records = new FakeRecords[1];
+        final CountDownLatch created = new CountDownLatch(1);
+        mListener.post(new Runnable() {
+            @Override
+            public void run() {
+                IccCardApplicationStatus status = new IccCardApplicationStatus();
+                status.app_type = AppType.APPTYPE_UNKNOWN;
+                status.app_state = AppState.APPSTATE_DETECTED;
+                status.perso_substate = PersoSubState.PERSOSUBSTATE_UNKNOWN;
+                status.pin1 = PinState.PINSTATE_UNKNOWN;
+                status.pin2 = PinState.PINSTATE_UNKNOWN;
+                UiccCardApplication app = new UiccCardApplication(null, status, getContext(),
+                        new SimulatedCommands());
+                records[0] = new FakeRecords(app, twoPhases);
+                created.countDown();
+            }
+        });
+        assertTrue(created.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        return records[0];
+    }
+
+    /**
+     * Loads the records and waits for both registrants.
+     */
+    private FakeRecords load(boolean twoPhases) throws InterruptedException {
+        final FakeRecords records = createRecords(twoPhases);
+        mEssentialLoaded = new CountDownLatch(1);
+        mAllLoaded = new CountDownLatch(1);
+        records.registerForEssentialRecordsLoaded(mListener, EVENT_ESSENTIAL_LOADED, records);
+        records.registerForRecordsLoaded(mListener, EVENT_ALL_LOADED, null);
+
+        records.post(new Runnable() {
+            @Override
+            public void run() {
+                records.onReady();
+            }
+        });
+        assertTrue(mEssentialLoaded.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(mAllLoaded.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(ALL_FILES.length, records.mLoaded.size());
+        assertTrue(records.getEssentialRecordsLoaded());
+        return records;
+    }
+
+    @MediumTest
+    public void testTwoPhases() throws Exception {
+        FakeRecords records = load(true);
+        // the registrants hear of the essential records as soon as they're read, and the
+        // background records are already requested by then
+        assertEquals(ESSENTIAL_FILES.length, records.mFilesReadAtEssential);
+        assertFalse(records.mAllLoadedAtEssential);
+
+        // registering after the essential records are loaded notifies at once
+        records = createRecords(true);
+        records.mEssentialRecordsLoaded = true;
+        mEssentialLoaded = new CountDownLatch(1);
+        records.registerForEssentialRecordsLoaded(mListener, EVENT_ESSENTIAL_LOADED, records);
+        assertTrue(mEssentialLoaded.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Without the phases, the records are only usable when the last file is read.
+     */
+    @MediumTest
+    public void testOnePhase() throws Exception {
+        FakeRecords records = load(false);
+        assertEquals(ALL_FILES.length, records.mFilesReadAtEssential);
+        assertTrue(records.mAllLoadedAtEssential);
+    }
+}
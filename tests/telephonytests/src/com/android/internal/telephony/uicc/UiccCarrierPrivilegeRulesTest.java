@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test cases for parsing and matching the access rules in UiccCarrierPrivilegeRules.
+ */
+public class UiccCarrierPrivilegeRulesTest extends AndroidTestCase {
+    private static final String CERT_HASH_1 = "0102030405060708090a0b0c0d0e0f1011121314";
+    private static final String CERT_HASH_2 = "a1a2a3a4a5a6a7a8a9aaabacadaeafb0b1b2b3b4";
+    private static final String PERM_AR_DO = "E30ADB080000000000000001";
+
+    /** Encode a TLV with a BER length. */
+    private static String tlv(String tag, String value) {
+        int length = value.length() / 2;
+        String lengthHex;
+        if (length <= 0x7F) {
+            lengthHex = String.format("%02X", length);
+        } else if (length <= 0xFF) {
+            lengthHex = String.format("81%02X", length);
+        } else {
+            lengthHex = String.format("82%04X", length);
+        }
+        return tag + lengthHex + value;
+    }
+
+    private static String rule(String certHash, String packageName) {
+        String refDo = tlv("C1", certHash);
+        if (packageName != null) {
+            refDo += tlv("CA", IccUtils.bytesToHexString(packageName.getBytes()));
+        }
+        return tlv("E2", tlv("E1", refDo) + PERM_AR_DO);
+    }
+
+    private static List<UiccCarrierPrivilegeRules.AccessRule> parse(String hex) {
+        return UiccCarrierPrivilegeRules.parseRules(IccUtils.hexStringToBytes(hex));
+    }
+
+    @SmallTest
+    public void testParseRules() {
+        List<UiccCarrierPrivilegeRules.AccessRule> rules = parse(tlv("FF40",
+                rule(CERT_HASH_1, "com.example.carrier") + rule(CERT_HASH_2, null)));
+        assertEquals(2, rules.size());
+        assertEquals(CERT_HASH_1, IccUtils.bytesToHexString(rules.get(0).certificateHash));
+        assertEquals("com.example.carrier", rules.get(0).packageName);
+        assertEquals(CERT_HASH_2, IccUtils.bytesToHexString(rules.get(1).certificateHash));
+        assertNull(rules.get(1).packageName);
+    }
+
+    @SmallTest
+    public void testParseLongForm() {
+        // enough rules for the FF40 length to need two bytes
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            sb.append(rule(CERT_HASH_1, "com.example.carrier" + i));
+        }
+        List<UiccCarrierPrivilegeRules.AccessRule> rules = parse(tlv("FF40", sb.toString()));
+        assertEquals(10, rules.size());
+        assertEquals("com.example.carrier9", rules.get(9).packageName);
+    }
+
+    @SmallTest
+    public void testSkipUnrelatedRule() {
+        String unrelated = tlv("E2", tlv("E1", tlv("4F", "A000000151")) + PERM_AR_DO);
+        List<UiccCarrierPrivilegeRules.AccessRule> rules = parse(tlv("FF40",
+                unrelated + rule(CERT_HASH_1, null)));
+        assertEquals(1, rules.size());
+    }
+
+    @SmallTest
+    public void testParseInvalidRules() {
+        String[] invalid = {
+            "",
+            "FF",
+            "FF40",
+            "E200",
+            "FF4005E203",
+            tlv("FF40", rule(CERT_HASH_1, null)) + "00",
+        };
+        for (String hex : invalid) {
+            try {
+                parse(hex);
+                fail("Parsed " + hex);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @SmallTest
+    public void testFindMatchingRule() {
+        Map<String, List<UiccCarrierPrivilegeRules.AccessRule>> index =
+                UiccCarrierPrivilegeRules.indexRules(parse(tlv("FF40",
+                        rule(CERT_HASH_1, "com.example.carrier") + rule(CERT_HASH_2, null))));
+        assertNotNull(UiccCarrierPrivilegeRules.findMatchingRule(index, CERT_HASH_1,
+                "com.example.carrier"));
+        assertNull(UiccCarrierPrivilegeRules.findMatchingRule(index, CERT_HASH_1,
+                "com.example.other"));
+        assertNotNull(UiccCarrierPrivilegeRules.findMatchingRule(index, CERT_HASH_2,
+                "com.example.other"));
+        assertNull(UiccCarrierPrivilegeRules.findMatchingRule(index,
+                "0000000000000000000000000000000000000000", "com.example.carrier"));
+    }
+}
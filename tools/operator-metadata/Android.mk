@@ -0,0 +1,69 @@
+# Copyright (C) 2015 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# The operator metadata store, /system/etc/operator-metadata.bin, and the host tool that
+# compiles it from the SPN overrides, ERI file and SMS short code patterns. eri.xml and
+# sms_short_codes.xml are taken from the product's package overlays when they have them, or
+# from OPERATOR_METADATA_ERI and OPERATOR_METADATA_SHORT_CODES; a product with a partner
+# spn-conf.xml sets OPERATOR_METADATA_SPN_CONF. The store records the checksums of the two
+# resources in framework-res.apk, and the telephony framework parses a resource instead when
+# the device resolves another one, from a runtime overlay or for another configuration. Add
+# operator-metadata.bin to PRODUCT_PACKAGES to install it; without it the telephony framework
+# parses the XML as before.
+
+LOCAL_PATH := $(call my-dir)
+
+include $(CLEAR_VARS)
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+	../../src/java/com/android/internal/telephony/OperatorMetadataFormat.java
+
+LOCAL_JAR_MANIFEST := manifest.txt
+LOCAL_MODULE_TAGS := optional
+LOCAL_MODULE := operator-metadata-compiler
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := operator-metadata.bin
+LOCAL_MODULE_CLASS := ETC
+LOCAL_MODULE_TAGS := optional
+LOCAL_MODULE_PATH := $(TARGET_OUT_ETC)
+
+include $(BUILD_SYSTEM)/base_rules.mk
+
+operator_metadata_compiler := \
+	$(HOST_OUT_JAVA_LIBRARIES)/operator-metadata-compiler$(COMMON_JAVA_PACKAGE_SUFFIX)
+operator_metadata_framework_res := $(TARGET_OUT_JAVA_LIBRARIES)/framework-res.apk
+# The file aapt takes for a framework resource: from the first overlay that has it
+operator_metadata_resource = $(firstword $(wildcard $(foreach dir, \
+	$(PRODUCT_PACKAGE_OVERLAYS) $(DEVICE_PACKAGE_OVERLAYS), \
+	$(dir)/frameworks/base/core/res/res/xml/$(1))) frameworks/base/core/res/res/xml/$(1))
+operator_metadata_eri := \
+	$(or $(OPERATOR_METADATA_ERI),$(call operator_metadata_resource,eri.xml))
+operator_metadata_short_codes := \
+	$(or $(OPERATOR_METADATA_SHORT_CODES),$(call operator_metadata_resource,sms_short_codes.xml))
+
+$(LOCAL_BUILT_MODULE): PRIVATE_ARGS := \
+	--eri $(operator_metadata_eri) \
+	--short-codes $(operator_metadata_short_codes) \
+	--framework-res $(operator_metadata_framework_res) \
+	$(if $(OPERATOR_METADATA_SPN_CONF),--spn-conf $(OPERATOR_METADATA_SPN_CONF))
+$(LOCAL_BUILT_MODULE): $(operator_metadata_compiler) $(operator_metadata_eri) \
+		$(operator_metadata_short_codes) $(operator_metadata_framework_res) \
+		$(OPERATOR_METADATA_SPN_CONF)
+	@echo "Operator metadata: $@"
+	$(hide) mkdir -p $(dir $@)
+	$(hide) java -jar $< $(PRIVATE_ARGS) -o $@
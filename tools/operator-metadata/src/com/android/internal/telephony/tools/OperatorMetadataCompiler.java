@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony.tools;
+
+import com.android.internal.telephony.OperatorMetadataFormat;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Compiles the operator metadata store from spn-conf.xml, eri.xml and sms_short_codes.xml.
+ * Each input is optional, and its section is only written when it's given.
+ *
+ * The framework reads eri.xml and sms_short_codes.xml as resources, so their attributes are
+ * unescaped the way aapt does; spn-conf.xml is read as a plain file, so it isn't. The store
+ * records the checksums of those resources as compiled into the framework-res.apk given with
+ * --framework-res, and the framework only uses their sections when it resolves the same ones.
+ */
+public final class OperatorMetadataCompiler {
+    private static final String USAGE = "usage: operator-metadata-compiler"
+            + " [--spn-conf spn-conf.xml] [--eri eri.xml]"
+            + " [--short-codes sms_short_codes.xml] [--framework-res framework-res.apk]"
+            + " -o operator-metadata.bin";
+
+    private OperatorMetadataCompiler() {
+    }
+
+    public static void main(String[] args) {
+        String spnConf = null;
+        String eri = null;
+        String shortCodes = null;
+        String frameworkRes = null;
+        String output = null;
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                usage();
+            }
+            switch (args[i]) {
+                case "--spn-conf":
+                    spnConf = args[++i];
+                    break;
+                case "--eri":
+                    eri = args[++i];
+                    break;
+                case "--short-codes":
+                    shortCodes = args[++i];
+                    break;
+                case "--framework-res":
+                    frameworkRes = args[++i];
+                    break;
+                case "-o":
+                    output = args[++i];
+                    break;
+                default:
+                    usage();
+            }
+        }
+        if (output == null) {
+            usage();
+        }
+
+        OperatorMetadataFormat.Writer writer = new OperatorMetadataFormat.Writer();
+        try {
+            if (spnConf != null) {
+                compileSpnConf(parse(spnConf), writer);
+            }
+            if (eri != null) {
+                compileEri(parse(eri), writer);
+            }
+            if (shortCodes != null) {
+                compileShortCodes(parse(shortCodes), writer);
+            }
+            if (eri != null || shortCodes != null) {
+                if (frameworkRes == null) {
+                    System.err.println("warning: without --framework-res, the framework won't"
+                            + " use the ERI and short codes sections");
+                } else {
+                    ZipFile apk = new ZipFile(frameworkRes);
+                    try {
+                        if (eri != null) {
+                            addResourceChecksum(apk, OperatorMetadataFormat.ERI_RESOURCE,
+                                    writer);
+                        }
+                        if (shortCodes != null) {
+                            addResourceChecksum(apk,
+                                    OperatorMetadataFormat.SHORT_CODES_RESOURCE, writer);
+                        }
+                    } finally {
+                        apk.close();
+                    }
+                }
+            }
+            byte[] store = writer.toByteArray();
+            FileOutputStream out = new FileOutputStream(output);
+            try {
+                out.write(store);
+            } finally {
+                out.close();
+            }
+            System.out.println(output + ": " + store.length + " bytes, "
+                    + writer.getSpnOverrideCount() + " SPN overrides, "
+                    + writer.getEriInfoCount() + " ERI entries, "
+                    + writer.getShortCodesCount() + " short code countries");
+        } catch (IOException | SAXException | ParserConfigurationException
+                | IllegalArgumentException e) {
+            System.err.println("operator-metadata-compiler: " + e.getMessage());
+            new File(output).delete();
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    private static Element parse(String path)
+            throws IOException, SAXException, ParserConfigurationException {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new File(path));
+        return document.getDocumentElement();
+    }
+
+    /**
+     * Records the checksum of a compiled resource. The zip entry has the CRC-32 of its
+     * uncompressed bytes, which is what the framework computes.
+     */
+    private static void addResourceChecksum(ZipFile apk, String path,
+            OperatorMetadataFormat.Writer writer) {
+        ZipEntry entry = apk.getEntry(path);
+        if (entry == null || entry.getCrc() < 0) {
+            throw new IllegalArgumentException(apk.getName() + " has no " + path);
+        }
+        writer.setResourceChecksum(path, entry.getCrc());
+    }
+
+    private static void checkRoot(Element root, String name) {
+        if (!name.equals(root.getTagName())) {
+            throw new IllegalArgumentException("Expected <" + name + "> but found <"
+                    + root.getTagName() + ">");
+        }
+    }
+
+    /**
+     * @return The value of an attribute, or null if the element doesn't have it
+     */
+    private static String getAttribute(Element element, String name, boolean resource) {
+        if (!element.hasAttribute(name)) {
+            return null;
+        }
+        String value = element.getAttribute(name);
+        return resource ? unescape(value) : value;
+    }
+
+    private static int getIntAttribute(Element element, String name) {
+        String value = getAttribute(element, name, true);
+        if (value == null) {
+            throw new IllegalArgumentException("<" + element.getTagName() + "> without "
+                    + name);
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad " + name + " \"" + value + "\"");
+        }
+    }
+
+    private static void compileSpnConf(Element root, OperatorMetadataFormat.Writer writer) {
+        checkRoot(root, "spnOverrides");
+        for (Element element : children(root)) {
+            if (!"spnOverride".equals(element.getTagName())) {
+                // SpnOverride stops at the first other element
+                break;
+            }
+            writer.addSpnOverride(getAttribute(element, "numeric", false),
+                    getAttribute(element, "spn", false));
+        }
+    }
+
+    private static void compileEri(Element root, OperatorMetadataFormat.Writer writer) {
+        checkRoot(root, "EriFile");
+        int numberOfEntries = getIntAttribute(root, "NumberOfEriEntries");
+        writer.setEriFile(getIntAttribute(root, "VersionNumber"), numberOfEntries,
+                getIntAttribute(root, "EriFileType"));
+        for (Element element : children(root)) {
+            String name = element.getTagName();
+            if ("CallPromptId".equals(name)) {
+                writer.setEriCallPrompt(getIntAttribute(element, "Id"),
+                        getAttribute(element, "CallPromptText", true));
+            } else if ("EriInfo".equals(name)) {
+                writer.addEriInfo(getIntAttribute(element, "RoamingIndicator"),
+                        getIntAttribute(element, "IconIndex"),
+                        getIntAttribute(element, "IconMode"),
+                        getAttribute(element, "EriText", true),
+                        getIntAttribute(element, "CallPromptId"),
+                        getIntAttribute(element, "AlertId"));
+            }
+        }
+        if (writer.getEriInfoCount() != numberOfEntries) {
+            System.err.println("warning: " + numberOfEntries + " ERI entries defined, "
+                    + writer.getEriInfoCount() + " found");
+        }
+    }
+
+    private static void compileShortCodes(Element root, OperatorMetadataFormat.Writer writer) {
+        checkRoot(root, "shortcodes");
+        for (Element element : children(root)) {
+            if (!"shortcode".equals(element.getTagName())) {
+                System.err.println("warning: skipping <" + element.getTagName() + ">");
+                continue;
+            }
+            String country = getAttribute(element, "country", true);
+            if (!writer.addShortCodes(country, getAttribute(element, "pattern", true),
+                    getAttribute(element, "premium", true), getAttribute(element, "free", true),
+                    getAttribute(element, "standard", true))) {
+                System.err.println("warning: ignoring second <shortcode> for " + country);
+            }
+        }
+    }
+
+    private static Iterable<Element> children(Element parent) {
+        ArrayList<Element> children = new ArrayList<Element>();
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Processes the value of a resource attribute as aapt does: whitespace outside of double
+     * quotes is collapsed to one space, the quotes are removed, and backslash escapes are
+     * replaced.
+     */
+    static String unescape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        boolean quoted = false;
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!quoted && Character.isWhitespace(c)) {
+                if (!space) {
+                    sb.append(' ');
+                    space = true;
+                }
+                continue;
+            }
+            space = false;
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == '\\' && i + 1 < value.length()) {
+                c = value.charAt(++i);
+                switch (c) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (i + 4 < value.length()) {
+                            sb.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                            i += 4;
+                        }
+                        break;
+                    default:
+                        sb.append(c);
+                        break;
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}